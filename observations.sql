@@ -127,13 +127,15 @@ GRANT SELECT ON TABLE public.imports TO observations_write;
 
 
 --- Revised observations table
+--- The migrate command converts this table to a table partitioned by
+--- year of corrected_utc_time (see DeployNotes.md)
 
 CREATE TABLE public.observations (
     id uuid DEFAULT uuid_generate_v4() NOT NULL,
     device_id uuid NOT NULL,
     sensor_id uuid NOT NULL,
     import_id uuid,
-    import_key text,
+    import_key uuid,
     observation_type varchar,
     unit_of_measure varchar,
     accuracy numeric,
@@ -150,7 +152,11 @@ CREATE TABLE public.observations (
 
 CREATE INDEX observations_import_key ON observations USING btree (import_key);
 
-CREATE INDEX observations_corrected_utc_time ON observations USING btree (corrected_utc_time);
+CREATE INDEX observations_corrected_utc_time ON observations USING btree (corrected_utc_time, id);
+
+CREATE INDEX observations_sensor_time ON observations USING btree (sensor_id, corrected_utc_time, id);
+
+CREATE INDEX observations_device_time ON observations USING btree (device_id, corrected_utc_time, id);
 
 CREATE INDEX observations_unit_of_measure ON observations USING btree (unit_of_measure);
 
@@ -203,6 +209,58 @@ CREATE TABLE public.logs(
 );
 ALTER TABLE public.logs OWNER TO observations_admin;
 
+CREATE TABLE public.import_jobs(
+	id uuid NOT NULL DEFAULT uuid_generate_v4(),
+	state varchar NOT NULL,
+	filename varchar NOT NULL,
+	original_filename varchar,
+	job_parameters text,
+	created_time timestamp WITH TIME ZONE NOT NULL,
+	started_time timestamp WITH TIME ZONE,
+	ended_time timestamp WITH TIME ZONE,
+	import_id uuid,
+	error_message text,
+	CONSTRAINT import_jobs_pk PRIMARY KEY (id)
+
+);
+ALTER TABLE public.import_jobs OWNER TO observations_admin;
+
+CREATE INDEX import_jobs_created_time_idx ON public.import_jobs (created_time);
+
+--- Hourly and daily summaries of numeric values, per sensor
+
+CREATE TABLE public.observations_hourly(
+	sensor_id uuid NOT NULL,
+	device_id uuid NOT NULL,
+	start_time timestamp WITH TIME ZONE NOT NULL,
+	value_count bigint NOT NULL,
+	min_value double precision,
+	max_value double precision,
+	sum_value double precision,
+	first_time timestamp WITH TIME ZONE,
+	last_time timestamp WITH TIME ZONE,
+	CONSTRAINT observations_hourly_pk PRIMARY KEY (sensor_id, start_time)
+);
+ALTER TABLE public.observations_hourly OWNER TO observations_admin;
+
+CREATE INDEX observations_hourly_device_idx ON public.observations_hourly (device_id, start_time);
+
+CREATE TABLE public.observations_daily(
+	sensor_id uuid NOT NULL,
+	device_id uuid NOT NULL,
+	start_time timestamp WITH TIME ZONE NOT NULL,
+	value_count bigint NOT NULL,
+	min_value double precision,
+	max_value double precision,
+	sum_value double precision,
+	first_time timestamp WITH TIME ZONE,
+	last_time timestamp WITH TIME ZONE,
+	CONSTRAINT observations_daily_pk PRIMARY KEY (sensor_id, start_time)
+);
+ALTER TABLE public.observations_daily OWNER TO observations_admin;
+
+CREATE INDEX observations_daily_device_idx ON public.observations_daily (device_id, start_time);
+
 
 ALTER TABLE public.devices_locations ADD CONSTRAINT device_location_fk_device FOREIGN KEY (device_id)
 REFERENCES public.devices (id) MATCH FULL
@@ -241,7 +299,10 @@ GRANT SELECT on sets to observations_read;
 GRANT SELECT on locations to observations_read;
 GRANT SELECT on logs to observations_read;
 GRANT SELECT on imports to observations_read;
+GRANT SELECT on import_jobs to observations_read;
 GRANT SELECT on observations to observations_read;
+GRANT SELECT on observations_hourly to observations_read;
+GRANT SELECT on observations_daily to observations_read;
 GRANT SELECT on observations_sets to observations_read;
 GRANT SELECT on sensors to observations_read;
 
@@ -253,7 +314,10 @@ GRANT SELECT, INSERT, UPDATE, DELETE on locations to observations_write;
 GRANT SELECT, INSERT, UPDATE, DELETE on sets to observations_write;
 GRANT SELECT, INSERT, UPDATE, DELETE on logs to observations_write;
 GRANT SELECT, INSERT, UPDATE, DELETE on imports to observations_write;
+GRANT SELECT, INSERT, UPDATE, DELETE on import_jobs to observations_write;
 GRANT SELECT, INSERT, UPDATE, DELETE on observations to observations_write;
+GRANT SELECT, INSERT, UPDATE, DELETE on observations_hourly to observations_write;
+GRANT SELECT, INSERT, UPDATE, DELETE on observations_daily to observations_write;
 GRANT SELECT, INSERT, UPDATE, DELETE on observations_sets to observations_write;
 GRANT SELECT, INSERT, UPDATE, DELETE on sensors to observations_write;
 
@@ -0,0 +1,115 @@
+package ca.carleton.gcrc.sensorDb.command;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Stack;
+
+import ca.carleton.gcrc.sensorDb.command.impl.SchemaMigration;
+import ca.carleton.gcrc.sensorDb.command.impl.SchemaMigrator;
+import ca.carleton.gcrc.sensorDb.jdbc.DbConnection;
+
+public class CommandMigrate implements Command {
+
+	@Override
+	public String getCommandString() {
+		return "migrate";
+	}
+
+	@Override
+	public boolean matchesKeyword(String keyword) {
+		if( getCommandString().equalsIgnoreCase(keyword) ) {
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isDeprecated() {
+		return false;
+	}
+
+	@Override
+	public boolean requiresServerDir() {
+		return true;
+	}
+
+	@Override
+	public void reportHelp(PrintStream ps) {
+		ps.println("SensorDb - Migrate Command");
+		ps.println();
+		ps.println("The migrate command applies to the database the schema");
+		ps.println("migrations that it has not received yet. It should be run");
+		ps.println("after the database is created with observations.sql, and");
+		ps.println("each time the server is upgraded.");
+		ps.println();
+		ps.println("Command Syntax:");
+		ps.println("  sensorDb [<global-options>] migrate [--status]");
+		ps.println();
+		ps.println("Options");
+		ps.println("  --status  Lists the migrations and whether they are applied,");
+		ps.println("            without changing the database");
+		ps.println();
+		ps.println("Global Options");
+		CommandHelp.reportGlobalSettingServerDir(ps);
+	}
+
+	@Override
+	public void runCommand(
+		GlobalSettings gs
+		,Stack<String> argumentStack
+		) throws Exception {
+
+		boolean statusOnly = false;
+		while( false == argumentStack.empty() ){
+			String optionName = argumentStack.pop();
+			if( "--status".equals(optionName) ){
+				statusOnly = true;
+			} else {
+				throw new Exception("Unexpected option for migrate command: "+optionName);
+			}
+		}
+
+		File serverDir = gs.getServerDir();
+
+		ServerProperties serverProperties = ServerProperties.fromServerDir(serverDir);
+
+		DbConnection dbConnection =
+				DbConnection.fromParameters(
+						serverProperties.getDbConnection(),
+						serverProperties.getDbUser(),
+						serverProperties.getDbPassword(),
+						serverProperties.getDbPoolSettings()
+				);
+		try {
+			SchemaMigrator migrator = new SchemaMigrator(dbConnection);
+			PrintStream out = gs.getOutStream();
+
+			if( statusOnly ){
+				List<SchemaMigration> pending = migrator.getPendingMigrations();
+				for(SchemaMigration migration : SchemaMigrator.MIGRATIONS){
+					String state = pending.contains(migration) ? "pending" : "applied";
+					out.println(migration+" "+state);
+				}
+				return;
+			}
+
+			for(SchemaMigration migration : migrator.getPendingMigrations()){
+				long start = System.currentTimeMillis();
+				migrator.applyMigration(migration);
+				long end = System.currentTimeMillis();
+				out.println("Applied "+migration+" in "+(end-start)+" ms");
+			}
+
+			int created = migrator.maintainObservationPartitions();
+			if( created > 0 ){
+				out.println("Created "+created+" observation partition(s)");
+			}
+
+			out.println("Database schema is up to date");
+
+		} finally {
+			dbConnection.close();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package ca.carleton.gcrc.sensorDb.command;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Stack;
+
+import ca.carleton.gcrc.sensorDb.dbapi.DbAPI;
+import ca.carleton.gcrc.sensorDb.jdbc.DbConnection;
+
+public class CommandRebuildRollups implements Command {
+
+	@Override
+	public String getCommandString() {
+		return "rebuildRollups";
+	}
+
+	@Override
+	public boolean matchesKeyword(String keyword) {
+		if( getCommandString().equalsIgnoreCase(keyword) ) {
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean isDeprecated() {
+		return false;
+	}
+
+	@Override
+	public boolean requiresServerDir() {
+		return true;
+	}
+
+	@Override
+	public void reportHelp(PrintStream ps) {
+		ps.println("SensorDb - Rebuild Rollups Command");
+		ps.println();
+		ps.println("The rebuild rollups command recomputes the hourly and daily");
+		ps.println("summaries of all observations in the database. Imports keep");
+		ps.println("the summaries up to date. This command is needed after the");
+		ps.println("rollup tables are created on an existing database.");
+		ps.println();
+		ps.println("Command Syntax:");
+		ps.println("  sensorDb [<global-options>] rebuildRollups");
+		ps.println();
+		ps.println("Global Options");
+		CommandHelp.reportGlobalSettingServerDir(ps);
+	}
+
+	@Override
+	public void runCommand(
+		GlobalSettings gs
+		,Stack<String> argumentStack
+		) throws Exception {
+		
+		File serverDir = gs.getServerDir();
+
+		ServerProperties serverProperties = ServerProperties.fromServerDir(serverDir);
+		
+		DbConnection dbConnection = 
+				DbConnection.fromParameters(
+						serverProperties.getDbConnection(), 
+						serverProperties.getDbUser(), 
+						serverProperties.getDbPassword(), 
+						serverProperties.getDbPoolSettings()
+				);
+		try {
+			DbAPI dbAPI = dbConnection.getAPI();
+			
+			long start = System.currentTimeMillis();
+			dbAPI.rebuildObservationRollups();
+			long end = System.currentTimeMillis();
+			
+			gs.getOutStream().println("Rollups rebuilt in "+(end-start)+" ms");
+			
+		} finally {
+			dbConnection.close();
+		}
+	}
+}
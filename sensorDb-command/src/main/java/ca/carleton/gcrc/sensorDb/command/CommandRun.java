@@ -2,7 +2,9 @@ package ca.carleton.gcrc.sensorDb.command;
 
 import java.io.File;
 import java.io.PrintStream;
+import java.util.List;
 import java.util.Stack;
+import java.util.Timer;
 
 import javax.servlet.http.HttpServlet;
 
@@ -17,11 +19,13 @@ import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
+import ca.carleton.gcrc.sensorDb.command.impl.PartitionMaintenanceTask;
+import ca.carleton.gcrc.sensorDb.command.impl.SchemaMigration;
+import ca.carleton.gcrc.sensorDb.command.impl.SchemaMigrator;
 import ca.carleton.gcrc.sensorDb.html.HtmlServletFactory;
 import ca.carleton.gcrc.sensorDb.jdbc.DbConnection;
 import ca.carleton.gcrc.sensorDb.servlet.db.DbServlet;
 import ca.carleton.gcrc.sensorDb.upload.observations.SensorFileUploaded;
-import ca.carleton.gcrc.upload.OnUploadedListener;
 import ca.carleton.gcrc.upload.UploadServlet;
 
 
@@ -111,7 +115,30 @@ public class CommandRun implements Command {
 		String dbUser = serverProperties.getDbUser();
 		String dbPassword = serverProperties.getDbPassword();
 		DbConnection dbConnection = 
-				DbConnection.fromParameters(connectionString, dbUser, dbPassword);
+				DbConnection.fromParameters(
+						connectionString, 
+						dbUser, 
+						dbPassword, 
+						serverProperties.getDbPoolSettings()
+				);
+		dbConnection.setFetchSize( serverProperties.getDbFetchSize() );
+
+		// Schema migrations are applied with the migrate command
+		SchemaMigrator migrator = new SchemaMigrator(dbConnection);
+		{
+			List<SchemaMigration> pending = migrator.getPendingMigrations();
+			if( pending.size() > 0 ){
+				Logger.getRootLogger().warn("Schema migrations not applied to database: "+pending
+						+". Run the migrate command.");
+			}
+
+			Timer partitionTimer = new Timer("PartitionMaintenance", true);
+			partitionTimer.schedule(
+					new PartitionMaintenanceTask(migrator),
+					0,
+					PartitionMaintenanceTask.PERIOD_MS
+			);
+		}
 		
 		// Figure out media directory
 		File mediaDir = new File(serverDir, "media");
@@ -159,10 +186,15 @@ public class CommandRun implements Command {
 
         // Servlet for uploading observations
         {
-        	OnUploadedListener onUploadedListener = new SensorFileUploaded(dbConnection);
+        	SensorFileUploaded sensorFileUploaded = new SensorFileUploaded(
+        			dbConnection,
+        			serverProperties.getImportWorkers(),
+        			serverProperties.getImportQueueSize()
+        	);
+        	sensorFileUploaded.resumeImportJobs();
         	
         	UploadServlet uploadServlet = new UploadServlet();
-        	uploadServlet.setOnUploadedListener(onUploadedListener);
+        	uploadServlet.setOnUploadedListener(sensorFileUploaded);
         	uploadServlet.setRepositoryDir(mediaDir);
         	
         	ServletHolder servletHolder = new ServletHolder(uploadServlet);
@@ -28,7 +28,9 @@ public class Main {
 			allCommands.add( new CommandHelp() );
 			allCommands.add( new CommandCreate() );
 			allCommands.add( new CommandConfig() );
+			allCommands.add( new CommandMigrate() );
 			allCommands.add( new CommandRun() );
+			allCommands.add( new CommandRebuildRollups() );
 		}
 		
 		return allCommands;
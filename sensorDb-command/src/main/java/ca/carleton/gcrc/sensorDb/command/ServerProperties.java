@@ -13,6 +13,9 @@ import java.util.Set;
 import org.apache.commons.codec.binary.Base64;
 
 import ca.carleton.gcrc.sensorDb.command.impl.PropertiesWriter;
+import ca.carleton.gcrc.sensorDb.jdbc.ConnectionPoolSettings;
+import ca.carleton.gcrc.sensorDb.jdbc.DbConnection;
+import ca.carleton.gcrc.sensorDb.upload.observations.ImportScheduler;
 
 public class ServerProperties {
 
@@ -72,10 +75,69 @@ public class ServerProperties {
 				serverProps.setDbPassword(dbPassword);
 			}
 		}
+
+		// DB connection pool
+		try {
+			ConnectionPoolSettings poolSettings = serverProps.getDbPoolSettings();
+			poolSettings.setMinSize( getIntProperty(props, "db.pool.size.min", poolSettings.getMinSize()) );
+			poolSettings.setMaxSize( getIntProperty(props, "db.pool.size.max", poolSettings.getMaxSize()) );
+			poolSettings.setValidationIdleSeconds( getIntProperty(props, "db.pool.validation.idle.seconds", poolSettings.getValidationIdleSeconds()) );
+			poolSettings.setIdleTimeoutSeconds( getIntProperty(props, "db.pool.idle.timeout.seconds", poolSettings.getIdleTimeoutSeconds()) );
+			poolSettings.setBorrowTimeoutSeconds( getIntProperty(props, "db.pool.borrow.timeout.seconds", poolSettings.getBorrowTimeoutSeconds()) );
+			poolSettings.setLeakDetectionSeconds( getIntProperty(props, "db.pool.leak.detection.seconds", poolSettings.getLeakDetectionSeconds()) );
+			poolSettings.validate();
+		} catch(Exception e) {
+			throw new Exception("Unable to interpret database connection pool settings",e);
+		}
+
+		// Fetch size for streamed results
+		try {
+			int dbFetchSize = getIntProperty(props, "db.fetch.size", serverProps.getDbFetchSize());
+			if( dbFetchSize < 1 ) {
+				throw new Exception("Invalid fetch size: "+dbFetchSize);
+			}
+			serverProps.setDbFetchSize(dbFetchSize);
+		} catch(Exception e) {
+			throw new Exception("Unable to interpret database fetch size",e);
+		}
+
+		// Import workers
+		try {
+			int importWorkers = getIntProperty(props, "import.workers", serverProps.getImportWorkers());
+			if( importWorkers < 1 ) {
+				throw new Exception("Invalid number of import workers: "+importWorkers);
+			}
+			serverProps.setImportWorkers(importWorkers);
+		} catch(Exception e) {
+			throw new Exception("Unable to interpret number of import workers",e);
+		}
+
+		// Import queue size
+		try {
+			int importQueueSize = getIntProperty(props, "import.queue.size", serverProps.getImportQueueSize());
+			if( importQueueSize < 1 ) {
+				throw new Exception("Invalid import queue size: "+importQueueSize);
+			}
+			serverProps.setImportQueueSize(importQueueSize);
+		} catch(Exception e) {
+			throw new Exception("Unable to interpret import queue size",e);
+		}
 		
 		return serverProps;
 	}
 
+	static private int getIntProperty(Properties props, String name, int defaultValue) throws Exception {
+		String value = props.getProperty(name,null);
+		if( null == value ){
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch(Exception e) {
+			throw new Exception("Invalid value for "+name+": "+value,e);
+		}
+	}
+
 	static public void readProperties(File serverDir, Properties props) throws Exception {
 		// install.properties
 		{
@@ -257,6 +319,10 @@ public class ServerProperties {
 	private String dbConnection = null;
 	private String dbUser = null;
 	private String dbPassword = null;
+	private ConnectionPoolSettings dbPoolSettings = new ConnectionPoolSettings();
+	private int dbFetchSize = DbConnection.DEFAULT_FETCH_SIZE;
+	private int importWorkers = ImportScheduler.DEFAULT_WORKER_COUNT;
+	private int importQueueSize = ImportScheduler.DEFAULT_QUEUE_SIZE;
 
 	public int getServerPort() {
 		return serverPort;
@@ -292,4 +358,32 @@ public class ServerProperties {
 	public void setDbUser(String dbUser) {
 		this.dbUser = dbUser;
 	}
+
+	public ConnectionPoolSettings getDbPoolSettings() {
+		return dbPoolSettings;
+	}
+	public void setDbPoolSettings(ConnectionPoolSettings dbPoolSettings) {
+		this.dbPoolSettings = dbPoolSettings;
+	}
+
+	public int getDbFetchSize() {
+		return dbFetchSize;
+	}
+	public void setDbFetchSize(int dbFetchSize) {
+		this.dbFetchSize = dbFetchSize;
+	}
+
+	public int getImportWorkers() {
+		return importWorkers;
+	}
+	public void setImportWorkers(int importWorkers) {
+		this.importWorkers = importWorkers;
+	}
+
+	public int getImportQueueSize() {
+		return importQueueSize;
+	}
+	public void setImportQueueSize(int importQueueSize) {
+		this.importQueueSize = importQueueSize;
+	}
 }
@@ -0,0 +1,35 @@
+package ca.carleton.gcrc.sensorDb.command.impl;
+
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically creates the observation partitions of the coming year,
+ * so that new observations do not accumulate in the default partition.
+ */
+public class PartitionMaintenanceTask extends TimerTask {
+
+	static final public long PERIOD_MS = 24L * 60L * 60L * 1000L;
+
+	final static protected Logger logger = LoggerFactory.getLogger(PartitionMaintenanceTask.class);
+
+	private SchemaMigrator migrator;
+
+	public PartitionMaintenanceTask(SchemaMigrator migrator) {
+		this.migrator = migrator;
+	}
+
+	@Override
+	public void run() {
+		try {
+			int created = migrator.maintainObservationPartitions();
+			if( created > 0 ){
+				logger.info("Created "+created+" observation partition(s)");
+			}
+		} catch(Exception e) {
+			logger.error("Unable to maintain observation partitions", e);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package ca.carleton.gcrc.sensorDb.command.impl;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * A change to the database schema, identified by a version number. The
+ * SQL script of a migration is a resource found next to this class, in
+ * migrations/&lt;version&gt;_&lt;name&gt;.sql
+ */
+public class SchemaMigration {
+
+	private int version;
+	private String name;
+
+	public SchemaMigration(int version, String name) {
+		this.version = version;
+		this.name = name;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getResourceName() {
+		return String.format("migrations/%03d_%s.sql", version, name);
+	}
+
+	public String loadScript() throws Exception {
+		InputStream is = SchemaMigration.class.getResourceAsStream(getResourceName());
+		if( null == is ){
+			throw new Exception("Script not found for migration: "+getResourceName());
+		}
+		try {
+			Reader reader = new InputStreamReader(is, "UTF-8");
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[4096];
+			int size = reader.read(buffer);
+			while( size >= 0 ){
+				sb.append(buffer, 0, size);
+				size = reader.read(buffer);
+			}
+			return sb.toString();
+
+		} finally {
+			try {
+				is.close();
+			} catch(Exception e) {
+				// Ignore
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%03d_%s", version, name);
+	}
+}
@@ -0,0 +1,215 @@
+package ca.carleton.gcrc.sensorDb.command.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.carleton.gcrc.sensorDb.jdbc.DbConnection;
+
+/**
+ * Brings the schema of a database created with observations.sql up to
+ * date. The versions of the migrations applied to a database are recorded
+ * in the table schema_migrations. Each migration is applied in its own
+ * transaction.
+ */
+public class SchemaMigrator {
+
+	final static protected Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+
+	/**
+	 * All migrations, in the order they are applied. A migration must never
+	 * be modified or removed once released: add a new one instead.
+	 */
+	static final public List<SchemaMigration> MIGRATIONS = new ArrayList<SchemaMigration>();
+	static {
+		MIGRATIONS.add( new SchemaMigration(1, "partition_observations") );
+	}
+
+	// Serializes migrations started from different processes
+	static final private long MIGRATION_LOCK_ID = 0x73656e736f724442L;
+
+	private DbConnection dbConn;
+
+	public SchemaMigrator(DbConnection dbConn) {
+		this.dbConn = dbConn;
+	}
+
+	public Set<Integer> getAppliedVersions() throws Exception {
+		Set<Integer> versions = new HashSet<Integer>();
+
+		Connection connection = dbConn.getConnection();
+		try {
+			Statement stmt = connection.createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery("SELECT to_regclass('public.schema_migrations') IS NOT NULL");
+				rs.next();
+				boolean tableExists = rs.getBoolean(1);
+				rs.close();
+
+				if( tableExists ){
+					rs = stmt.executeQuery("SELECT version FROM schema_migrations");
+					while( rs.next() ){
+						versions.add( rs.getInt(1) );
+					}
+					rs.close();
+				}
+			} finally {
+				stmt.close();
+			}
+
+		} catch (Exception e) {
+			throw new Exception("Error while reading applied schema migrations", e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+
+		return versions;
+	}
+
+	public List<SchemaMigration> getPendingMigrations() throws Exception {
+		Set<Integer> appliedVersions = getAppliedVersions();
+
+		List<SchemaMigration> pending = new ArrayList<SchemaMigration>();
+		for(SchemaMigration migration : MIGRATIONS){
+			if( false == appliedVersions.contains(migration.getVersion()) ){
+				pending.add(migration);
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Applies a migration, unless it was already applied.
+	 * @return True if the migration was applied
+	 */
+	public boolean applyMigration(SchemaMigration migration) throws Exception {
+		String script = migration.loadScript();
+
+		Connection connection = dbConn.getConnection();
+		boolean autoCommit = connection.getAutoCommit();
+		try {
+			connection.setAutoCommit(false);
+
+			Statement stmt = connection.createStatement();
+			try {
+				stmt.execute("SELECT pg_advisory_xact_lock("+MIGRATION_LOCK_ID+")");
+				stmt.executeUpdate(
+					"CREATE TABLE IF NOT EXISTS public.schema_migrations("
+					+"version integer NOT NULL,"
+					+"name varchar NOT NULL,"
+					+"applied_time timestamp WITH TIME ZONE NOT NULL,"
+					+"CONSTRAINT schema_migrations_pk PRIMARY KEY (version)"
+					+")"
+				);
+			} finally {
+				stmt.close();
+			}
+
+			// Another process might have applied it while waiting for the lock
+			PreparedStatement pstmt = connection.prepareStatement(
+				"SELECT version FROM schema_migrations WHERE version=?"
+			);
+			boolean alreadyApplied = false;
+			try {
+				pstmt.setInt(1, migration.getVersion());
+				ResultSet rs = pstmt.executeQuery();
+				alreadyApplied = rs.next();
+				rs.close();
+			} finally {
+				pstmt.close();
+			}
+
+			if( alreadyApplied ){
+				connection.commit();
+				return false;
+			}
+
+			logger.info("Applying schema migration "+migration);
+
+			stmt = connection.createStatement();
+			try {
+				stmt.execute(script);
+			} finally {
+				stmt.close();
+			}
+
+			pstmt = connection.prepareStatement(
+				"INSERT INTO schema_migrations (version,name,applied_time) VALUES (?,?,now())"
+			);
+			try {
+				pstmt.setInt(1, migration.getVersion());
+				pstmt.setString(2, migration.getName());
+				pstmt.executeUpdate();
+			} finally {
+				pstmt.close();
+			}
+
+			connection.commit();
+
+			return true;
+
+		} catch (Exception e) {
+			try {
+				connection.rollback();
+			} catch(Exception e1) {
+				// Ignore
+			}
+			throw new Exception("Error while applying schema migration "+migration, e);
+		} finally {
+			try {
+				connection.setAutoCommit(autoCommit);
+			} catch(Exception e) {
+				// Ignore
+			}
+			dbConn.releaseConnection(connection);
+		}
+	}
+
+	/**
+	 * Creates the partitions of the observations table for the current
+	 * and the next year, and for the observations that were stored in the
+	 * default partition. Does nothing if the observations table is not
+	 * partitioned.
+	 * @return Number of partitions created
+	 */
+	public int maintainObservationPartitions() throws Exception {
+		int created = 0;
+
+		Connection connection = dbConn.getConnection();
+		try {
+			Statement stmt = connection.createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery(
+					"SELECT to_regproc('public.observations_maintain_partitions') IS NOT NULL"
+				);
+				rs.next();
+				boolean partitioned = rs.getBoolean(1);
+				rs.close();
+
+				if( partitioned ){
+					rs = stmt.executeQuery("SELECT public.observations_maintain_partitions()");
+					rs.next();
+					created = rs.getInt(1);
+					rs.close();
+				}
+			} finally {
+				stmt.close();
+			}
+
+		} catch (Exception e) {
+			throw new Exception("Error while creating observation partitions", e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+
+		return created;
+	}
+}
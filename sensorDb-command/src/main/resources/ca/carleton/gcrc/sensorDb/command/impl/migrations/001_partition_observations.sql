@@ -0,0 +1,150 @@
+--- Converts the observations table to a table partitioned by year of
+--- corrected_utc_time. Observations outside of the existing partitions
+--- are stored in observations_default until their partition is created
+--- by observations_maintain_partitions().
+---
+--- The primary key of a partitioned table must include the partition
+--- key, so it becomes (id, corrected_utc_time). For this reason, the
+--- foreign key from observations_sets to observations is dropped.
+
+--- Creates the partition for a year (UTC), moving the observations of
+--- that year out of the default partition. Returns 1 if the partition
+--- was created, 0 if it already existed.
+CREATE OR REPLACE FUNCTION public.observations_create_partition(partition_year integer)
+RETURNS integer AS $$
+DECLARE
+	partition_name text := 'observations_y' || partition_year;
+	lower_time timestamp with time zone := make_timestamptz(partition_year, 1, 1, 0, 0, 0, 'UTC');
+	upper_time timestamp with time zone := make_timestamptz(partition_year + 1, 1, 1, 0, 0, 0, 'UTC');
+	moved_count bigint := 0;
+BEGIN
+	IF to_regclass('public.' || partition_name) IS NOT NULL THEN
+		RETURN 0;
+	END IF;
+
+	-- A partition can not be created while the default partition
+	-- holds rows of its range
+	IF to_regclass('public.observations_default') IS NOT NULL THEN
+		DROP TABLE IF EXISTS observations_moved;
+		CREATE TEMPORARY TABLE observations_moved (LIKE public.observations);
+		WITH moved AS (
+			DELETE FROM public.observations_default
+			WHERE corrected_utc_time >= lower_time AND corrected_utc_time < upper_time
+			RETURNING *
+		)
+		INSERT INTO observations_moved SELECT * FROM moved;
+		GET DIAGNOSTICS moved_count = ROW_COUNT;
+	END IF;
+
+	EXECUTE format(
+		'CREATE TABLE public.%I PARTITION OF public.observations FOR VALUES FROM (%L) TO (%L)',
+		partition_name, lower_time, upper_time
+	);
+
+	IF to_regclass('public.observations_default') IS NOT NULL THEN
+		IF moved_count > 0 THEN
+			INSERT INTO public.observations SELECT * FROM observations_moved;
+		END IF;
+		DROP TABLE observations_moved;
+	END IF;
+
+	RETURN 1;
+END;
+$$ LANGUAGE plpgsql;
+
+--- Creates the partitions of the current and of the next year, and the
+--- partitions of the years found in the default partition. Returns the
+--- number of partitions created.
+CREATE OR REPLACE FUNCTION public.observations_maintain_partitions()
+RETURNS integer AS $$
+DECLARE
+	current_year integer := extract(year FROM now() AT TIME ZONE 'UTC')::integer;
+	default_year integer;
+	created integer := 0;
+BEGIN
+	created := created + public.observations_create_partition(current_year);
+	created := created + public.observations_create_partition(current_year + 1);
+
+	FOR default_year IN
+		SELECT DISTINCT extract(year FROM corrected_utc_time AT TIME ZONE 'UTC')::integer
+		FROM public.observations_default
+	LOOP
+		created := created + public.observations_create_partition(default_year);
+	END LOOP;
+
+	RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+ALTER TABLE public.observations_sets DROP CONSTRAINT IF EXISTS observation_set_observation_fk;
+
+ALTER TABLE public.observations RENAME TO observations_unpartitioned;
+ALTER TABLE public.observations_unpartitioned RENAME CONSTRAINT observations_pk TO observations_unpartitioned_pk;
+
+DROP INDEX IF EXISTS public.observations_import_key;
+DROP INDEX IF EXISTS public.observations_corrected_utc_time;
+DROP INDEX IF EXISTS public.observations_sensor_time;
+DROP INDEX IF EXISTS public.observations_device_time;
+DROP INDEX IF EXISTS public.observations_unit_of_measure;
+DROP INDEX IF EXISTS public.observations_location;
+
+CREATE TABLE public.observations (
+	LIKE public.observations_unpartitioned INCLUDING DEFAULTS
+) PARTITION BY RANGE (corrected_utc_time);
+
+ALTER TABLE public.observations OWNER TO observations_admin;
+
+--- One partition per year of existing observations, created before the
+--- copy so that the default partition stays empty
+SELECT public.observations_create_partition(y)
+FROM (
+	SELECT DISTINCT extract(year FROM corrected_utc_time AT TIME ZONE 'UTC')::integer AS y
+	FROM public.observations_unpartitioned
+) AS years;
+
+CREATE TABLE public.observations_default PARTITION OF public.observations DEFAULT;
+
+SELECT public.observations_maintain_partitions();
+
+INSERT INTO public.observations SELECT * FROM public.observations_unpartitioned;
+
+DROP TABLE public.observations_unpartitioned;
+
+--- Indexes created on the partitioned table are created on each partition,
+--- including the partitions created later. Times are also indexed with BRIN,
+--- since observations are mostly imported in time order. The btree on
+--- (corrected_utc_time, id) is kept for the pages of queries without a
+--- sensor or device, which are ordered on it.
+
+ALTER TABLE public.observations
+	ADD CONSTRAINT observations_pk PRIMARY KEY (id, corrected_utc_time);
+
+CREATE INDEX observations_corrected_utc_time ON public.observations USING btree (corrected_utc_time, id);
+
+CREATE INDEX observations_corrected_utc_time_brin ON public.observations USING brin (corrected_utc_time);
+
+CREATE INDEX observations_import_key ON public.observations USING btree (import_key);
+
+CREATE INDEX observations_sensor_time ON public.observations USING btree (sensor_id, corrected_utc_time, id);
+
+CREATE INDEX observations_device_time ON public.observations USING btree (device_id, corrected_utc_time, id);
+
+CREATE INDEX observations_unit_of_measure ON public.observations USING btree (unit_of_measure);
+
+CREATE INDEX observations_location ON public.observations USING btree (location);
+
+ALTER TABLE public.observations ADD CONSTRAINT observations_device_fk FOREIGN KEY (device_id)
+REFERENCES public.devices (id) MATCH FULL;
+
+ALTER TABLE public.observations ADD CONSTRAINT observations_import_fk FOREIGN KEY (import_id)
+REFERENCES public.imports (id) MATCH FULL;
+
+ALTER TABLE public.observations ADD CONSTRAINT observations_sensor_fk FOREIGN KEY (sensor_id)
+REFERENCES public.sensors (id) MATCH FULL
+ON DELETE NO ACTION ON UPDATE NO ACTION;
+
+REVOKE ALL ON TABLE public.observations FROM PUBLIC;
+REVOKE ALL ON TABLE public.observations FROM observations_admin;
+GRANT ALL ON TABLE public.observations TO observations_admin;
+GRANT SELECT ON TABLE public.observations TO observations_read;
+GRANT SELECT,INSERT,DELETE,UPDATE ON TABLE public.observations TO observations_write;
@@ -2,6 +2,7 @@ package ca.carleton.gcrc.sensorDb.dbapi;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 public interface DbAPI {
 
@@ -15,19 +16,41 @@ public interface DbAPI {
 
 	Sensor getSensorFromSensorId(String sensor_id) throws Exception;
 
+	/**
+	 * Ids that are not found are ignored.
+	 */
+	List<Sensor> getSensorsFromIds(Collection<String> sensorIds) throws Exception;
+
 	List<Sensor> getSensorsFromDeviceId(String device_id) throws Exception;
 
 	Device createDevice(Device device) throws Exception;
 
 	Collection<Device> getDevices() throws Exception;
 
+	/**
+	 * The reader must be closed.
+	 */
+	RecordReader<Device> readDevices() throws Exception;
+
 	Device getDeviceFromId(String id) throws Exception;
 
 	Device getDeviceFromSerialNumber(String serialNumber) throws Exception;
 
+	/**
+	 * Returns null if the device is not found.
+	 */
+	DeviceHistory getDeviceHistoryFromId(String deviceId) throws Exception;
+
+	DeviceHistory getDeviceHistoryFromSerialNumber(String serialNumber) throws Exception;
+
 	DeviceLocation createDeviceLocation(DeviceLocation deviceLocation) throws Exception;
 	
 	List<DeviceLocation> getDeviceLocations() throws Exception;
+
+	/**
+	 * The reader must be closed.
+	 */
+	RecordReader<DeviceLocation> readDeviceLocations() throws Exception;
 	
 	List<DeviceLocation> getDeviceLocationsFromDeviceId(String device_id) throws Exception;
 
@@ -43,25 +66,111 @@ public interface DbAPI {
 	
 	Location getLocationFromLocationId(String locationId) throws Exception;
 
+	/**
+	 * Ids that are not found are ignored.
+	 */
+	List<Location> getLocationsFromIds(Collection<String> locationIds) throws Exception;
+
 	Collection<Location> getLocations() throws Exception;
 
+	/**
+	 * The reader must be closed.
+	 */
+	RecordReader<Location> readLocations() throws Exception;
+
 	DeviceSensor createDeviceSensor(DeviceSensor deviceSensor) throws Exception;
 
+	/**
+	 * Changes every time a device, sensor, location or association is created.
+	 */
+	long getMetadataVersion() throws Exception;
+
 	Observation createObservation(Observation observation) throws Exception;
 
+	/**
+	 * @return Number of observations inserted
+	 */
+	int createObservations(List<Observation> observations) throws Exception;
+
+	/**
+	 * Same as createObservations(), using the bulk load of the database.
+	 */
+	int copyObservations(List<Observation> observations) throws Exception;
+
 	ObservationReader getObservationsFromImportId(String importId) throws Exception;
 
+	/**
+	 * Ordered by corrected time and id. The reader must be closed.
+	 */
+	ObservationReader queryObservations(ObservationQuery query) throws Exception;
+
+	/**
+	 * @param bucketMs Size of buckets in ms. If zero, a single bucket.
+	 */
+	List<ObservationBucket> getObservationBuckets(ObservationQuery query, long bucketMs, int maxBuckets) throws Exception;
+
+	void updateObservationRollups(List<Observation> observations) throws Exception;
+
+	void rebuildObservationRollups() throws Exception;
+
+	List<ObservationRollup> getObservationRollups(String sensorId, long periodMs) throws Exception;
+
 	Observation getObservationFromImportKey(String importKey) throws Exception;
 
+	/**
+	 * Returns the import keys already used by observations.
+	 */
+	Set<String> getExistingImportKeys(Collection<String> importKeys) throws Exception;
+
 	ImportRecord createImportRecord(ImportRecord importRecord) throws Exception;
 
 	List<ImportRecord> getImportRecords() throws Exception;
 
+	/**
+	 * Changes every time an import record is created or updated.
+	 */
+	long getImportRecordsVersion() throws Exception;
+
 	ImportRecord getImportRecordFromImportId(String importId) throws Exception;
 
+	void updateImportRecord(ImportRecord importRecord) throws Exception;
+
+	ImportJob createImportJob(ImportJob importJob) throws Exception;
+
+	void updateImportJob(ImportJob importJob) throws Exception;
+
+	List<ImportJob> getImportJobs() throws Exception;
+
+	/**
+	 * Queued or running jobs, oldest first.
+	 */
+	List<ImportJob> getUnfinishedImportJobs() throws Exception;
+
 	LogRecord createLogRecord(LogRecord logRecord) throws Exception;
 
 	List<LogRecord> getLogRecords() throws Exception;
 
+	/**
+	 * The reader must be closed.
+	 */
+	RecordReader<LogRecord> readLogRecords() throws Exception;
+
 	LogRecord getLogRecordFromId(String logId) throws Exception;
+
+	/**
+	 * Calls made by the current thread share a connection until
+	 * releaseThreadConnection().
+	 */
+	void reserveThreadConnection() throws Exception;
+
+	void releaseThreadConnection() throws Exception;
+
+	/**
+	 * For the calls made by the current thread. Can not be nested.
+	 */
+	void beginTransaction() throws Exception;
+
+	void commitTransaction() throws Exception;
+
+	void rollbackTransaction() throws Exception;
 }
@@ -0,0 +1,52 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A device with the sensors and the locations it was associated with
+ * over time.
+ */
+public class DeviceHistory {
+
+	private Device device;
+	private List<DeviceSensor> deviceSensors = new ArrayList<DeviceSensor>();
+	private List<Sensor> sensors = new ArrayList<Sensor>();
+	private List<DeviceLocation> deviceLocations = new ArrayList<DeviceLocation>();
+	private List<Location> locations = new ArrayList<Location>();
+
+	public Device getDevice() {
+		return device;
+	}
+	public void setDevice(Device device) {
+		this.device = device;
+	}
+
+	/**
+	 * Associations between the device and its sensors, in time order
+	 */
+	public List<DeviceSensor> getDeviceSensors() {
+		return deviceSensors;
+	}
+
+	/**
+	 * Sensors referred by the associations, each one listed once
+	 */
+	public List<Sensor> getSensors() {
+		return sensors;
+	}
+
+	/**
+	 * Associations between the device and locations, in time order
+	 */
+	public List<DeviceLocation> getDeviceLocations() {
+		return deviceLocations;
+	}
+
+	/**
+	 * Locations referred by the associations, each one listed once
+	 */
+	public List<Location> getLocations() {
+		return locations;
+	}
+}
@@ -0,0 +1,152 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+import java.util.Date;
+
+import org.json.JSONObject;
+
+/**
+ * An uploaded file waiting to be imported, or that was imported. Jobs are
+ * kept in the database so that pending imports survive a restart.
+ */
+public class ImportJob {
+
+	static final public String STATE_QUEUED = "queued";
+	static final public String STATE_RUNNING = "running";
+	static final public String STATE_DONE = "done";
+	static final public String STATE_FAILED = "failed";
+
+	private String id;
+	private String state;
+	private String fileName;
+	private String originalFileName;
+	private JSONObject parameters;
+	private Date createdTime;
+	private Date startedTime;
+	private Date endedTime;
+	private String importId;
+	private String errorMessage;
+
+	public String getId() {
+		return id;
+	}
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getState() {
+		return state;
+	}
+	public void setState(String state) {
+		this.state = state;
+	}
+
+	/**
+	 * Absolute path of the uploaded file on the server.
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public String getOriginalFileName() {
+		return originalFileName;
+	}
+	public void setOriginalFileName(String originalFileName) {
+		this.originalFileName = originalFileName;
+	}
+
+	public JSONObject getParameters() {
+		return parameters;
+	}
+	public void setParameters(JSONObject parameters) {
+		this.parameters = parameters;
+	}
+
+	public Date getCreatedTime() {
+		return createdTime;
+	}
+	public void setCreatedTime(Date createdTime) {
+		this.createdTime = createdTime;
+	}
+
+	public Date getStartedTime() {
+		return startedTime;
+	}
+	public void setStartedTime(Date startedTime) {
+		this.startedTime = startedTime;
+	}
+
+	public Date getEndedTime() {
+		return endedTime;
+	}
+	public void setEndedTime(Date endedTime) {
+		this.endedTime = endedTime;
+	}
+
+	/**
+	 * Identifier of the import record created by the job, once done.
+	 */
+	public String getImportId() {
+		return importId;
+	}
+	public void setImportId(String importId) {
+		this.importId = importId;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+	public void setErrorMessage(String errorMessage) {
+		this.errorMessage = errorMessage;
+	}
+
+	public boolean isFinished() {
+		return STATE_DONE.equals(state) || STATE_FAILED.equals(state);
+	}
+
+	public JSONObject toJSON() {
+		JSONObject json = new JSONObject();
+
+		json.put("type", "importJob");
+
+		if( null != id ){
+			json.put("id", id);
+		}
+
+		if( null != state ){
+			json.put("state", state);
+		}
+
+		if( null != originalFileName ){
+			json.put("originalFileName", originalFileName);
+		}
+
+		if( null != parameters ){
+			json.put("parameters", parameters);
+		}
+
+		if( null != createdTime ){
+			json.put("createdTime", createdTime.getTime());
+		}
+
+		if( null != startedTime ){
+			json.put("startedTime", startedTime.getTime());
+		}
+
+		if( null != endedTime ){
+			json.put("endedTime", endedTime.getTime());
+		}
+
+		if( null != importId ){
+			json.put("importId", importId);
+		}
+
+		if( null != errorMessage ){
+			json.put("errorMessage", errorMessage);
+		}
+
+		return json;
+	}
+}
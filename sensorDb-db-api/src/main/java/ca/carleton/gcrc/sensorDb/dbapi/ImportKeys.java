@@ -0,0 +1,121 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+/**
+ * Import keys are 128-bit digests of the imported lines. They are stored
+ * in the database as UUIDs. Keys generated by earlier versions were the
+ * same digests encoded in Base64 (24 characters). Those keys are still
+ * accepted and converted to the UUID form.
+ */
+public class ImportKeys {
+
+	static final public int DIGEST_LENGTH = 16;
+
+	static final private int UUID_LENGTH = 36;
+	static final private int BASE64_LENGTH = 24;
+
+	static final private char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Formats a 128-bit digest as a UUID string
+	 */
+	static public String fromDigest(byte[] digest, int offset) {
+		char[] chars = new char[UUID_LENGTH];
+		int pos = 0;
+		for(int i=0; i<DIGEST_LENGTH; ++i){
+			if( 4 == i || 6 == i || 8 == i || 10 == i ){
+				chars[pos++] = '-';
+			}
+			int b = digest[offset+i] & 0xff;
+			chars[pos++] = HEX_DIGITS[b >> 4];
+			chars[pos++] = HEX_DIGITS[b & 0x0f];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns the import key in the UUID form. Keys in the UUID form
+	 * are returned in lower case. Legacy keys in Base64 are converted.
+	 * Returns null if the key is null.
+	 */
+	static public String normalize(String importKey) throws Exception {
+		if( null == importKey ){
+			return null;
+		}
+
+		if( UUID_LENGTH == importKey.length() ){
+			if( isLowerCaseUuid(importKey) ){
+				return importKey;
+			}
+			String lowerCase = importKey.toLowerCase();
+			if( isLowerCaseUuid(lowerCase) ){
+				return lowerCase;
+			}
+
+		} else if( BASE64_LENGTH == importKey.length() ){
+			byte[] digest = decodeBase64Digest(importKey);
+			if( null != digest ){
+				return fromDigest(digest, 0);
+			}
+		}
+
+		throw new Exception("Invalid import key: "+importKey);
+	}
+
+	static private boolean isLowerCaseUuid(String key) {
+		for(int i=0; i<UUID_LENGTH; ++i){
+			char c = key.charAt(i);
+			if( 8 == i || 13 == i || 18 == i || 23 == i ){
+				if( '-' != c ){
+					return false;
+				}
+			} else if( (c < '0' || c > '9') && (c < 'a' || c > 'f') ){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes a 16-byte digest encoded in Base64 with padding ("==").
+	 * Returns null if the string is not such an encoding.
+	 */
+	static private byte[] decodeBase64Digest(String key) {
+		if( '=' != key.charAt(22) || '=' != key.charAt(23) ){
+			return null;
+		}
+
+		byte[] digest = new byte[DIGEST_LENGTH];
+		int bits = 0;
+		int bitCount = 0;
+		int pos = 0;
+		for(int i=0; i<22; ++i){
+			int value = base64Value(key.charAt(i));
+			if( value < 0 ){
+				return null;
+			}
+			bits = (bits << 6) | value;
+			bitCount += 6;
+			if( bitCount >= 8 ){
+				bitCount -= 8;
+				digest[pos++] = (byte)(bits >> bitCount);
+				bits &= (1 << bitCount) - 1;
+			}
+		}
+		return digest;
+	}
+
+	static private int base64Value(char c) {
+		if( c >= 'A' && c <= 'Z' ){
+			return c - 'A';
+		} else if( c >= 'a' && c <= 'z' ){
+			return c - 'a' + 26;
+		} else if( c >= '0' && c <= '9' ){
+			return c - '0' + 52;
+		} else if( '+' == c ){
+			return 62;
+		} else if( '/' == c ){
+			return 63;
+		}
+		return -1;
+	}
+}
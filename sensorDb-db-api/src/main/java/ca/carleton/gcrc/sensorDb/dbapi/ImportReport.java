@@ -1,5 +1,6 @@
 package ca.carleton.gcrc.sensorDb.dbapi;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 public interface ImportReport {
@@ -15,6 +16,11 @@ public interface ImportReport {
 	void collisionObservation(Observation observation);
 	
 	void setError(Throwable err);
+
+	/**
+	 * Throughput of the stages of the import, as reported by the importer
+	 */
+	void setStageStatistics(JSONArray stages);
 	
 	JSONObject produceReport() throws Exception;
 }
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.TimeZone;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class ImportReportMemory implements ImportReport {
@@ -18,6 +19,7 @@ public class ImportReportMemory implements ImportReport {
 	private DateFormat dateFormatter;
 	private Map<String,Integer> observedTextFields = new HashMap<String,Integer>();
 	private Throwable reportedError = null;
+	private JSONArray stageStatistics = null;
 	
 	public ImportReportMemory() {
 		dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
@@ -70,6 +72,11 @@ public class ImportReportMemory implements ImportReport {
 		this.reportedError = err;
 	}
 
+	@Override
+	public void setStageStatistics(JSONArray stages) {
+		this.stageStatistics = stages;
+	}
+
 	@Override
 	public JSONObject produceReport() throws Exception {
 		JSONObject jsonReport = new JSONObject();
@@ -93,6 +100,10 @@ public class ImportReportMemory implements ImportReport {
 			jsonReport.put("problems", jsonProblems);
 		}
 		
+		if( null != stageStatistics ){
+			jsonReport.put("stages", stageStatistics);
+		}
+		
 		if( null != reportedError ){
 			JSONObject jsonErr = errorToJSON(reportedError);
 			jsonReport.put("error", jsonErr);
@@ -0,0 +1,177 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reduces a series of observations to a fixed number of points that keep
+ * the visual shape of the series, using the Largest-Triangle-Three-Buckets
+ * algorithm (Steinarsson, 2013).
+ *
+ * The first and the last observations are always kept. The period between
+ * them is divided in equal intervals of time and, in each interval, the
+ * observation that forms the largest triangle with the point kept in the
+ * previous interval and the average of the next interval is kept.
+ *
+ * Observations are added in increasing time order, so that a series can be
+ * reduced as it is read. Only the observations of two intervals are held
+ * in memory.
+ */
+public class LttbDownsampler {
+
+	private long startTime;
+	private long endTime;
+	private int intervalCount;
+	private Observation first = null;
+	private Observation selected = null;
+	private List<Observation> current = new ArrayList<Observation>();
+	private List<Observation> next = new ArrayList<Observation>();
+	private long nextIndex = -1;
+	private List<Observation> results = new ArrayList<Observation>();
+	private long lastTime = Long.MIN_VALUE;
+
+	/**
+	 * @param startTime Time of the first observation, in ms
+	 * @param endTime Time of the last observation, in ms
+	 * @param pointCount Maximum number of points returned. At least 3.
+	 */
+	public LttbDownsampler(long startTime, long endTime, int pointCount) throws Exception {
+		if( pointCount < 3 ){
+			throw new Exception("Downsampling requires at least 3 points");
+		}
+		if( endTime < startTime ){
+			throw new Exception("Invalid period for downsampling");
+		}
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.intervalCount = pointCount - 2;
+	}
+
+	/**
+	 * Adds an observation with a numeric value. Observations without
+	 * a numeric value are ignored.
+	 */
+	public void add(Observation observation) throws Exception {
+		if( null == observation.getNumericValue() ){
+			return;
+		}
+		long time = observation.getCorrectedTime().getTime();
+		if( time < lastTime ){
+			throw new Exception("Observations must be added in time order");
+		}
+		lastTime = time;
+
+		if( null == first ){
+			first = observation;
+			selected = observation;
+			results.add(observation);
+			return;
+		}
+
+		long index = computeIntervalIndex(time);
+		if( index == nextIndex || next.size() < 1 ){
+			nextIndex = index;
+			next.add(observation);
+		} else {
+			// The next interval is complete, so the current one can be reduced
+			if( current.size() > 0 ){
+				selectFromCurrent( average(next) );
+			}
+			List<Observation> reused = current;
+			reused.clear();
+			current = next;
+			next = reused;
+			next.add(observation);
+			nextIndex = index;
+		}
+	}
+
+	/**
+	 * Returns the points kept, in time order
+	 */
+	public List<Observation> finish() {
+		if( null == first ){
+			return results;
+		}
+
+		// The last observation is kept and acts as the
+		// average of the interval that follows the last one
+		Observation last = null;
+		if( next.size() > 0 ){
+			last = next.remove(next.size()-1);
+		}
+
+		if( null != last ){
+			double[] lastPoint = new double[]{
+				last.getCorrectedTime().getTime(),
+				last.getNumericValue().doubleValue()
+			};
+			if( current.size() > 0 ){
+				if( next.size() > 0 ){
+					selectFromCurrent( average(next) );
+				} else {
+					selectFromCurrent( lastPoint );
+				}
+			}
+			if( next.size() > 0 ){
+				current.clear();
+				current.addAll(next);
+				next.clear();
+				selectFromCurrent( lastPoint );
+			}
+			results.add(last);
+		}
+
+		current.clear();
+		next.clear();
+
+		return results;
+	}
+
+	private long computeIntervalIndex(long time) {
+		long duration = endTime - startTime;
+		if( duration <= 0 ){
+			return 0;
+		}
+		long offset = Math.max(0, Math.min(duration, time - startTime));
+		double fraction = (double)offset / (double)duration;
+		long index = (long)(fraction * intervalCount);
+		if( index >= intervalCount ){
+			index = intervalCount - 1;
+		}
+		return index;
+	}
+
+	private void selectFromCurrent(double[] nextPoint) {
+		double ax = selected.getCorrectedTime().getTime();
+		double ay = selected.getNumericValue().doubleValue();
+
+		Observation best = null;
+		double bestArea = -1;
+		for(Observation observation : current){
+			double bx = observation.getCorrectedTime().getTime();
+			double by = observation.getNumericValue().doubleValue();
+			double area = Math.abs( (ax - nextPoint[0]) * (by - ay) - (ax - bx) * (nextPoint[1] - ay) );
+			if( area > bestArea ){
+				bestArea = area;
+				best = observation;
+			}
+		}
+
+		selected = best;
+		results.add(best);
+	}
+
+	static private double[] average(List<Observation> observations) {
+		double sumX = 0;
+		double sumY = 0;
+		for(Observation observation : observations){
+			sumX += observation.getCorrectedTime().getTime();
+			sumY += observation.getNumericValue().doubleValue();
+		}
+		return new double[]{
+			sumX / observations.size(),
+			sumY / observations.size()
+		};
+	}
+}
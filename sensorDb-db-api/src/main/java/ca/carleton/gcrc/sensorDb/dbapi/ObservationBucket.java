@@ -0,0 +1,135 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+import java.util.Date;
+
+import org.json.JSONObject;
+
+/**
+ * Summary of the numeric values of the observations that fall within
+ * a period of time. Buckets are aligned on multiples of their size since
+ * epoch, except for buckets that last a whole number of weeks which are
+ * aligned on Mondays.
+ */
+public class ObservationBucket {
+
+	static final public long HOUR_MS = 60L * 60L * 1000L;
+	static final public long DAY_MS = 24L * HOUR_MS;
+	static final public long WEEK_MS = 7L * DAY_MS;
+
+	// 1970-01-05 was a Monday
+	static final public long WEEK_ORIGIN_MS = 4L * DAY_MS;
+
+	static public long getOrigin(long bucketMs) {
+		if( bucketMs % WEEK_MS == 0 ){
+			return WEEK_ORIGIN_MS;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the index of the bucket that contains the given time.
+	 */
+	static public long computeBucketIndex(long time, long bucketMs) {
+		return Math.floorDiv(time - getOrigin(bucketMs), bucketMs);
+	}
+
+	static public long computeBucketStart(long bucketIndex, long bucketMs) {
+		return getOrigin(bucketMs) + (bucketIndex * bucketMs);
+	}
+
+	private Date startTime;
+	private Date firstTime;
+	private Date lastTime;
+	private long count;
+	private Double minimum;
+	private Double maximum;
+	private Double mean;
+
+	/**
+	 * Beginning of the period covered by the bucket
+	 */
+	public Date getStartTime() {
+		return startTime;
+	}
+	public void setStartTime(Date startTime) {
+		this.startTime = startTime;
+	}
+
+	/**
+	 * Time of the earliest observation in the bucket
+	 */
+	public Date getFirstTime() {
+		return firstTime;
+	}
+	public void setFirstTime(Date firstTime) {
+		this.firstTime = firstTime;
+	}
+
+	/**
+	 * Time of the latest observation in the bucket
+	 */
+	public Date getLastTime() {
+		return lastTime;
+	}
+	public void setLastTime(Date lastTime) {
+		this.lastTime = lastTime;
+	}
+
+	/**
+	 * Number of observations with a numeric value
+	 */
+	public long getCount() {
+		return count;
+	}
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	public Double getMinimum() {
+		return minimum;
+	}
+	public void setMinimum(Double minimum) {
+		this.minimum = minimum;
+	}
+
+	public Double getMaximum() {
+		return maximum;
+	}
+	public void setMaximum(Double maximum) {
+		this.maximum = maximum;
+	}
+
+	public Double getMean() {
+		return mean;
+	}
+	public void setMean(Double mean) {
+		this.mean = mean;
+	}
+
+	public JSONObject toJSON() {
+		JSONObject jsonBucket = new JSONObject();
+
+		jsonBucket.put("type", "observationBucket");
+
+		if( null != startTime ){
+			jsonBucket.put("time", startTime.getTime());
+		}
+		if( null != firstTime ){
+			jsonBucket.put("first_time", firstTime.getTime());
+		}
+		if( null != lastTime ){
+			jsonBucket.put("last_time", lastTime.getTime());
+		}
+		jsonBucket.put("count", count);
+		if( null != minimum ){
+			jsonBucket.put("min", minimum.doubleValue());
+		}
+		if( null != maximum ){
+			jsonBucket.put("max", maximum.doubleValue());
+		}
+		if( null != mean ){
+			jsonBucket.put("mean", mean.doubleValue());
+		}
+		return jsonBucket;
+	}
+}
@@ -0,0 +1,156 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Criteria to select observations. Criteria that are not set do not
+ * restrict the selection. Observations are returned ordered by corrected
+ * time, then by id. To read the next page of a result, set the resume key
+ * to the time and id of the last observation received.
+ */
+public class ObservationQuery {
+
+	private String deviceId;
+	private List<String> sensorIds = new Vector<String>();
+	private Date startTime;
+	private Date endTime;
+	private String observationType;
+	private boolean numericOnly = false;
+	private Double minLongitude;
+	private Double minLatitude;
+	private Double maxLongitude;
+	private Double maxLatitude;
+	private Date afterTime;
+	private String afterId;
+	private int limit = 0;
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+	public void setDeviceId(String deviceId) {
+		this.deviceId = deviceId;
+	}
+
+	/**
+	 * If not empty, only observations of these sensors are selected
+	 */
+	public List<String> getSensorIds() {
+		return sensorIds;
+	}
+	public void addSensorId(String sensorId) {
+		sensorIds.add(sensorId);
+	}
+
+	/**
+	 * Observations at or after this time
+	 */
+	public Date getStartTime() {
+		return startTime;
+	}
+	public void setStartTime(Date startTime) {
+		this.startTime = startTime;
+	}
+
+	/**
+	 * Observations strictly before this time
+	 */
+	public Date getEndTime() {
+		return endTime;
+	}
+	public void setEndTime(Date endTime) {
+		this.endTime = endTime;
+	}
+
+	public String getObservationType() {
+		return observationType;
+	}
+	public void setObservationType(String observationType) {
+		this.observationType = observationType;
+	}
+
+	/**
+	 * If true, only observations with a numeric value are selected
+	 */
+	public boolean isNumericOnly() {
+		return numericOnly;
+	}
+	public void setNumericOnly(boolean numericOnly) {
+		this.numericOnly = numericOnly;
+	}
+
+	public boolean hasBoundingBox() {
+		return null != minLongitude;
+	}
+	public Double getMinLongitude() {
+		return minLongitude;
+	}
+	public Double getMinLatitude() {
+		return minLatitude;
+	}
+	public Double getMaxLongitude() {
+		return maxLongitude;
+	}
+	public Double getMaxLatitude() {
+		return maxLatitude;
+	}
+
+	/**
+	 * Selects observations located within a box, in WGS84 degrees
+	 */
+	public void setBoundingBox(double minLongitude, double minLatitude, double maxLongitude, double maxLatitude) {
+		this.minLongitude = minLongitude;
+		this.minLatitude = minLatitude;
+		this.maxLongitude = maxLongitude;
+		this.maxLatitude = maxLatitude;
+	}
+
+	public boolean hasResumeKey() {
+		return null != afterTime;
+	}
+	public Date getAfterTime() {
+		return afterTime;
+	}
+	public String getAfterId() {
+		return afterId;
+	}
+
+	/**
+	 * Selects observations that come after the given one in the order
+	 * of the result.
+	 * @param afterTime Corrected time of the last observation received
+	 * @param afterId Id of the last observation received
+	 */
+	public void setResumeKey(Date afterTime, String afterId) {
+		this.afterTime = afterTime;
+		this.afterId = afterId;
+	}
+
+	/**
+	 * Maximum number of observations returned. Zero means no limit.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+	public void setLimit(int limit) {
+		this.limit = limit;
+	}
+
+	public void validate() throws Exception {
+		if( null != startTime && null != endTime && endTime.before(startTime) ){
+			throw new Exception("End time of query is before start time");
+		}
+		if( hasBoundingBox() ){
+			if( minLongitude > maxLongitude || minLatitude > maxLatitude ){
+				throw new Exception("Invalid bounding box for query");
+			}
+		}
+		if( null != afterTime && null == afterId ){
+			throw new Exception("Resume key of query requires an observation id");
+		}
+		if( limit < 0 ){
+			throw new Exception("Limit of query can not be negative");
+		}
+	}
+}
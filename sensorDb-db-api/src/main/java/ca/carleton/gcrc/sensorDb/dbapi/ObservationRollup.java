@@ -0,0 +1,180 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of the numeric values reported by a sensor during an hour or a
+ * day. Rollups are kept up to date as observations are imported, so that
+ * summaries do not need to scan the observations.
+ */
+public class ObservationRollup {
+
+	static final public long[] PERIODS = new long[]{
+		ObservationBucket.HOUR_MS,
+		ObservationBucket.DAY_MS
+	};
+
+	/**
+	 * Summarizes the numeric values of a group of observations in
+	 * rollups of the given period.
+	 */
+	static public List<ObservationRollup> computeRollups(Collection<Observation> observations, long periodMs) {
+		Map<String,ObservationRollup> rollupsByKey = new LinkedHashMap<String,ObservationRollup>();
+		for(Observation observation : observations){
+			if( null == observation.getNumericValue() ){
+				continue;
+			}
+
+			long time = observation.getCorrectedTime().getTime();
+			long start = Math.floorDiv(time, periodMs) * periodMs;
+			String key = observation.getSensorId() + "|" + start;
+
+			ObservationRollup rollup = rollupsByKey.get(key);
+			if( null == rollup ){
+				rollup = new ObservationRollup();
+				rollup.setSensorId( observation.getSensorId() );
+				rollup.setDeviceId( observation.getDeviceId() );
+				rollup.setPeriodMs(periodMs);
+				rollup.setStartTime( new Date(start) );
+				rollupsByKey.put(key, rollup);
+			}
+			rollup.add(observation.getCorrectedTime(), observation.getNumericValue().doubleValue());
+		}
+		return new ArrayList<ObservationRollup>(rollupsByKey.values());
+	}
+
+	private String sensorId;
+	private String deviceId;
+	private long periodMs;
+	private Date startTime;
+	private long count = 0;
+	private Double minimum;
+	private Double maximum;
+	private double sum = 0;
+	private Date firstTime;
+	private Date lastTime;
+
+	public String getSensorId() {
+		return sensorId;
+	}
+	public void setSensorId(String sensorId) {
+		this.sensorId = sensorId;
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+	public void setDeviceId(String deviceId) {
+		this.deviceId = deviceId;
+	}
+
+	/**
+	 * Duration covered by the rollup: an hour or a day
+	 */
+	public long getPeriodMs() {
+		return periodMs;
+	}
+	public void setPeriodMs(long periodMs) {
+		this.periodMs = periodMs;
+	}
+
+	public Date getStartTime() {
+		return startTime;
+	}
+	public void setStartTime(Date startTime) {
+		this.startTime = startTime;
+	}
+
+	public long getCount() {
+		return count;
+	}
+	public void setCount(long count) {
+		this.count = count;
+	}
+
+	public Double getMinimum() {
+		return minimum;
+	}
+	public void setMinimum(Double minimum) {
+		this.minimum = minimum;
+	}
+
+	public Double getMaximum() {
+		return maximum;
+	}
+	public void setMaximum(Double maximum) {
+		this.maximum = maximum;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+	public void setSum(double sum) {
+		this.sum = sum;
+	}
+
+	public Date getFirstTime() {
+		return firstTime;
+	}
+	public void setFirstTime(Date firstTime) {
+		this.firstTime = firstTime;
+	}
+
+	public Date getLastTime() {
+		return lastTime;
+	}
+	public void setLastTime(Date lastTime) {
+		this.lastTime = lastTime;
+	}
+
+	public void add(Date time, double value) {
+		++count;
+		sum += value;
+		if( null == minimum || value < minimum.doubleValue() ){
+			minimum = value;
+		}
+		if( null == maximum || value > maximum.doubleValue() ){
+			maximum = value;
+		}
+		if( null == firstTime || time.before(firstTime) ){
+			firstTime = time;
+		}
+		if( null == lastTime || time.after(lastTime) ){
+			lastTime = time;
+		}
+	}
+
+	/**
+	 * Adds the values summarized by another rollup of the same
+	 * sensor and period.
+	 */
+	public void merge(ObservationRollup other) {
+		if( other.count < 1 ){
+			return;
+		}
+		if( count < 1 ){
+			count = other.count;
+			sum = other.sum;
+			minimum = other.minimum;
+			maximum = other.maximum;
+			firstTime = other.firstTime;
+			lastTime = other.lastTime;
+			return;
+		}
+		count += other.count;
+		sum += other.sum;
+		minimum = Math.min(minimum.doubleValue(), other.minimum.doubleValue());
+		maximum = Math.max(maximum.doubleValue(), other.maximum.doubleValue());
+		if( other.firstTime.before(firstTime) ){
+			firstTime = other.firstTime;
+		}
+		if( other.lastTime.after(lastTime) ){
+			lastTime = other.lastTime;
+		}
+	}
+}
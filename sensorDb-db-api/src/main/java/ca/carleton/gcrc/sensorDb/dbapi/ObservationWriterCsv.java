@@ -3,16 +3,31 @@ package ca.carleton.gcrc.sensorDb.dbapi;
 import java.io.Writer;
 import java.util.Date;
 
+/**
+ * Writes observations in CSV format. Characters are accumulated in a
+ * buffer and handed to the underlying writer in large blocks. Call flush()
+ * once all observations are written.
+ */
 public class ObservationWriterCsv {
 
+	static final public int DEFAULT_BUFFER_SIZE = 16384;
+
 	private Writer writer;
+	private char[] buffer;
+	private int position = 0;
+	private StringBuilder numberBuilder = new StringBuilder(32);
 	
 	public ObservationWriterCsv(Writer writer){
+		this(writer, DEFAULT_BUFFER_SIZE);
+	}
+	
+	public ObservationWriterCsv(Writer writer, int bufferSize){
 		this.writer = writer;
+		this.buffer = new char[Math.max(bufferSize, 64)];
 	}
 
 	public void writeHeader() throws Exception {
-		writer.write("\"id\",\"device_id\",\"sensor_id\","
+		writeRaw("\"id\",\"device_id\",\"sensor_id\","
 		+ "\"import_id\",\"import_key\",\"observation_type\",\"unit_of_measure\","
 		+ "\"accuracy\",\"precision\",\"numeric_value\",\"text_value\","
 		+ "\"logged_time\",\"corrected_utc_time\",\"location\","
@@ -21,73 +36,119 @@ public class ObservationWriterCsv {
 	
 	public void write(Observation observation) throws Exception {
 		write( observation.getId() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getDeviceId() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getSensorId() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getImportId() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getImportKey() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getObservationType() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getUnitOfMeasure() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getAccuracy() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getPrecision() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getNumericValue() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getTextValue() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getLoggedTime() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getCorrectedTime() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getLocation() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getMinHeight() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getMaxHeight() );
-		writer.write( "," );
+		writeChar( ',' );
 		write( observation.getElevation() );
-		writer.write( "\n" );
+		writeChar( '\n' );
 	}
 	
 	public void flush() throws Exception {
+		flushBuffer();
 		writer.flush();
 	}
 
+	private void flushBuffer() throws Exception {
+		if( position > 0 ){
+			writer.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	private void writeChar(char c) throws Exception {
+		if( position >= buffer.length ){
+			flushBuffer();
+		}
+		buffer[position++] = c;
+	}
+
+	// Copies a range of a string in blocks as large as the buffer allows
+	private void writeRaw(String str, int start, int end) throws Exception {
+		while( start < end ){
+			if( position >= buffer.length ){
+				flushBuffer();
+			}
+			int count = Math.min(end - start, buffer.length - position);
+			str.getChars(start, start + count, buffer, position);
+			position += count;
+			start += count;
+		}
+	}
+
+	private void writeRaw(String str) throws Exception {
+		writeRaw(str, 0, str.length());
+	}
+
 	private void write(String str) throws Exception {
 		if( null != str ){
-			writer.write("\"");
+			writeChar('"');
 			
-			for(int loop=0; loop<str.length(); ++loop){
-				char c = str.charAt(loop);
-				switch(c){
-				case '"':
-					writer.write("\"\"");
-					break;
-				default:
-					writer.write(c);
-				}
+			// Copy the runs between quotes, doubling the quotes
+			int start = 0;
+			int index = str.indexOf('"');
+			while( index >= 0 ){
+				writeRaw(str, start, index + 1);
+				writeChar('"');
+				start = index + 1;
+				index = str.indexOf('"', start);
 			}
+			writeRaw(str, start, str.length());
 
-			writer.write("\"");
+			writeChar('"');
 		}
 	}
 
+	// Same text as Double.toString(), without creating a string
 	private void write(Double number) throws Exception {
 		if( null != number ){
-			writer.write( number.toString() );
+			numberBuilder.setLength(0);
+			numberBuilder.append( number.doubleValue() );
+			writeBuilder();
 		}
 	}
 
 	private void write(Date date) throws Exception {
 		if( null != date ){
-			writer.write(""+date.getTime());
+			numberBuilder.setLength(0);
+			numberBuilder.append( date.getTime() );
+			writeBuilder();
+		}
+	}
+
+	private void writeBuilder() throws Exception {
+		int length = numberBuilder.length();
+		if( position + length > buffer.length ){
+			flushBuffer();
 		}
+		numberBuilder.getChars(0, length, buffer, position);
+		position += length;
 	}
 }
@@ -0,0 +1,15 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+/**
+ * Returns records one at a time, so that large results do not need to
+ * be held in memory. A reader must be closed.
+ */
+public interface RecordReader<T> {
+
+	/**
+	 * Returns the next record, or null when all records were read
+	 */
+	T read() throws Exception;
+
+	void close() throws Exception;
+}
@@ -1,23 +1,39 @@
 package ca.carleton.gcrc.sensorDb.dbapi.memory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.Vector;
 
+import org.json.JSONObject;
+
 import ca.carleton.gcrc.sensorDb.dbapi.DbAPI;
 import ca.carleton.gcrc.sensorDb.dbapi.Device;
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceHistory;
 import ca.carleton.gcrc.sensorDb.dbapi.DeviceLocation;
 import ca.carleton.gcrc.sensorDb.dbapi.DeviceSensor;
 import ca.carleton.gcrc.sensorDb.dbapi.DeviceSensorProfile;
+import ca.carleton.gcrc.sensorDb.dbapi.ImportJob;
+import ca.carleton.gcrc.sensorDb.dbapi.ImportKeys;
 import ca.carleton.gcrc.sensorDb.dbapi.ImportRecord;
 import ca.carleton.gcrc.sensorDb.dbapi.Location;
 import ca.carleton.gcrc.sensorDb.dbapi.LogRecord;
 import ca.carleton.gcrc.sensorDb.dbapi.Observation;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationBucket;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationQuery;
 import ca.carleton.gcrc.sensorDb.dbapi.ObservationReader;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationRollup;
+import ca.carleton.gcrc.sensorDb.dbapi.RecordReader;
 import ca.carleton.gcrc.sensorDb.dbapi.Sensor;
 
 /**
@@ -41,8 +57,13 @@ public class DbApiMemory implements DbAPI {
 	private Map<String,DeviceSensor> deviceSensorsById = new HashMap<String,DeviceSensor>();
 	private Map<String,Location> locationsById = new HashMap<String,Location>();
 	private Map<String,Observation> observationsById = new HashMap<String,Observation>();
+	private Map<String,ObservationRollup> rollupsByKey = new HashMap<String,ObservationRollup>();
 	private Map<String,ImportRecord> importRecordsById = new HashMap<String,ImportRecord>();
+	private Map<String,ImportJob> importJobsById = new LinkedHashMap<String,ImportJob>();
 	private Map<String,LogRecord> logRecordsById = new HashMap<String,LogRecord>();
+	private long metadataVersion = 0;
+	private long importRecordsVersion = 0;
+	private ThreadLocal<MemoryTransaction> threadTransaction = new ThreadLocal<MemoryTransaction>();
 
 	@Override
 	public Collection<DeviceSensorProfile> getDeviceSensorProfilesFromManufacturerDeviceName(
@@ -82,6 +103,8 @@ public class DbApiMemory implements DbAPI {
 		
 		sensorsById.put(dbSensor.getId(), dbSensor);
 		
+		++metadataVersion;
+
 		return dbSensor;
 	}
 
@@ -136,6 +159,8 @@ public class DbApiMemory implements DbAPI {
 		
 		devicesById.put(dbDevice.getId(), dbDevice);
 		
+		++metadataVersion;
+
 		return dbDevice;
 	}
 
@@ -146,6 +171,11 @@ public class DbApiMemory implements DbAPI {
 		return devices;
 	}
 
+	@Override
+	public RecordReader<Device> readDevices() throws Exception {
+		return new ListRecordReader<Device>( getDevices() );
+	}
+
 	@Override
 	public Device getDeviceFromId(String id) throws Exception {
 		return devicesById.get(id);
@@ -162,6 +192,51 @@ public class DbApiMemory implements DbAPI {
 		return null;
 	}
 
+	@Override
+	public DeviceHistory getDeviceHistoryFromId(String deviceId) throws Exception {
+		Device device = getDeviceFromId(deviceId);
+		if( null == device ){
+			return null;
+		}
+		return getDeviceHistory(device);
+	}
+
+	@Override
+	public DeviceHistory getDeviceHistoryFromSerialNumber(String serialNumber) throws Exception {
+		Device device = getDeviceFromSerialNumber(serialNumber);
+		if( null == device ){
+			return null;
+		}
+		return getDeviceHistory(device);
+	}
+
+	private DeviceHistory getDeviceHistory(Device device) throws Exception {
+		DeviceHistory history = new DeviceHistory();
+		history.setDevice(device);
+
+		List<DeviceSensor> deviceSensors = getDeviceSensorsFromDeviceId(device.getId());
+		Collections.sort(deviceSensors, new Comparator<DeviceSensor>(){
+			@Override
+			public int compare(DeviceSensor a, DeviceSensor b) {
+				return a.getTimestamp().compareTo(b.getTimestamp());
+			}
+		});
+		history.getDeviceSensors().addAll(deviceSensors);
+		history.getSensors().addAll( getSensorsFromDeviceSensors(deviceSensors) );
+
+		List<DeviceLocation> deviceLocations = getDeviceLocationsFromDeviceId(device.getId());
+		Collections.sort(deviceLocations, new Comparator<DeviceLocation>(){
+			@Override
+			public int compare(DeviceLocation a, DeviceLocation b) {
+				return a.getTimestamp().compareTo(b.getTimestamp());
+			}
+		});
+		history.getDeviceLocations().addAll(deviceLocations);
+		history.getLocations().addAll( getLocationsFromDeviceLocations(deviceLocations) );
+
+		return history;
+	}
+
 	@Override
 	public DeviceLocation createDeviceLocation(DeviceLocation deviceLocation) throws Exception {
 		DeviceLocation dbDeviceLocation = new DeviceLocation();
@@ -174,6 +249,8 @@ public class DbApiMemory implements DbAPI {
 		
 		deviceLocationsById.put(dbDeviceLocation.getId(), dbDeviceLocation);
 		
+		++metadataVersion;
+
 		return dbDeviceLocation;
 	}
 
@@ -184,6 +261,11 @@ public class DbApiMemory implements DbAPI {
 		return deviceLocations;
 	}
 
+	@Override
+	public RecordReader<DeviceLocation> readDeviceLocations() throws Exception {
+		return new ListRecordReader<DeviceLocation>( getDeviceLocations() );
+	}
+
 	@Override
 	public List<DeviceLocation> getDeviceLocationsFromDeviceId(String device_id) throws Exception {
 		List<DeviceLocation> deviceLocations = new Vector<DeviceLocation>();
@@ -219,10 +301,8 @@ public class DbApiMemory implements DbAPI {
 
 	@Override
 	public List<Location> getLocationsFromDeviceLocations(List<DeviceLocation> deviceLocations) throws Exception {
-		List<Location> locations = new Vector<Location>();
-		
 		// Accumulate all location ids
-		Set<String> locationIds = new HashSet<String>();
+		Set<String> locationIds = new LinkedHashSet<String>();
 		for(DeviceLocation deviceLocation : deviceLocations){
 			String locationId = deviceLocation.getLocationId();
 			if( null != locationId ){
@@ -230,9 +310,18 @@ public class DbApiMemory implements DbAPI {
 			}
 		}
 		
-		for(String locationId : locationIds){
+		return getLocationsFromIds(locationIds);
+	}
+
+	@Override
+	public List<Location> getLocationsFromIds(Collection<String> locationIds) throws Exception {
+		List<Location> locations = new Vector<Location>();
+		
+		for(String locationId : new LinkedHashSet<String>(locationIds)){
 			Location location = getLocationFromLocationId(locationId);
-			locations.add(location);
+			if( null != location ){
+				locations.add(location);
+			}
 		}
 		
 		return locations;
@@ -240,10 +329,8 @@ public class DbApiMemory implements DbAPI {
 
 	@Override
 	public List<Sensor> getSensorsFromDeviceSensors(List<DeviceSensor> deviceSensors) throws Exception {
-		List<Sensor> sensors = new Vector<Sensor>();
-		
 		// Accumulate all sensor ids
-		Set<String> sensorIds = new HashSet<String>();
+		Set<String> sensorIds = new LinkedHashSet<String>();
 		for(DeviceSensor deviceSensor : deviceSensors){
 			String sensorId = deviceSensor.getSensorId();
 			if( null != sensorId ){
@@ -251,9 +338,18 @@ public class DbApiMemory implements DbAPI {
 			}
 		}
 		
-		for(String sensorId : sensorIds){
+		return getSensorsFromIds(sensorIds);
+	}
+
+	@Override
+	public List<Sensor> getSensorsFromIds(Collection<String> sensorIds) throws Exception {
+		List<Sensor> sensors = new Vector<Sensor>();
+		
+		for(String sensorId : new LinkedHashSet<String>(sensorIds)){
 			Sensor sensor = getSensorFromSensorId(sensorId);
-			sensors.add(sensor);
+			if( null != sensor ){
+				sensors.add(sensor);
+			}
 		}
 		
 		return sensors;
@@ -273,6 +369,8 @@ public class DbApiMemory implements DbAPI {
 		
 		locationsById.put(dbLocation.getId(), dbLocation);
 		
+		++metadataVersion;
+
 		return dbLocation;
 	}
 
@@ -288,6 +386,11 @@ public class DbApiMemory implements DbAPI {
 		return locations;
 	}
 
+	@Override
+	public RecordReader<Location> readLocations() throws Exception {
+		return new ListRecordReader<Location>( getLocations() );
+	}
+
 	@Override
 	public DeviceSensor createDeviceSensor(DeviceSensor deviceSensor) throws Exception {
 		DeviceSensor dbDeviceSensor = new DeviceSensor();
@@ -300,9 +403,16 @@ public class DbApiMemory implements DbAPI {
 		
 		deviceSensorsById.put(dbDeviceSensor.getId(), dbDeviceSensor);
 		
+		++metadataVersion;
+
 		return dbDeviceSensor;
 	}
 
+	@Override
+	public long getMetadataVersion() throws Exception {
+		return metadataVersion;
+	}
+
 	@Override
 	public Observation createObservation(Observation observation) throws Exception {
 		Observation dbObservation = new Observation();
@@ -313,7 +423,7 @@ public class DbApiMemory implements DbAPI {
 		dbObservation.setDeviceId( observation.getDeviceId() );
 		dbObservation.setElevation( observation.getElevation() );
 		dbObservation.setImportId( observation.getImportId() );
-		dbObservation.setImportKey( observation.getImportKey() );
+		dbObservation.setImportKey( ImportKeys.normalize(observation.getImportKey()) );
 		dbObservation.setLocation( observation.getLocation() );
 		dbObservation.setLoggedTime( observation.getLoggedTime() );
 		dbObservation.setMaxHeight( observation.getMaxHeight() );
@@ -326,10 +436,30 @@ public class DbApiMemory implements DbAPI {
 		dbObservation.setUnitOfMeasure( observation.getUnitOfMeasure() );
 		
 		observationsById.put(dbObservation.getId(), dbObservation);
+
+		MemoryTransaction transaction = threadTransaction.get();
+		if( null != transaction ){
+			transaction.observationCreated(dbObservation.getId());
+		}
 		
 		return dbObservation;
 	}
 
+	@Override
+	public int createObservations(List<Observation> observations) throws Exception {
+		int count = 0;
+		for(Observation observation : observations){
+			createObservation(observation);
+			++count;
+		}
+		return count;
+	}
+
+	@Override
+	public int copyObservations(List<Observation> observations) throws Exception {
+		return createObservations(observations);
+	}
+
 	@Override
 	public ObservationReader getObservationsFromImportId(String importId) throws Exception {
 		List<Observation> observations = new Vector<Observation>();
@@ -345,10 +475,244 @@ public class DbApiMemory implements DbAPI {
 		return obsReader;
 	}
 
+	@Override
+	public ObservationReader queryObservations(ObservationQuery query) throws Exception {
+		query.validate();
+
+		List<Observation> observations = new ArrayList<Observation>();
+		for(Observation observation : observationsById.values()){
+			if( isSelected(query, observation) ){
+				observations.add(observation);
+			}
+		}
+
+		Collections.sort(observations, new Comparator<Observation>(){
+			@Override
+			public int compare(Observation o1, Observation o2) {
+				return compareQueryOrder(o1.getCorrectedTime(), o1.getId(), o2.getCorrectedTime(), o2.getId());
+			}
+		});
+
+		if( query.getLimit() > 0 && observations.size() > query.getLimit() ){
+			observations = observations.subList(0, query.getLimit());
+		}
+
+		return new ObservationReaderMemory(observations);
+	}
+
+	@Override
+	public List<ObservationBucket> getObservationBuckets(ObservationQuery query, long bucketMs, int maxBuckets) throws Exception {
+		query.validate();
+		if( bucketMs < 0 ){
+			throw new Exception("Invalid bucket size: "+bucketMs);
+		}
+
+		Map<Long,ObservationBucket> bucketsByIndex = new TreeMap<Long,ObservationBucket>();
+		Map<Long,Double> sumsByIndex = new HashMap<Long,Double>();
+		for(Observation observation : observationsById.values()){
+			if( null == observation.getNumericValue() ){
+				continue;
+			}
+			if( false == isSelected(query, observation, false) ){
+				continue;
+			}
+
+			Date time = observation.getCorrectedTime();
+			double value = observation.getNumericValue();
+			long index = 0;
+			if( bucketMs > 0 ){
+				index = ObservationBucket.computeBucketIndex(time.getTime(), bucketMs);
+			}
+
+			ObservationBucket bucket = bucketsByIndex.get(index);
+			if( null == bucket ){
+				bucket = new ObservationBucket();
+				if( bucketMs > 0 ){
+					bucket.setStartTime( new Date(ObservationBucket.computeBucketStart(index, bucketMs)) );
+				}
+				bucket.setFirstTime(time);
+				bucket.setLastTime(time);
+				bucket.setMinimum(value);
+				bucket.setMaximum(value);
+				bucketsByIndex.put(index, bucket);
+				sumsByIndex.put(index, 0.0);
+
+				if( bucketsByIndex.size() > maxBuckets ){
+					throw new Exception("Query returns more than "+maxBuckets+" buckets");
+				}
+			}
+			bucket.setCount( bucket.getCount() + 1 );
+			if( time.before(bucket.getFirstTime()) ){
+				bucket.setFirstTime(time);
+			}
+			if( time.after(bucket.getLastTime()) ){
+				bucket.setLastTime(time);
+			}
+			bucket.setMinimum( Math.min(bucket.getMinimum(), value) );
+			bucket.setMaximum( Math.max(bucket.getMaximum(), value) );
+			sumsByIndex.put(index, sumsByIndex.get(index) + value);
+		}
+
+		List<ObservationBucket> buckets = new ArrayList<ObservationBucket>(bucketsByIndex.size());
+		for(Map.Entry<Long,ObservationBucket> entry : bucketsByIndex.entrySet()){
+			ObservationBucket bucket = entry.getValue();
+			if( null == bucket.getStartTime() ){
+				bucket.setStartTime( bucket.getFirstTime() );
+			}
+			bucket.setMean( sumsByIndex.get(entry.getKey()) / bucket.getCount() );
+			buckets.add(bucket);
+		}
+		return buckets;
+	}
+
+	@Override
+	public void updateObservationRollups(List<Observation> observations) throws Exception {
+		MemoryTransaction transaction = threadTransaction.get();
+		for(long periodMs : ObservationRollup.PERIODS){
+			for(ObservationRollup partial : ObservationRollup.computeRollups(observations, periodMs)){
+				String key = getRollupKey(partial);
+				ObservationRollup rollup = rollupsByKey.get(key);
+				if( null != transaction ){
+					transaction.rollupChanging(key, rollup);
+				}
+				if( null == rollup ){
+					rollupsByKey.put(key, partial);
+				} else {
+					rollup.merge(partial);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void rebuildObservationRollups() throws Exception {
+		rollupsByKey.clear();
+		updateObservationRollups( new ArrayList<Observation>(observationsById.values()) );
+	}
+
+	@Override
+	public List<ObservationRollup> getObservationRollups(String sensorId, long periodMs) throws Exception {
+		List<ObservationRollup> rollups = new ArrayList<ObservationRollup>();
+		for(ObservationRollup rollup : rollupsByKey.values()){
+			if( sensorId.equals(rollup.getSensorId()) && periodMs == rollup.getPeriodMs() ){
+				rollups.add(rollup);
+			}
+		}
+		Collections.sort(rollups, new Comparator<ObservationRollup>(){
+			@Override
+			public int compare(ObservationRollup r1, ObservationRollup r2) {
+				return r1.getStartTime().compareTo(r2.getStartTime());
+			}
+		});
+		return rollups;
+	}
+
+	static private String getRollupKey(ObservationRollup rollup) {
+		return rollup.getSensorId()+"|"+rollup.getPeriodMs()+"|"+rollup.getStartTime().getTime();
+	}
+
+	private boolean isSelected(ObservationQuery query, Observation observation) {
+		return isSelected(query, observation, true);
+	}
+
+	private boolean isSelected(ObservationQuery query, Observation observation, boolean useResumeKey) {
+		if( null != query.getDeviceId() 
+		 && false == query.getDeviceId().equals(observation.getDeviceId()) ){
+			return false;
+		}
+		if( query.getSensorIds().size() > 0 
+		 && false == query.getSensorIds().contains(observation.getSensorId()) ){
+			return false;
+		}
+		if( null != query.getObservationType() 
+		 && false == query.getObservationType().equals(observation.getObservationType()) ){
+			return false;
+		}
+		if( query.isNumericOnly() && null == observation.getNumericValue() ){
+			return false;
+		}
+
+		long time = observation.getCorrectedTime().getTime();
+		if( null != query.getStartTime() && time < query.getStartTime().getTime() ){
+			return false;
+		}
+		if( null != query.getEndTime() && time >= query.getEndTime().getTime() ){
+			return false;
+		}
+		if( useResumeKey && query.hasResumeKey() ){
+			int order = compareQueryOrder(
+					observation.getCorrectedTime(), 
+					observation.getId(), 
+					query.getAfterTime(), 
+					query.getAfterId()
+					);
+			if( order <= 0 ){
+				return false;
+			}
+		}
+
+		if( query.hasBoundingBox() ){
+			double[] point = getPointCoordinates(observation.getLocation());
+			if( null == point
+			 || point[0] < query.getMinLongitude()
+			 || point[0] > query.getMaxLongitude()
+			 || point[1] < query.getMinLatitude()
+			 || point[1] > query.getMaxLatitude() ){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	static private int compareQueryOrder(Date time1, String id1, Date time2, String id2) {
+		int order = time1.compareTo(time2);
+		if( 0 == order ){
+			order = id1.compareTo(id2);
+		}
+		return order;
+	}
+
+	/**
+	 * Returns the coordinates of a point expressed in WKT or EWKT,
+	 * or null if the geometry is not a point.
+	 */
+	static private double[] getPointCoordinates(String wkt) {
+		if( null == wkt ){
+			return null;
+		}
+		String geometry = wkt.trim();
+		int semiColon = geometry.indexOf(';');
+		if( geometry.startsWith("SRID=") && semiColon > 0 ){
+			geometry = geometry.substring(semiColon+1).trim();
+		}
+		if( false == geometry.toUpperCase().startsWith("POINT") ){
+			return null;
+		}
+		int open = geometry.indexOf('(');
+		int close = geometry.lastIndexOf(')');
+		if( open < 0 || close < open ){
+			return null;
+		}
+		String[] coordinates = geometry.substring(open+1, close).trim().split("\\s+");
+		if( coordinates.length < 2 ){
+			return null;
+		}
+		try {
+			return new double[]{
+				Double.parseDouble(coordinates[0]),
+				Double.parseDouble(coordinates[1])
+			};
+		} catch(Exception e) {
+			return null;
+		}
+	}
+
 	@Override
 	public Observation getObservationFromImportKey(String importKey) throws Exception {
+		String uuid = ImportKeys.normalize(importKey);
 		for(Observation observation : observationsById.values()){
-			if( importKey.equals(observation.getImportKey()) ){
+			if( uuid.equals(observation.getImportKey()) ){
 				return observation;
 			}
 		}
@@ -356,7 +720,28 @@ public class DbApiMemory implements DbAPI {
 	}
 
 	@Override
-	public ImportRecord createImportRecord(ImportRecord importRecord) throws Exception {
+	public Set<String> getExistingImportKeys(Collection<String> importKeys) throws Exception {
+		Set<String> existingKeys = new HashSet<String>();
+		
+		Set<String> storedKeys = new HashSet<String>();
+		for(Observation observation : observationsById.values()){
+			String importKey = observation.getImportKey();
+			if( null != importKey ){
+				storedKeys.add(importKey);
+			}
+		}
+
+		for(String importKey : importKeys){
+			if( storedKeys.contains(ImportKeys.normalize(importKey)) ){
+				existingKeys.add(importKey);
+			}
+		}
+		
+		return existingKeys;
+	}
+
+	@Override
+	public synchronized ImportRecord createImportRecord(ImportRecord importRecord) throws Exception {
 		ImportRecord dbImportRecord = new ImportRecord();
 
 		dbImportRecord.setId( getNextUUID() );
@@ -365,22 +750,122 @@ public class DbApiMemory implements DbAPI {
 		dbImportRecord.setImportTime( importRecord.getImportTime() );
 		
 		importRecordsById.put(dbImportRecord.getId(), dbImportRecord);
+
+		MemoryTransaction transaction = threadTransaction.get();
+		if( null != transaction ){
+			transaction.importRecordChanging(dbImportRecord.getId(), null);
+		}
 		
+		++importRecordsVersion;
+
 		return dbImportRecord;
 	}
 
 	@Override
-	public List<ImportRecord> getImportRecords() throws Exception {
+	public synchronized List<ImportRecord> getImportRecords() throws Exception {
 		List<ImportRecord> importRecords = new Vector<ImportRecord>( importRecordsById.values() );
 		
 		return importRecords;
 	}
 
 	@Override
-	public ImportRecord getImportRecordFromImportId(String importId) throws Exception {
+	public long getImportRecordsVersion() throws Exception {
+		return importRecordsVersion;
+	}
+
+	@Override
+	public synchronized ImportRecord getImportRecordFromImportId(String importId) throws Exception {
 		return importRecordsById.get(importId);
 	}
 
+	@Override
+	public synchronized void updateImportRecord(ImportRecord importRecord) throws Exception {
+		ImportRecord previous = importRecordsById.get(importRecord.getId());
+		if( null == previous ){
+			throw new Exception("Import record not found: "+importRecord.getId());
+		}
+
+		// Replaced, so that a rollback can restore the previous record
+		ImportRecord dbImportRecord = new ImportRecord();
+		dbImportRecord.setId( previous.getId() );
+		dbImportRecord.setImportTime( previous.getImportTime() );
+		dbImportRecord.setFileName( importRecord.getFileName() );
+		if( null != importRecord.getImportParameters() ){
+			dbImportRecord.setImportParameters( new JSONObject(importRecord.getImportParameters().toString()) );
+		}
+
+		MemoryTransaction transaction = threadTransaction.get();
+		if( null != transaction ){
+			transaction.importRecordChanging(previous.getId(), previous);
+		}
+
+		importRecordsById.put(dbImportRecord.getId(), dbImportRecord);
+
+		++importRecordsVersion;
+	}
+
+	@Override
+	public synchronized ImportJob createImportJob(ImportJob importJob) throws Exception {
+		ImportJob dbImportJob = copyImportJob(importJob);
+
+		dbImportJob.setId( getNextUUID() );
+
+		importJobsById.put(dbImportJob.getId(), dbImportJob);
+
+		return copyImportJob(dbImportJob);
+	}
+
+	@Override
+	public synchronized void updateImportJob(ImportJob importJob) throws Exception {
+		ImportJob dbImportJob = importJobsById.get(importJob.getId());
+		if( null == dbImportJob ){
+			throw new Exception("Import job not found: "+importJob.getId());
+		}
+
+		dbImportJob.setState( importJob.getState() );
+		dbImportJob.setStartedTime( importJob.getStartedTime() );
+		dbImportJob.setEndedTime( importJob.getEndedTime() );
+		dbImportJob.setImportId( importJob.getImportId() );
+		dbImportJob.setErrorMessage( importJob.getErrorMessage() );
+	}
+
+	@Override
+	public synchronized List<ImportJob> getImportJobs() throws Exception {
+		List<ImportJob> importJobs = new Vector<ImportJob>();
+		for(ImportJob importJob : importJobsById.values()){
+			importJobs.add(0, copyImportJob(importJob)); // newest first
+		}
+		return importJobs;
+	}
+
+	@Override
+	public synchronized List<ImportJob> getUnfinishedImportJobs() throws Exception {
+		List<ImportJob> importJobs = new Vector<ImportJob>();
+		for(ImportJob importJob : importJobsById.values()){
+			if( false == importJob.isFinished() ){
+				importJobs.add(copyImportJob(importJob));
+			}
+		}
+		return importJobs;
+	}
+
+	private ImportJob copyImportJob(ImportJob importJob) {
+		ImportJob copy = new ImportJob();
+
+		copy.setId( importJob.getId() );
+		copy.setState( importJob.getState() );
+		copy.setFileName( importJob.getFileName() );
+		copy.setOriginalFileName( importJob.getOriginalFileName() );
+		copy.setParameters( importJob.getParameters() );
+		copy.setCreatedTime( importJob.getCreatedTime() );
+		copy.setStartedTime( importJob.getStartedTime() );
+		copy.setEndedTime( importJob.getEndedTime() );
+		copy.setImportId( importJob.getImportId() );
+		copy.setErrorMessage( importJob.getErrorMessage() );
+
+		return copy;
+	}
+
 	@Override
 	public LogRecord createLogRecord(LogRecord logRecord) throws Exception {
 		LogRecord dbLogRecord = new LogRecord();
@@ -400,9 +885,50 @@ public class DbApiMemory implements DbAPI {
 		return logRecords;
 	}
 
+	@Override
+	public RecordReader<LogRecord> readLogRecords() throws Exception {
+		return new ListRecordReader<LogRecord>( getLogRecords() );
+	}
+
 	@Override
 	public LogRecord getLogRecordFromId(String logId) throws Exception {
 		return logRecordsById.get(logId);
 	}
 
+	@Override
+	public void reserveThreadConnection() throws Exception {
+		// No connection
+	}
+
+	@Override
+	public void releaseThreadConnection() throws Exception {
+		// No connection
+	}
+
+	@Override
+	public void beginTransaction() throws Exception {
+		if( null != threadTransaction.get() ){
+			throw new Exception("A transaction is already in progress on the current thread");
+		}
+		threadTransaction.set( new MemoryTransaction() );
+	}
+
+	@Override
+	public void commitTransaction() throws Exception {
+		if( null == threadTransaction.get() ){
+			throw new Exception("No transaction in progress on the current thread");
+		}
+		threadTransaction.remove();
+	}
+
+	@Override
+	public synchronized void rollbackTransaction() throws Exception {
+		MemoryTransaction transaction = threadTransaction.get();
+		if( null != transaction ){
+			threadTransaction.remove();
+			transaction.rollback(observationsById, rollupsByKey, importRecordsById);
+			++importRecordsVersion;
+		}
+	}
+
 }
@@ -0,0 +1,31 @@
+package ca.carleton.gcrc.sensorDb.dbapi.memory;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import ca.carleton.gcrc.sensorDb.dbapi.RecordReader;
+
+/**
+ * Reads records from a collection held in memory
+ */
+public class ListRecordReader<T> implements RecordReader<T> {
+
+	private Iterator<T> iterator;
+
+	public ListRecordReader(Collection<T> records) {
+		this.iterator = records.iterator();
+	}
+
+	@Override
+	public T read() throws Exception {
+		if( null != iterator && iterator.hasNext() ){
+			return iterator.next();
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws Exception {
+		iterator = null;
+	}
+}
@@ -0,0 +1,83 @@
+package ca.carleton.gcrc.sensorDb.dbapi.memory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.carleton.gcrc.sensorDb.dbapi.ImportRecord;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationRollup;
+
+/**
+ * Undo log of a transaction on the memory database. It records the
+ * observations created and the state of the rollups and import records
+ * before they were first changed by the transaction.
+ */
+public class MemoryTransaction {
+
+	private List<String> createdObservationIds = new ArrayList<String>();
+	// Null for the entries created by the transaction
+	private Map<String,ObservationRollup> previousRollups = new HashMap<String,ObservationRollup>();
+	private Map<String,ImportRecord> previousImportRecords = new HashMap<String,ImportRecord>();
+
+	public void observationCreated(String observationId) {
+		createdObservationIds.add(observationId);
+	}
+
+	public void rollupChanging(String key, ObservationRollup rollup) {
+		if( false == previousRollups.containsKey(key) ){
+			previousRollups.put(key, copyRollup(rollup));
+		}
+	}
+
+	public void importRecordChanging(String importId, ImportRecord importRecord) {
+		if( false == previousImportRecords.containsKey(importId) ){
+			previousImportRecords.put(importId, importRecord);
+		}
+	}
+
+	public void rollback(
+			Map<String,?> observationsById,
+			Map<String,ObservationRollup> rollupsByKey,
+			Map<String,ImportRecord> importRecordsById
+			) {
+
+		for(String observationId : createdObservationIds){
+			observationsById.remove(observationId);
+		}
+
+		for(Map.Entry<String,ObservationRollup> entry : previousRollups.entrySet()){
+			if( null == entry.getValue() ){
+				rollupsByKey.remove(entry.getKey());
+			} else {
+				rollupsByKey.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		for(Map.Entry<String,ImportRecord> entry : previousImportRecords.entrySet()){
+			if( null == entry.getValue() ){
+				importRecordsById.remove(entry.getKey());
+			} else {
+				importRecordsById.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	static private ObservationRollup copyRollup(ObservationRollup rollup) {
+		if( null == rollup ){
+			return null;
+		}
+		ObservationRollup copy = new ObservationRollup();
+		copy.setSensorId( rollup.getSensorId() );
+		copy.setDeviceId( rollup.getDeviceId() );
+		copy.setPeriodMs( rollup.getPeriodMs() );
+		copy.setStartTime( rollup.getStartTime() );
+		copy.setCount( rollup.getCount() );
+		copy.setMinimum( rollup.getMinimum() );
+		copy.setMaximum( rollup.getMaximum() );
+		copy.setSum( rollup.getSum() );
+		copy.setFirstTime( rollup.getFirstTime() );
+		copy.setLastTime( rollup.getLastTime() );
+		return copy;
+	}
+}
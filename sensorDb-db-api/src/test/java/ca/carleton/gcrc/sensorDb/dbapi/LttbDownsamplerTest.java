@@ -0,0 +1,80 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LttbDownsamplerTest extends TestCase {
+
+	static private Observation createObservation(long time, double value) {
+		Observation observation = new Observation();
+		observation.setId("obs"+time);
+		observation.setCorrectedTime(new Date(time));
+		observation.setNumericValue(value);
+		return observation;
+	}
+
+	public void testShapeIsKept() throws Exception {
+		int count = 100000;
+		long spikeTime = 31337;
+
+		LttbDownsampler downsampler = new LttbDownsampler(0, count-1, 100);
+		for(int i=0; i<count; ++i){
+			double value = Math.sin(i / 5000.0);
+			if( i == spikeTime ){
+				value = 50.0;
+			}
+			downsampler.add( createObservation(i, value) );
+		}
+		List<Observation> points = downsampler.finish();
+
+		if( points.size() > 100 || points.size() < 90 ){
+			fail("Unexpected number of points: "+points.size());
+		}
+		assertEquals(0, points.get(0).getCorrectedTime().getTime());
+		assertEquals(count-1, points.get(points.size()-1).getCorrectedTime().getTime());
+
+		boolean spikeFound = false;
+		for(int i=0; i<points.size(); ++i){
+			long time = points.get(i).getCorrectedTime().getTime();
+			if( time == spikeTime ){
+				spikeFound = true;
+			}
+			if( i > 0 && time <= points.get(i-1).getCorrectedTime().getTime() ){
+				fail("Points are not in time order");
+			}
+		}
+		if( false == spikeFound ){
+			fail("Spike should be kept");
+		}
+	}
+
+	public void testSmallSeries() throws Exception {
+		// Fewer observations than points: all are kept
+		LttbDownsampler downsampler = new LttbDownsampler(0, 40, 10);
+		for(int i=0; i<5; ++i){
+			downsampler.add( createObservation(i * 10, i) );
+		}
+		assertEquals(5, downsampler.finish().size());
+
+		// A single observation
+		downsampler = new LttbDownsampler(7, 7, 10);
+		downsampler.add( createObservation(7, 1.0) );
+		assertEquals(1, downsampler.finish().size());
+
+		// Nothing
+		downsampler = new LttbDownsampler(0, 0, 10);
+		assertEquals(0, downsampler.finish().size());
+
+		// Out of order
+		downsampler = new LttbDownsampler(0, 40, 10);
+		downsampler.add( createObservation(20, 1.0) );
+		try {
+			downsampler.add( createObservation(10, 1.0) );
+			fail("Observations out of order should be rejected");
+		} catch(Exception e) {
+			// OK
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import ca.carleton.gcrc.sensorDb.dbapi.memory.DbApiMemory;
+import junit.framework.TestCase;
+
+public class ObservationQueryTest extends TestCase {
+
+	static private Observation createObservation(DbAPI dbAPI, String sensorId, long time, String location) throws Exception {
+		Observation observation = new Observation();
+		observation.setDeviceId("device1");
+		observation.setSensorId(sensorId);
+		observation.setImportId("import1");
+		observation.setObservationType("temperature");
+		observation.setNumericValue(1.0 * time);
+		observation.setLoggedTime(new Date(time));
+		observation.setCorrectedTime(new Date(time));
+		observation.setLocation(location);
+		return dbAPI.createObservation(observation);
+	}
+
+	static private List<Observation> readAll(ObservationReader reader) throws Exception {
+		List<Observation> observations = new ArrayList<Observation>();
+		try {
+			Observation observation = reader.read();
+			while( null != observation ){
+				observations.add(observation);
+				observation = reader.read();
+			}
+		} finally {
+			reader.close();
+		}
+		return observations;
+	}
+
+	public void testQueryAndPages() throws Exception {
+		DbApiMemory dbAPI = new DbApiMemory();
+
+		// Several observations share the same time
+		for(int i=0; i<20; ++i){
+			createObservation(dbAPI, "sensorA", 1000L * (i / 3), "SRID=4326;POINT(-75.5 45.5)");
+			createObservation(dbAPI, "sensorB", 1000L * (i / 3), "SRID=4326;POINT(-100 60)");
+		}
+
+		// Sensor and time range
+		{
+			ObservationQuery query = new ObservationQuery();
+			query.addSensorId("sensorA");
+			query.setStartTime(new Date(1000));
+			query.setEndTime(new Date(3000));
+			List<Observation> observations = readAll(dbAPI.queryObservations(query));
+			if( 6 != observations.size() ){
+				fail("Unexpected number of observations: "+observations.size());
+			}
+			for(Observation observation : observations){
+				assertEquals("sensorA", observation.getSensorId());
+			}
+		}
+
+		// Bounding box
+		{
+			ObservationQuery query = new ObservationQuery();
+			query.setBoundingBox(-80, 40, -70, 50);
+			List<Observation> observations = readAll(dbAPI.queryObservations(query));
+			if( 20 != observations.size() ){
+				fail("Unexpected number of observations in box: "+observations.size());
+			}
+		}
+
+		// Reading by pages returns every observation once, in order
+		List<Observation> all = readAll(dbAPI.queryObservations(new ObservationQuery()));
+		assertEquals(40, all.size());
+
+		List<Observation> paged = new ArrayList<Observation>();
+		Observation last = null;
+		while( true ){
+			ObservationQuery query = new ObservationQuery();
+			query.setLimit(7);
+			if( null != last ){
+				query.setResumeKey(last.getCorrectedTime(), last.getId());
+			}
+			List<Observation> page = readAll(dbAPI.queryObservations(query));
+			if( page.size() < 1 ){
+				break;
+			}
+			paged.addAll(page);
+			last = page.get(page.size()-1);
+		}
+
+		assertEquals(all.size(), paged.size());
+		for(int i=0; i<all.size(); ++i){
+			assertEquals(all.get(i).getId(), paged.get(i).getId());
+			if( i > 0 && all.get(i).getCorrectedTime().before(all.get(i-1).getCorrectedTime()) ){
+				fail("Observations are not ordered by time");
+			}
+		}
+	}
+
+	public void testNumericOnly() throws Exception {
+		DbApiMemory dbAPI = new DbApiMemory();
+
+		createObservation(dbAPI, "sensorA", 1000L, "SRID=4326;POINT(-75.5 45.5)");
+
+		Observation textObservation = new Observation();
+		textObservation.setDeviceId("device1");
+		textObservation.setSensorId("sensorA");
+		textObservation.setTextValue("(Parameter changed)");
+		textObservation.setLoggedTime(new Date(2000L));
+		textObservation.setCorrectedTime(new Date(2000L));
+		dbAPI.createObservation(textObservation);
+
+		ObservationQuery query = new ObservationQuery();
+		assertEquals(2, readAll(dbAPI.queryObservations(query)).size());
+
+		query.setNumericOnly(true);
+		List<Observation> observations = readAll(dbAPI.queryObservations(query));
+		if( 1 != observations.size() || null == observations.get(0).getNumericValue() ){
+			fail("Only the numeric observation should be selected");
+		}
+	}
+
+	public void testBuckets() throws Exception {
+		DbApiMemory dbAPI = new DbApiMemory();
+
+		// One observation per hour for three weeks, starting on a Thursday
+		long start = 1451520000000L; // 2015-12-31 00:00 UTC
+		for(int i=0; i<21*24; ++i){
+			createObservation(dbAPI, "sensorA", start + (i * ObservationBucket.HOUR_MS), "SRID=4326;POINT(0 0)");
+		}
+
+		ObservationQuery query = new ObservationQuery();
+		query.addSensorId("sensorA");
+
+		List<ObservationBucket> days = dbAPI.getObservationBuckets(query, ObservationBucket.DAY_MS, 100);
+		assertEquals(21, days.size());
+		for(ObservationBucket bucket : days){
+			assertEquals(24, bucket.getCount());
+			assertEquals(bucket.getStartTime(), bucket.getFirstTime());
+			assertEquals(bucket.getMaximum() - bucket.getMinimum(), 23.0 * ObservationBucket.HOUR_MS);
+		}
+
+		// Weeks start on Monday 2016-01-04
+		List<ObservationBucket> weeks = dbAPI.getObservationBuckets(query, ObservationBucket.WEEK_MS, 100);
+		assertEquals(4, weeks.size());
+		assertEquals(1451260800000L, weeks.get(0).getStartTime().getTime()); // 2015-12-28
+		assertEquals(1451865600000L, weeks.get(1).getStartTime().getTime()); // 2016-01-04
+		assertEquals(4 * 24, weeks.get(0).getCount());
+
+		// Whole selection
+		List<ObservationBucket> all = dbAPI.getObservationBuckets(query, 0, 1);
+		assertEquals(1, all.size());
+		assertEquals(21 * 24, all.get(0).getCount());
+		assertEquals(start, all.get(0).getFirstTime().getTime());
+
+		// Too many buckets
+		try {
+			dbAPI.getObservationBuckets(query, ObservationBucket.HOUR_MS, 100);
+			fail("Number of buckets should be limited");
+		} catch(Exception e) {
+			// OK
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package ca.carleton.gcrc.sensorDb.dbapi;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import ca.carleton.gcrc.sensorDb.dbapi.memory.DbApiMemory;
+import junit.framework.TestCase;
+
+public class ObservationRollupTest extends TestCase {
+
+	static private List<ObservationRollup> copyRollups(List<ObservationRollup> rollups) {
+		List<ObservationRollup> copies = new ArrayList<ObservationRollup>();
+		for(ObservationRollup rollup : rollups){
+			ObservationRollup copy = new ObservationRollup();
+			copy.setSensorId(rollup.getSensorId());
+			copy.setStartTime(rollup.getStartTime());
+			copy.merge(rollup);
+			copies.add(copy);
+		}
+		return copies;
+	}
+
+	static private void assertSameRollups(List<ObservationRollup> expected, List<ObservationRollup> actual) {
+		assertEquals(expected.size(), actual.size());
+		for(int i=0; i<expected.size(); ++i){
+			ObservationRollup e = expected.get(i);
+			ObservationRollup a = actual.get(i);
+			assertEquals(e.getStartTime(), a.getStartTime());
+			assertEquals(e.getCount(), a.getCount());
+			assertEquals(e.getMinimum(), a.getMinimum());
+			assertEquals(e.getMaximum(), a.getMaximum());
+			assertEquals(e.getSum(), a.getSum(), 1e-9);
+			assertEquals(e.getFirstTime(), a.getFirstTime());
+			assertEquals(e.getLastTime(), a.getLastTime());
+		}
+	}
+
+	public void testIncrementalEqualsRebuild() throws Exception {
+		DbApiMemory dbAPI = new DbApiMemory();
+		Random random = new Random(77);
+
+		String[] sensorIds = new String[]{ "sensorA", "sensorB" };
+		long start = 1451606400000L; // 2016-01-01
+
+		// Observations arrive in chunks, out of order and
+		// with the same periods reported by several chunks
+		for(int chunk=0; chunk<50; ++chunk){
+			List<Observation> observations = new ArrayList<Observation>();
+			int size = 1 + random.nextInt(40);
+			for(int i=0; i<size; ++i){
+				Observation observation = new Observation();
+				observation.setDeviceId("device1");
+				observation.setSensorId( sensorIds[random.nextInt(sensorIds.length)] );
+				observation.setCorrectedTime( new Date(start + (long)random.nextInt(10 * 24 * 3600) * 1000L) );
+				if( random.nextInt(10) > 0 ){
+					observation.setNumericValue( random.nextInt(2000) / 8.0 - 100.0 );
+				} else {
+					observation.setTextValue("text");
+				}
+				observations.add( dbAPI.createObservation(observation) );
+			}
+			dbAPI.updateObservationRollups(observations);
+		}
+
+		for(long periodMs : ObservationRollup.PERIODS){
+			for(String sensorId : sensorIds){
+				List<ObservationRollup> incremental = copyRollups( dbAPI.getObservationRollups(sensorId, periodMs) );
+				if( incremental.size() < 1 ){
+					fail("Rollups expected for "+sensorId);
+				}
+
+				dbAPI.rebuildObservationRollups();
+				List<ObservationRollup> rebuilt = dbAPI.getObservationRollups(sensorId, periodMs);
+				assertSameRollups(rebuilt, incremental);
+
+				// Rollups agree with buckets computed from the observations
+				ObservationQuery query = new ObservationQuery();
+				query.addSensorId(sensorId);
+				List<ObservationBucket> buckets = dbAPI.getObservationBuckets(query, periodMs, 10000);
+				assertEquals(buckets.size(), rebuilt.size());
+				for(int i=0; i<buckets.size(); ++i){
+					assertEquals(buckets.get(i).getStartTime(), rebuilt.get(i).getStartTime());
+					assertEquals(buckets.get(i).getCount(), rebuilt.get(i).getCount());
+					assertEquals(buckets.get(i).getMinimum(), rebuilt.get(i).getMinimum());
+					assertEquals(buckets.get(i).getMaximum(), rebuilt.get(i).getMaximum());
+				}
+			}
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package ca.carleton.gcrc.sensorDb.dbapi;
 
 import java.io.StringWriter;
+import java.util.Date;
 
 import junit.framework.TestCase;
 
@@ -18,5 +19,47 @@ public class ObservationWriterCsvTest extends TestCase {
 		
 		csvWriter.write(obs);
 		csvWriter.flush();
+
+		assertEquals("\"abc123\",,,,\"aaa\",,,1.0,,,,,,,,,\n", sw.toString());
+	}
+
+	public void testEscapeAndNumbers() throws Exception {
+		Observation obs = new Observation();
+		obs.setId("id");
+		obs.setTextValue("say \"hello\", \"\"twice\"\"\nnext line");
+		obs.setLocation("\"");
+		obs.setUnitOfMeasure("");
+		obs.setNumericValue(-0.000012345);
+		obs.setAccuracy(1e21);
+		obs.setPrecision(Double.NaN);
+		obs.setMinHeight(-0.0);
+		obs.setMaxHeight(123456789.125);
+		obs.setElevation(0.1);
+		obs.setLoggedTime(new Date(1430907525000L));
+		obs.setCorrectedTime(new Date(-1L));
+
+		String expected = "\"id\",,,,,,\"\","
+			+ "1.0E21,NaN,-1.2345E-5,"
+			+ "\"say \"\"hello\"\", \"\"\"\"twice\"\"\"\"\nnext line\","
+			+ "1430907525000,-1,"
+			+ "\"\"\"\","
+			+ "-0.0,1.23456789125E8,0.1\n";
+
+		// Small buffers force the values to span several blocks
+		int[] bufferSizes = new int[]{ 1, 64, 65, 100, ObservationWriterCsv.DEFAULT_BUFFER_SIZE };
+		for(int bufferSize : bufferSizes){
+			StringWriter sw = new StringWriter();
+			ObservationWriterCsv csvWriter = new ObservationWriterCsv(sw, bufferSize);
+			for(int i=0; i<10; ++i){
+				csvWriter.write(obs);
+			}
+			csvWriter.flush();
+
+			StringBuilder sb = new StringBuilder();
+			for(int i=0; i<10; ++i){
+				sb.append(expected);
+			}
+			assertEquals(sb.toString(), sw.toString());
+		}
 	}
 }
@@ -0,0 +1,397 @@
+package ca.carleton.gcrc.sensorDb.jdbc;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of connections to the database.
+ *
+ * Connections are only validated when they have been idle for a while.
+ * Connections that are not returned within the leak detection threshold
+ * are reported, along with the stack of the code that borrowed them.
+ * Connections held for long on purpose can be exempted.
+ */
+public class ConnectionPool {
+
+	final static protected Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+	static private class PooledConnection {
+		Connection connection;
+		long lastUsed;
+		long borrowedTime;
+		Throwable borrowedFrom;
+		boolean leakReported;
+		boolean leakDetectionExempt;
+
+		PooledConnection(Connection connection){
+			this.connection = connection;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+
+	private final String connectionString;
+	private final String user;
+	private final String password;
+	private final ConnectionPoolSettings settings;
+	private final LinkedList<PooledConnection> idleConnections = new LinkedList<PooledConnection>();
+	private final Map<Connection,PooledConnection> borrowedConnections = new IdentityHashMap<Connection,PooledConnection>();
+	// Connections being opened, validated or reset outside of the lock
+	private int pendingCount = 0;
+	private boolean closed = false;
+	private Timer housekeepingTimer = null;
+
+	public ConnectionPool(
+			String connectionString,
+			String user,
+			String password,
+			ConnectionPoolSettings settings
+			) throws Exception {
+
+		settings.validate();
+
+		this.connectionString = connectionString;
+		this.user = user;
+		this.password = password;
+		this.settings = settings;
+	}
+
+	/**
+	 * Opens the minimum number of connections and starts the
+	 * maintenance of the pool.
+	 */
+	public void start() throws Exception {
+		for(int i=0; i<settings.getMinSize(); ++i){
+			Connection connection = createConnection();
+			synchronized(this){
+				idleConnections.addFirst( new PooledConnection(connection) );
+			}
+		}
+
+		long periodMs = 30000;
+		if( settings.getLeakDetectionSeconds() > 0 ){
+			periodMs = Math.min(periodMs, settings.getLeakDetectionSeconds() * 1000L / 2);
+			periodMs = Math.max(periodMs, 1000);
+		}
+		housekeepingTimer = new Timer("ConnectionPool housekeeping", true);
+		housekeepingTimer.schedule(new TimerTask(){
+			@Override
+			public void run() {
+				try {
+					performHousekeeping();
+				} catch(Throwable t) {
+					logger.error("Error during connection pool housekeeping",t);
+				}
+			}
+		}, periodMs, periodMs);
+	}
+
+	public Connection borrowConnection() throws Exception {
+		long deadline = System.currentTimeMillis() + (settings.getBorrowTimeoutSeconds() * 1000L);
+
+		while( true ){
+			PooledConnection pooled = null;
+			boolean create = false;
+
+			synchronized(this){
+				if( closed ){
+					throw new Exception("Connection pool is closed");
+				}
+
+				if( idleConnections.size() > 0 ){
+					// Most recently used connection first. It remains counted
+					// while it is validated, so that the pool does not grow
+					// past its maximum size in the meantime.
+					pooled = idleConnections.removeFirst();
+					++pendingCount;
+
+				} else if( getTotalCount() < settings.getMaxSize() ){
+					++pendingCount;
+					create = true;
+
+				} else {
+					long waitMs = deadline - System.currentTimeMillis();
+					if( waitMs <= 0 ){
+						throw new Exception("Timed out waiting for a database connection ("
+								+settings.getMaxSize()+" connections in use)");
+					}
+					this.wait(waitMs);
+					continue;
+				}
+			}
+
+			if( create ){
+				Connection connection = null;
+				try {
+					connection = createConnection();
+				} finally {
+					synchronized(this){
+						--pendingCount;
+						if( null == connection ){
+							this.notifyAll();
+						} else {
+							pooled = new PooledConnection(connection);
+							markBorrowed(pooled);
+						}
+					}
+				}
+				return connection;
+			}
+
+			if( isUsable(pooled) ){
+				synchronized(this){
+					--pendingCount;
+					markBorrowed(pooled);
+				}
+				return pooled.connection;
+			}
+
+			logger.warn("Discarding stale database connection");
+			closeConnection(pooled.connection);
+			synchronized(this){
+				--pendingCount;
+				this.notifyAll();
+			}
+		}
+	}
+
+	public void releaseConnection(Connection connection) {
+		if( null == connection ){
+			return;
+		}
+
+		PooledConnection pooled = null;
+		synchronized(this){
+			pooled = borrowedConnections.remove(connection);
+			if( null != pooled ){
+				// Still counted while it is reset
+				++pendingCount;
+			}
+		}
+		if( null == pooled ){
+			logger.error("Releasing a connection that was not borrowed from the pool");
+			return;
+		}
+
+		boolean reusable = resetConnection(connection);
+		synchronized(this){
+			--pendingCount;
+			if( reusable && false == closed ){
+				pooled.lastUsed = System.currentTimeMillis();
+				pooled.borrowedFrom = null;
+				idleConnections.addFirst(pooled);
+			} else {
+				reusable = false;
+			}
+			this.notifyAll();
+		}
+
+		if( false == reusable ){
+			closeConnection(connection);
+		}
+	}
+
+	/**
+	 * Closes idle connections and refuses further requests. Connections
+	 * currently borrowed are closed when they are returned.
+	 */
+	public void close() {
+		List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+		synchronized(this){
+			closed = true;
+			toClose.addAll(idleConnections);
+			idleConnections.clear();
+			this.notifyAll();
+		}
+
+		if( null != housekeepingTimer ){
+			housekeepingTimer.cancel();
+			housekeepingTimer = null;
+		}
+
+		for(PooledConnection pooled : toClose){
+			closeConnection(pooled.connection);
+		}
+	}
+
+	/**
+	 * Excludes a borrowed connection from leak detection until it is
+	 * returned. Used for connections that are held for a long time on
+	 * purpose, such as the connection of an import or of a long export.
+	 */
+	public synchronized void exemptFromLeakDetection(Connection connection) {
+		PooledConnection pooled = borrowedConnections.get(connection);
+		if( null != pooled ){
+			pooled.leakDetectionExempt = true;
+		}
+	}
+
+	public synchronized int getIdleCount() {
+		return idleConnections.size();
+	}
+
+	public synchronized int getBorrowedCount() {
+		return borrowedConnections.size();
+	}
+
+	private int getTotalCount() {
+		return idleConnections.size() + borrowedConnections.size() + pendingCount;
+	}
+
+	private void markBorrowed(PooledConnection pooled) {
+		pooled.borrowedTime = System.currentTimeMillis();
+		pooled.leakReported = false;
+		pooled.leakDetectionExempt = false;
+		if( settings.getLeakDetectionSeconds() > 0 ){
+			pooled.borrowedFrom = new Exception("Connection borrowed here");
+		}
+		borrowedConnections.put(pooled.connection, pooled);
+	}
+
+	private boolean isUsable(PooledConnection pooled) {
+		try {
+			if( pooled.connection.isClosed() ){
+				return false;
+			}
+
+			long idleMs = System.currentTimeMillis() - pooled.lastUsed;
+			if( idleMs > settings.getValidationIdleSeconds() * 1000L ){
+				return pooled.connection.isValid( settings.getValidationTimeoutSeconds() );
+			}
+
+			return true;
+
+		} catch(Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns a connection to its default state. A transaction left
+	 * open by a caller is rolled back.
+	 */
+	private boolean resetConnection(Connection connection) {
+		try {
+			if( connection.isClosed() ){
+				return false;
+			}
+
+			if( false == connection.getAutoCommit() ){
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+
+			return true;
+
+		} catch(Exception e) {
+			logger.error("Unable to reset database connection",e);
+			return false;
+		}
+	}
+
+	private void performHousekeeping() throws Exception {
+		long now = System.currentTimeMillis();
+		List<PooledConnection> toClose = new ArrayList<PooledConnection>();
+		int missingCount = 0;
+
+		synchronized(this){
+			if( closed ){
+				return;
+			}
+
+			// Leak detection
+			long leakMs = settings.getLeakDetectionSeconds() * 1000L;
+			if( leakMs > 0 ){
+				for(PooledConnection pooled : borrowedConnections.values()){
+					if( pooled.leakDetectionExempt ){
+						continue;
+					}
+					long heldMs = now - pooled.borrowedTime;
+					if( heldMs > leakMs && false == pooled.leakReported ){
+						pooled.leakReported = true;
+						logger.warn("Database connection held for "+(heldMs/1000)
+								+" seconds. Possible connection leak.", pooled.borrowedFrom);
+					}
+				}
+			}
+
+			// Close connections idle for too long, oldest at the end
+			long idleTimeoutMs = settings.getIdleTimeoutSeconds() * 1000L;
+			Iterator<PooledConnection> it = idleConnections.descendingIterator();
+			while( it.hasNext() && getTotalCount() > settings.getMinSize() ){
+				PooledConnection pooled = it.next();
+				if( now - pooled.lastUsed > idleTimeoutMs ){
+					it.remove();
+					toClose.add(pooled);
+				}
+			}
+
+			// Replenish up to minimum size
+			missingCount = settings.getMinSize() - getTotalCount();
+			if( missingCount > 0 ){
+				pendingCount += missingCount;
+			}
+		}
+
+		for(PooledConnection pooled : toClose){
+			closeConnection(pooled.connection);
+		}
+
+		for(int i=0; i<missingCount; ++i){
+			Connection connection = null;
+			try {
+				connection = createConnection();
+			} catch(Exception e) {
+				logger.error("Unable to replenish connection pool",e);
+			} finally {
+				synchronized(this){
+					--pendingCount;
+					if( null != connection && false == closed ){
+						idleConnections.addLast( new PooledConnection(connection) );
+						connection = null;
+					}
+					this.notifyAll();
+				}
+				if( null != connection ){
+					closeConnection(connection);
+				}
+			}
+		}
+	}
+
+	private Connection createConnection() throws Exception {
+		try {
+		    Class.forName("org.postgresql.Driver"); //load the driver
+			Connection con = DriverManager.getConnection(
+					"jdbc:postgresql:"+connectionString,
+					user,
+					password
+				); //connect to the db
+		    DatabaseMetaData dbmd = con.getMetaData(); //get MetaData to confirm connection
+		    logger.info("Connection to "+dbmd.getDatabaseProductName()+" "+
+		                       dbmd.getDatabaseProductVersion()+" successful.");
+			return con;
+		} catch (Exception e) {
+			throw new Exception("Couldn't get db connection: "+connectionString,e);
+		}
+	}
+
+	private void closeConnection(Connection connection) {
+		try {
+			connection.close();
+		} catch(Exception e) {
+			// Ignore
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package ca.carleton.gcrc.sensorDb.jdbc;
+
+/**
+ * Parameters that control the size and the behaviour of a connection pool.
+ * All durations are in seconds. A leak detection threshold of zero
+ * disables leak detection.
+ */
+public class ConnectionPoolSettings {
+
+	private int minSize = 1;
+	private int maxSize = 10;
+	private int validationIdleSeconds = 30;
+	private int validationTimeoutSeconds = 2;
+	private int idleTimeoutSeconds = 600;
+	private int borrowTimeoutSeconds = 30;
+	private int leakDetectionSeconds = 300;
+
+	public int getMinSize() {
+		return minSize;
+	}
+	public void setMinSize(int minSize) {
+		this.minSize = minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * A connection that has been idle for longer than this period
+	 * is validated before it is handed out.
+	 */
+	public int getValidationIdleSeconds() {
+		return validationIdleSeconds;
+	}
+	public void setValidationIdleSeconds(int validationIdleSeconds) {
+		this.validationIdleSeconds = validationIdleSeconds;
+	}
+
+	public int getValidationTimeoutSeconds() {
+		return validationTimeoutSeconds;
+	}
+	public void setValidationTimeoutSeconds(int validationTimeoutSeconds) {
+		this.validationTimeoutSeconds = validationTimeoutSeconds;
+	}
+
+	/**
+	 * Idle connections in excess of the minimum size are closed
+	 * after this period.
+	 */
+	public int getIdleTimeoutSeconds() {
+		return idleTimeoutSeconds;
+	}
+	public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+		this.idleTimeoutSeconds = idleTimeoutSeconds;
+	}
+
+	/**
+	 * Maximum time a caller waits for a connection when all connections
+	 * are in use.
+	 */
+	public int getBorrowTimeoutSeconds() {
+		return borrowTimeoutSeconds;
+	}
+	public void setBorrowTimeoutSeconds(int borrowTimeoutSeconds) {
+		this.borrowTimeoutSeconds = borrowTimeoutSeconds;
+	}
+
+	/**
+	 * A connection held for longer than this period is reported
+	 * as a possible leak.
+	 */
+	public int getLeakDetectionSeconds() {
+		return leakDetectionSeconds;
+	}
+	public void setLeakDetectionSeconds(int leakDetectionSeconds) {
+		this.leakDetectionSeconds = leakDetectionSeconds;
+	}
+
+	public void validate() throws Exception {
+		if( maxSize < 1 ){
+			throw new Exception("Maximum size of connection pool must be at least 1");
+		}
+		if( minSize < 0 ){
+			throw new Exception("Minimum size of connection pool can not be negative");
+		}
+		if( minSize > maxSize ){
+			throw new Exception("Minimum size of connection pool ("+minSize
+					+") is larger than maximum size ("+maxSize+")");
+		}
+		if( validationIdleSeconds < 0
+		 || validationTimeoutSeconds < 0
+		 || idleTimeoutSeconds < 0
+		 || borrowTimeoutSeconds < 0
+		 || leakDetectionSeconds < 0 ){
+			throw new Exception("Durations for connection pool can not be negative");
+		}
+	}
+}
@@ -1,48 +1,99 @@
 package ca.carleton.gcrc.sensorDb.jdbc;
 
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.Array;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.Vector;
 
 import org.json.JSONObject;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ca.carleton.gcrc.sensorDb.dbapi.DbAPI;
 import ca.carleton.gcrc.sensorDb.dbapi.Device;
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceHistory;
 import ca.carleton.gcrc.sensorDb.dbapi.DeviceLocation;
 import ca.carleton.gcrc.sensorDb.dbapi.DeviceSensor;
 import ca.carleton.gcrc.sensorDb.dbapi.DeviceSensorProfile;
+import ca.carleton.gcrc.sensorDb.dbapi.ImportJob;
+import ca.carleton.gcrc.sensorDb.dbapi.ImportKeys;
 import ca.carleton.gcrc.sensorDb.dbapi.ImportRecord;
 import ca.carleton.gcrc.sensorDb.dbapi.Location;
 import ca.carleton.gcrc.sensorDb.dbapi.LogRecord;
 import ca.carleton.gcrc.sensorDb.dbapi.Observation;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationBucket;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationQuery;
 import ca.carleton.gcrc.sensorDb.dbapi.ObservationReader;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationRollup;
+import ca.carleton.gcrc.sensorDb.dbapi.RecordReader;
 import ca.carleton.gcrc.sensorDb.dbapi.Sensor;
 
 public class DbApiJdbc implements DbAPI {
 	final protected Logger logger = LoggerFactory.getLogger(this.getClass());
 
+	static final public int DEFAULT_OBSERVATION_BATCH_SIZE = 1000;
+	static final private int COPY_BUFFER_SIZE = 65536;
+
+	static final private String OBSERVATION_INSERT_SQL = 
+		"INSERT INTO observations"
+		+" (device_id,sensor_id,import_id,import_key,observation_type,"
+		+" unit_of_measure,accuracy,precision,numeric_value,text_value,"
+		+" logged_time,corrected_utc_time,location,height_min_metres,"
+		+" height_max_metres,elevation_in_metres)"
+		+" VALUES (?,?,?,?,?,?,?,?,?,?,?,?,ST_GeomFromEWKT(?),?,?,?)";
+
+	static final private String IMPORT_JOB_FIELDS = 
+		"id,state,filename,original_filename,job_parameters,created_time,"
+		+"started_time,ended_time,import_id,error_message";
+
 	private DbConnection dbConn;
+	private int observationBatchSize = DEFAULT_OBSERVATION_BATCH_SIZE;
 	
 	public DbApiJdbc(DbConnection connection){
 		this.dbConn = connection;
 	}
 
+	public int getObservationBatchSize() {
+		return observationBatchSize;
+	}
+
+	/**
+	 * Sets the number of rows sent to the database in each round trip
+	 * by createObservations()
+	 */
+	public void setObservationBatchSize(int observationBatchSize) {
+		if( observationBatchSize < 1 ){
+			observationBatchSize = 1;
+		}
+		this.observationBatchSize = observationBatchSize;
+	}
+
 	@Override
 	public Collection<DeviceSensorProfile> getDeviceSensorProfilesFromManufacturerDeviceName(String manufacturerDeviceName) throws Exception {
 		List<DeviceSensorProfile> profiles = new Vector<DeviceSensorProfile>();
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,device_type,manufacturer,manufacturer_device_name,sensor_label,"
 				+ "sensor_type_of_measurement,sensor_unit_of_measurement,sensor_accuracy,"
 				+ "sensor_precision,sensor_height_in_metres"
@@ -72,9 +123,12 @@ public class DbApiJdbc implements DbAPI {
 			}
 
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving device sensor profiles ("+manufacturerDeviceName+") from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 		
 		return profiles;
@@ -84,8 +138,9 @@ public class DbApiJdbc implements DbAPI {
 	public Collection<DeviceSensorProfile> getDeviceSensorProfiles() throws Exception {
 		List<DeviceSensorProfile> profiles = new Vector<DeviceSensorProfile>();
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,device_type,manufacturer,manufacturer_device_name,sensor_label,"
 				+ "sensor_type_of_measurement,sensor_unit_of_measurement,sensor_accuracy,"
 				+ "sensor_precision,sensor_height_in_metres"
@@ -112,9 +167,12 @@ public class DbApiJdbc implements DbAPI {
 			}
 
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving all device sensor profiles from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return profiles;
@@ -129,8 +187,9 @@ public class DbApiJdbc implements DbAPI {
 			throw new Exception("Id should not be set when creating a sensor");
 		}
 		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 					"INSERT INTO sensors"
 					+" (label,type_of_measurement,unit_of_measurement,accuracy,"
 					+ "precision,height_in_metres)"
@@ -160,10 +219,15 @@ public class DbApiJdbc implements DbAPI {
 			result.setHeightInMetres( resultSet.getDouble(7) );
 
 			resultSet.close();
+			pstmt.close();
 				
 		} catch(Exception e) {
 			throw new Exception("Error while creating sensor ("+sensor.getLabel()+")",e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
+
+		dbConn.incrementMetadataVersion();
 		
 		return result;
 	}
@@ -172,8 +236,9 @@ public class DbApiJdbc implements DbAPI {
 	public Collection<Sensor> getSensors() throws Exception {
 		List<Sensor> sensors = new Vector<Sensor>();
 		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,label,type_of_measurement,unit_of_measurement,"
 				+ "accuracy,precision,height_in_metres,serial_number"
 				+ " FROM sensors"
@@ -205,9 +270,12 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving sensors from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return sensors;
@@ -216,8 +284,9 @@ public class DbApiJdbc implements DbAPI {
 	@Override
 	public Sensor getSensorFromSensorId(String sensorId) throws Exception {
 		Sensor sensor = null;
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,label,type_of_measurement,unit_of_measurement,accuracy,precision,height_in_metres,serial_number"
 				+ " FROM sensors"
 				+ " WHERE id=?"
@@ -249,20 +318,80 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving sensor (id="+sensorId+") from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return sensor;
 	}
 
+	@Override
+	public List<Sensor> getSensorsFromIds(Collection<String> sensorIds) throws Exception {
+		List<Sensor> sensors = new Vector<Sensor>();
+		if( sensorIds.size() < 1 ){
+			return sensors;
+		}
+
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"SELECT id,label,type_of_measurement,unit_of_measurement,accuracy,precision,height_in_metres,serial_number"
+				+ " FROM sensors"
+				+ " WHERE id = ANY(?)"
+			);
+			
+			pstmt.setArray(1, connection.createArrayOf("uuid", toUuids(sensorIds)));
+			
+			ResultSet resultSet = pstmt.executeQuery();
+			
+			while( resultSet.next() ){
+				Sensor sensor = new Sensor();
+				sensor.setId( resultSet.getString(1) );
+				sensor.setLabel( resultSet.getString(2) );
+				sensor.setTypeOfMeasurement( resultSet.getString(3) );
+				sensor.setUnitOfMeasurement( resultSet.getString(4) );
+				sensor.setAccuracy( resultSet.getDouble(5) );
+				sensor.setPrecision( resultSet.getDouble(6) );
+				sensor.setHeightInMetres( resultSet.getDouble(7) );
+				sensor.setSerialNumber( resultSet.getString(8) );
+				
+				sensors.add(sensor);
+			}
+			
+			resultSet.close();
+			pstmt.close();
+			
+		} catch (Exception e) {
+			throw new Exception("Error retrieving sensors from ids", e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+
+		return sensors;
+	}
+
+	/**
+	 * Converts ids to UUIDs, each one listed once
+	 */
+	static private UUID[] toUuids(Collection<String> ids) {
+		Set<UUID> uuids = new LinkedHashSet<UUID>();
+		for(String id : ids){
+			uuids.add( UUID.fromString(id) );
+		}
+		return uuids.toArray(new UUID[uuids.size()]);
+	}
+
 	@Override
 	public List<Sensor> getSensorsFromDeviceId(String device_id) throws Exception {
 		List<Sensor> sensors = new Vector<Sensor>();
 		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT sensors.id AS id,label,type_of_measurement,unit_of_measurement,"
 				+ "accuracy,precision,height_in_metres,serial_number,"
 			    + "devices_sensors.device_id"
@@ -299,9 +428,12 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving sensors for device (id="+device_id+") from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return sensors;
@@ -316,6 +448,7 @@ public class DbApiJdbc implements DbAPI {
 			throw new Exception("Id should not be set when creating a device");
 		}
 		
+		Connection connection = dbConn.getConnection();
 		try {
 			Collection<DeviceSensorProfile> deviceSensorProfiles = 
 				getDeviceSensorProfilesFromManufacturerDeviceName(
@@ -330,7 +463,7 @@ public class DbApiJdbc implements DbAPI {
 				break;
 			}
 			
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"INSERT INTO devices"
 				+" (serial_number,access_code,device_type,manufacturer,manufacturer_device_name,acquired_on,notes)"
 				+" VALUES (?,?,?,?,?,?,?)"
@@ -360,6 +493,7 @@ public class DbApiJdbc implements DbAPI {
 			result.setNotes( resultSet.getString(8) );
 
 			resultSet.close();
+			pstmt.close();
 			
 			// Create sensors for this device...
 
@@ -397,7 +531,11 @@ public class DbApiJdbc implements DbAPI {
 			
 		} catch (Exception e) {
 			throw new Exception("Error inserting device ("+device.getSerialNumber()+") into database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
+
+		dbConn.incrementMetadataVersion();
 		
 		return result;
 	}
@@ -406,44 +544,74 @@ public class DbApiJdbc implements DbAPI {
 	public Collection<Device> getDevices() throws Exception {
 		List<Device> devices = new Vector<Device>();
 		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
-				"SELECT id,serial_number,access_code,device_type,manufacturer,"
-				+ "manufacturer_device_name,acquired_on,notes"
-				+ " FROM devices"
+			PreparedStatement pstmt = connection.prepareStatement(
+				"SELECT "+DEVICE_FIELDS+" FROM devices"
 			);
 			
 			ResultSet resultSet = pstmt.executeQuery();
 			
 			while( resultSet.next() ){
-				Device device = new Device();
-				device.setId( resultSet.getString(1) );
-				device.setSerialNumber( resultSet.getString(2) );
-				device.setAccessCode( resultSet.getString(3) );
-				device.setDeviceType( resultSet.getString(4) );
-				device.setManufacturer( resultSet.getString(5) );
-				device.setManufacturerDeviceName( resultSet.getString(6) );
-				device.setAcquiredOn( resultSet.getTimestamp(7) );
-				device.setNotes( resultSet.getString(8) );
+				Device device = readDevice(resultSet);
 				
 				devices.add(device);
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving devices from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return devices;
 	}
 
+	@Override
+	public RecordReader<Device> readDevices() throws Exception {
+		RecordReaderJdbc<Device> reader = new RecordReaderJdbc<Device>(){
+			@Override
+			protected Device readRecord(ResultSet resultSet) throws Exception {
+				return readDevice(resultSet);
+			}
+		};
+		try {
+			reader.open(dbConn, "SELECT "+DEVICE_FIELDS+" FROM devices");
+		} catch (Exception e) {
+			throw new Exception("Error retrieving devices from database", e);
+		}
+		return reader;
+	}
+
+	static final private String DEVICE_FIELDS = "id,serial_number,access_code,device_type,manufacturer,"
+			+ "manufacturer_device_name,acquired_on,notes";
+
+	/**
+	 * Reads a device from a row that starts with DEVICE_FIELDS
+	 */
+	static private Device readDevice(ResultSet resultSet) throws Exception {
+		Device device = new Device();
+		device.setId( resultSet.getString(1) );
+		device.setSerialNumber( resultSet.getString(2) );
+		device.setAccessCode( resultSet.getString(3) );
+		device.setDeviceType( resultSet.getString(4) );
+		device.setManufacturer( resultSet.getString(5) );
+		device.setManufacturerDeviceName( resultSet.getString(6) );
+		device.setAcquiredOn( resultSet.getTimestamp(7) );
+		device.setNotes( resultSet.getString(8) );
+		return device;
+	}
+
 	@Override
 	public Device getDeviceFromId(String id) throws Exception {
 		Device device = null;
 		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,serial_number,access_code,device_type,manufacturer,"
 				+ "manufacturer_device_name,acquired_on,notes"
 				+ " FROM devices"
@@ -472,6 +640,7 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 			if( null == device ){
 				throw new Exception("Can not find device with id: "+id);
@@ -479,6 +648,8 @@ public class DbApiJdbc implements DbAPI {
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving device (id="+id+") from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return device;
@@ -488,8 +659,9 @@ public class DbApiJdbc implements DbAPI {
 	public Device getDeviceFromSerialNumber(String serialNumber) throws Exception {
 		Device device = null;
 		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,serial_number,access_code,device_type,manufacturer,"
 				+ "manufacturer_device_name,acquired_on,notes"
 				+ " FROM devices"
@@ -518,6 +690,7 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 			if( null == device ){
 				throw new Exception("Can not find device with serial number: "+serialNumber);
@@ -525,11 +698,150 @@ public class DbApiJdbc implements DbAPI {
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving device (sn="+serialNumber+") from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return device;
 	}
 
+	@Override
+	public DeviceHistory getDeviceHistoryFromId(String deviceId) throws Exception {
+		try {
+			return getDeviceHistory("id=?", UUID.fromString(deviceId));
+		} catch (Exception e) {
+			throw new Exception("Error retrieving history of device (id="+deviceId+") from database", e);
+		}
+	}
+
+	@Override
+	public DeviceHistory getDeviceHistoryFromSerialNumber(String serialNumber) throws Exception {
+		try {
+			return getDeviceHistory("serial_number=?", serialNumber);
+		} catch (Exception e) {
+			throw new Exception("Error retrieving history of device (sn="+serialNumber+") from database", e);
+		}
+	}
+
+	/**
+	 * Reads a device, its sensor associations and its location associations
+	 * with a single statement. Each row of the result is either the device,
+	 * an association with a sensor or an association with a location. The
+	 * columns that follow the association hold the fields of the sensor or
+	 * of the location. Rows are sorted by timestamp. Associations can have
+	 * the same timestamp as the device, so the device row can come after
+	 * some of them.
+	 */
+	private DeviceHistory getDeviceHistory(String deviceCondition, Object parameter) throws Exception {
+		DeviceHistoryBuilder builder = new DeviceHistoryBuilder();
+
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"WITH d AS (SELECT * FROM devices WHERE "+deviceCondition+")"
+				+" SELECT 'device'::text,d.id,d.acquired_on,NULL::uuid,d.notes,"
+				+"d.serial_number,d.access_code,d.device_type,d.manufacturer,d.manufacturer_device_name,"
+				+"NULL::numeric,NULL::numeric,NULL::numeric,NULL::boolean"
+				+" FROM d"
+				+" UNION ALL"
+				+" SELECT 'sensor',ds.id,ds.timestamp,ds.sensor_id,ds.notes,"
+				+"s.label,s.type_of_measurement,s.unit_of_measurement,s.serial_number,NULL,"
+				+"s.accuracy,s.precision,s.height_in_metres,NULL"
+				+" FROM d"
+				+" INNER JOIN devices_sensors ds ON ds.device_id = d.id"
+				+" INNER JOIN sensors s ON s.id = ds.sensor_id"
+				+" UNION ALL"
+				+" SELECT 'location',dl.id,dl.timestamp,dl.location_id,dl.notes,"
+				+"l.name,ST_AsEWKT(l.coordinates),l.comment,NULL,NULL,"
+				+"l.elevation_in_metres,l.accuracy_in_metres,NULL,l.record_observations"
+				+" FROM d"
+				+" INNER JOIN devices_locations dl ON dl.device_id = d.id"
+				+" INNER JOIN locations l ON l.id = dl.location_id"
+				+" ORDER BY 3 NULLS FIRST"
+			);
+
+			pstmt.setObject(1, parameter);
+
+			ResultSet resultSet = pstmt.executeQuery();
+
+			while( resultSet.next() ){
+				String kind = resultSet.getString(1);
+				String id = resultSet.getString(2);
+				Date timestamp = resultSet.getTimestamp(3);
+				String refId = resultSet.getString(4);
+				String notes = resultSet.getString(5);
+
+				if( "device".equals(kind) ){
+					Device device = new Device();
+					device.setId(id);
+					device.setAcquiredOn(timestamp);
+					device.setNotes(notes);
+					device.setSerialNumber( resultSet.getString(6) );
+					device.setAccessCode( resultSet.getString(7) );
+					device.setDeviceType( resultSet.getString(8) );
+					device.setManufacturer( resultSet.getString(9) );
+					device.setManufacturerDeviceName( resultSet.getString(10) );
+
+					try {
+						builder.setDevice(device);
+					} catch(Exception e) {
+						resultSet.close();
+						throw e;
+					}
+
+				} else if( "sensor".equals(kind) ){
+					DeviceSensor deviceSensor = new DeviceSensor();
+					deviceSensor.setId(id);
+					deviceSensor.setTimestamp(timestamp);
+					deviceSensor.setSensorId(refId);
+					deviceSensor.setNotes(notes);
+					builder.addDeviceSensor(deviceSensor);
+
+					if( false == builder.hasSensor(refId) ){
+						Sensor sensor = new Sensor();
+						sensor.setId(refId);
+						sensor.setLabel( resultSet.getString(6) );
+						sensor.setTypeOfMeasurement( resultSet.getString(7) );
+						sensor.setUnitOfMeasurement( resultSet.getString(8) );
+						sensor.setSerialNumber( resultSet.getString(9) );
+						sensor.setAccuracy( resultSet.getDouble(11) );
+						sensor.setPrecision( resultSet.getDouble(12) );
+						sensor.setHeightInMetres( resultSet.getDouble(13) );
+						builder.addSensor(sensor);
+					}
+
+				} else if( "location".equals(kind) ){
+					DeviceLocation deviceLocation = new DeviceLocation();
+					deviceLocation.setId(id);
+					deviceLocation.setTimestamp(timestamp);
+					deviceLocation.setLocationId(refId);
+					deviceLocation.setNotes(notes);
+					builder.addDeviceLocation(deviceLocation);
+
+					if( false == builder.hasLocation(refId) ){
+						Location location = new Location();
+						location.setId(refId);
+						location.setName( resultSet.getString(6) );
+						location.setGeometry( resultSet.getString(7) );
+						location.setComment( resultSet.getString(8) );
+						location.setElevation( resultSet.getDouble(11) );
+						location.setAccuracy( resultSet.getDouble(12) );
+						location.setRecordingObservations( resultSet.getBoolean(14) );
+						builder.addLocation(location);
+					}
+				}
+			}
+
+			resultSet.close();
+			pstmt.close();
+
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+
+		return builder.build();
+	}
+
 	@Override
 	public DeviceLocation createDeviceLocation(DeviceLocation deviceLocation) throws Exception {
 
@@ -539,6 +851,7 @@ public class DbApiJdbc implements DbAPI {
 			throw new Exception("Id should not be set when creating a device location");
 		}
 		
+		Connection connection = dbConn.getConnection();
 		try {
 			// Check if device_id is valid
 			try {
@@ -565,7 +878,7 @@ public class DbApiJdbc implements DbAPI {
 			// Get Sql Time
 			Timestamp dbTime = new Timestamp( deviceLocation.getTimestamp().getTime() );
 			
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"INSERT INTO devices_locations"
 				+" (timestamp,device_id,location_id,notes)"
 				+" VALUES (?,?,?,?)"
@@ -589,10 +902,15 @@ public class DbApiJdbc implements DbAPI {
 			result.setNotes( resultSet.getString(5) );
 
 			resultSet.close();
+			pstmt.close();
 				
 		} catch (Exception e) {
 			throw new Exception("Error inserting deviceLocation into database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
+
+		dbConn.incrementMetadataVersion();
 		
 		return result;
 	}
@@ -601,46 +919,70 @@ public class DbApiJdbc implements DbAPI {
 	public List<DeviceLocation> getDeviceLocations() throws Exception {
 		List<DeviceLocation> deviceLocations = new Vector<DeviceLocation>();
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
-				"SELECT id,device_id,location_id,timestamp,notes"
-				+ " FROM devices_locations"
+			PreparedStatement pstmt = connection.prepareStatement(
+				"SELECT "+DEVICE_LOCATION_FIELDS+" FROM devices_locations"
 			);
 			
 			ResultSet resultSet = pstmt.executeQuery();
 			
 			while( resultSet.next() ){
-				String id = resultSet.getString(1);
-				String deviceId = resultSet.getString(2);
-				String locationId = resultSet.getString(3);
-				Date timestamp = resultSet.getTimestamp(4);
-				String notes = resultSet.getString(5);
-
-				DeviceLocation deviceLocation = new DeviceLocation();
-				deviceLocation.setId(id);
-				deviceLocation.setDeviceId(deviceId);
-				deviceLocation.setLocationId(locationId);
-				deviceLocation.setTimestamp(timestamp);
-				deviceLocation.setNotes(notes);
+				DeviceLocation deviceLocation = readDeviceLocation(resultSet);
 				
 				deviceLocations.add(deviceLocation);
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving device locations from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return deviceLocations;
 	}
+
+	@Override
+	public RecordReader<DeviceLocation> readDeviceLocations() throws Exception {
+		RecordReaderJdbc<DeviceLocation> reader = new RecordReaderJdbc<DeviceLocation>(){
+			@Override
+			protected DeviceLocation readRecord(ResultSet resultSet) throws Exception {
+				return readDeviceLocation(resultSet);
+			}
+		};
+		try {
+			reader.open(dbConn, "SELECT "+DEVICE_LOCATION_FIELDS+" FROM devices_locations");
+		} catch (Exception e) {
+			throw new Exception("Error retrieving device locations from database", e);
+		}
+		return reader;
+	}
+
+	static final private String DEVICE_LOCATION_FIELDS = "id,device_id,location_id,timestamp,notes";
+
+	/**
+	 * Reads a device location from a row that starts with DEVICE_LOCATION_FIELDS
+	 */
+	static private DeviceLocation readDeviceLocation(ResultSet resultSet) throws Exception {
+		DeviceLocation deviceLocation = new DeviceLocation();
+		deviceLocation.setId( resultSet.getString(1) );
+		deviceLocation.setDeviceId( resultSet.getString(2) );
+		deviceLocation.setLocationId( resultSet.getString(3) );
+		deviceLocation.setTimestamp( resultSet.getTimestamp(4) );
+		deviceLocation.setNotes( resultSet.getString(5) );
+		return deviceLocation;
+	}
 	
 	@Override
 	public List<DeviceLocation> getDeviceLocationsFromDeviceId(String device_id) throws Exception {
 		List<DeviceLocation> deviceLocations = new Vector<DeviceLocation>();
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,device_id,location_id,timestamp,notes FROM devices_locations WHERE device_id=?"
 			);
 			
@@ -666,9 +1008,12 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving device locations for device (id="+device_id+") from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return deviceLocations;
@@ -678,8 +1023,9 @@ public class DbApiJdbc implements DbAPI {
 	public List<DeviceSensor> getDeviceSensors() throws Exception {
 		List<DeviceSensor> deviceSensors = new Vector<DeviceSensor>();
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,device_id,sensor_id,timestamp,notes"
 				+ " FROM devices_sensors"
 			);
@@ -704,9 +1050,12 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving device sensors from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return deviceSensors;
@@ -716,8 +1065,9 @@ public class DbApiJdbc implements DbAPI {
 	public List<DeviceSensor> getDeviceSensorsFromDeviceId(String device_id) throws Exception {
 		List<DeviceSensor> deviceSensors = new Vector<DeviceSensor>();
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,device_id,sensor_id,timestamp,notes FROM devices_sensors WHERE device_id=?"
 			);
 			
@@ -743,9 +1093,12 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving device sensors for device (id="+device_id+") from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return deviceSensors;
@@ -753,8 +1106,6 @@ public class DbApiJdbc implements DbAPI {
 	
 	@Override
 	public List<Location> getLocationsFromDeviceLocations(List<DeviceLocation> deviceLocations) throws Exception {
-		List<Location> locations = new Vector<Location>();
-		
 		try {
 			// Accumulate all location ids
 			Set<String> locationIds = new HashSet<String>();
@@ -765,22 +1116,15 @@ public class DbApiJdbc implements DbAPI {
 				}
 			}
 			
-			for(String locationId : locationIds){
-				Location location = getLocationFromLocationId(locationId);
-				locations.add(location);
-			}
+			return getLocationsFromIds(locationIds);
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving locations for device locations from database", e);
 		}
-
-		return locations;
 	}
 	
 	@Override
 	public List<Sensor> getSensorsFromDeviceSensors(List<DeviceSensor> deviceSensors) throws Exception {
-		List<Sensor> sensors = new Vector<Sensor>();
-		
 		try {
 			// Accumulate all sensor ids
 			Set<String> sensorIds = new HashSet<String>();
@@ -791,16 +1135,11 @@ public class DbApiJdbc implements DbAPI {
 				}
 			}
 			
-			for(String sensorId : sensorIds){
-				Sensor sensor = getSensorFromSensorId(sensorId);
-				sensors.add(sensor);
-			}
+			return getSensorsFromIds(sensorIds);
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving sensors for device sensors from database", e);
 		}
-
-		return sensors;
 	}
 
 	@Override
@@ -812,8 +1151,9 @@ public class DbApiJdbc implements DbAPI {
 			throw new Exception("Id should not be set when creating a location");
 		}
 		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"INSERT INTO locations (name,coordinates,elevation_in_metres,comment,record_observations,accuracy_in_metres)"
 				+" VALUES (?,ST_GeomFromEWKT(?),?,?,?,?)"
 				+" RETURNING id,name,ST_AsEWKT(coordinates),elevation_in_metres,comment,record_observations,accuracy_in_metres"
@@ -844,19 +1184,25 @@ public class DbApiJdbc implements DbAPI {
 			result.setAccuracy( resultSet.getDouble(7) );
 
 			resultSet.close();
+			pstmt.close();
 				
 		} catch (Exception e) {
 			throw new Exception("Error inserting location ("+location.getName()+") into database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
+		dbConn.incrementMetadataVersion();
+
 		return result;
 	}
 
 	@Override
 	public Location getLocationFromLocationId(String locationId) throws Exception {
 		Location location = null;
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,name,ST_AsEWKT(coordinates),elevation_in_metres,comment,record_observations,accuracy_in_metres"
 				+ " FROM locations"
 				+ " WHERE id=?"
@@ -886,24 +1232,34 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving location (id="+locationId+") from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return location;
 	}
 
 	@Override
-	public Collection<Location> getLocations() throws Exception {
+	public List<Location> getLocationsFromIds(Collection<String> locationIds) throws Exception {
 		List<Location> locations = new Vector<Location>();
+		if( locationIds.size() < 1 ){
+			return locations;
+		}
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,name,ST_AsEWKT(coordinates),elevation_in_metres,comment,record_observations,accuracy_in_metres"
 				+ " FROM locations"
+				+ " WHERE id = ANY(?)"
 			);
 			
+			pstmt.setArray(1, connection.createArrayOf("uuid", toUuids(locationIds)));
+			
 			ResultSet resultSet = pstmt.executeQuery();
 			
 			while( resultSet.next() ){
@@ -920,14 +1276,81 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
+			
+		} catch (Exception e) {
+			throw new Exception("Error retrieving locations from ids", e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+
+		return locations;
+	}
+
+	@Override
+	public Collection<Location> getLocations() throws Exception {
+		List<Location> locations = new Vector<Location>();
+
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"SELECT "+LOCATION_FIELDS+" FROM locations"
+			);
+			
+			ResultSet resultSet = pstmt.executeQuery();
+			
+			while( resultSet.next() ){
+				Location location = readLocation(resultSet);
+				
+				locations.add(location);
+			}
+			
+			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving locations from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return locations;
 	}
 
+	@Override
+	public RecordReader<Location> readLocations() throws Exception {
+		RecordReaderJdbc<Location> reader = new RecordReaderJdbc<Location>(){
+			@Override
+			protected Location readRecord(ResultSet resultSet) throws Exception {
+				return readLocation(resultSet);
+			}
+		};
+		try {
+			reader.open(dbConn, "SELECT "+LOCATION_FIELDS+" FROM locations");
+		} catch (Exception e) {
+			throw new Exception("Error retrieving locations from database", e);
+		}
+		return reader;
+	}
+
+	static final private String LOCATION_FIELDS = "id,name,ST_AsEWKT(coordinates),elevation_in_metres,"
+			+ "comment,record_observations,accuracy_in_metres";
+
+	/**
+	 * Reads a location from a row that starts with LOCATION_FIELDS
+	 */
+	static private Location readLocation(ResultSet resultSet) throws Exception {
+		Location location = new Location();
+		location.setId( resultSet.getString(1) );
+		location.setName( resultSet.getString(2) );
+		location.setGeometry( resultSet.getString(3) );
+		location.setElevation( resultSet.getDouble(4) );
+		location.setComment( resultSet.getString(5) );
+		location.setRecordingObservations( resultSet.getBoolean(6) );
+		location.setAccuracy( resultSet.getDouble(7) );
+		return location;
+	}
+
 	@Override
 	public DeviceSensor createDeviceSensor(DeviceSensor DeviceSensor) throws Exception {
 
@@ -937,6 +1360,7 @@ public class DbApiJdbc implements DbAPI {
 			throw new Exception("Id should not be set when creating a device sensor");
 		}
 		
+		Connection connection = dbConn.getConnection();
 		try {
 			// Check if device_id is valid
 			try {
@@ -963,7 +1387,7 @@ public class DbApiJdbc implements DbAPI {
 			// Get Sql Time
 			Timestamp dbTime = new Timestamp( DeviceSensor.getTimestamp().getTime() );
 			
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"INSERT INTO devices_sensors"
 				+" (timestamp,device_id,sensor_id,notes)"
 				+" VALUES (?,?,?,?)"
@@ -987,14 +1411,24 @@ public class DbApiJdbc implements DbAPI {
 			result.setNotes( resultSet.getString(5) );
 
 			resultSet.close();
+			pstmt.close();
 				
 		} catch (Exception e) {
 			throw new Exception("Error inserting deviceSensor into database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
+
+		dbConn.incrementMetadataVersion();
 		
 		return result;
 	}
 
+	@Override
+	public long getMetadataVersion() throws Exception {
+		return dbConn.getMetadataVersion();
+	}
+
 	@Override
 	public Observation createObservation(Observation observation) throws Exception {
 		
@@ -1007,36 +1441,17 @@ public class DbApiJdbc implements DbAPI {
 			throw new Exception("Id should not be set when creating an observation");
 		}
 		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
-				"INSERT INTO observations"
-				+" (device_id,sensor_id,import_id,import_key,observation_type,"
-				+" unit_of_measure,accuracy,precision,numeric_value,text_value,"
-				+" logged_time,corrected_utc_time,location,height_min_metres,"
-				+" height_max_metres,elevation_in_metres)"
-				+" VALUES (?,?,?,?,?,?,?,?,?,?,?,?,ST_GeomFromEWKT(?),?,?,?)"
+			PreparedStatement pstmt = connection.prepareStatement(
+				OBSERVATION_INSERT_SQL
 				+" RETURNING id,device_id,sensor_id,import_id,import_key,observation_type,"
 				+" unit_of_measure,accuracy,precision,numeric_value,text_value,"
 				+" logged_time,corrected_utc_time,ST_AsEWKT(location),height_min_metres,"
 				+" height_max_metres,elevation_in_metres"
 			);
 			
-			pstmt.setObject(1, UUID.fromString(observation.getDeviceId()));
-			pstmt.setObject(2, UUID.fromString(observation.getSensorId()));
-			pstmt.setObject(3, UUID.fromString(observation.getImportId()));
-			pstmt.setString(4, observation.getImportKey());
-			pstmt.setString(5, observation.getObservationType());
-			pstmt.setString(6, observation.getUnitOfMeasure());
-			pstmt.setDouble(7, observation.getAccuracy());
-			pstmt.setDouble(8, observation.getPrecision());
-			pstmt.setDouble(9, observation.getNumericValue());
-			pstmt.setString(10, observation.getTextValue());
-			pstmt.setTimestamp(11, new Timestamp(observation.getLoggedTime().getTime()));
-			pstmt.setTimestamp(12, new Timestamp(observation.getCorrectedTime().getTime()));
-			pstmt.setString(13, observation.getLocation());
-			pstmt.setDouble(14, observation.getMinHeight());
-			pstmt.setDouble(15, observation.getMaxHeight());
-			pstmt.setDouble(16, observation.getElevation());
+			setObservationParameters(pstmt, observation);
 			
 			ResultSet resultSet = pstmt.executeQuery();
 			
@@ -1062,93 +1477,881 @@ public class DbApiJdbc implements DbAPI {
 			result.setElevation( resultSet.getDouble(17) );
 
 			resultSet.close();
+			pstmt.close();
 				
 		} catch (Exception e) {
 			logger.error("Error inserting observation: "+observation);
 			throw new Exception("Error inserting observation into database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return result;
 	}
 
 	@Override
-	public ObservationReader getObservationsFromImportId(String importId) throws Exception {
-		ObservationReader observationReader = null;
-
+	public int createObservations(List<Observation> observations) throws Exception {
+		
+		if( null == observations ){
+			throw new Exception("Attempting to create a null list of observations");
+		}
+		for(Observation observation : observations){
+			if( null == observation ){
+				throw new Exception("Attempting to create a null observation");
+			}
+			if( null != observation.getId() ){
+				throw new Exception("Id should not be set when creating an observation");
+			}
+		}
+		
+		int insertedCount = 0;
+		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
-				"SELECT "
-				+ ObservationReaderJdbc.getFields()
-				+" FROM observations"
-				+" WHERE import_id=?"
+			PreparedStatement pstmt = connection.prepareStatement(
+				OBSERVATION_INSERT_SQL
 			);
 			
-			pstmt.setObject(1, UUID.fromString(importId));
-			
-			ResultSet resultSet = pstmt.executeQuery();
-			
-			observationReader = new ObservationReaderJdbc(resultSet);
-			
+			try {
+				int batchCount = 0;
+				for(Observation observation : observations){
+					setObservationParameters(pstmt, observation);
+					pstmt.addBatch();
+					++batchCount;
+					
+					if( batchCount >= observationBatchSize ){
+						insertedCount += executeBatch(pstmt);
+						batchCount = 0;
+					}
+				}
+				
+				if( batchCount > 0 ){
+					insertedCount += executeBatch(pstmt);
+				}
+				
+			} finally {
+				pstmt.close();
+			}
+				
 		} catch (Exception e) {
-			throw new Exception("Error while looking for an observation with import id: "+importId, e);
+			throw new Exception("Error inserting "+observations.size()+" observations into database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
-		
-		return observationReader;
+
+		return insertedCount;
 	}
 
 	@Override
-	public Observation getObservationFromImportKey(String importKey) throws Exception {
-		Observation observation = null;
-
+	public int copyObservations(List<Observation> observations) throws Exception {
+		
+		if( null == observations ){
+			throw new Exception("Attempting to copy a null list of observations");
+		}
+		for(Observation observation : observations){
+			if( null == observation ){
+				throw new Exception("Attempting to copy a null observation");
+			}
+			if( null != observation.getId() ){
+				throw new Exception("Id should not be set when copying an observation");
+			}
+		}
+		if( observations.size() < 1 ){
+			return 0;
+		}
+		
+		long copiedCount = 0;
+		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
-				"SELECT id,device_id,sensor_id,import_id,import_key,observation_type,"
-				+" unit_of_measure,accuracy,precision,numeric_value,text_value,"
-				+" logged_time,corrected_utc_time,ST_AsEWKT(location),height_min_metres,"
-				+" height_max_metres,elevation_in_metres"
-				+" FROM observations"
-				+" WHERE import_key=?"
+			PGConnection pgConnection = connection.unwrap(PGConnection.class);
+			PGCopyOutputStream copyStream = new PGCopyOutputStream(
+				pgConnection, 
+				ObservationCopyWriter.getCopyStatement(),
+				COPY_BUFFER_SIZE
 			);
 			
-			pstmt.setString(1, importKey);
-			
-			ResultSet resultSet = pstmt.executeQuery();
-			
-			while( resultSet.next() ){
-				if( null != observation ){
-					throw new Exception("Multiple observations reported for import key: "+importKey);
+			boolean completed = false;
+			try {
+				Writer writer = new OutputStreamWriter(copyStream, "UTF-8");
+				ObservationCopyWriter copyWriter = new ObservationCopyWriter(writer);
+				for(Observation observation : observations){
+					copyWriter.write(observation);
+				}
+				writer.flush();
+				
+				copiedCount = copyStream.endCopy();
+				completed = true;
+				
+			} finally {
+				if( !completed && copyStream.isActive() ){
+					copyStream.cancelCopy();
 				}
-
-				observation = new Observation();
-				observation.setId( resultSet.getString(1) );
-				observation.setDeviceId( resultSet.getString(2) );
-				observation.setSensorId( resultSet.getString(3) );
-				observation.setImportId( resultSet.getString(4) );
-				observation.setImportKey( resultSet.getString(5) );
-				observation.setObservationType( resultSet.getString(6) );
-				observation.setUnitOfMeasure( resultSet.getString(7) );
-				observation.setAccuracy( resultSet.getDouble(8) );
-				observation.setPrecision( resultSet.getDouble(9) );
-				observation.setNumericValue( resultSet.getDouble(10) );
-				observation.setTextValue( resultSet.getString(11) );
-				observation.setLoggedTime( resultSet.getTimestamp(12) );
-				observation.setCorrectedTime( resultSet.getTimestamp(13) );
-				observation.setLocation( resultSet.getString(14) );
-				observation.setMinHeight( resultSet.getDouble(15) );
-				observation.setMaxHeight( resultSet.getDouble(16) );
-				observation.setElevation( resultSet.getDouble(17) );
 			}
-
-			resultSet.close();
-			
+				
 		} catch (Exception e) {
-			throw new Exception("Error while looking for an observation with import key: "+importKey, e);
+			throw new Exception("Error copying "+observations.size()+" observations into database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
+
+		return (int)copiedCount;
+	}
+
+	private int executeBatch(PreparedStatement pstmt) throws Exception {
+		int count = 0;
 		
-		return observation;
+		int[] results = pstmt.executeBatch();
+		for(int result : results){
+			if( result > 0 ){
+				count += result;
+			} else if( Statement.SUCCESS_NO_INFO == result ){
+				// Driver does not report the number of rows (rewritten batches)
+				++count;
+			}
+		}
+		
+		return count;
 	}
 
-	@Override
+	private void setObservationParameters(PreparedStatement pstmt, Observation observation) throws Exception {
+		pstmt.setObject(1, UUID.fromString(observation.getDeviceId()));
+		pstmt.setObject(2, UUID.fromString(observation.getSensorId()));
+		pstmt.setObject(3, UUID.fromString(observation.getImportId()));
+		setImportKey(pstmt, 4, observation.getImportKey());
+		pstmt.setString(5, observation.getObservationType());
+		pstmt.setString(6, observation.getUnitOfMeasure());
+		setDouble(pstmt, 7, observation.getAccuracy());
+		setDouble(pstmt, 8, observation.getPrecision());
+		setDouble(pstmt, 9, observation.getNumericValue());
+		pstmt.setString(10, observation.getTextValue());
+		pstmt.setTimestamp(11, new Timestamp(observation.getLoggedTime().getTime()));
+		pstmt.setTimestamp(12, new Timestamp(observation.getCorrectedTime().getTime()));
+		pstmt.setString(13, observation.getLocation());
+		setDouble(pstmt, 14, observation.getMinHeight());
+		setDouble(pstmt, 15, observation.getMaxHeight());
+		setDouble(pstmt, 16, observation.getElevation());
+	}
+
+	private void setImportKey(PreparedStatement pstmt, int index, String importKey) throws Exception {
+		if( null == importKey ){
+			pstmt.setNull(index, Types.OTHER);
+		} else {
+			pstmt.setObject(index, UUID.fromString(ImportKeys.normalize(importKey)));
+		}
+	}
+
+	private void setDouble(PreparedStatement pstmt, int index, Double value) throws Exception {
+		if( null == value ){
+			pstmt.setNull(index, Types.DOUBLE);
+		} else {
+			pstmt.setDouble(index, value.doubleValue());
+		}
+	}
+
+	@Override
+	public ObservationReader getObservationsFromImportId(String importId) throws Exception {
+		try {
+			List<Object> parameters = new ArrayList<Object>();
+			parameters.add( UUID.fromString(importId) );
+
+			return createObservationReader(
+				"SELECT "
+				+ ObservationReaderJdbc.getFields()
+				+" FROM observations"
+				+" WHERE import_id=?",
+				parameters
+			);
+			
+		} catch (Exception e) {
+			throw new Exception("Error while looking for an observation with import id: "+importId, e);
+		}
+	}
+
+	@Override
+	public ObservationReader queryObservations(ObservationQuery query) throws Exception {
+		query.validate();
+
+		// The conditions and the order match the indexes on
+		// (sensor_id|device_id, corrected_utc_time, id), so pages
+		// are read from the index without sorting or skipping rows
+		StringBuilder sql = new StringBuilder();
+		List<Object> parameters = new ArrayList<Object>();
+
+		sql.append("SELECT ");
+		sql.append( ObservationReaderJdbc.getFields() );
+		sql.append(" FROM observations WHERE TRUE");
+
+		appendQueryConditions(sql, parameters, query);
+
+		if( query.hasResumeKey() ){
+			sql.append(" AND (corrected_utc_time,id) > (?,?)");
+			parameters.add( query.getAfterTime() );
+			parameters.add( UUID.fromString(query.getAfterId()) );
+		}
+
+		sql.append(" ORDER BY corrected_utc_time,id");
+
+		if( query.getLimit() > 0 ){
+			sql.append(" LIMIT ?");
+			parameters.add( Integer.valueOf(query.getLimit()) );
+		}
+
+		try {
+			return createObservationReader(sql.toString(), parameters);
+		} catch (Exception e) {
+			throw new Exception("Error while querying observations", e);
+		}
+	}
+
+	@Override
+	public List<ObservationBucket> getObservationBuckets(ObservationQuery query, long bucketMs, int maxBuckets) throws Exception {
+		query.validate();
+		if( bucketMs < 0 ){
+			throw new Exception("Invalid bucket size: "+bucketMs);
+		}
+
+		StringBuilder sql = new StringBuilder();
+		List<Object> parameters = new ArrayList<Object>();
+
+		long rollupPeriodMs = getRollupPeriodForQuery(query, bucketMs);
+		if( rollupPeriodMs > 0 ){
+			// Combine rollups instead of scanning observations
+			sql.append("SELECT floor((extract(epoch FROM start_time) * 1000 - ?) / ?)::bigint");
+			sql.append(" AS bucket,sum(value_count),min(min_value),max(max_value),"
+				+"sum(sum_value)/sum(value_count),min(first_time),max(last_time)"
+				+" FROM "+getRollupTable(rollupPeriodMs)+" WHERE TRUE");
+			parameters.add( Long.valueOf(ObservationBucket.getOrigin(bucketMs)) );
+			parameters.add( Long.valueOf(bucketMs) );
+
+			appendRollupConditions(sql, parameters, query);
+
+		} else if( 0 == bucketMs && hasWholeRollupPeriod(query) ){
+			// Whole days come from the daily rollups. Observations are
+			// scanned only for the partial days at the edges.
+			long periodMs = ObservationRollup.PERIODS[ObservationRollup.PERIODS.length-1];
+			Date rollupStart = alignAfter(query.getStartTime(), periodMs);
+			Date rollupEnd = alignBefore(query.getEndTime(), periodMs);
+
+			sql.append("SELECT 0::bigint AS bucket,sum(value_count),min(min_value),max(max_value),"
+				+"sum(sum_value)/sum(value_count),min(first_time),max(last_time) FROM (");
+
+			sql.append("SELECT sum(value_count) AS value_count,min(min_value) AS min_value,"
+				+"max(max_value) AS max_value,sum(sum_value) AS sum_value,"
+				+"min(first_time) AS first_time,max(last_time) AS last_time"
+				+" FROM "+getRollupTable(periodMs)+" WHERE TRUE");
+			appendRollupConditions(sql, parameters, restrictQuery(query, rollupStart, rollupEnd));
+
+			if( null != rollupStart && rollupStart.after(query.getStartTime()) ){
+				sql.append(" UNION ALL ");
+				appendObservationSummary(sql, parameters, restrictQuery(query, query.getStartTime(), rollupStart));
+			}
+			if( null != rollupEnd && rollupEnd.before(query.getEndTime()) ){
+				sql.append(" UNION ALL ");
+				appendObservationSummary(sql, parameters, restrictQuery(query, rollupEnd, query.getEndTime()));
+			}
+
+			sql.append(") AS parts");
+
+		} else {
+			sql.append("SELECT ");
+			if( bucketMs > 0 ){
+				sql.append("floor((extract(epoch FROM corrected_utc_time) * 1000 - ?) / ?)::bigint");
+				parameters.add( Long.valueOf(ObservationBucket.getOrigin(bucketMs)) );
+				parameters.add( Long.valueOf(bucketMs) );
+			} else {
+				sql.append("0::bigint");
+			}
+			sql.append(" AS bucket,count(numeric_value),min(numeric_value),max(numeric_value),"
+				+"avg(numeric_value),min(corrected_utc_time),max(corrected_utc_time)"
+				+" FROM observations WHERE numeric_value IS NOT NULL");
+
+			appendQueryConditions(sql, parameters, query);
+		}
+
+		sql.append(" GROUP BY 1 ORDER BY 1 LIMIT ?");
+		parameters.add( Integer.valueOf(maxBuckets + 1) );
+
+		List<ObservationBucket> buckets = new ArrayList<ObservationBucket>();
+
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(sql.toString());
+			try {
+				setQueryParameters(connection, pstmt, parameters);
+
+				ResultSet resultSet = pstmt.executeQuery();
+
+				while( resultSet.next() ){
+					long count = resultSet.getLong(2);
+					if( count < 1 ){
+						// Aggregate over an empty selection
+						continue;
+					}
+
+					ObservationBucket bucket = new ObservationBucket();
+					bucket.setCount(count);
+					bucket.setMinimum( resultSet.getDouble(3) );
+					bucket.setMaximum( resultSet.getDouble(4) );
+					bucket.setMean( resultSet.getDouble(5) );
+					bucket.setFirstTime( resultSet.getTimestamp(6) );
+					bucket.setLastTime( resultSet.getTimestamp(7) );
+					if( bucketMs > 0 ){
+						long start = ObservationBucket.computeBucketStart(resultSet.getLong(1), bucketMs);
+						bucket.setStartTime( new Date(start) );
+					} else {
+						bucket.setStartTime( bucket.getFirstTime() );
+					}
+					buckets.add(bucket);
+				}
+
+				resultSet.close();
+
+			} finally {
+				pstmt.close();
+			}
+
+		} catch (Exception e) {
+			throw new Exception("Error while summarizing observations", e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+
+		if( buckets.size() > maxBuckets ){
+			throw new Exception("Query returns more than "+maxBuckets+" buckets");
+		}
+
+		return buckets;
+	}
+
+	@Override
+	public void updateObservationRollups(List<Observation> observations) throws Exception {
+		Connection connection = dbConn.getConnection();
+		try {
+			for(long periodMs : ObservationRollup.PERIODS){
+				List<ObservationRollup> rollups = ObservationRollup.computeRollups(observations, periodMs);
+				if( rollups.size() > 0 ){
+					upsertRollups(connection, getRollupTable(periodMs), rollups);
+				}
+			}
+
+		} catch (Exception e) {
+			throw new Exception("Error while updating rollups for "+observations.size()+" observations", e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+	}
+
+	/**
+	 * Adds partial rollups to a rollup table, in a single statement
+	 */
+	private void upsertRollups(Connection connection, String table, List<ObservationRollup> rollups) throws Exception {
+		int size = rollups.size();
+		UUID[] sensorIds = new UUID[size];
+		UUID[] deviceIds = new UUID[size];
+		Timestamp[] startTimes = new Timestamp[size];
+		Long[] counts = new Long[size];
+		Double[] minimums = new Double[size];
+		Double[] maximums = new Double[size];
+		Double[] sums = new Double[size];
+		Timestamp[] firstTimes = new Timestamp[size];
+		Timestamp[] lastTimes = new Timestamp[size];
+		for(int i=0; i<size; ++i){
+			ObservationRollup rollup = rollups.get(i);
+			sensorIds[i] = UUID.fromString(rollup.getSensorId());
+			deviceIds[i] = UUID.fromString(rollup.getDeviceId());
+			startTimes[i] = new Timestamp(rollup.getStartTime().getTime());
+			counts[i] = rollup.getCount();
+			minimums[i] = rollup.getMinimum();
+			maximums[i] = rollup.getMaximum();
+			sums[i] = rollup.getSum();
+			firstTimes[i] = new Timestamp(rollup.getFirstTime().getTime());
+			lastTimes[i] = new Timestamp(rollup.getLastTime().getTime());
+		}
+
+		PreparedStatement pstmt = connection.prepareStatement(
+			"INSERT INTO "+table
+			+" (sensor_id,device_id,start_time,value_count,min_value,max_value,"
+			+"sum_value,first_time,last_time)"
+			+" SELECT * FROM unnest(?::uuid[],?::uuid[],?::timestamptz[],?::bigint[],"
+			+"?::float8[],?::float8[],?::float8[],?::timestamptz[],?::timestamptz[])"
+			+" ON CONFLICT (sensor_id,start_time) DO UPDATE SET"
+			+" value_count = "+table+".value_count + EXCLUDED.value_count,"
+			+" min_value = LEAST("+table+".min_value, EXCLUDED.min_value),"
+			+" max_value = GREATEST("+table+".max_value, EXCLUDED.max_value),"
+			+" sum_value = "+table+".sum_value + EXCLUDED.sum_value,"
+			+" first_time = LEAST("+table+".first_time, EXCLUDED.first_time),"
+			+" last_time = GREATEST("+table+".last_time, EXCLUDED.last_time)"
+		);
+		try {
+			pstmt.setArray(1, connection.createArrayOf("uuid", sensorIds));
+			pstmt.setArray(2, connection.createArrayOf("uuid", deviceIds));
+			pstmt.setArray(3, connection.createArrayOf("timestamptz", startTimes));
+			pstmt.setArray(4, connection.createArrayOf("int8", counts));
+			pstmt.setArray(5, connection.createArrayOf("float8", minimums));
+			pstmt.setArray(6, connection.createArrayOf("float8", maximums));
+			pstmt.setArray(7, connection.createArrayOf("float8", sums));
+			pstmt.setArray(8, connection.createArrayOf("timestamptz", firstTimes));
+			pstmt.setArray(9, connection.createArrayOf("timestamptz", lastTimes));
+			pstmt.executeUpdate();
+		} finally {
+			pstmt.close();
+		}
+	}
+
+	@Override
+	public void rebuildObservationRollups() throws Exception {
+		Connection connection = dbConn.getConnection();
+		boolean autoCommit = connection.getAutoCommit();
+		try {
+			// Readers see either the old or the new rollups
+			connection.setAutoCommit(false);
+
+			Statement stmt = connection.createStatement();
+			try {
+				for(long periodMs : ObservationRollup.PERIODS){
+					String table = getRollupTable(periodMs);
+					long periodSeconds = periodMs / 1000;
+					stmt.executeUpdate("DELETE FROM "+table);
+					stmt.executeUpdate(
+						"INSERT INTO "+table
+						+" (sensor_id,device_id,start_time,value_count,min_value,max_value,"
+						+"sum_value,first_time,last_time)"
+						+" SELECT sensor_id,min(device_id::text)::uuid,"
+						+"to_timestamp(floor(extract(epoch FROM corrected_utc_time) / "+periodSeconds+") * "+periodSeconds+"),"
+						+"count(numeric_value),min(numeric_value),max(numeric_value),sum(numeric_value),"
+						+"min(corrected_utc_time),max(corrected_utc_time)"
+						+" FROM observations"
+						+" WHERE numeric_value IS NOT NULL"
+						+" GROUP BY 1,3"
+					);
+				}
+			} finally {
+				stmt.close();
+			}
+
+			connection.commit();
+
+		} catch (Exception e) {
+			try {
+				connection.rollback();
+			} catch(Exception e1) {
+				// Ignore
+			}
+			throw new Exception("Error while rebuilding observation rollups", e);
+		} finally {
+			try {
+				connection.setAutoCommit(autoCommit);
+			} catch(Exception e) {
+				// Ignore
+			}
+			dbConn.releaseConnection(connection);
+		}
+	}
+
+	@Override
+	public List<ObservationRollup> getObservationRollups(String sensorId, long periodMs) throws Exception {
+		List<ObservationRollup> rollups = new ArrayList<ObservationRollup>();
+
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"SELECT sensor_id,device_id,start_time,value_count,min_value,max_value,"
+				+"sum_value,first_time,last_time"
+				+" FROM "+getRollupTable(periodMs)
+				+" WHERE sensor_id=?"
+				+" ORDER BY start_time"
+			);
+			try {
+				pstmt.setObject(1, UUID.fromString(sensorId));
+
+				ResultSet resultSet = pstmt.executeQuery();
+				while( resultSet.next() ){
+					ObservationRollup rollup = new ObservationRollup();
+					rollup.setPeriodMs(periodMs);
+					rollup.setSensorId( resultSet.getString(1) );
+					rollup.setDeviceId( resultSet.getString(2) );
+					rollup.setStartTime( resultSet.getTimestamp(3) );
+					rollup.setCount( resultSet.getLong(4) );
+					rollup.setMinimum( resultSet.getDouble(5) );
+					rollup.setMaximum( resultSet.getDouble(6) );
+					rollup.setSum( resultSet.getDouble(7) );
+					rollup.setFirstTime( resultSet.getTimestamp(8) );
+					rollup.setLastTime( resultSet.getTimestamp(9) );
+					rollups.add(rollup);
+				}
+				resultSet.close();
+
+			} finally {
+				pstmt.close();
+			}
+
+		} catch (Exception e) {
+			throw new Exception("Error while retrieving rollups for sensor: "+sensorId, e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+
+		return rollups;
+	}
+
+	static private String getRollupTable(long periodMs) throws Exception {
+		if( ObservationBucket.HOUR_MS == periodMs ){
+			return "observations_hourly";
+		} else if( ObservationBucket.DAY_MS == periodMs ){
+			return "observations_daily";
+		}
+		throw new Exception("No rollups for period: "+periodMs);
+	}
+
+	/**
+	 * Returns the rollup period that can answer a bucket query, or
+	 * zero if the query must be computed from the observations.
+	 * Rollups are used when the buckets and the time range are made
+	 * of whole rollup periods and the query does not select on fields
+	 * that rollups do not keep.
+	 */
+	static private long getRollupPeriodForQuery(ObservationQuery query, long bucketMs) {
+		if( bucketMs <= 0
+		 || false == isRollupQuery(query) ){
+			return 0;
+		}
+
+		for(int i=ObservationRollup.PERIODS.length-1; i>=0; --i){
+			long periodMs = ObservationRollup.PERIODS[i];
+			if( bucketMs % periodMs == 0
+			 && ObservationBucket.getOrigin(bucketMs) % periodMs == 0
+			 && isAligned(query.getStartTime(), periodMs)
+			 && isAligned(query.getEndTime(), periodMs) ){
+				return periodMs;
+			}
+		}
+		return 0;
+	}
+
+	static private boolean isAligned(Date time, long periodMs) {
+		return null == time || time.getTime() % periodMs == 0;
+	}
+
+	/**
+	 * Rollups are kept per sensor and device. They can not be used
+	 * to filter on location or observation type.
+	 */
+	static private boolean isRollupQuery(ObservationQuery query) {
+		return false == query.hasBoundingBox()
+			&& null == query.getObservationType();
+	}
+
+	/**
+	 * Returns true if the period selected by the query covers at least
+	 * one whole day that can be read from the daily rollups.
+	 */
+	static private boolean hasWholeRollupPeriod(ObservationQuery query) {
+		if( false == isRollupQuery(query) ){
+			return false;
+		}
+
+		long periodMs = ObservationRollup.PERIODS[ObservationRollup.PERIODS.length-1];
+		Date rollupStart = alignAfter(query.getStartTime(), periodMs);
+		Date rollupEnd = alignBefore(query.getEndTime(), periodMs);
+		if( null != rollupStart
+		 && null != rollupEnd
+		 && false == rollupStart.before(rollupEnd) ){
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the first period boundary at or after the given time
+	 */
+	static private Date alignAfter(Date time, long periodMs) {
+		if( null == time ){
+			return null;
+		}
+		return new Date( -Math.floorDiv(-time.getTime(), periodMs) * periodMs );
+	}
+
+	/**
+	 * Returns the last period boundary at or before the given time
+	 */
+	static private Date alignBefore(Date time, long periodMs) {
+		if( null == time ){
+			return null;
+		}
+		return new Date( Math.floorDiv(time.getTime(), periodMs) * periodMs );
+	}
+
+	/**
+	 * Returns a query that selects the same sensors as the given
+	 * rollup query, over another period.
+	 */
+	static private ObservationQuery restrictQuery(ObservationQuery query, Date startTime, Date endTime) {
+		ObservationQuery restricted = new ObservationQuery();
+		restricted.setDeviceId( query.getDeviceId() );
+		for(String sensorId : query.getSensorIds()){
+			restricted.addSensorId(sensorId);
+		}
+		restricted.setStartTime(startTime);
+		restricted.setEndTime(endTime);
+		return restricted;
+	}
+
+	/**
+	 * Adds a select that summarizes the numeric values of observations
+	 * with the same columns as a rollup table.
+	 */
+	private void appendObservationSummary(StringBuilder sql, List<Object> parameters, ObservationQuery query) {
+		sql.append("SELECT count(numeric_value),min(numeric_value)::double precision,"
+			+"max(numeric_value)::double precision,sum(numeric_value)::double precision,"
+			+"min(corrected_utc_time),max(corrected_utc_time)"
+			+" FROM observations WHERE numeric_value IS NOT NULL");
+		appendQueryConditions(sql, parameters, query);
+	}
+
+	/**
+	 * Adds to a query the conditions that select observations. The
+	 * limit and the resume key are not handled here.
+	 */
+	private void appendQueryConditions(StringBuilder sql, List<Object> parameters, ObservationQuery query) {
+		if( null != query.getDeviceId() ){
+			sql.append(" AND device_id=?");
+			parameters.add( UUID.fromString(query.getDeviceId()) );
+		}
+		if( 1 == query.getSensorIds().size() ){
+			sql.append(" AND sensor_id=?");
+			parameters.add( UUID.fromString(query.getSensorIds().get(0)) );
+		} else if( query.getSensorIds().size() > 1 ){
+			UUID[] sensorIds = new UUID[query.getSensorIds().size()];
+			for(int i=0; i<sensorIds.length; ++i){
+				sensorIds[i] = UUID.fromString(query.getSensorIds().get(i));
+			}
+			sql.append(" AND sensor_id = ANY(?)");
+			parameters.add( sensorIds );
+		}
+		if( null != query.getStartTime() ){
+			sql.append(" AND corrected_utc_time >= ?");
+			parameters.add( query.getStartTime() );
+		}
+		if( null != query.getEndTime() ){
+			sql.append(" AND corrected_utc_time < ?");
+			parameters.add( query.getEndTime() );
+		}
+		if( null != query.getObservationType() ){
+			sql.append(" AND observation_type=?");
+			parameters.add( query.getObservationType() );
+		}
+		if( query.isNumericOnly() ){
+			sql.append(" AND numeric_value IS NOT NULL");
+		}
+		if( query.hasBoundingBox() ){
+			sql.append(" AND location && ST_MakeEnvelope(?,?,?,?,4326)");
+			sql.append(" AND ST_Intersects(location, ST_MakeEnvelope(?,?,?,?,4326))");
+			for(int i=0; i<2; ++i){
+				parameters.add( query.getMinLongitude() );
+				parameters.add( query.getMinLatitude() );
+				parameters.add( query.getMaxLongitude() );
+				parameters.add( query.getMaxLatitude() );
+			}
+		}
+	}
+
+	private void appendRollupConditions(StringBuilder sql, List<Object> parameters, ObservationQuery query) {
+		if( null != query.getDeviceId() ){
+			sql.append(" AND device_id=?");
+			parameters.add( UUID.fromString(query.getDeviceId()) );
+		}
+		if( query.getSensorIds().size() > 0 ){
+			UUID[] sensorIds = new UUID[query.getSensorIds().size()];
+			for(int i=0; i<sensorIds.length; ++i){
+				sensorIds[i] = UUID.fromString(query.getSensorIds().get(i));
+			}
+			sql.append(" AND sensor_id = ANY(?)");
+			parameters.add( sensorIds );
+		}
+		if( null != query.getStartTime() ){
+			sql.append(" AND start_time >= ?");
+			parameters.add( query.getStartTime() );
+		}
+		if( null != query.getEndTime() ){
+			sql.append(" AND start_time < ?");
+			parameters.add( query.getEndTime() );
+		}
+	}
+
+	private void setQueryParameters(Connection connection, PreparedStatement pstmt, List<Object> parameters) throws Exception {
+		int index = 1;
+		for(Object parameter : parameters){
+			if( parameter instanceof UUID[] ){
+				pstmt.setArray(index, connection.createArrayOf("uuid", (UUID[])parameter));
+			} else if( parameter instanceof Date ){
+				pstmt.setTimestamp(index, new Timestamp( ((Date)parameter).getTime() ));
+			} else {
+				pstmt.setObject(index, parameter);
+			}
+			++index;
+		}
+	}
+
+	/**
+	 * Runs a query for observations and returns a reader over the result.
+	 * The connection is held by the reader until it is closed. Outside
+	 * of auto-commit, the driver reads the rows through a cursor, a
+	 * few at a time, instead of loading the whole result.
+	 */
+	private ObservationReader createObservationReader(String sql, List<Object> parameters) throws Exception {
+		Connection connection = dbConn.getDedicatedConnection();
+		PreparedStatement pstmt = null;
+		try {
+			connection.setAutoCommit(false);
+
+			pstmt = connection.prepareStatement(
+				sql,
+				ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY
+			);
+			pstmt.setFetchSize( dbConn.getFetchSize() );
+			
+			setQueryParameters(connection, pstmt, parameters);
+			
+			ResultSet resultSet = pstmt.executeQuery();
+			
+			return new ObservationReaderJdbc(dbConn, connection, pstmt, resultSet);
+			
+		} catch (Exception e) {
+			if( null != pstmt ){
+				try {
+					pstmt.close();
+				} catch(Exception e1) {
+					// Ignore
+				}
+			}
+			dbConn.releaseConnection(connection);
+			throw e;
+		}
+	}
+
+	@Override
+	public Observation getObservationFromImportKey(String importKey) throws Exception {
+		Observation observation = null;
+
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"SELECT id,device_id,sensor_id,import_id,import_key,observation_type,"
+				+" unit_of_measure,accuracy,precision,numeric_value,text_value,"
+				+" logged_time,corrected_utc_time,ST_AsEWKT(location),height_min_metres,"
+				+" height_max_metres,elevation_in_metres"
+				+" FROM observations"
+				+" WHERE import_key=?"
+			);
+			
+			setImportKey(pstmt, 1, importKey);
+			
+			ResultSet resultSet = pstmt.executeQuery();
+			
+			while( resultSet.next() ){
+				if( null != observation ){
+					throw new Exception("Multiple observations reported for import key: "+importKey);
+				}
+
+				observation = new Observation();
+				observation.setId( resultSet.getString(1) );
+				observation.setDeviceId( resultSet.getString(2) );
+				observation.setSensorId( resultSet.getString(3) );
+				observation.setImportId( resultSet.getString(4) );
+				observation.setImportKey( resultSet.getString(5) );
+				observation.setObservationType( resultSet.getString(6) );
+				observation.setUnitOfMeasure( resultSet.getString(7) );
+				observation.setAccuracy( resultSet.getDouble(8) );
+				observation.setPrecision( resultSet.getDouble(9) );
+				observation.setNumericValue( resultSet.getDouble(10) );
+				observation.setTextValue( resultSet.getString(11) );
+				observation.setLoggedTime( resultSet.getTimestamp(12) );
+				observation.setCorrectedTime( resultSet.getTimestamp(13) );
+				observation.setLocation( resultSet.getString(14) );
+				observation.setMinHeight( resultSet.getDouble(15) );
+				observation.setMaxHeight( resultSet.getDouble(16) );
+				observation.setElevation( resultSet.getDouble(17) );
+			}
+
+			resultSet.close();
+			pstmt.close();
+			
+		} catch (Exception e) {
+			throw new Exception("Error while looking for an observation with import key: "+importKey, e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+		
+		return observation;
+	}
+
+	@Override
+	public Set<String> getExistingImportKeys(Collection<String> importKeys) throws Exception {
+		Set<String> existingKeys = new HashSet<String>();
+		
+		if( null == importKeys || importKeys.size() < 1 ){
+			return existingKeys;
+		}
+
+		// Keys are compared in their UUID form. Report them
+		// in the form they were requested.
+		Map<String,List<String>> requestedKeysByUuid = new HashMap<String,List<String>>();
+		for(String importKey : importKeys){
+			String uuid = ImportKeys.normalize(importKey);
+			List<String> requestedKeys = requestedKeysByUuid.get(uuid);
+			if( null == requestedKeys ){
+				requestedKeys = new ArrayList<String>(1);
+				requestedKeysByUuid.put(uuid, requestedKeys);
+			}
+			requestedKeys.add(importKey);
+		}
+
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"SELECT DISTINCT import_key"
+				+" FROM observations"
+				+" WHERE import_key = ANY(?)"
+			);
+			
+			try {
+				UUID[] uuids = new UUID[requestedKeysByUuid.size()];
+				int index = 0;
+				for(String uuid : requestedKeysByUuid.keySet()){
+					uuids[index] = UUID.fromString(uuid);
+					++index;
+				}
+				Array keyArray = connection.createArrayOf("uuid", uuids);
+				pstmt.setArray(1, keyArray);
+				
+				ResultSet resultSet = pstmt.executeQuery();
+				
+				while( resultSet.next() ){
+					String uuid = ImportKeys.normalize( resultSet.getString(1) );
+					List<String> requestedKeys = requestedKeysByUuid.get(uuid);
+					if( null != requestedKeys ){
+						existingKeys.addAll(requestedKeys);
+					}
+				}
+	
+				resultSet.close();
+				
+			} finally {
+				pstmt.close();
+			}
+			
+		} catch (Exception e) {
+			throw new Exception("Error while looking for "+importKeys.size()+" import keys", e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+		
+		return existingKeys;
+	}
+
+	@Override
 	public ImportRecord createImportRecord(ImportRecord importRecord) throws Exception {
 
 		ImportRecord result = null;
@@ -1157,8 +2360,9 @@ public class DbApiJdbc implements DbAPI {
 			throw new Exception("Id should not be set when creating an import record");
 		}
 		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"INSERT INTO imports"
 				+" (import_time,filename,import_parameters)"
 				+" VALUES (?,?,?)"
@@ -1191,11 +2395,16 @@ public class DbApiJdbc implements DbAPI {
 			result.setImportParameters( jsonImportParams );
 			
 			resultSet.close();
+			pstmt.close();
 
 		} catch (Exception e) {
 			throw new Exception("Error while inserting import record in database",e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 		
+		dbConn.incrementImportRecordsVersion();
+
 		return result;
 	}
 
@@ -1203,8 +2412,9 @@ public class DbApiJdbc implements DbAPI {
 	public List<ImportRecord> getImportRecords() throws Exception {
 		List<ImportRecord> importRecords = new Vector<ImportRecord>();
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,import_time,filename,import_parameters FROM imports ORDER BY import_time DESC  LIMIT 10"
 			);
 			
@@ -1236,22 +2446,31 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 
 			Collections.reverse(importRecords);  // newest first
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving import records from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return importRecords;
 	}
 
+	@Override
+	public long getImportRecordsVersion() throws Exception {
+		return dbConn.getImportRecordsVersion();
+	}
+
 	@Override
 	public ImportRecord getImportRecordFromImportId(String importId) throws Exception {
 		ImportRecord importRecord = null;
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,import_time,filename,import_parameters"
 				+ " FROM imports"
 				+ " WHERE id=?"
@@ -1277,14 +2496,252 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving import record (id="+importId+") from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return importRecord;
 	}
 
+	@Override
+	public void updateImportRecord(ImportRecord importRecord) throws Exception {
+
+		if( null == importRecord.getId() ){
+			throw new Exception("Id must be set when updating an import record");
+		}
+		
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"UPDATE imports"
+				+" SET filename=?,import_parameters=?"
+				+" WHERE id=?"
+			);
+
+			pstmt.setString(1, importRecord.getFileName());
+			
+			String importParamStr = null;
+			if( null != importRecord.getImportParameters() ){
+				importParamStr = importRecord.getImportParameters().toString();
+			}
+			pstmt.setString(2, importParamStr);
+			pstmt.setObject(3, UUID.fromString(importRecord.getId()));
+			
+			int count = pstmt.executeUpdate();
+			
+			pstmt.close();
+			
+			if( count < 1 ){
+				throw new Exception("Import record not found: "+importRecord.getId());
+			}
+
+		} catch (Exception e) {
+			throw new Exception("Error while updating import record (id="+importRecord.getId()+") in database",e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+		
+		dbConn.incrementImportRecordsVersion();
+	}
+
+	@Override
+	public ImportJob createImportJob(ImportJob importJob) throws Exception {
+
+		ImportJob result = null;
+
+		if( null != importJob.getId() ){
+			throw new Exception("Id should not be set when creating an import job");
+		}
+		
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"INSERT INTO import_jobs"
+				+" (state,filename,original_filename,job_parameters,created_time)"
+				+" VALUES (?,?,?,?,?)"
+				+" RETURNING "+IMPORT_JOB_FIELDS
+			);
+
+			pstmt.setString(1, importJob.getState());
+			pstmt.setString(2, importJob.getFileName());
+			pstmt.setString(3, importJob.getOriginalFileName());
+			
+			String paramStr = null;
+			if( null != importJob.getParameters() ){
+				paramStr = importJob.getParameters().toString();
+			}
+			pstmt.setString(4, paramStr);
+			setTimestamp(pstmt, 5, importJob.getCreatedTime());
+			
+			ResultSet resultSet = pstmt.executeQuery();
+			
+			resultSet.next();
+			
+			result = readImportJob(resultSet);
+			
+			resultSet.close();
+			pstmt.close();
+
+		} catch (Exception e) {
+			throw new Exception("Error while inserting import job in database",e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+		
+		return result;
+	}
+
+	@Override
+	public void updateImportJob(ImportJob importJob) throws Exception {
+
+		if( null == importJob.getId() ){
+			throw new Exception("Id must be set when updating an import job");
+		}
+		
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"UPDATE import_jobs"
+				+" SET state=?,started_time=?,ended_time=?,import_id=?,error_message=?"
+				+" WHERE id=?"
+			);
+
+			pstmt.setString(1, importJob.getState());
+			setTimestamp(pstmt, 2, importJob.getStartedTime());
+			setTimestamp(pstmt, 3, importJob.getEndedTime());
+			if( null == importJob.getImportId() ){
+				pstmt.setNull(4, Types.OTHER);
+			} else {
+				pstmt.setObject(4, UUID.fromString(importJob.getImportId()));
+			}
+			pstmt.setString(5, importJob.getErrorMessage());
+			pstmt.setObject(6, UUID.fromString(importJob.getId()));
+			
+			int count = pstmt.executeUpdate();
+			
+			pstmt.close();
+			
+			if( count < 1 ){
+				throw new Exception("Import job not found: "+importJob.getId());
+			}
+
+		} catch (Exception e) {
+			throw new Exception("Error while updating import job (id="+importJob.getId()+") in database",e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+	}
+
+	@Override
+	public List<ImportJob> getImportJobs() throws Exception {
+		List<ImportJob> importJobs = new Vector<ImportJob>();
+
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"SELECT "+IMPORT_JOB_FIELDS
+				+" FROM import_jobs"
+				+" ORDER BY created_time DESC"
+				+" LIMIT 100"
+			);
+			
+			ResultSet resultSet = pstmt.executeQuery();
+			
+			while( resultSet.next() ){
+				ImportJob importJob = readImportJob(resultSet);
+				importJobs.add(importJob);
+			}
+			
+			resultSet.close();
+			pstmt.close();
+			
+		} catch (Exception e) {
+			throw new Exception("Error retrieving import jobs from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+
+		return importJobs;
+	}
+
+	@Override
+	public List<ImportJob> getUnfinishedImportJobs() throws Exception {
+		List<ImportJob> importJobs = new Vector<ImportJob>();
+
+		Connection connection = dbConn.getConnection();
+		try {
+			PreparedStatement pstmt = connection.prepareStatement(
+				"SELECT "+IMPORT_JOB_FIELDS
+				+" FROM import_jobs"
+				+" WHERE state=? OR state=?"
+				+" ORDER BY created_time"
+			);
+			
+			pstmt.setString(1, ImportJob.STATE_QUEUED);
+			pstmt.setString(2, ImportJob.STATE_RUNNING);
+			
+			ResultSet resultSet = pstmt.executeQuery();
+			
+			while( resultSet.next() ){
+				ImportJob importJob = readImportJob(resultSet);
+				importJobs.add(importJob);
+			}
+			
+			resultSet.close();
+			pstmt.close();
+			
+		} catch (Exception e) {
+			throw new Exception("Error retrieving unfinished import jobs from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
+		}
+
+		return importJobs;
+	}
+
+	/**
+	 * Reads an import job from a result set selected with IMPORT_JOB_FIELDS
+	 */
+	private ImportJob readImportJob(ResultSet resultSet) throws Exception {
+		ImportJob importJob = new ImportJob();
+		importJob.setId( resultSet.getString(1) );
+		importJob.setState( resultSet.getString(2) );
+		importJob.setFileName( resultSet.getString(3) );
+		importJob.setOriginalFileName( resultSet.getString(4) );
+
+		String paramStr = resultSet.getString(5);
+		if( null != paramStr ){
+			JSONObject parameters;
+			try {
+				parameters = new JSONObject(paramStr);
+			} catch (Exception e) {
+				parameters = new JSONObject();
+				parameters.put("unknown", paramStr);
+			}
+			importJob.setParameters(parameters);
+		}
+
+		importJob.setCreatedTime( resultSet.getTimestamp(6) );
+		importJob.setStartedTime( resultSet.getTimestamp(7) );
+		importJob.setEndedTime( resultSet.getTimestamp(8) );
+		importJob.setImportId( resultSet.getString(9) );
+		importJob.setErrorMessage( resultSet.getString(10) );
+
+		return importJob;
+	}
+
+	private void setTimestamp(PreparedStatement pstmt, int index, Date value) throws Exception {
+		if( null == value ){
+			pstmt.setNull(index, Types.TIMESTAMP);
+		} else {
+			pstmt.setTimestamp(index, new Timestamp(value.getTime()));
+		}
+	}
+
 	@Override
 	public LogRecord createLogRecord(LogRecord logRecord) throws Exception {
 
@@ -1296,8 +2753,9 @@ public class DbApiJdbc implements DbAPI {
 
 		Date time = new Date(); // now
 		
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"INSERT INTO logs"
 				+" (timestamp,log)"
 				+" VALUES (?,?)"
@@ -1328,9 +2786,12 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error inserting log record to database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 		
 		return result;
@@ -1340,43 +2801,66 @@ public class DbApiJdbc implements DbAPI {
 	public List<LogRecord> getLogRecords() throws Exception {
 		List<LogRecord> logRecords = new Vector<LogRecord>();
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,timestamp,log FROM logs"
 			);
 			
 			ResultSet resultSet = pstmt.executeQuery();
 			
 			while( resultSet.next() ){
-				String id = resultSet.getString(1);
-				Date timestamp = resultSet.getTimestamp(2);
-				String logText = resultSet.getString(3);
-				
-				JSONObject logObj = new JSONObject(logText);
-
-				LogRecord logRecord = new LogRecord();
-				logRecord.setId(id);
-				logRecord.setTimestamp(timestamp);
-				logRecord.setLog(logObj);
+				LogRecord logRecord = readLogRecord(resultSet);
 				
 				logRecords.add(logRecord);
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving log records from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return logRecords;
 	}
 
+	@Override
+	public RecordReader<LogRecord> readLogRecords() throws Exception {
+		RecordReaderJdbc<LogRecord> reader = new RecordReaderJdbc<LogRecord>(){
+			@Override
+			protected LogRecord readRecord(ResultSet resultSet) throws Exception {
+				return readLogRecord(resultSet);
+			}
+		};
+		try {
+			reader.open(dbConn, "SELECT id,timestamp,log FROM logs");
+		} catch (Exception e) {
+			throw new Exception("Error retrieving log records from database", e);
+		}
+		return reader;
+	}
+
+	/**
+	 * Reads a log record from a row with the fields id, timestamp and log
+	 */
+	static private LogRecord readLogRecord(ResultSet resultSet) throws Exception {
+		LogRecord logRecord = new LogRecord();
+		logRecord.setId( resultSet.getString(1) );
+		logRecord.setTimestamp( resultSet.getTimestamp(2) );
+		logRecord.setLog( new JSONObject(resultSet.getString(3)) );
+		return logRecord;
+	}
+
 	@Override
 	public LogRecord getLogRecordFromId(String logId) throws Exception {
 		LogRecord logRecord = null;
 
+		Connection connection = dbConn.getConnection();
 		try {
-			PreparedStatement pstmt = dbConn.getConnection().prepareStatement(
+			PreparedStatement pstmt = connection.prepareStatement(
 				"SELECT id,timestamp,log FROM logs WHERE id=?"
 			);
 			
@@ -1398,11 +2882,39 @@ public class DbApiJdbc implements DbAPI {
 			}
 			
 			resultSet.close();
+			pstmt.close();
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving log record (id="+logId+") from database", e);
+		} finally {
+			dbConn.releaseConnection(connection);
 		}
 
 		return logRecord;
 	}
+
+	@Override
+	public void reserveThreadConnection() throws Exception {
+		dbConn.reserveThreadConnection();
+	}
+
+	@Override
+	public void releaseThreadConnection() throws Exception {
+		dbConn.releaseThreadConnection();
+	}
+
+	@Override
+	public void beginTransaction() throws Exception {
+		dbConn.beginTransaction();
+	}
+
+	@Override
+	public void commitTransaction() throws Exception {
+		dbConn.commitTransaction();
+	}
+
+	@Override
+	public void rollbackTransaction() throws Exception {
+		dbConn.rollbackTransaction();
+	}
 }
@@ -1,79 +1,266 @@
 package ca.carleton.gcrc.sensorDb.jdbc;
 
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.DriverManager;
-import java.sql.SQLException; 
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ca.carleton.gcrc.sensorDb.dbapi.DbAPI;
 
+/**
+ * Access to the database through a pool of connections. A connection
+ * obtained with getConnection() must be handed back with releaseConnection().
+ * Within a thread, nested calls to getConnection() return the connection
+ * already held by that thread.
+ */
 public class DbConnection {
 
 	final static protected Logger logger = LoggerFactory.getLogger(DbConnection.class);
-	private final String connectionString;
-	private final String user;
-	private final String password;
-	
-	private Connection connection;
+
+	static final public int DEFAULT_FETCH_SIZE = 1000;
+
+	static private class ThreadConnection {
+		Connection connection;
+		int useCount;
+		boolean inTransaction = false;
+		// Versions to increment once the transaction is committed
+		boolean metadataChanged = false;
+		boolean importRecordsChanged = false;
+	}
 
 	static public DbConnection fromParameters(
 			String connectionString,
 			String user,
 			String password
 			) throws Exception {
-		
-		Connection con = createNewSqlConnection(connectionString, user, password);
-		return new DbConnection(con, connectionString, user, password);
+
+		return fromParameters(connectionString, user, password, new ConnectionPoolSettings());
 	}
 
-	private DbConnection(Connection connection, String connectionString, String user, String password) {
-		this.connection = connection;
-		this.connectionString = connectionString;
-		this.user = user;
-		this.password = password;
+	static public DbConnection fromParameters(
+			String connectionString,
+			String user,
+			String password,
+			ConnectionPoolSettings poolSettings
+			) throws Exception {
+
+		ConnectionPool pool = new ConnectionPool(connectionString, user, password, poolSettings);
+		pool.start();
+
+		DbConnection dbConn = new DbConnection(pool);
+
+		// Verify that a connection can be obtained
+		Connection connection = dbConn.getConnection();
+		dbConn.releaseConnection(connection);
+
+		return dbConn;
 	}
 
-	public synchronized Connection getConnection() {
-		try {
-			// Check if the connection is dead, using a 2-second timeout.
-			if (this.connection == null || !this.connection.isValid(2)) {
-				logger.warn("Database connection was stale or closed. Reconnecting...");
-				this.connection = createNewSqlConnection(this.connectionString, this.user, this.password);
+	private final ConnectionPool pool;
+	private final ThreadLocal<ThreadConnection> threadConnection = new ThreadLocal<ThreadConnection>();
+	private final AtomicLong metadataVersion = new AtomicLong(0);
+	private final AtomicLong importRecordsVersion = new AtomicLong(0);
+	private volatile int fetchSize = DEFAULT_FETCH_SIZE;
+
+	private DbConnection(ConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	public Connection getConnection() throws Exception {
+		ThreadConnection current = threadConnection.get();
+		if( null != current ){
+			++current.useCount;
+			return current.connection;
+		}
+
+		Connection connection = pool.borrowConnection();
+
+		current = new ThreadConnection();
+		current.connection = connection;
+		current.useCount = 1;
+		threadConnection.set(current);
+
+		return connection;
+	}
+
+	/**
+	 * Returns a connection that is not shared with other calls made
+	 * by the current thread. It must also be handed back with
+	 * releaseConnection(). Since readers hold it for as long as their
+	 * result is read, it is not reported as a leak.
+	 */
+	public Connection getDedicatedConnection() throws Exception {
+		Connection connection = pool.borrowConnection();
+		pool.exemptFromLeakDetection(connection);
+		return connection;
+	}
+
+	public void releaseConnection(Connection connection) {
+		if( null == connection ){
+			return;
+		}
+
+		ThreadConnection current = threadConnection.get();
+		if( null != current && current.connection == connection ){
+			--current.useCount;
+			if( current.useCount > 0 ){
+				return;
 			}
-		} catch (Exception e) {
-			logger.error("Database connection validation failed. Reconnecting...", e);
-			// If isValid() throws an error, the connection is definitely dead.
+			threadConnection.remove();
+		}
+
+		pool.releaseConnection(connection);
+	}
+
+	/**
+	 * Holds a connection for the current thread, so that the calls made by
+	 * the thread share it until releaseThreadConnection() is called.
+	 * It is not reported as a leak in the meantime.
+	 */
+	public void reserveThreadConnection() throws Exception {
+		Connection connection = getConnection();
+		pool.exemptFromLeakDetection(connection);
+	}
+
+	public void releaseThreadConnection() throws Exception {
+		ThreadConnection current = threadConnection.get();
+		if( null == current ){
+			throw new Exception("No connection is reserved by the current thread");
+		}
+		releaseConnection(current.connection);
+	}
+
+	/**
+	 * Starts a transaction on the connection of the current thread. The
+	 * connection is held by the thread until the transaction ends, so that
+	 * all the calls made by the thread in between are part of it.
+	 */
+	public void beginTransaction() throws Exception {
+		Connection connection = getConnection();
+		ThreadConnection current = threadConnection.get();
+		if( current.inTransaction ){
+			releaseConnection(connection);
+			throw new Exception("A transaction is already in progress on the current thread");
+		}
+
+		try {
+			connection.setAutoCommit(false);
+		} catch(Exception e) {
+			releaseConnection(connection);
+			throw new Exception("Unable to start transaction", e);
+		}
+		current.inTransaction = true;
+	}
+
+	public void commitTransaction() throws Exception {
+		ThreadConnection current = threadConnection.get();
+		if( null == current || false == current.inTransaction ){
+			throw new Exception("No transaction in progress on the current thread");
+		}
+
+		Connection connection = current.connection;
+		try {
+			connection.commit();
+			connection.setAutoCommit(true);
+		} catch(Exception e) {
+			// The transaction can not be completed
 			try {
-				this.connection = createNewSqlConnection(this.connectionString, this.user, this.password);
-			} catch (Exception newConnectException) { 
-				logger.error("Failed to reconnect to the database. Returning null connection", newConnectException);
-				this.connection = null;
-				}
+				rollbackTransaction();
+			} catch(Exception e1) {
+				// Ignore
+			}
+			throw new Exception("Unable to commit transaction", e);
 		}
+		current.inTransaction = false;
+		releaseConnection(connection);
 
-		return this.connection;
+		// The changes are now visible to other connections
+		if( current.metadataChanged ){
+			current.metadataChanged = false;
+			metadataVersion.incrementAndGet();
+		}
+		if( current.importRecordsChanged ){
+			current.importRecordsChanged = false;
+			importRecordsVersion.incrementAndGet();
+		}
 	}
 
-	private static Connection createNewSqlConnection(String connectionString, String user, String password) throws Exception {
+	public void rollbackTransaction() throws Exception {
+		ThreadConnection current = threadConnection.get();
+		if( null == current || false == current.inTransaction ){
+			return;
+		}
+
+		Connection connection = current.connection;
+		current.inTransaction = false;
+		current.metadataChanged = false;
+		current.importRecordsChanged = false;
 		try {
-		    Class.forName("org.postgresql.Driver"); //load the driver
-			Connection con = DriverManager.getConnection(
-					"jdbc:postgresql:"+connectionString,
-					user,
-					password
-				); //connect to the db
-		    DatabaseMetaData dbmd = con.getMetaData(); //get MetaData to confirm connection
-		    logger.info("Connection to "+dbmd.getDatabaseProductName()+" "+
-		                       dbmd.getDatabaseProductVersion()+" successful.\n");
-			return con;
-		} catch (Exception e) {
-			throw new Exception("Couldn't get db connection: "+connectionString,e);
+			connection.rollback();
+			connection.setAutoCommit(true);
+		} catch(Exception e) {
+			throw new Exception("Unable to roll back transaction", e);
+		} finally {
+			// If the rollback failed, the pool resets the connection
+			releaseConnection(connection);
 		}
 	}
 
+	/**
+	 * Version of the device, sensor and location records, as modified
+	 * through this connection. Changes made by other processes are
+	 * not reflected. Changes made within a transaction are reflected
+	 * once it is committed.
+	 */
+	public long getMetadataVersion() {
+		return metadataVersion.get();
+	}
+
+	public void incrementMetadataVersion() {
+		ThreadConnection current = threadConnection.get();
+		if( null != current && current.inTransaction ){
+			current.metadataChanged = true;
+		} else {
+			metadataVersion.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Version of the import records, as modified through this connection.
+	 */
+	public long getImportRecordsVersion() {
+		return importRecordsVersion.get();
+	}
+
+	public void incrementImportRecordsVersion() {
+		ThreadConnection current = threadConnection.get();
+		if( null != current && current.inTransaction ){
+			current.importRecordsChanged = true;
+		} else {
+			importRecordsVersion.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Number of rows fetched at once by the readers that stream
+	 * large results through a cursor.
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		if( fetchSize < 1 ){
+			fetchSize = 1;
+		}
+		this.fetchSize = fetchSize;
+	}
+
+	public void close() {
+		pool.close();
+	}
+
 	public DbAPI getAPI()  {
 		return new DbApiJdbc(this);
 	}
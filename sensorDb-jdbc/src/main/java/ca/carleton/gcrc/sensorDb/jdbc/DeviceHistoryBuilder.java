@@ -0,0 +1,90 @@
+package ca.carleton.gcrc.sensorDb.jdbc;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.carleton.gcrc.sensorDb.dbapi.Device;
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceHistory;
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceLocation;
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceSensor;
+import ca.carleton.gcrc.sensorDb.dbapi.Location;
+import ca.carleton.gcrc.sensorDb.dbapi.Sensor;
+
+/**
+ * Assembles the history of a device from the rows of a query. The rows
+ * can come in any order: an association can have the same timestamp as
+ * the acquisition of the device and be read before the device. The
+ * associations are attached to the device once all rows are read.
+ */
+public class DeviceHistoryBuilder {
+
+	private Device device = null;
+	private List<DeviceSensor> deviceSensors = new ArrayList<DeviceSensor>();
+	private List<DeviceLocation> deviceLocations = new ArrayList<DeviceLocation>();
+	private Map<String,Sensor> sensorsById = new LinkedHashMap<String,Sensor>();
+	private Map<String,Location> locationsById = new LinkedHashMap<String,Location>();
+
+	public void setDevice(Device device) throws Exception {
+		if( null != this.device ){
+			throw new Exception("More than one device found");
+		}
+		this.device = device;
+	}
+
+	/**
+	 * Associations must be added in time order
+	 */
+	public void addDeviceSensor(DeviceSensor deviceSensor) {
+		deviceSensors.add(deviceSensor);
+	}
+
+	public boolean hasSensor(String sensorId) {
+		return sensorsById.containsKey(sensorId);
+	}
+
+	public void addSensor(Sensor sensor) {
+		sensorsById.put(sensor.getId(), sensor);
+	}
+
+	/**
+	 * Associations must be added in time order
+	 */
+	public void addDeviceLocation(DeviceLocation deviceLocation) {
+		deviceLocations.add(deviceLocation);
+	}
+
+	public boolean hasLocation(String locationId) {
+		return locationsById.containsKey(locationId);
+	}
+
+	public void addLocation(Location location) {
+		locationsById.put(location.getId(), location);
+	}
+
+	/**
+	 * Returns null if no device was found
+	 */
+	public DeviceHistory build() {
+		if( null == device ){
+			return null;
+		}
+
+		DeviceHistory history = new DeviceHistory();
+		history.setDevice(device);
+
+		for(DeviceSensor deviceSensor : deviceSensors){
+			deviceSensor.setDeviceId( device.getId() );
+			history.getDeviceSensors().add(deviceSensor);
+		}
+		for(DeviceLocation deviceLocation : deviceLocations){
+			deviceLocation.setDeviceId( device.getId() );
+			history.getDeviceLocations().add(deviceLocation);
+		}
+		history.getSensors().addAll( sensorsById.values() );
+		history.getLocations().addAll( locationsById.values() );
+
+		return history;
+	}
+}
@@ -0,0 +1,109 @@
+package ca.carleton.gcrc.sensorDb.jdbc;
+
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import ca.carleton.gcrc.sensorDb.dbapi.ImportKeys;
+import ca.carleton.gcrc.sensorDb.dbapi.Observation;
+
+/**
+ * Formats observations as CSV rows suitable for a
+ * COPY ... FROM STDIN statement on the observations table.
+ */
+public class ObservationCopyWriter {
+
+	static public String getCopyStatement() {
+		return "COPY observations"
+			+" (device_id,sensor_id,import_id,import_key,observation_type,"
+			+"unit_of_measure,accuracy,precision,numeric_value,text_value,"
+			+"logged_time,corrected_utc_time,location,height_min_metres,"
+			+"height_max_metres,elevation_in_metres)"
+			+" FROM STDIN WITH (FORMAT csv)";
+	}
+
+	private Writer writer;
+	private DateFormat dateFormatter;
+
+	public ObservationCopyWriter(Writer writer) {
+		this.writer = writer;
+
+		dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		dateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	public void write(Observation observation) throws Exception {
+		writeRaw(observation.getDeviceId());
+		writer.write(',');
+		writeRaw(observation.getSensorId());
+		writer.write(',');
+		writeRaw(observation.getImportId());
+		writer.write(',');
+		writeRaw(ImportKeys.normalize(observation.getImportKey()));
+		writer.write(',');
+		writeString(observation.getObservationType());
+		writer.write(',');
+		writeString(observation.getUnitOfMeasure());
+		writer.write(',');
+		writeNumber(observation.getAccuracy());
+		writer.write(',');
+		writeNumber(observation.getPrecision());
+		writer.write(',');
+		writeNumber(observation.getNumericValue());
+		writer.write(',');
+		writeString(observation.getTextValue());
+		writer.write(',');
+		writeDate(observation.getLoggedTime());
+		writer.write(',');
+		writeDate(observation.getCorrectedTime());
+		writer.write(',');
+		writeString(observation.getLocation());
+		writer.write(',');
+		writeNumber(observation.getMinHeight());
+		writer.write(',');
+		writeNumber(observation.getMaxHeight());
+		writer.write(',');
+		writeNumber(observation.getElevation());
+		writer.write('\n');
+	}
+
+	// In CSV format, an unquoted empty field is NULL
+	private void writeRaw(String value) throws Exception {
+		if( null != value ){
+			writer.write(value);
+		}
+	}
+
+	private void writeString(String value) throws Exception {
+		if( null == value ){
+			return;
+		}
+
+		writer.write('"');
+		int start = 0;
+		int index = value.indexOf('"');
+		while( index >= 0 ){
+			writer.write(value, start, index - start + 1);
+			writer.write('"');
+			start = index + 1;
+			index = value.indexOf('"', start);
+		}
+		writer.write(value, start, value.length() - start);
+		writer.write('"');
+	}
+
+	private void writeNumber(Double value) throws Exception {
+		if( null != value ){
+			writer.write( value.toString() );
+		}
+	}
+
+	private void writeDate(Date value) throws Exception {
+		if( null != value ){
+			writer.write( dateFormatter.format(value) );
+			writer.write("+00");
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package ca.carleton.gcrc.sensorDb.jdbc;
 
+import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.Statement;
 
 import ca.carleton.gcrc.sensorDb.dbapi.Observation;
 import ca.carleton.gcrc.sensorDb.dbapi.ObservationReader;
@@ -14,9 +16,20 @@ public class ObservationReaderJdbc implements ObservationReader {
 			+"height_max_metres,elevation_in_metres";		
 	}
 
+	private DbConnection dbConn;
+	private Connection connection;
+	private Statement statement;
 	private ResultSet resultSet;
 	
-	public ObservationReaderJdbc(ResultSet resultSet){
+	public ObservationReaderJdbc(
+			DbConnection dbConn, 
+			Connection connection, 
+			Statement statement, 
+			ResultSet resultSet
+			){
+		this.dbConn = dbConn;
+		this.connection = connection;
+		this.statement = statement;
 		this.resultSet = resultSet;
 	}
 	
@@ -48,11 +61,30 @@ public class ObservationReaderJdbc implements ObservationReader {
 		return observation;
 	}
 
+	/**
+	 * Releases the result set, the statement and the connection. The
+	 * connection is released even if closing the others fails. It is
+	 * safe to call this method more than once.
+	 */
 	@Override
 	public void close() throws Exception {
-		if( null != resultSet ){
-			resultSet.close();
-			resultSet = null;
+		try {
+			try {
+				if( null != resultSet ){
+					resultSet.close();
+				}
+			} finally {
+				resultSet = null;
+				if( null != statement ){
+					statement.close();
+				}
+			}
+		} finally {
+			statement = null;
+			if( null != connection ){
+				dbConn.releaseConnection(connection);
+				connection = null;
+			}
 		}
 	}
 
@@ -0,0 +1,85 @@
+package ca.carleton.gcrc.sensorDb.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import ca.carleton.gcrc.sensorDb.dbapi.RecordReader;
+
+/**
+ * Reads records from a query through a cursor, a batch of rows at a
+ * time. Subclasses convert the current row of the result set into a
+ * record.
+ */
+abstract public class RecordReaderJdbc<T> implements RecordReader<T> {
+
+	private DbConnection dbConn;
+	private Connection connection;
+	private PreparedStatement statement;
+	private ResultSet resultSet;
+
+	/**
+	 * Executes the query on a connection dedicated to this reader
+	 */
+	public void open(DbConnection dbConn, String sql) throws Exception {
+		this.dbConn = dbConn;
+		connection = dbConn.getDedicatedConnection();
+		try {
+			// A cursor is used only outside of auto-commit
+			connection.setAutoCommit(false);
+
+			statement = connection.prepareStatement(
+				sql,
+				ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY
+			);
+			statement.setFetchSize( dbConn.getFetchSize() );
+
+			resultSet = statement.executeQuery();
+
+		} catch (Exception e) {
+			try {
+				close();
+			} catch(Exception e1) {
+				// Ignore
+			}
+			throw e;
+		}
+	}
+
+	abstract protected T readRecord(ResultSet resultSet) throws Exception;
+
+	@Override
+	public T read() throws Exception {
+		if( null != resultSet && resultSet.next() ){
+			return readRecord(resultSet);
+		}
+		return null;
+	}
+
+	/**
+	 * Releases the result set, the statement and the connection. It is
+	 * safe to call this method more than once.
+	 */
+	@Override
+	public void close() throws Exception {
+		try {
+			try {
+				if( null != resultSet ){
+					resultSet.close();
+				}
+			} finally {
+				resultSet = null;
+				if( null != statement ){
+					statement.close();
+				}
+			}
+		} finally {
+			statement = null;
+			if( null != connection ){
+				dbConn.releaseConnection(connection);
+				connection = null;
+			}
+		}
+	}
+}
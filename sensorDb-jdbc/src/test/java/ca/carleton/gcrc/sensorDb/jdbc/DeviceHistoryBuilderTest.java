@@ -0,0 +1,80 @@
+package ca.carleton.gcrc.sensorDb.jdbc;
+
+import java.util.Date;
+
+import ca.carleton.gcrc.sensorDb.dbapi.Device;
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceHistory;
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceLocation;
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceSensor;
+import ca.carleton.gcrc.sensorDb.dbapi.Location;
+import ca.carleton.gcrc.sensorDb.dbapi.Sensor;
+import junit.framework.TestCase;
+
+public class DeviceHistoryBuilderTest extends TestCase {
+
+	public void testAssociationsBeforeDevice() throws Exception {
+		Date acquiredOn = new Date(1451610000000L);
+
+		DeviceHistoryBuilder builder = new DeviceHistoryBuilder();
+
+		// Associations created with the device have its acquisition time,
+		// so they can be read before the device
+		DeviceSensor deviceSensor = new DeviceSensor();
+		deviceSensor.setId("ds1");
+		deviceSensor.setSensorId("s1");
+		deviceSensor.setTimestamp(acquiredOn);
+		builder.addDeviceSensor(deviceSensor);
+		Sensor sensor = new Sensor();
+		sensor.setId("s1");
+		builder.addSensor(sensor);
+
+		DeviceLocation deviceLocation = new DeviceLocation();
+		deviceLocation.setId("dl1");
+		deviceLocation.setLocationId("l1");
+		deviceLocation.setTimestamp(acquiredOn);
+		builder.addDeviceLocation(deviceLocation);
+		Location location = new Location();
+		location.setId("l1");
+		builder.addLocation(location);
+
+		Device device = new Device();
+		device.setId("d1");
+		device.setAcquiredOn(acquiredOn);
+		builder.setDevice(device);
+
+		DeviceHistory history = builder.build();
+		if( 1 != history.getDeviceSensors().size() ){
+			fail("Sensor association read before the device was lost");
+		}
+		if( false == "d1".equals(history.getDeviceSensors().get(0).getDeviceId()) ){
+			fail("Sensor association not attached to the device");
+		}
+		if( 1 != history.getSensors().size() ){
+			fail("Unexpected number of sensors: "+history.getSensors().size());
+		}
+		if( 1 != history.getDeviceLocations().size() ){
+			fail("Location association read before the device was lost");
+		}
+		if( false == "d1".equals(history.getDeviceLocations().get(0).getDeviceId()) ){
+			fail("Location association not attached to the device");
+		}
+	}
+
+	public void testNoDevice() throws Exception {
+		DeviceHistoryBuilder builder = new DeviceHistoryBuilder();
+		if( null != builder.build() ){
+			fail("No history expected without a device");
+		}
+	}
+
+	public void testMoreThanOneDevice() throws Exception {
+		DeviceHistoryBuilder builder = new DeviceHistoryBuilder();
+		builder.setDevice(new Device());
+		try {
+			builder.setDevice(new Device());
+			fail("A second device should be refused");
+		} catch(Exception e) {
+			// Expected
+		}
+	}
+}
@@ -1,16 +1,19 @@
 package ca.carleton.gcrc.sensorDb.servlet.db;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Date;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Vector;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -19,6 +22,8 @@ import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationQuery;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationReader;
 import ca.carleton.gcrc.sensorDb.jdbc.DbConnection;
 
 @SuppressWarnings("serial")
@@ -26,9 +31,12 @@ public class DbServlet extends HttpServlet {
 
 	final protected Logger logger = LoggerFactory.getLogger(this.getClass());
 
+	static final private int GZIP_BUFFER_SIZE = 16384;
+
 //	private DbConnection dbConn = null;
 	private DbServletActions actions = null;
 	private File mediaDir = null;
+	private FileResponseSender fileSender = new FileResponseSender();
 	
 	public DbServlet(DbConnection dbConn, File mediaDir){
 //		this.dbConn = dbConn;
@@ -68,80 +76,90 @@ public class DbServlet extends HttpServlet {
 				JSONObject result = actions.getWelcome();
 				sendJsonResponse(resp, result);
 
-			} else if( path.size() == 1 && path.get(0).equals("getLocations") ) {
-				JSONObject result = actions.getLocations();
-				sendJsonResponse(resp, result);
-
-			} else if( path.size() == 1 && path.get(0).equals("getDeviceTypes") ) {
-				JSONObject result = actions.getDeviceTypes();
-				sendJsonResponse(resp, result);
-
-			} else if( path.size() == 1 && path.get(0).equals("getDevices") ) {
-				JSONObject result = actions.getDevices();
-				sendJsonResponse(resp, result);
-
-			} else if( path.size() == 1 && path.get(0).equals("getDeviceLocations") ) {
-				JSONObject result = actions.getDeviceLocations();
-				sendJsonResponse(resp, result);
+			} else if( path.size() == 1 && DbServletActions.isCachedRequest(path.get(0)) ) {
+				// getLocations, getDeviceTypes, getDevices, getDeviceLocations
+				// and getImportRecords
+				sendCachedResponse(req, resp, path.get(0));
 
 			} else if( path.size() == 1 && path.get(0).equals("getListOfLogEntries") ) {
-				JSONObject result = actions.getListOfLogEntries();
-				sendJsonResponse(resp, result);
+				resp.setStatus(200);
+				resp.setContentType("application/json");
+				resp.setCharacterEncoding("utf-8");
+				resp.addHeader("Cache-Control", "no-cache");
+				resp.addHeader("Pragma", "no-cache");
+				resp.addHeader("Expires", "-1");
+
+				// Entries are written as they are read from the database
+				Writer writer = new BufferedWriter(
+					new OutputStreamWriter(resp.getOutputStream(), "UTF-8")
+				);
+				actions.writeListOfLogEntries(writer);
+				writer.flush();
 
-			} else if( path.size() == 1 && path.get(0).equals("getImportRecords") ) {
-				JSONObject result = actions.getImportRecords();
+			} else if( path.size() == 1 && path.get(0).equals("getImportJobs") ) {
+				JSONObject result = actions.getImportJobs();
 				sendJsonResponse(resp, result);
 
 			} else if( path.size() >= 2 && path.get(0).equals("getImportFile") ) {
 				String importId = path.get(1);
 				
 				String fileName = actions.getImportFileNameFromImportId(importId);
-				File file = null;
-				if( null != fileName ){
-					file = new File(mediaDir, fileName);
-					
-					if( false == file.exists() ){
+				if( null == fileName ) {
+					resp.setStatus(404); // not found
+					resp.addHeader("Cache-Control", "no-cache");
+					resp.setContentLength(0);
+				
+				} else {
+					File file = new File(mediaDir, fileName);
+					if( false == file.isFile() ){
 						throw new Exception("File "+fileName+" with import "+importId+" is not found");
 					}
-				}
 
-				if( null == file ) {
-					resp.setStatus(404); // not found
-				} else {
-					resp.setStatus(200);
+					fileSender.sendFile(req, resp, file, "text/file");
 				}
-				
-				resp.setContentType("text/file");
-				resp.setCharacterEncoding("utf-8");
-				resp.addHeader("Cache-Control", "no-cache");
-				resp.addHeader("Pragma", "no-cache");
-				resp.addHeader("Expires", "-1");
-				
-				ServletOutputStream os = resp.getOutputStream();
-				FileInputStream fis = new FileInputStream(file);
-				int b = fis.read();
-				while( b >= 0 ){
-					os.write(b);
-					b = fis.read();
-				}
-				os.flush();
-				fis.close();
 
 			} else if( path.size() >= 2 && path.get(0).equals("getObservationsByImportId") ) {
 				String importId = path.get(1);
 				
-				resp.setContentType("text/csv");
-				resp.setCharacterEncoding("utf-8");
-				resp.addHeader("Cache-Control", "no-cache");
-				resp.addHeader("Pragma", "no-cache");
-				resp.addHeader("Expires", "-1");
-				
-				ServletOutputStream os = resp.getOutputStream();
-				OutputStreamWriter osw = new OutputStreamWriter(os,"UTF-8");
-				
-				actions.getObservationsFromImportId(importId, osw);
+				ObservationReader reader = actions.getObservationsFromImportId(importId);
+				sendCsvResponse(req, resp, reader);
+
+			} else if( path.size() == 1 && path.get(0).equals("queryObservations") ) {
+				ObservationQuery query = getObservationQuery(req);
+
+				// Resume key: <corrected time in ms>:<observation id>
+				String after = optStringParameter(req, "after");
+				if( null != after ){
+					int colon = after.indexOf(':');
+					if( colon < 1 ){
+						throw new Exception("'after' parameter must be: <time in ms>:<observation id>");
+					}
+					try {
+						long afterTime = Long.parseLong( after.substring(0, colon) );
+						query.setResumeKey(new Date(afterTime), after.substring(colon+1));
+					} catch(Exception e) {
+						throw new Exception("'after' parameter must be: <time in ms>:<observation id>",e);
+					}
+				}
+
+				Integer limit = optIntegerParameter(req, "limit");
+				query.setLimit( DbServletActions.computeQueryLimit(limit) );
 				
-				osw.flush();
+				ObservationReader reader = actions.queryObservations(query);
+				sendCsvResponse(req, resp, reader);
+
+			} else if( path.size() == 1 && path.get(0).equals("getObservationBuckets") ) {
+				ObservationQuery query = getObservationQuery(req);
+				String interval = optStringParameter(req, "interval");
+				Integer points = optIntegerParameter(req, "points");
+				JSONObject result = actions.getObservationBuckets(query, interval, points);
+				sendJsonResponse(resp, result);
+
+			} else if( path.size() == 1 && path.get(0).equals("getDownsampledObservations") ) {
+				ObservationQuery query = getObservationQuery(req);
+				Integer points = optIntegerParameter(req, "points");
+				JSONObject result = actions.getDownsampledObservations(query, points);
+				sendJsonResponse(resp, result);
 
 			} else if( path.size() == 1 && path.get(0).equals("getLog") ) {
 				String id = getStringParameter(req, "id");
@@ -257,7 +275,82 @@ public class DbServlet extends HttpServlet {
 			result.write(osw);
 			osw.flush();
 		}
-		
+
+	}
+
+	/**
+	 * Streams observations in CSV format, compressed if the client
+	 * accepts it. The reader is closed once the response is sent.
+	 */
+	private void sendCsvResponse(HttpServletRequest req, HttpServletResponse resp, ObservationReader reader) throws Exception {
+		try {
+			resp.setContentType("text/csv");
+			resp.setCharacterEncoding("utf-8");
+			resp.addHeader("Cache-Control", "no-cache");
+			resp.addHeader("Pragma", "no-cache");
+			resp.addHeader("Expires", "-1");
+			resp.addHeader("Vary", "Accept-Encoding");
+
+			OutputStream os = resp.getOutputStream();
+			GZIPOutputStream gzos = null;
+			if( acceptsGzip(req) ){
+				resp.setHeader("Content-Encoding", "gzip");
+				gzos = new GZIPOutputStream(os, GZIP_BUFFER_SIZE);
+				os = gzos;
+			}
+			OutputStreamWriter osw = new OutputStreamWriter(os,"UTF-8");
+
+			actions.writeObservationsCsv(reader, osw);
+
+			osw.flush();
+			if( null != gzos ){
+				gzos.finish();
+			}
+
+		} finally {
+			try {
+				reader.close();
+			} catch(Exception e) {
+				// Ignore
+			}
+		}
+	}
+
+	/**
+	 * Sends the cached response of a request. If the client already
+	 * holds the current response, as reported by If-None-Match, a 304
+	 * is returned without the response being built.
+	 */
+	private void sendCachedResponse(HttpServletRequest req, HttpServletResponse resp, String name) throws Exception {
+		boolean gzip = acceptsGzip(req);
+
+		resp.addHeader("Cache-Control", "no-cache");
+		resp.addHeader("Vary", "Accept-Encoding");
+
+		String eTag = actions.getCachedResponseETag(name, gzip);
+		if( JsonResponseCache.matchesETag(req.getHeader("If-None-Match"), eTag) ){
+			resp.setStatus(304); // not modified
+			resp.setHeader("ETag", eTag);
+			return;
+		}
+
+		JsonResponseCache.CachedResponse response = actions.getCachedResponse(name);
+		byte[] content = response.getContent();
+		resp.setStatus(200);
+		resp.setContentType("application/json");
+		resp.setCharacterEncoding("utf-8");
+		if( gzip ){
+			content = response.getGzipContent();
+			resp.setHeader("ETag", response.getGzipETag());
+			resp.setHeader("Content-Encoding", "gzip");
+		} else {
+			resp.setHeader("ETag", response.getETag());
+		}
+		resp.setContentLength(content.length);
+
+		OutputStream os = resp.getOutputStream();
+		os.write(content);
+		os.flush();
 	}
 
 	private void reportError(Throwable t, HttpServletResponse resp) throws ServletException {
@@ -296,6 +389,79 @@ public class DbServlet extends HttpServlet {
 		}
 	}
 	
+	/**
+	 * Builds a query for observations from the request parameters
+	 * device_id, sensor_id, start, end, observation_type and bbox.
+	 */
+	private ObservationQuery getObservationQuery(HttpServletRequest req) throws Exception {
+		ObservationQuery query = new ObservationQuery();
+		query.setDeviceId( optStringParameter(req, "device_id") );
+		String[] sensorIds = req.getParameterValues("sensor_id");
+		if( null != sensorIds ){
+			for(String sensorId : sensorIds){
+				query.addSensorId(sensorId);
+			}
+		}
+		query.setStartTime( optDateParameter(req, "start") );
+		query.setEndTime( optDateParameter(req, "end") );
+		query.setObservationType( optStringParameter(req, "observation_type") );
+		
+		String bbox = optStringParameter(req, "bbox");
+		if( null != bbox ){
+			String[] bounds = bbox.split(",");
+			if( 4 != bounds.length ){
+				throw new Exception("'bbox' parameter must be: minLongitude,minLatitude,maxLongitude,maxLatitude");
+			}
+			try {
+				query.setBoundingBox(
+					Double.parseDouble(bounds[0].trim()), 
+					Double.parseDouble(bounds[1].trim()), 
+					Double.parseDouble(bounds[2].trim()), 
+					Double.parseDouble(bounds[3].trim())
+				);
+			} catch(Exception e) {
+				throw new Exception("'bbox' parameter must contain floating point numbers",e);
+			}
+		}
+		
+		return query;
+	}
+
+	/**
+	 * True if the client lists gzip in Accept-Encoding, without
+	 * refusing it with a quality of zero.
+	 */
+	static boolean acceptsGzip(HttpServletRequest req) {
+		Enumeration<?> headers = req.getHeaders("Accept-Encoding");
+		while( null != headers && headers.hasMoreElements() ){
+			String header = (String)headers.nextElement();
+			if( null == header ){
+				continue;
+			}
+			String[] codings = header.split(",");
+			for(String coding : codings){
+				String[] parts = coding.split(";");
+				String name = parts[0].trim();
+				if( "gzip".equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name) ){
+					for(int i=1; i<parts.length; ++i){
+						String param = parts[i].trim();
+						if( param.startsWith("q=") ){
+							try {
+								if( Double.parseDouble(param.substring(2).trim()) <= 0 ){
+									return false;
+								}
+							} catch(Exception e) {
+								return false;
+							}
+						}
+					}
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 	private List<String> computeRequestPath(HttpServletRequest req) throws Exception {
 		List<String> paths = new Vector<String>();
 		
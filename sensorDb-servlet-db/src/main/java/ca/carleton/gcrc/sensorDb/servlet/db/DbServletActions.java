@@ -1,5 +1,7 @@
 package ca.carleton.gcrc.sensorDb.servlet.db;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.Collection;
 import java.util.Date;
@@ -10,20 +12,27 @@ import java.util.Vector;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ca.carleton.gcrc.sensorDb.dbapi.DbAPI;
 import ca.carleton.gcrc.sensorDb.dbapi.Device;
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceHistory;
 import ca.carleton.gcrc.sensorDb.dbapi.DeviceLocation;
 import ca.carleton.gcrc.sensorDb.dbapi.DeviceSensor;
 import ca.carleton.gcrc.sensorDb.dbapi.DeviceSensorProfile;
+import ca.carleton.gcrc.sensorDb.dbapi.ImportJob;
 import ca.carleton.gcrc.sensorDb.dbapi.ImportRecord;
 import ca.carleton.gcrc.sensorDb.dbapi.Location;
 import ca.carleton.gcrc.sensorDb.dbapi.LogRecord;
+import ca.carleton.gcrc.sensorDb.dbapi.LttbDownsampler;
 import ca.carleton.gcrc.sensorDb.dbapi.Observation;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationBucket;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationQuery;
 import ca.carleton.gcrc.sensorDb.dbapi.ObservationReader;
 import ca.carleton.gcrc.sensorDb.dbapi.ObservationWriterCsv;
+import ca.carleton.gcrc.sensorDb.dbapi.RecordReader;
 import ca.carleton.gcrc.sensorDb.dbapi.Sensor;
 import ca.carleton.gcrc.sensorDb.jdbc.DbConnection;
 
@@ -31,9 +40,93 @@ public class DbServletActions {
 
 	final protected Logger logger = LoggerFactory.getLogger(this.getClass());
 
+	static final public int DEFAULT_QUERY_LIMIT = 10000;
+	static final public int MAX_QUERY_LIMIT = 100000;
+
+	/**
+	 * Returns the number of observations returned by a query, given
+	 * the requested limit. Queries are always limited so that clients
+	 * page through large results.
+	 */
+	static public int computeQueryLimit(Integer requestedLimit) throws Exception {
+		if( null == requestedLimit ){
+			return DEFAULT_QUERY_LIMIT;
+		}
+		if( requestedLimit.intValue() < 1 ){
+			throw new Exception("Limit must be at least 1");
+		}
+		return Math.min(requestedLimit.intValue(), MAX_QUERY_LIMIT);
+	}
+
+	static final public int DEFAULT_POINT_COUNT = 1000;
+	static final public int MAX_POINT_COUNT = 5000;
+
+	// Bucket sizes offered when sized automatically
+	static final private long[] AUTO_BUCKET_SIZES = new long[]{
+		60L * 1000L, // 1 minute
+		5L * 60L * 1000L,
+		15L * 60L * 1000L,
+		30L * 60L * 1000L,
+		ObservationBucket.HOUR_MS,
+		3L * ObservationBucket.HOUR_MS,
+		6L * ObservationBucket.HOUR_MS,
+		12L * ObservationBucket.HOUR_MS,
+		ObservationBucket.DAY_MS,
+		ObservationBucket.WEEK_MS
+	};
+
+	/**
+	 * Returns the number of points returned by a summary, given the
+	 * requested number.
+	 */
+	static public int computePointCount(Integer requestedPoints) throws Exception {
+		if( null == requestedPoints ){
+			return DEFAULT_POINT_COUNT;
+		}
+		if( requestedPoints.intValue() < 3 ){
+			throw new Exception("Number of points must be at least 3");
+		}
+		return Math.min(requestedPoints.intValue(), MAX_POINT_COUNT);
+	}
+
+	/**
+	 * Returns the smallest bucket size, among round durations, that
+	 * divides a period in at most the given number of buckets.
+	 */
+	static public long computeAutoBucketSize(long periodMs, int pointCount) {
+		long minimumSize = (periodMs + pointCount - 1) / pointCount;
+		for(long size : AUTO_BUCKET_SIZES){
+			if( size >= minimumSize ){
+				return size;
+			}
+		}
+		long weeks = (minimumSize + ObservationBucket.WEEK_MS - 1) / ObservationBucket.WEEK_MS;
+		return weeks * ObservationBucket.WEEK_MS;
+	}
+
+	// Requests that return metadata, which changes rarely. Their
+	// responses are cached until the metadata changes.
+	static final private String[] CACHED_REQUESTS = new String[]{
+		"getLocations",
+		"getDeviceTypes",
+		"getDevices",
+		"getDeviceLocations",
+		"getImportRecords"
+	};
+
+	static public boolean isCachedRequest(String name) {
+		for(String cachedName : CACHED_REQUESTS){
+			if( cachedName.equals(name) ){
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private JSONObject cached_welcome = null;
 	// private DbConnection dbConn = null;
 	private DbAPI dbAPI = null;
+	private JsonResponseCache responseCache = new JsonResponseCache();
 
 	public DbServletActions(DbConnection dbConn){
 		//this.dbConn = dbConn;
@@ -49,6 +142,98 @@ public class DbServletActions {
 		return cached_welcome;
 	}
 
+	/**
+	 * Returns the entity tag that the response of a cached request
+	 * currently has, without building the response.
+	 */
+	public String getCachedResponseETag(String name, boolean gzip) throws Exception {
+		return responseCache.computeETag(name, getCachedRequestVersion(name), gzip);
+	}
+
+	/**
+	 * Returns the response of a cached request, building it if the
+	 * data has changed since it was cached.
+	 */
+	public JsonResponseCache.CachedResponse getCachedResponse(String name) throws Exception {
+		// The version is read before the data
+		long version = getCachedRequestVersion(name);
+
+		JsonResponseCache.CachedResponse response = responseCache.get(name, version);
+		if( null == response ){
+			// Large lists are serialized as they are read
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			Writer writer = new OutputStreamWriter(baos, "UTF-8");
+			if( "getLocations".equals(name) ){
+				writeLocations(writer);
+			} else if( "getDeviceTypes".equals(name) ){
+				getDeviceTypes().write(writer);
+			} else if( "getDevices".equals(name) ){
+				writeDevices(writer);
+			} else if( "getDeviceLocations".equals(name) ){
+				writeDeviceLocations(writer);
+			} else if( "getImportRecords".equals(name) ){
+				getImportRecords().write(writer);
+			} else {
+				throw new Exception("Request is not cached: "+name);
+			}
+			writer.flush();
+			response = responseCache.put(name, version, baos.toByteArray());
+		}
+		return response;
+	}
+
+	/**
+	 * Builds the JSON representation of a record
+	 */
+	private interface JsonRecordBuilder<T> {
+		JSONObject build(T record) throws Exception;
+	}
+
+	/**
+	 * Writes the records of a reader in the array of a JSON response,
+	 * one at a time, so that the whole list is never held in memory.
+	 * The reader is closed.
+	 */
+	static private <T> void writeRecords(
+			Writer writer,
+			String arrayName,
+			RecordReader<T> reader,
+			JsonRecordBuilder<T> builder
+			) throws Exception {
+
+		try {
+			JSONWriter jsonWriter = new JSONWriter(writer);
+			jsonWriter.object();
+			jsonWriter.key(arrayName);
+			jsonWriter.array();
+
+			T record = reader.read();
+			while( null != record ){
+				jsonWriter.value( builder.build(record) );
+				record = reader.read();
+			}
+
+			jsonWriter.endArray();
+			jsonWriter.key("ok");
+			jsonWriter.value(true);
+			jsonWriter.endObject();
+
+		} finally {
+			try {
+				reader.close();
+			} catch(Exception e) {
+				// Ignore
+			}
+		}
+	}
+
+	private long getCachedRequestVersion(String name) throws Exception {
+		if( "getImportRecords".equals(name) ){
+			return dbAPI.getImportRecordsVersion();
+		}
+		return dbAPI.getMetadataVersion();
+	}
+
 	/**
 	 * Create a new location record
 	 * @param name
@@ -98,30 +283,22 @@ public class DbServletActions {
 	 * @return
 	 * @throws Exception
 	 */
-	public JSONObject getLocations(
+	public void writeLocations(
+			Writer writer
 			) throws Exception {
 
-		JSONObject result = new JSONObject();
-		
 		try {
-			JSONArray locationArr = new JSONArray();
-			result.put("locations", locationArr);
-			
-			Collection<Location> locations = dbAPI.getLocations();
-
-			for(Location location : locations){
-				JSONObject jsonLocation = buildLocationJson(location);
-				
-				locationArr.put(jsonLocation);
-			}
+			RecordReader<Location> reader = dbAPI.readLocations();
+			writeRecords(writer, "locations", reader, new JsonRecordBuilder<Location>(){
+				@Override
+				public JSONObject build(Location location) throws Exception {
+					return buildLocationJson(location);
+				}
+			});
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving all locations from database", e);
 		}
-		
-		result.put("ok", true);
-
-		return result;
 	}
 
 	/**
@@ -313,30 +490,22 @@ public class DbServletActions {
 	 * @return
 	 * @throws Exception
 	 */
-	public JSONObject getDevices(
+	public void writeDevices(
+			Writer writer
 			) throws Exception {
 
-		JSONObject result = new JSONObject();
-		
 		try {
-			JSONArray deviceArr = new JSONArray();
-			result.put("devices", deviceArr);
-			
-			Collection<Device> devices = dbAPI.getDevices();
-
-			for(Device device : devices){
-				JSONObject jsonDevice = buildDeviceJson(device);
-				
-				deviceArr.put(jsonDevice);
-			}
+			RecordReader<Device> reader = dbAPI.readDevices();
+			writeRecords(writer, "devices", reader, new JsonRecordBuilder<Device>(){
+				@Override
+				public JSONObject build(Device device) throws Exception {
+					return buildDeviceJson(device);
+				}
+			});
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving all devices from database", e);
 		}
-		
-		result.put("ok", true);
-
-		return result;
 	}
 
 	/**
@@ -354,11 +523,18 @@ public class DbServletActions {
 			JSONArray deviceArr = new JSONArray();
 			result.put("devices", deviceArr);
 			
-			Device device = dbAPI.getDeviceFromId(device_id);
+			// Device and sensors in one request
+			DeviceHistory history = dbAPI.getDeviceHistoryFromId(device_id);
+			if( null == history ){
+				throw new Exception("Can not find device");
+			}
 				
-			JSONObject jsonDevice = buildDeviceJson(device);
+			JSONObject jsonDevice = buildDeviceJson(history.getDevice());
 			
-			JSONArray sensors = getSensorsFromDeviceId(device_id);
+			JSONArray sensors = new JSONArray();
+			for(Sensor sensor : history.getSensors()){
+				sensors.put( buildSensorJson(sensor) );
+			}
 			jsonDevice.put("sensors", sensors);
 			
 			deviceArr.put(jsonDevice);
@@ -396,31 +572,6 @@ public class DbServletActions {
 		return jsonDevice;
 	}
 	
-	/**
-	 * @param device_id
-	 * @return
-	 * @throws Exception  
-	 */
-	private JSONArray getSensorsFromDeviceId(String device_id) throws Exception {
-
-		JSONArray result = new JSONArray();
-		
-		try {
-			
-			Collection<Sensor> sensors = dbAPI.getSensorsFromDeviceId(device_id);
-			
-			for(Sensor sensor : sensors){
-				JSONObject jsonSensor = buildSensorJson(sensor);
-				result.put(jsonSensor);
-			}
-			
-		} catch (Exception e) {
-			throw new Exception("Error retrieving sensors for device ("+device_id+") from database", e);
-		}
-		
-		return result;
-	}
-	
 	private JSONObject getSensorsByTimestampFromDeviceId(String device_id) throws Exception {
 		JSONObject result = new JSONObject();
 
@@ -428,24 +579,31 @@ public class DbServletActions {
 			JSONObject timeJson = new JSONObject();
 			result.put("timestamps", timeJson);
 			
-			Collection<DeviceSensor> deviceSensors = dbAPI.getDeviceSensorsFromDeviceId(device_id);
+			// Associations and sensors in one request
+			DeviceHistory history = dbAPI.getDeviceHistoryFromId(device_id);
+			if( null == history ){
+				throw new Exception("Can not find device");
+			}
+
+			Map<String,Sensor> sensorsById = new HashMap<String,Sensor>();
+			for(Sensor sensor : history.getSensors()){
+				sensorsById.put(sensor.getId(), sensor);
+			}
 
 			// TODO: Make times ordered - write unique into list
-			for(DeviceSensor deviceSensor : deviceSensors){
+			for (DeviceSensor deviceSensor : history.getDeviceSensors()){
 				String timestamp = deviceSensor.getTimestamp().toString();
 				
-				if (null == timeJson.get(timestamp)){
-					JSONArray sensorList = new JSONArray();
-					timeJson.put(timestamp.toString(), sensorList);
+				JSONArray sensorList = timeJson.optJSONArray(timestamp);
+				if( null == sensorList ){
+					sensorList = new JSONArray();
+					timeJson.put(timestamp, sensorList);
 				}
-			}
-			
-			for (DeviceSensor deviceSensor : deviceSensors){
-				JSONArray sensorList = (JSONArray) timeJson.get(deviceSensor.getTimestamp().toString());
-				Sensor sensor = dbAPI.getSensorFromSensorId(deviceSensor.getSensorId());
-				JSONObject sensorJSON = buildSensorJson(sensor);
 
-				sensorList.put(sensorJSON);
+				Sensor sensor = sensorsById.get(deviceSensor.getSensorId());
+				if( null != sensor ){
+					sensorList.put( buildSensorJson(sensor) );
+				}
 			}
 			
 			
@@ -589,30 +747,22 @@ public class DbServletActions {
 	 * @return
 	 * @throws Exception
 	 */
-	public JSONObject getDeviceLocations(
+	public void writeDeviceLocations(
+			Writer writer
 			) throws Exception {
 
-		JSONObject result = new JSONObject();
-		
 		try {
-			JSONArray deviceLocationArr = new JSONArray();
-			result.put("deviceLocations", deviceLocationArr);
-
-			Collection<DeviceLocation> deviceLocations = dbAPI.getDeviceLocations();
-
-			for(DeviceLocation deviceLocation : deviceLocations){
-				JSONObject jsonDeviceLocation = buildDeviceLocationJson(deviceLocation);
-				
-				deviceLocationArr.put(jsonDeviceLocation);
-			}
+			RecordReader<DeviceLocation> reader = dbAPI.readDeviceLocations();
+			writeRecords(writer, "deviceLocations", reader, new JsonRecordBuilder<DeviceLocation>(){
+				@Override
+				public JSONObject build(DeviceLocation deviceLocation) throws Exception {
+					return buildDeviceLocationJson(deviceLocation);
+				}
+			});
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving all deviceLocations from database", e);
 		}
-		
-		result.put("ok", true);
-
-		return result;
 	}
 
 	
@@ -704,6 +854,30 @@ public class DbServletActions {
 		return result;
 	}
 	
+	public JSONObject getImportJobs() throws Exception {
+		
+		JSONObject result = new JSONObject();
+		
+		try {
+			List<ImportJob> importJobs = dbAPI.getImportJobs();
+			
+			JSONArray importJobsArr = new JSONArray();
+			result.put("importJobs", importJobsArr);
+
+			for(ImportJob importJob : importJobs){
+				JSONObject jsonJob = importJob.toJSON();
+				importJobsArr.put(jsonJob);
+			}
+			
+		} catch (Exception e) {
+			throw new Exception("Error retrieving import jobs from database", e);
+		}
+		
+		result.put("ok", true);
+
+		return result;
+	}
+	
 	public String getImportFileNameFromImportId(String importId) throws Exception {
 		
 		String fileName = null;
@@ -721,29 +895,22 @@ public class DbServletActions {
 		return fileName;
 	}
 	
-	public JSONObject getListOfLogEntries(
+	public void writeListOfLogEntries(
+			Writer writer
 			) throws Exception {
 
-		JSONObject result = new JSONObject();
-		
 		try {
-			JSONArray logEntriesArr = new JSONArray();
-			result.put("logEntries", logEntriesArr);
-			
-			List<LogRecord> logRecords = dbAPI.getLogRecords();
-			for(LogRecord logRecord : logRecords){
-				JSONObject logEntry = buildLogEntryJson(logRecord);
-				
-				logEntriesArr.put(logEntry);
-			}
+			RecordReader<LogRecord> reader = dbAPI.readLogRecords();
+			writeRecords(writer, "logEntries", reader, new JsonRecordBuilder<LogRecord>(){
+				@Override
+				public JSONObject build(LogRecord logRecord) throws Exception {
+					return buildLogEntryJson(logRecord);
+				}
+			});
 			
 		} catch (Exception e) {
 			throw new Exception("Error retrieving all log entries from database", e);
 		}
-		
-		result.put("ok", true);
-
-		return result;
 	}
 
 	public JSONObject getLogFromId(
@@ -790,8 +957,19 @@ public class DbServletActions {
 		return logEntry;
 	}
 	
-	public void getObservationsFromImportId(String importId, Writer writer) throws Exception {
-		ObservationReader reader = dbAPI.getObservationsFromImportId(importId);
+	public ObservationReader getObservationsFromImportId(String importId) throws Exception {
+		return dbAPI.getObservationsFromImportId(importId);
+	}
+
+	public ObservationReader queryObservations(ObservationQuery query) throws Exception {
+		return dbAPI.queryObservations(query);
+	}
+
+	/**
+	 * Writes the observations of a reader in CSV format. The reader
+	 * is not closed.
+	 */
+	public void writeObservationsCsv(ObservationReader reader, Writer writer) throws Exception {
 		ObservationWriterCsv writerCsv = new ObservationWriterCsv(writer);
 		
 		writerCsv.writeHeader();
@@ -801,9 +979,122 @@ public class DbServletActions {
 			writerCsv.write(observation);
 			observation = reader.read();
 		}
-		
-		reader.close();
 
+		writerCsv.flush();
 		writer.flush();
 	}
+
+	/**
+	 * Summarizes observations in buckets of time.
+	 * @param interval "hour", "day", "week" or "auto". With "auto", the
+	 * bucket size is chosen to return about the requested number of points.
+	 * @param points Requested number of points. The number of buckets
+	 * returned never exceeds MAX_POINT_COUNT.
+	 */
+	public JSONObject getObservationBuckets(ObservationQuery query, String interval, Integer points) throws Exception {
+		int pointCount = computePointCount(points);
+
+		long bucketMs = 0;
+		int maxBuckets = pointCount;
+		if( null == interval || "auto".equals(interval) ){
+			long[] period = getQueryPeriod(query);
+			if( null != period ){
+				bucketMs = computeAutoBucketSize(period[1] - period[0], pointCount);
+
+				// Buckets are aligned on round times, so the period may
+				// overlap one more bucket
+				maxBuckets = pointCount + 1;
+			}
+		} else if( "hour".equals(interval) ){
+			bucketMs = ObservationBucket.HOUR_MS;
+		} else if( "day".equals(interval) ){
+			bucketMs = ObservationBucket.DAY_MS;
+		} else if( "week".equals(interval) ){
+			bucketMs = ObservationBucket.WEEK_MS;
+		} else {
+			throw new Exception("Invalid interval: "+interval);
+		}
+
+		JSONArray jsonBuckets = new JSONArray();
+		if( bucketMs > 0 ){
+			List<ObservationBucket> buckets = dbAPI.getObservationBuckets(query, bucketMs, maxBuckets);
+			for(ObservationBucket bucket : buckets){
+				jsonBuckets.put( bucket.toJSON() );
+			}
+		}
+
+		JSONObject result = new JSONObject();
+		result.put("ok", true);
+		result.put("interval_ms", bucketMs);
+		result.put("buckets", jsonBuckets);
+		return result;
+	}
+
+	/**
+	 * Returns at most the requested number of observations of a sensor,
+	 * chosen to keep the shape of its series.
+	 */
+	public JSONObject getDownsampledObservations(ObservationQuery query, Integer points) throws Exception {
+		// Observations of different sensors do not form a series
+		if( 1 != query.getSensorIds().size() ){
+			throw new Exception("Exactly one sensor_id must be given to downsample observations");
+		}
+
+		int pointCount = computePointCount(points);
+
+		// Text observations have no value to plot
+		query.setNumericOnly(true);
+
+		JSONArray jsonPoints = new JSONArray();
+
+		long[] period = getQueryPeriod(query);
+		if( null != period ){
+			LttbDownsampler downsampler = new LttbDownsampler(period[0], period[1], pointCount);
+
+			ObservationReader reader = dbAPI.queryObservations(query);
+			try {
+				Observation observation = reader.read();
+				while( null != observation ){
+					downsampler.add(observation);
+					observation = reader.read();
+				}
+			} finally {
+				try {
+					reader.close();
+				} catch(Exception e) {
+					// Ignore
+				}
+			}
+
+			for(Observation observation : downsampler.finish()){
+				JSONObject jsonPoint = new JSONObject();
+				jsonPoint.put("id", observation.getId());
+				jsonPoint.put("time", observation.getCorrectedTime().getTime());
+				jsonPoint.put("value", observation.getNumericValue().doubleValue());
+				jsonPoints.put(jsonPoint);
+			}
+		}
+
+		JSONObject result = new JSONObject();
+		result.put("ok", true);
+		result.put("points", jsonPoints);
+		return result;
+	}
+
+	/**
+	 * Returns the times of the first and last observations with a numeric
+	 * value selected by the query, or null if there are none. When the
+	 * query allows it, the period is read from the rollups.
+	 */
+	private long[] getQueryPeriod(ObservationQuery query) throws Exception {
+		List<ObservationBucket> buckets = dbAPI.getObservationBuckets(query, 0, 1);
+		if( buckets.size() < 1 ){
+			return null;
+		}
+		ObservationBucket bucket = buckets.get(0);
+		return new long[]{
+			bucket.getFirstTime().getTime(),
+			bucket.getLastTime().getTime()
+		};
+	}
 }
@@ -0,0 +1,283 @@
+package ca.carleton.gcrc.sensorDb.servlet.db;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.HttpOutput;
+
+/**
+ * Sends the content of a file in a response. The response carries the
+ * length, the modification time and an entity tag of the file, so that
+ * clients can revalidate their copy. A single byte range can be requested
+ * to resume a download. If the client accepts gzip and a compressed copy
+ * of the file, with the extension .gz, is at least as recent as the file,
+ * the compressed copy is sent instead.
+ */
+public class FileResponseSender {
+
+	/**
+	 * Range of bytes, inclusive, requested from a file
+	 */
+	static public class ByteRange {
+		private long start;
+		private long end;
+		private boolean satisfiable;
+
+		public ByteRange(long start, long end, boolean satisfiable) {
+			this.start = start;
+			this.end = end;
+			this.satisfiable = satisfiable;
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		public long getLength() {
+			return end - start + 1;
+		}
+
+		/**
+		 * False if the range does not overlap the file, in which
+		 * case a 416 is returned.
+		 */
+		public boolean isSatisfiable() {
+			return satisfiable;
+		}
+	}
+
+	/**
+	 * Parses the value of a Range header for a file of the given length.
+	 * Returns null if the header is absent or can not be honoured, in which
+	 * case the whole file is sent. Requests for multiple ranges are not
+	 * supported and also return null.
+	 */
+	static public ByteRange parseRange(String header, long fileLength) {
+		if( null == header ){
+			return null;
+		}
+		header = header.trim();
+		if( false == header.startsWith("bytes=") ){
+			return null;
+		}
+		String spec = header.substring("bytes=".length()).trim();
+		if( spec.indexOf(',') >= 0 ){
+			return null;
+		}
+		int dashIndex = spec.indexOf('-');
+		if( dashIndex < 0 ){
+			return null;
+		}
+		String startStr = spec.substring(0, dashIndex).trim();
+		String endStr = spec.substring(dashIndex+1).trim();
+
+		try {
+			if( startStr.length() < 1 ){
+				// Suffix range: the last bytes of the file
+				if( endStr.length() < 1 ){
+					return null;
+				}
+				long suffixLength = Long.parseLong(endStr);
+				if( suffixLength < 1 || fileLength < 1 ){
+					return new ByteRange(0, -1, false);
+				}
+				long start = Math.max(0, fileLength - suffixLength);
+				return new ByteRange(start, fileLength - 1, true);
+			}
+
+			long start = Long.parseLong(startStr);
+			long end = fileLength - 1;
+			if( endStr.length() > 0 ){
+				end = Long.parseLong(endStr);
+				if( end < start ){
+					return null;
+				}
+				if( end > fileLength - 1 ){
+					end = fileLength - 1;
+				}
+			}
+			if( start < 0 ){
+				return null;
+			}
+			if( start >= fileLength ){
+				return new ByteRange(start, -1, false);
+			}
+			return new ByteRange(start, end, true);
+
+		} catch(NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Entity tag of a file, derived from its length and modification time
+	 */
+	static public String computeETag(File file, boolean gzip) {
+		String tag = Long.toString(file.length(), 36)
+				+ "-" + Long.toString(file.lastModified(), 36);
+		if( gzip ){
+			tag += "-gz";
+		}
+		return "\""+tag+"\"";
+	}
+
+	/**
+	 * Sends a file that is known to exist.
+	 */
+	public void sendFile(
+			HttpServletRequest req,
+			HttpServletResponse resp,
+			File file,
+			String contentType
+			) throws Exception {
+
+		boolean gzip = false;
+		File gzipFile = new File(file.getParentFile(), file.getName()+".gz");
+		if( DbServlet.acceptsGzip(req)
+		 && gzipFile.isFile()
+		 && gzipFile.lastModified() >= file.lastModified() ){
+			file = gzipFile;
+			gzip = true;
+		}
+
+		long fileLength = file.length();
+		long lastModified = file.lastModified();
+		String eTag = computeETag(file, gzip);
+
+		resp.setContentType(contentType);
+		resp.addHeader("Cache-Control", "no-cache");
+		resp.addHeader("Vary", "Accept-Encoding");
+		resp.setHeader("Accept-Ranges", "bytes");
+		resp.setHeader("ETag", eTag);
+		resp.setDateHeader("Last-Modified", lastModified);
+		if( gzip ){
+			resp.setHeader("Content-Encoding", "gzip");
+		}
+
+		if( isNotModified(req, eTag, lastModified) ){
+			resp.setStatus(304); // not modified
+			return;
+		}
+
+		ByteRange range = null;
+		if( isIfRangeValid(req, eTag, lastModified) ){
+			range = parseRange(req.getHeader("Range"), fileLength);
+		}
+
+		if( null != range && false == range.isSatisfiable() ){
+			resp.setStatus(416); // range not satisfiable
+			resp.setHeader("Content-Range", "bytes */"+fileLength);
+			resp.setHeader("Content-Length", "0");
+			return;
+		}
+
+		long start = 0;
+		long length = fileLength;
+		if( null != range ){
+			start = range.getStart();
+			length = range.getLength();
+			resp.setStatus(206); // partial content
+			resp.setHeader("Content-Range", "bytes "+range.getStart()+"-"+range.getEnd()+"/"+fileLength);
+		} else {
+			resp.setStatus(200);
+		}
+		resp.setHeader("Content-Length", Long.toString(length));
+
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel fileChannel = fis.getChannel();
+			OutputStream os = resp.getOutputStream();
+			transfer(fileChannel, start, length, os);
+
+		} finally {
+			try {
+				fis.close();
+			} catch(Exception e) {
+				// Ignore
+			}
+		}
+	}
+
+	private void transfer(FileChannel fileChannel, long start, long length, OutputStream os) throws Exception {
+		if( length < 1 ){
+			return;
+		}
+
+		if( os instanceof HttpOutput && length <= Integer.MAX_VALUE ){
+			// Jetty writes a mapped buffer to the socket without
+			// copying it to the heap, and completes the response
+			ByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			((HttpOutput)os).sendContent(buffer);
+			return;
+		}
+
+		WritableByteChannel outChannel = Channels.newChannel(os);
+		long position = start;
+		long remaining = length;
+		while( remaining > 0 ){
+			long count = fileChannel.transferTo(position, remaining, outChannel);
+			if( count < 1 ){
+				throw new Exception("Unable to read file at position "+position);
+			}
+			position += count;
+			remaining -= count;
+		}
+		os.flush();
+	}
+
+	private boolean isNotModified(HttpServletRequest req, String eTag, long lastModified) {
+		String ifNoneMatch = req.getHeader("If-None-Match");
+		if( null != ifNoneMatch ){
+			return JsonResponseCache.matchesETag(ifNoneMatch, eTag);
+		}
+
+		long ifModifiedSince = getDateHeader(req, "If-Modified-Since");
+		if( ifModifiedSince >= 0 ){
+			// HTTP dates have a precision of a second
+			return (lastModified / 1000) <= (ifModifiedSince / 1000);
+		}
+
+		return false;
+	}
+
+	/**
+	 * A range is ignored if If-Range names another version of the file
+	 */
+	private boolean isIfRangeValid(HttpServletRequest req, String eTag, long lastModified) {
+		String ifRange = req.getHeader("If-Range");
+		if( null == ifRange ){
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if( ifRange.startsWith("\"") || ifRange.startsWith("W/") ){
+			// Ranges require a strong comparison
+			return eTag.equals(ifRange);
+		}
+		long ifRangeDate = getDateHeader(req, "If-Range");
+		if( ifRangeDate < 0 ){
+			return false;
+		}
+		return (lastModified / 1000) == (ifRangeDate / 1000);
+	}
+
+	private long getDateHeader(HttpServletRequest req, String name) {
+		try {
+			return req.getDateHeader(name);
+		} catch(IllegalArgumentException e) {
+			// Malformed date
+			return -1;
+		}
+	}
+}
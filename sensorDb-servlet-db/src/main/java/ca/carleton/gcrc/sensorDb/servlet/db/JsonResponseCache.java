@@ -0,0 +1,150 @@
+package ca.carleton.gcrc.sensorDb.servlet.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONObject;
+
+/**
+ * Keeps serialized JSON responses, each one valid for a version of the
+ * data it was built from. A response is built again when the version
+ * changes. Responses are identified by an entity tag derived from the
+ * version, so that clients can revalidate their copy without the
+ * response being built.
+ */
+public class JsonResponseCache {
+
+	static public class CachedResponse {
+		private long version;
+		private String eTag;
+		private String gzipETag;
+		private byte[] content;
+		private byte[] gzipContent;
+
+		public long getVersion() {
+			return version;
+		}
+
+		public String getETag() {
+			return eTag;
+		}
+
+		public String getGzipETag() {
+			return gzipETag;
+		}
+
+		/**
+		 * UTF-8 encoding of the JSON response
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+
+		/**
+		 * Content compressed with gzip
+		 */
+		public byte[] getGzipContent() {
+			return gzipContent;
+		}
+	}
+
+	// Distinguishes the tags of this instance from the ones
+	// sent by a previous run of the server
+	private String instanceTag;
+	private Map<String,CachedResponse> responsesByName = new HashMap<String,CachedResponse>();
+
+	public JsonResponseCache() {
+		instanceTag = Long.toString(System.currentTimeMillis(), 36);
+	}
+
+	/**
+	 * Returns the entity tag of a response built at the given version.
+	 * The content compressed with gzip has a tag of its own.
+	 */
+	public String computeETag(String name, long version, boolean gzip) {
+		if( gzip ){
+			return "\""+name+"-"+instanceTag+"-"+version+"-gz\"";
+		}
+		return "\""+name+"-"+instanceTag+"-"+version+"\"";
+	}
+
+	/**
+	 * Returns the response cached for the given version, or null
+	 * if it must be built.
+	 */
+	synchronized public CachedResponse get(String name, long version) {
+		CachedResponse response = responsesByName.get(name);
+		if( null != response && response.version == version ){
+			return response;
+		}
+		return null;
+	}
+
+	/**
+	 * Serializes and caches a response built at the given version. The
+	 * version must be read before the data used to build the response,
+	 * so that the cached response is never older than its version.
+	 */
+	public CachedResponse put(String name, long version, JSONObject json) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		OutputStreamWriter osw = new OutputStreamWriter(baos, "UTF-8");
+		json.write(osw);
+		osw.flush();
+
+		return put(name, version, baos.toByteArray());
+	}
+
+	/**
+	 * Caches a response already serialized in UTF-8.
+	 */
+	public CachedResponse put(String name, long version, byte[] content) throws Exception {
+		CachedResponse response = new CachedResponse();
+		response.version = version;
+		response.eTag = computeETag(name, version, false);
+		response.gzipETag = computeETag(name, version, true);
+		response.content = content;
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(baos);
+		gzos.write(response.content);
+		gzos.finish();
+		gzos.close();
+		response.gzipContent = baos.toByteArray();
+
+		synchronized(this) {
+			CachedResponse current = responsesByName.get(name);
+			if( null == current || current.version <= version ){
+				responsesByName.put(name, response);
+			}
+		}
+
+		return response;
+	}
+
+	/**
+	 * True if an If-None-Match header value lists the given tag. Weak
+	 * tags are compared by their value.
+	 */
+	static public boolean matchesETag(String ifNoneMatch, String eTag) {
+		if( null == ifNoneMatch || null == eTag ){
+			return false;
+		}
+		String[] tags = ifNoneMatch.split(",");
+		for(String tag : tags){
+			tag = tag.trim();
+			if( "*".equals(tag) ){
+				return true;
+			}
+			if( tag.startsWith("W/") ){
+				tag = tag.substring(2);
+			}
+			if( eTag.equals(tag) ){
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,55 @@
+package ca.carleton.gcrc.sensorDb.servlet.db;
+
+import junit.framework.TestCase;
+
+public class FileResponseSenderTest extends TestCase {
+
+	public void testParseRange() throws Exception {
+		FileResponseSender.ByteRange range = FileResponseSender.parseRange("bytes=0-99", 1000);
+		if( 0 != range.getStart() || 99 != range.getEnd() || 100 != range.getLength() ){
+			fail("Unexpected range");
+		}
+
+		// Open ended
+		range = FileResponseSender.parseRange("bytes=900-", 1000);
+		if( 900 != range.getStart() || 999 != range.getEnd() ){
+			fail("Unexpected open ended range");
+		}
+
+		// Suffix
+		range = FileResponseSender.parseRange("bytes=-100", 1000);
+		if( 900 != range.getStart() || 999 != range.getEnd() ){
+			fail("Unexpected suffix range");
+		}
+
+		// End beyond the file is truncated
+		range = FileResponseSender.parseRange("bytes=500-5000", 1000);
+		if( 500 != range.getStart() || 999 != range.getEnd() ){
+			fail("Unexpected truncated range");
+		}
+
+		// Start beyond the file
+		range = FileResponseSender.parseRange("bytes=1000-", 1000);
+		if( range.isSatisfiable() ){
+			fail("Range should not be satisfiable");
+		}
+	}
+
+	public void testIgnoredRanges() throws Exception {
+		if( null != FileResponseSender.parseRange(null, 1000) ){
+			fail("Absent header should be ignored");
+		}
+		if( null != FileResponseSender.parseRange("items=0-10", 1000) ){
+			fail("Unknown unit should be ignored");
+		}
+		if( null != FileResponseSender.parseRange("bytes=0-10,20-30", 1000) ){
+			fail("Multiple ranges should be ignored");
+		}
+		if( null != FileResponseSender.parseRange("bytes=50-10", 1000) ){
+			fail("Invalid range should be ignored");
+		}
+		if( null != FileResponseSender.parseRange("bytes=a-b", 1000) ){
+			fail("Malformed range should be ignored");
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package ca.carleton.gcrc.sensorDb.servlet.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONObject;
+
+import junit.framework.TestCase;
+
+public class JsonResponseCacheTest extends TestCase {
+
+	public void testVersions() throws Exception {
+		JsonResponseCache cache = new JsonResponseCache();
+
+		if( null != cache.get("getDevices", 0) ){
+			fail("Response should not be cached");
+		}
+
+		JSONObject json = new JSONObject();
+		json.put("ok", true);
+		JsonResponseCache.CachedResponse response = cache.put("getDevices", 3, json);
+
+		if( response != cache.get("getDevices", 3) ){
+			fail("Response should be cached for its version");
+		}
+		if( null != cache.get("getDevices", 4) ){
+			fail("Response should not be returned for another version");
+		}
+		if( null != cache.get("getLocations", 3) ){
+			fail("Response should not be returned for another request");
+		}
+
+		if( false == new JSONObject(new String(response.getContent(), "UTF-8")).getBoolean("ok") ){
+			fail("Unexpected content");
+		}
+
+		InputStream is = new GZIPInputStream(new ByteArrayInputStream(response.getGzipContent()));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		int b = is.read();
+		while( b >= 0 ){
+			baos.write(b);
+			b = is.read();
+		}
+		if( false == Arrays.equals(response.getContent(), baos.toByteArray()) ){
+			fail("Compressed content should match content");
+		}
+
+		// A response built at an older version does not replace a newer one
+		cache.put("getDevices", 2, json);
+		if( response != cache.get("getDevices", 3) ){
+			fail("Newer response should be kept");
+		}
+	}
+
+	public void testETags() throws Exception {
+		JsonResponseCache cache = new JsonResponseCache();
+		JsonResponseCache.CachedResponse response = cache.put("getDevices", 3, new JSONObject());
+
+		String eTag = cache.computeETag("getDevices", 3, false);
+		if( false == eTag.equals(response.getETag()) ){
+			fail("Unexpected tag: "+response.getETag());
+		}
+		if( eTag.equals(response.getGzipETag()) ){
+			fail("Compressed content should have its own tag");
+		}
+		if( eTag.equals(cache.computeETag("getDevices", 4, false)) ){
+			fail("Tag should change with version");
+		}
+		if( eTag.equals(cache.computeETag("getLocations", 3, false)) ){
+			fail("Tag should depend on request");
+		}
+
+		if( false == JsonResponseCache.matchesETag(eTag, eTag) ){
+			fail("Tag should match itself");
+		}
+		if( false == JsonResponseCache.matchesETag("\"other\", W/"+eTag, eTag) ){
+			fail("Tag should match in list and weak form");
+		}
+		if( false == JsonResponseCache.matchesETag("*", eTag) ){
+			fail("Wildcard should match");
+		}
+		if( JsonResponseCache.matchesETag("\"other\"", eTag) ){
+			fail("Different tag should not match");
+		}
+		if( JsonResponseCache.matchesETag(null, eTag) ){
+			fail("Missing header should not match");
+		}
+	}
+}
@@ -10,6 +10,10 @@ public class ConversionRequest {
 	private int finalOffset = 0;
 	private String importerName;
 	private String notes;
+	private IngestMode ingestMode = IngestMode.INSERT;
+	private TransactionMode transactionMode = TransactionMode.CHUNK_COMMIT;
+	private String importId;
+	private String importJobId;
 
 	public File getFileToConvert() {
 		return fileToConvert;
@@ -53,6 +57,39 @@ public class ConversionRequest {
 		this.notes = notes;
 	}
 
+	public IngestMode getIngestMode() {
+		return ingestMode;
+	}
+	public void setIngestMode(IngestMode ingestMode) {
+		this.ingestMode = ingestMode;
+	}
+
+	public TransactionMode getTransactionMode() {
+		return transactionMode;
+	}
+	public void setTransactionMode(TransactionMode transactionMode) {
+		this.transactionMode = transactionMode;
+	}
+
+	/**
+	 * Import record that receives the observations. If the record exists,
+	 * the import resumes after the last line committed to it. Otherwise,
+	 * a new import record is created.
+	 */
+	public String getImportId() {
+		return importId;
+	}
+	public void setImportId(String importId) {
+		this.importId = importId;
+	}
+
+	public String getImportJobId() {
+		return importJobId;
+	}
+	public void setImportJobId(String importJobId) {
+		this.importJobId = importJobId;
+	}
+
 	public String toString(){
 		if( null == fileToConvert ){
 			return "ConversionRequest without a specified file";
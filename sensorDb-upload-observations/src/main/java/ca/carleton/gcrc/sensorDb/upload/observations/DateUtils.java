@@ -10,11 +10,76 @@ public class DateUtils {
 
 	// dd.mm.yyyy hh:mm:ss
 	static private Pattern patternDate1 = Pattern.compile("(\\d\\d)\\.(\\d\\d)\\.(\\d\\d\\d\\d) (\\d\\d):(\\d\\d):(\\d\\d)");
-	
+
+	// Length of dd.mm.yyyy hh:mm:ss
+	static private final int DATE1_LENGTH = 19;
+
+	// Before this year, Calendar switches to the Julian calendar
+	static private final int FIRST_GREGORIAN_YEAR = 1600;
+
+	static private final int[] DAYS_IN_MONTH = new int[]{31,28,31,30,31,30,31,31,30,31,30,31};
+
 	static public Date parseUtcString(String utcString) throws Exception {
-		
+		char[] chars = utcString.toCharArray();
+		long time = parseUtcMillis(chars, 0, chars.length);
+		return new Date(time);
+	}
+
+	/**
+	 * Decodes a date in the format dd.mm.yyyy hh:mm:ss from a range of characters,
+	 * without creating any object. Leading and trailing white spaces are ignored.
+	 * @return Number of milliseconds since epoch
+	 */
+	static public long parseUtcMillis(char[] chars, int start, int end) throws Exception {
+		// Trim, as String.trim()
+		while( start < end && chars[start] <= ' ' ){
+			++start;
+		}
+		while( end > start && chars[end-1] <= ' ' ){
+			--end;
+		}
+
+		if( end - start == DATE1_LENGTH
+		 && '.' == chars[start+2]
+		 && '.' == chars[start+5]
+		 && ' ' == chars[start+10]
+		 && ':' == chars[start+13]
+		 && ':' == chars[start+16] ){
+			int day = digits(chars, start, 2);
+			int month = digits(chars, start+3, 2);
+			int year = digits(chars, start+6, 4);
+			int hours = digits(chars, start+11, 2);
+			int minutes = digits(chars, start+14, 2);
+			int seconds = digits(chars, start+17, 2);
+
+			if( day >= 0
+			 && month >= 0
+			 && year >= FIRST_GREGORIAN_YEAR
+			 && hours >= 0
+			 && minutes >= 0
+			 && seconds >= 0 ){
+				// Same validation as a non-lenient calendar
+				if( month < 1 || month > 12
+				 || day < 1 || day > daysInMonth(year, month)
+				 || hours > 23
+				 || minutes > 59
+				 || seconds > 59 ){
+					throw new Exception("Invalid UTC date: "+new String(chars, start, end-start));
+				}
+
+				long days = daysFromEpoch(year, month, day);
+				return ((days * 24L + hours) * 60L + minutes) * 60000L + (seconds * 1000L);
+			}
+		}
+
+		// Unusual dates are handled by the calendar
+		return parseWithCalendar( new String(chars, start, end-start) );
+	}
+
+	static private long parseWithCalendar(String utcString) throws Exception {
+
 		Matcher matcherDate1 = patternDate1.matcher(utcString.trim());
-		
+
 		if( matcherDate1.matches() ){
 			TimeZone tz = TimeZone.getTimeZone("UTC");
 			Calendar calendar = Calendar.getInstance(tz);
@@ -24,16 +89,61 @@ public class DateUtils {
 			int year = Integer.parseInt( matcherDate1.group(3) );
 			int month = Integer.parseInt( matcherDate1.group(2) );
 			int day = Integer.parseInt( matcherDate1.group(1) );
-			
+
 			int hours = Integer.parseInt( matcherDate1.group(4) );
 			int minutes = Integer.parseInt( matcherDate1.group(5) );
 			int seconds = Integer.parseInt( matcherDate1.group(6) );
-			
+
 			calendar.set(year, month-1, day, hours, minutes, seconds);
-			return calendar.getTime();
+			return calendar.getTimeInMillis();
 
 		} else {
 			throw new Exception("Can not parse UTC date: "+utcString);
 		}
 	};
+
+	/**
+	 * Returns the value of a run of ASCII digits, or -1 if a
+	 * character is not a digit.
+	 */
+	static private int digits(char[] chars, int start, int count) {
+		int value = 0;
+		for(int i=start; i<start+count; ++i){
+			char c = chars[i];
+			if( c < '0' || c > '9' ){
+				return -1;
+			}
+			value = (value * 10) + (c - '0');
+		}
+		return value;
+	}
+
+	static private int daysInMonth(int year, int month) {
+		if( 2 == month && isLeapYear(year) ){
+			return 29;
+		}
+		return DAYS_IN_MONTH[month-1];
+	}
+
+	static private boolean isLeapYear(int year) {
+		return (year % 4 == 0) && (year % 100 != 0 || year % 400 == 0);
+	}
+
+	/**
+	 * Number of days between 1970-01-01 and the given date of the
+	 * proleptic Gregorian calendar.
+	 */
+	static private long daysFromEpoch(int year, int month, int day) {
+		// Count years from March so that the leap day is last
+		int y = year;
+		if( month <= 2 ){
+			--y;
+		}
+		int era = y / 400; // y is positive
+		int yearOfEra = y - (era * 400);
+		int monthFromMarch = (month + 9) % 12;
+		int dayOfYear = ((153 * monthFromMarch) + 2) / 5 + (day - 1);
+		int dayOfEra = (yearOfEra * 365) + (yearOfEra / 4) - (yearOfEra / 100) + dayOfYear;
+		return (era * 146097L) + dayOfEra - 719468L;
+	}
 }
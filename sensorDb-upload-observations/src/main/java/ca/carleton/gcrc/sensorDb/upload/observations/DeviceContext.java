@@ -0,0 +1,64 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.util.Set;
+
+import ca.carleton.gcrc.sensorDb.dbapi.Device;
+
+/**
+ * Metadata about a device needed to import its observations. Instances
+ * are not modified once built and can be shared between imports.
+ */
+public class DeviceContext {
+
+	private Device device;
+	private Set<String> sensorLabels;
+	private DeviceLocator deviceLocator;
+	private DeviceSensorHistory deviceSensorHistory;
+	private long metadataVersion;
+	private long loadedTime;
+
+	public DeviceContext(
+			Device device,
+			Set<String> sensorLabels,
+			DeviceLocator deviceLocator,
+			DeviceSensorHistory deviceSensorHistory,
+			long metadataVersion
+			){
+		this.device = device;
+		this.sensorLabels = sensorLabels;
+		this.deviceLocator = deviceLocator;
+		this.deviceSensorHistory = deviceSensorHistory;
+		this.metadataVersion = metadataVersion;
+		this.loadedTime = System.currentTimeMillis();
+	}
+
+	public Device getDevice() {
+		return device;
+	}
+
+	/**
+	 * Labels of the sensors currently associated with the device
+	 */
+	public Set<String> getSensorLabels() {
+		return sensorLabels;
+	}
+
+	public DeviceLocator getDeviceLocator() {
+		return deviceLocator;
+	}
+
+	public DeviceSensorHistory getDeviceSensorHistory() {
+		return deviceSensorHistory;
+	}
+
+	/**
+	 * Metadata version of the database when this context was loaded
+	 */
+	public long getMetadataVersion() {
+		return metadataVersion;
+	}
+
+	public long getLoadedTime() {
+		return loadedTime;
+	}
+}
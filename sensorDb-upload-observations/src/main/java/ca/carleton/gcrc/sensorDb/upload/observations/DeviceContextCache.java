@@ -0,0 +1,105 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import ca.carleton.gcrc.sensorDb.dbapi.DbAPI;
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceHistory;
+import ca.carleton.gcrc.sensorDb.dbapi.Sensor;
+
+/**
+ * Keeps the device contexts by serial number so that consecutive imports
+ * for the same device do not query the metadata again. A context is
+ * reloaded when devices, sensors or locations were created since it was
+ * loaded, and after a period of time to pick up changes made outside
+ * this server.
+ */
+public class DeviceContextCache {
+
+	static final public long DEFAULT_EXPIRY_MS = 5L * 60L * 1000L; // 5 minutes
+
+	private DbAPI dbAPI;
+	private long expiryMs = DEFAULT_EXPIRY_MS;
+	private Map<String,DeviceContext> contextsBySerialNumber = new HashMap<String,DeviceContext>();
+
+	public DeviceContextCache(DbAPI dbAPI) {
+		this.dbAPI = dbAPI;
+	}
+
+	public long getExpiryMs() {
+		return expiryMs;
+	}
+
+	public void setExpiryMs(long expiryMs) {
+		this.expiryMs = expiryMs;
+	}
+
+	/**
+	 * Returns the context for a device, or null if no device
+	 * is found with the given serial number.
+	 */
+	public DeviceContext getDeviceContext(String serialNumber) throws Exception {
+		long metadataVersion = dbAPI.getMetadataVersion();
+
+		synchronized(this){
+			DeviceContext context = contextsBySerialNumber.get(serialNumber);
+			if( null != context
+			 && context.getMetadataVersion() == metadataVersion
+			 && System.currentTimeMillis() - context.getLoadedTime() < expiryMs ){
+				return context;
+			}
+		}
+
+		// Load outside of lock so that imports for other devices
+		// are not held up
+		DeviceContext context = loadDeviceContext(serialNumber, metadataVersion);
+
+		if( null != context ){
+			synchronized(this){
+				contextsBySerialNumber.put(serialNumber, context);
+			}
+		}
+
+		return context;
+	}
+
+	public synchronized void clear() {
+		contextsBySerialNumber.clear();
+	}
+
+	private DeviceContext loadDeviceContext(String serialNumber, long metadataVersion) throws Exception {
+		// Device, sensors and locations in one request
+		DeviceHistory history = dbAPI.getDeviceHistoryFromSerialNumber(serialNumber);
+		if( null == history ){
+			return null;
+		}
+
+		// Make a list of sensors based on label
+		Set<String> sensorLabels = new HashSet<String>();
+		for(Sensor sensor : history.getSensors()){
+			sensorLabels.add(sensor.getLabel());
+		}
+
+		// Locations of the device over time
+		DeviceLocator deviceLocator = new DeviceLocator(
+				history.getDeviceLocations(),
+				history.getLocations()
+				);
+
+		// Sensors of the device over time
+		DeviceSensorHistory deviceSensorHistory = new DeviceSensorHistory(
+				history.getDeviceSensors(),
+				history.getSensors()
+				);
+
+		return new DeviceContext(
+				history.getDevice(),
+				sensorLabels,
+				deviceLocator,
+				deviceSensorHistory,
+				metadataVersion
+				);
+	}
+}
@@ -19,6 +19,7 @@ public class DeviceLocator {
 
 	private List<DeviceLocation> deviceLocations = null;
 	private Map<String,Location> locationsById = null;
+	private TimestampIndex timestampIndex = null;
 	
 	public DeviceLocator(
 			List<DeviceLocation> deviceLocations,
@@ -55,14 +56,26 @@ public class DeviceLocator {
 		for(Location location : locations){
 			this.locationsById.put(location.getId(), location);
 		}
+		
+		long[] times = new long[this.deviceLocations.size()];
+		for(int i=0; i<times.length; ++i){
+			Date date = this.deviceLocations.get(i).getTimestamp();
+			if( null != date ){
+				times[i] = date.getTime();
+			}
+		}
+		this.timestampIndex = new TimestampIndex(times);
 	}
 	
+	/**
+	 * Returns the location of the last device location recorded strictly
+	 * before the given time.
+	 */
 	public Location getLocationFromTimestamp(Date timestamp){
 		DeviceLocation deviceLocation = null;
-		for(DeviceLocation dl : deviceLocations){
-			if( dl.getTimestamp().getTime() < timestamp.getTime() ){
-				deviceLocation = dl;
-			}
+		int index = timestampIndex.lastBefore(timestamp.getTime());
+		if( index >= 0 ){
+			deviceLocation = deviceLocations.get(index);
 		}
 		
 		Location location = null;
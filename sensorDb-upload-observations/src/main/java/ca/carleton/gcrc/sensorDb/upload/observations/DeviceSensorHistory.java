@@ -17,6 +17,7 @@ public class DeviceSensorHistory {
 
 	private SensorTemporalSelector sensorTemporalSelector = null;
 	private List<Pair<Date,SensorLabelSelector>> sensorConfigurations = null;
+	private TimestampIndex timestampIndex = null;
 
 
 	public DeviceSensorHistory(
@@ -48,17 +49,21 @@ public class DeviceSensorHistory {
 
 		}
 
+		// Reconfiguration dates are sorted and distinct
+		long[] times = new long[sensorConfigurations.size()];
+		for(int i=0; i<times.length; ++i){
+			times[i] = sensorConfigurations.get(i).first.getTime();
+		}
+		timestampIndex = new TimestampIndex(times);
 	}
 	
 	public Sensor getSensorAtTimestamp(String label, Date timestamp) throws Exception{
-		SensorLabelSelector sensorLabelSelector = null;
-        
-		// Iterate through to find date
-		for (Pair<Date,SensorLabelSelector> configuration : sensorConfigurations ){
-			if (configuration.first.getTime() <= timestamp.getTime()){
-				sensorLabelSelector = configuration.second;
-			}
+		// Last configuration at or before the timestamp
+		int index = timestampIndex.lastAtOrBefore(timestamp.getTime());
+		if( index < 0 ){
+			throw new Exception("Timestamp " + timestamp.toString() + " predates any known device configuration");
 		}
+		SensorLabelSelector sensorLabelSelector = sensorConfigurations.get(index).second;
 
 		Sensor sensor = sensorLabelSelector.getSensorFromLabel(label);
 		return sensor;
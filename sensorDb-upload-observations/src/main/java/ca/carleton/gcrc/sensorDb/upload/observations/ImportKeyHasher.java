@@ -0,0 +1,126 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.security.MessageDigest;
+
+import ca.carleton.gcrc.sensorDb.dbapi.ImportKeys;
+
+/**
+ * Computes import keys: the MD5 digest of the UTF-8 encoding of
+ * "serial,column,line". The digest and the buffers are reused, so an
+ * instance must not be shared between threads. Use getHasher() to
+ * obtain the instance associated with the current thread.
+ */
+public class ImportKeyHasher {
+
+	static private ThreadLocal<ImportKeyHasher> threadHasher = new ThreadLocal<ImportKeyHasher>(){
+		@Override
+		protected ImportKeyHasher initialValue() {
+			return new ImportKeyHasher();
+		}
+	};
+
+	static public ImportKeyHasher getHasher() {
+		return threadHasher.get();
+	}
+
+	private MessageDigest md;
+	private byte[] bytes = new byte[512];
+	private char[] chars = new char[256];
+	private int length = 0;
+	private byte[] digest = new byte[ImportKeys.DIGEST_LENGTH];
+
+	public ImportKeyHasher() {
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch(Exception e) {
+			throw new RuntimeException("MD5 digest is not available", e);
+		}
+	}
+
+	public String computeImportKey(String deviceSerialNumber, String columnName, String line) throws Exception {
+		length = 0;
+		appendUtf8( String.valueOf(deviceSerialNumber) );
+		appendByte( (byte)',' );
+		appendUtf8( String.valueOf(columnName) );
+		appendByte( (byte)',' );
+		appendUtf8( String.valueOf(line) );
+
+		return computeDigest();
+	}
+
+	/**
+	 * Same as computeImportKey(String,String,String), for a line held in
+	 * a buffer.
+	 */
+	public String computeImportKey(String deviceSerialNumber, String columnName, char[] line, int offset, int count) throws Exception {
+		length = 0;
+		appendUtf8( String.valueOf(deviceSerialNumber) );
+		appendByte( (byte)',' );
+		appendUtf8( String.valueOf(columnName) );
+		appendByte( (byte)',' );
+		appendUtf8(line, offset, offset+count);
+
+		return computeDigest();
+	}
+
+	private String computeDigest() throws Exception {
+		md.reset();
+		md.update(bytes, 0, length);
+		md.digest(digest, 0, digest.length);
+
+		return ImportKeys.fromDigest(digest, 0);
+	}
+
+	private void appendUtf8(String s) {
+		int count = s.length();
+		if( chars.length < count ){
+			chars = new char[Math.max(count, chars.length * 2)];
+		}
+		s.getChars(0, count, chars, 0);
+		appendUtf8(chars, 0, count);
+	}
+
+	/**
+	 * Encodes characters in UTF-8 at the end of the buffer. Unpaired
+	 * surrogates are replaced with '?', as OutputStreamWriter does.
+	 */
+	private void appendUtf8(char[] s, int start, int end) {
+		for(int i=start; i<end; ++i){
+			char c = s[i];
+			if( c < 0x80 ){
+				appendByte( (byte)c );
+
+			} else if( c < 0x800 ){
+				appendByte( (byte)(0xc0 | (c >> 6)) );
+				appendByte( (byte)(0x80 | (c & 0x3f)) );
+
+			} else if( Character.isHighSurrogate(c)
+			 && i+1 < end
+			 && Character.isLowSurrogate(s[i+1]) ){
+				int codePoint = Character.toCodePoint(c, s[i+1]);
+				++i;
+				appendByte( (byte)(0xf0 | (codePoint >> 18)) );
+				appendByte( (byte)(0x80 | ((codePoint >> 12) & 0x3f)) );
+				appendByte( (byte)(0x80 | ((codePoint >> 6) & 0x3f)) );
+				appendByte( (byte)(0x80 | (codePoint & 0x3f)) );
+
+			} else if( Character.isSurrogate(c) ){
+				appendByte( (byte)'?' );
+
+			} else {
+				appendByte( (byte)(0xe0 | (c >> 12)) );
+				appendByte( (byte)(0x80 | ((c >> 6) & 0x3f)) );
+				appendByte( (byte)(0x80 | (c & 0x3f)) );
+			}
+		}
+	}
+
+	private void appendByte(byte b) {
+		if( length >= bytes.length ){
+			byte[] newBytes = new byte[bytes.length * 2];
+			System.arraycopy(bytes, 0, newBytes, 0, length);
+			bytes = newBytes;
+		}
+		bytes[length++] = b;
+	}
+}
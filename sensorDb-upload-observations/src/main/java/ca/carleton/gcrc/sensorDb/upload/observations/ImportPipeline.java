@@ -0,0 +1,332 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import ca.carleton.gcrc.sensorDb.dbapi.Observation;
+
+/**
+ * Runs the second pass of an import in three stages, so that parsing,
+ * resolution and database writes overlap:
+ * <ul>
+ * <li>reader: parses the samples, on the calling thread</li>
+ * <li>resolver: turns samples into observations, on its own thread</li>
+ * <li>writer: saves the observations, on its own thread</li>
+ * </ul>
+ * The stages exchange batches through bounded queues. A stage waits when
+ * the next queue is full. If a stage fails, the others stop and the error
+ * is thrown by run().
+ */
+public class ImportPipeline {
+
+	static final public int DEFAULT_QUEUE_CAPACITY = 4;
+
+	// Interval at which a waiting stage checks whether another failed
+	static final private long POLL_MS = 100;
+
+	/**
+	 * Observations resolved from a batch of samples
+	 */
+	static public class ResolvedBatch {
+		private List<Observation> observations = new ArrayList<Observation>();
+		private List<Observation> inTransitObservations = new ArrayList<Observation>();
+		private Integer lastLineNumber = null;
+
+		/**
+		 * Observations to save
+		 */
+		public List<Observation> getObservations() {
+			return observations;
+		}
+
+		/**
+		 * Observations made while the device was at a location
+		 * that does not record observations. They are only reported.
+		 */
+		public List<Observation> getInTransitObservations() {
+			return inTransitObservations;
+		}
+
+		/**
+		 * Line of the last sample resolved into the batch. The samples
+		 * of a line are never split between two batches.
+		 */
+		public Integer getLastLineNumber() {
+			return lastLineNumber;
+		}
+
+		public void setLastLineNumber(Integer lastLineNumber) {
+			this.lastLineNumber = lastLineNumber;
+		}
+
+		public int size() {
+			return observations.size() + inTransitObservations.size();
+		}
+	}
+
+	public interface SampleResolver {
+		/**
+		 * Adds the observation of a sample to the batch
+		 */
+		void resolve(Sample sample, ResolvedBatch batch) throws Exception;
+	}
+
+	public interface ObservationWriter {
+		/**
+		 * Called on the writer thread before the first batch
+		 */
+		void open() throws Exception;
+
+		void write(ResolvedBatch batch) throws Exception;
+
+		/**
+		 * Called on the writer thread after the last batch was written.
+		 * Not called if the pipeline failed.
+		 */
+		void finish() throws Exception;
+
+		/**
+		 * Called on the writer thread after the last batch, even
+		 * if the pipeline failed
+		 */
+		void close() throws Exception;
+	}
+
+	// Marks the end of the batches
+	static final private List<Sample> END_OF_SAMPLES = new ArrayList<Sample>(0);
+	static final private ResolvedBatch END_OF_OBSERVATIONS = new ResolvedBatch();
+
+	private int batchSize;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private ImportStageStatistics readerStatistics = new ImportStageStatistics("reader");
+	private ImportStageStatistics resolverStatistics = new ImportStageStatistics("resolver");
+	private ImportStageStatistics writerStatistics = new ImportStageStatistics("writer");
+	private volatile Throwable failure = null;
+
+	/**
+	 * @param batchSize Number of samples in a batch given to the resolver,
+	 * and number of observations in a batch given to the writer.
+	 */
+	public ImportPipeline(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Sets the number of batches that can wait between two stages
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	/**
+	 * Statistics of the reader, resolver and writer stages
+	 */
+	public List<ImportStageStatistics> getStatistics() {
+		List<ImportStageStatistics> statistics = new ArrayList<ImportStageStatistics>(3);
+		statistics.add(readerStatistics);
+		statistics.add(resolverStatistics);
+		statistics.add(writerStatistics);
+		return statistics;
+	}
+
+	public void run(
+			final SampleReader reader,
+			final SampleResolver resolver,
+			final ObservationWriter writer
+			) throws Exception {
+
+		final BlockingQueue<List<Sample>> sampleQueue = new ArrayBlockingQueue<List<Sample>>(queueCapacity);
+		final BlockingQueue<ResolvedBatch> observationQueue = new ArrayBlockingQueue<ResolvedBatch>(queueCapacity);
+
+		Thread resolverThread = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				try {
+					runResolver(sampleQueue, resolver, observationQueue);
+				} catch(Throwable t) {
+					fail(t);
+				}
+			}
+		}, "sensorDb-import-resolver");
+
+		Thread writerThread = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				try {
+					runWriter(observationQueue, writer);
+				} catch(Throwable t) {
+					fail(t);
+				}
+			}
+		}, "sensorDb-import-writer");
+
+		resolverThread.setDaemon(true);
+		writerThread.setDaemon(true);
+		resolverThread.start();
+		writerThread.start();
+
+		try {
+			runReader(reader, sampleQueue);
+		} catch(Throwable t) {
+			fail(t);
+		}
+
+		try {
+			resolverThread.join();
+			writerThread.join();
+		} catch(InterruptedException e) {
+			fail(e);
+			resolverThread.interrupt();
+			writerThread.interrupt();
+			Thread.currentThread().interrupt();
+		}
+
+		Throwable t = failure;
+		if( t instanceof Exception ){
+			throw (Exception)t;
+		} else if( null != t ){
+			throw new Exception("Import pipeline failed", t);
+		}
+	}
+
+	private void runReader(SampleReader reader, BlockingQueue<List<Sample>> sampleQueue) throws Exception {
+		List<Sample> samples = new ArrayList<Sample>(batchSize);
+
+		long start = System.nanoTime();
+		Sample sample = reader.read();
+		while( null != sample ){
+			// A batch ends with the last sample of a line
+			if( samples.size() >= batchSize
+			 && false == isSameLine(samples.get(samples.size()-1), sample) ){
+				readerStatistics.addBatch(samples.size());
+				readerStatistics.addBusyNanos(System.nanoTime() - start);
+				put(sampleQueue, samples, readerStatistics);
+				samples = new ArrayList<Sample>(batchSize);
+				start = System.nanoTime();
+			}
+			samples.add(sample);
+			sample = reader.read();
+		}
+		if( samples.size() > 0 ){
+			readerStatistics.addBatch(samples.size());
+			readerStatistics.addBusyNanos(System.nanoTime() - start);
+			put(sampleQueue, samples, readerStatistics);
+		}
+
+		put(sampleQueue, END_OF_SAMPLES, readerStatistics);
+	}
+
+	private void runResolver(
+			BlockingQueue<List<Sample>> sampleQueue,
+			SampleResolver resolver,
+			BlockingQueue<ResolvedBatch> observationQueue
+			) throws Exception {
+
+		ResolvedBatch batch = new ResolvedBatch();
+
+		List<Sample> samples = take(sampleQueue, resolverStatistics);
+		while( END_OF_SAMPLES != samples ){
+			long start = System.nanoTime();
+			for(Sample sample : samples){
+				resolver.resolve(sample, batch);
+				batch.setLastLineNumber( sample.getLineNumber() );
+			}
+			resolverStatistics.addBatch(samples.size());
+			resolverStatistics.addBusyNanos(System.nanoTime() - start);
+
+			if( batch.size() >= batchSize ){
+				put(observationQueue, batch, resolverStatistics);
+				batch = new ResolvedBatch();
+			}
+
+			samples = take(sampleQueue, resolverStatistics);
+		}
+		if( batch.size() > 0 ){
+			put(observationQueue, batch, resolverStatistics);
+		}
+
+		put(observationQueue, END_OF_OBSERVATIONS, resolverStatistics);
+	}
+
+	private void runWriter(
+			BlockingQueue<ResolvedBatch> observationQueue,
+			ObservationWriter writer
+			) throws Exception {
+
+		writer.open();
+		try {
+			ResolvedBatch batch = take(observationQueue, writerStatistics);
+			while( END_OF_OBSERVATIONS != batch ){
+				long start = System.nanoTime();
+				writer.write(batch);
+				writerStatistics.addBatch(batch.size());
+				writerStatistics.addBusyNanos(System.nanoTime() - start);
+
+				batch = take(observationQueue, writerStatistics);
+			}
+
+			long start = System.nanoTime();
+			writer.finish();
+			writerStatistics.addBusyNanos(System.nanoTime() - start);
+
+		} finally {
+			writer.close();
+		}
+	}
+
+	static private boolean isSameLine(Sample sample1, Sample sample2) {
+		Integer line1 = sample1.getLineNumber();
+		Integer line2 = sample2.getLineNumber();
+		if( null == line1 || null == line2 ){
+			return false;
+		}
+		return line1.intValue() == line2.intValue();
+	}
+
+	private void fail(Throwable t) {
+		synchronized(this) {
+			// The first failure is the cause of the others
+			if( null == failure ){
+				failure = t;
+			}
+		}
+	}
+
+	private <T> void put(BlockingQueue<T> queue, T item, ImportStageStatistics statistics) throws Exception {
+		long start = System.nanoTime();
+		try {
+			while( false == queue.offer(item, POLL_MS, TimeUnit.MILLISECONDS) ){
+				checkFailure();
+			}
+		} finally {
+			statistics.addWaitNanos(System.nanoTime() - start);
+		}
+	}
+
+	private <T> T take(BlockingQueue<T> queue, ImportStageStatistics statistics) throws Exception {
+		long start = System.nanoTime();
+		try {
+			T item = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+			while( null == item ){
+				checkFailure();
+				item = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+			}
+			return item;
+		} finally {
+			statistics.addWaitNanos(System.nanoTime() - start);
+		}
+	}
+
+	private void checkFailure() throws Exception {
+		if( null != failure ){
+			throw new Exception("Import stopped by the failure of another stage");
+		}
+	}
+}
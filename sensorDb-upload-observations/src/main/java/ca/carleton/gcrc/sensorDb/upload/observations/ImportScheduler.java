@@ -0,0 +1,420 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.carleton.gcrc.sensorDb.dbapi.DbAPI;
+import ca.carleton.gcrc.sensorDb.dbapi.ImportJob;
+import ca.carleton.gcrc.sensorDb.dbapi.ImportRecord;
+
+/**
+ * Runs the conversion requests on a pool of worker threads. Requests
+ * for the same device are imported one after the other, in the order
+ * they were submitted, so that they never race on import keys. Requests
+ * for different devices are imported concurrently.
+ *
+ * The number of requests waiting or running is bounded. When the limit is
+ * reached, submissions are refused and the caller is expected to retry later.
+ *
+ * Each request is recorded as an import job in the database, so that the
+ * requests left unfinished by a restart can be resumed.
+ */
+public class ImportScheduler {
+
+	final protected Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	static final public int DEFAULT_WORKER_COUNT = 2;
+	static final public int DEFAULT_QUEUE_SIZE = 100;
+	static final public int SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+	private DbAPI dbAPI;
+	private SensorFileImporter importer;
+	private int queueSize;
+	private ExecutorService executor;
+	private Map<String,LinkedList<ConversionRequest>> requestsByDevice = new HashMap<String,LinkedList<ConversionRequest>>();
+	private int pendingCount = 0;
+	private boolean isShuttingDown = false;
+	private int shutdownTimeoutSeconds = SHUTDOWN_TIMEOUT_SECONDS;
+
+	public ImportScheduler(DbAPI dbAPI, SensorFileImporter importer, int workerCount, int queueSize) throws Exception {
+		if( workerCount < 1 ){
+			throw new Exception("Number of import workers must be at least 1");
+		}
+		if( queueSize < 1 ){
+			throw new Exception("Size of import queue must be at least 1");
+		}
+
+		this.dbAPI = dbAPI;
+		this.importer = importer;
+		this.queueSize = queueSize;
+
+		// Pending requests are bounded by this class, not by the executor
+		this.executor = new ThreadPoolExecutor(
+				workerCount,
+				workerCount,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				new WorkerThreadFactory()
+				);
+	}
+
+	/**
+	 * Accepts all the given requests or none of them.
+	 * @throws Exception If the scheduler is shutting down or if there is
+	 * not enough room left in the queue.
+	 */
+	public void submit(List<ConversionRequest> requests) throws Exception {
+		// Find devices before taking the lock, since it involves reading files
+		List<String> deviceKeys = new LinkedList<String>();
+		for(ConversionRequest request : requests){
+			deviceKeys.add( getDeviceKey(request) );
+		}
+
+		// Reserve room in the queue
+		synchronized(this){
+			if( isShuttingDown ){
+				throw new Exception("Import scheduler is shutting down");
+			}
+			if( pendingCount + requests.size() > queueSize ){
+				throw new Exception("Import queue is full ("+pendingCount
+						+" files waiting). Try again later.");
+			}
+			pendingCount += requests.size();
+		}
+
+		// Record the jobs
+		try {
+			for(ConversionRequest request : requests){
+				ImportJob importJob = createImportJob(request);
+				importJob = dbAPI.createImportJob(importJob);
+				request.setImportJobId( importJob.getId() );
+			}
+		} catch(Exception e) {
+			synchronized(this){
+				pendingCount -= requests.size();
+			}
+			throw new Exception("Unable to record import jobs",e);
+		}
+
+		synchronized(this){
+			for(int i=0; i<requests.size(); ++i){
+				enqueue(requests.get(i), deviceKeys.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Queues again the jobs that were queued or running when the server
+	 * stopped. A job that was interrupted resumes in its import record,
+	 * after the last line it committed. Resumed jobs are not limited by
+	 * the size of the queue.
+	 */
+	public void resumeUnfinishedJobs() throws Exception {
+		List<ImportJob> importJobs = dbAPI.getUnfinishedImportJobs();
+
+		for(ImportJob importJob : importJobs){
+			ConversionRequest request = null;
+			try {
+				request = createConversionRequest(importJob);
+				if( false == request.getFileToConvert().exists() ){
+					throw new Exception("File not found: "+importJob.getFileName());
+				}
+			} catch(Exception e) {
+				logger.error("Unable to resume import job "+importJob.getId(),e);
+				importJob.setState(ImportJob.STATE_FAILED);
+				importJob.setEndedTime(new Date());
+				importJob.setErrorMessage("Unable to resume: "+e.getMessage());
+				dbAPI.updateImportJob(importJob);
+				continue;
+			}
+
+			logger.info("Resuming import job "+importJob.getId()+" ("+importJob.getState()+") for "+request);
+
+			String deviceKey = getDeviceKey(request);
+			synchronized(this){
+				if( isShuttingDown ){
+					return;
+				}
+				++pendingCount;
+				enqueue(request, deviceKey);
+			}
+		}
+	}
+
+	private void enqueue(ConversionRequest request, String deviceKey) {
+		LinkedList<ConversionRequest> deviceRequests = requestsByDevice.get(deviceKey);
+		if( null == deviceRequests ){
+			deviceRequests = new LinkedList<ConversionRequest>();
+			deviceRequests.add(request);
+			requestsByDevice.put(deviceKey, deviceRequests);
+			executor.execute( new DeviceTask(deviceKey) );
+		} else {
+			// A task is already scheduled for this device and
+			// will pick this request when done with previous ones
+			deviceRequests.add(request);
+		}
+	}
+
+	public synchronized int getPendingCount() {
+		return pendingCount;
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public synchronized boolean isShuttingDown() {
+		return isShuttingDown;
+	}
+
+	public void setShutdownTimeoutSeconds(int shutdownTimeoutSeconds) {
+		this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+	}
+
+	/**
+	 * Stops accepting requests and waits for the imports in progress to
+	 * complete. Requests that have not started remain queued in the
+	 * database and are resumed on the next start. Imports still running
+	 * after the timeout are interrupted and resumed on the next start.
+	 */
+	public void shutdown() {
+		logger.info("Shutting down "+this.getClass().getSimpleName());
+
+		synchronized(this){
+			isShuttingDown = true;
+		}
+
+		executor.shutdown();
+		try {
+			if( false == executor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS) ){
+				logger.error("Imports still running after "+shutdownTimeoutSeconds+" seconds. Interrupting.");
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized(this){
+			if( pendingCount > 0 ){
+				logger.info(""+pendingCount+" files left in the import queue because of shutdown");
+			}
+		}
+	}
+
+	/**
+	 * Returns a key that identifies the device a file belongs to. When the
+	 * device can not be found, the file is treated as its own device.
+	 */
+	private String getDeviceKey(ConversionRequest request) {
+		Reader reader = null;
+		try {
+			FileInputStream fis = new FileInputStream(request.getFileToConvert());
+			reader = new InputStreamReader(fis, "UTF-8");
+			SensorFileReader sensorFileReader = new SensorFileReader(reader);
+			String serialNumber = sensorFileReader.getDeviceSerialNumber();
+			if( null != serialNumber ){
+				return "device:"+serialNumber;
+			}
+		} catch(Exception e) {
+			logger.debug("Unable to find device for "+request,e);
+		} finally {
+			if( null != reader ){
+				try {
+					reader.close();
+				} catch(Exception e) {
+					// Ignore
+				}
+			}
+		}
+
+		return "file:"+request.getFileToConvert().getAbsolutePath();
+	}
+
+	private void importRequest(ConversionRequest request) {
+		String threadName = Thread.currentThread().getName();
+
+		ImportJob importJob = new ImportJob();
+		importJob.setId( request.getImportJobId() );
+		importJob.setState(ImportJob.STATE_RUNNING);
+		importJob.setStartedTime(new Date());
+		updateImportJob(importJob);
+
+		try {
+			// Known by the job before any observation is committed, so that
+			// an interrupted import can be resumed
+			ImportRecord importRecord = importer.prepareImportRecord(request);
+			importJob.setImportId( importRecord.getId() );
+			updateImportJob(importJob);
+
+			logger.info("Start file conversion "+ request +" "+threadName);
+			importRecord = importer.importFile(request);
+			logger.info("End file conversion "+ request +" "+threadName);
+
+			importJob.setState(ImportJob.STATE_DONE);
+			if( null != importRecord ){
+				importJob.setImportId( importRecord.getId() );
+			}
+
+		} catch (Exception e) {
+			if( isShuttingDown() ){
+				// Most likely interrupted by shutdown. The job is left
+				// running so that it is resumed on the next start.
+				logger.info("Import of "+request+" stopped by shutdown: "+getErrorMessage(e));
+				return;
+			}
+
+			logger.error("Error converting "+request+" on thread "+threadName,e);
+
+			importJob.setState(ImportJob.STATE_FAILED);
+			importJob.setErrorMessage( getErrorMessage(e) );
+		}
+
+		importJob.setEndedTime(new Date());
+		updateImportJob(importJob);
+	}
+
+	private void updateImportJob(ImportJob importJob) {
+		if( null == importJob.getId() ){
+			return;
+		}
+		try {
+			dbAPI.updateImportJob(importJob);
+		} catch(Exception e) {
+			logger.error("Unable to update import job "+importJob.getId(),e);
+		}
+	}
+
+	/**
+	 * Returns the messages of the exception and of its causes.
+	 */
+	static private String getErrorMessage(Throwable t) {
+		StringBuilder sb = new StringBuilder();
+		while( null != t ){
+			if( sb.length() > 0 ){
+				sb.append(": ");
+			}
+			sb.append( t.getMessage() );
+			t = t.getCause();
+		}
+		return sb.toString();
+	}
+
+	static public ImportJob createImportJob(ConversionRequest request) {
+		JSONObject parameters = new JSONObject();
+		parameters.put("initial_offset", request.getInitialOffset());
+		parameters.put("final_offset", request.getFinalOffset());
+		parameters.put("importerName", request.getImporterName());
+		parameters.put("notes", request.getNotes());
+		if( null != request.getIngestMode() ){
+			parameters.put("ingest_mode", request.getIngestMode().name());
+		}
+		if( null != request.getTransactionMode() ){
+			parameters.put("transaction_mode", request.getTransactionMode().name());
+		}
+
+		ImportJob importJob = new ImportJob();
+		importJob.setState(ImportJob.STATE_QUEUED);
+		importJob.setFileName( request.getFileToConvert().getAbsolutePath() );
+		importJob.setOriginalFileName( request.getOriginalFileName() );
+		importJob.setParameters(parameters);
+		importJob.setCreatedTime(new Date());
+		return importJob;
+	}
+
+	static public ConversionRequest createConversionRequest(ImportJob importJob) throws Exception {
+		ConversionRequest request = new ConversionRequest();
+		request.setImportJobId( importJob.getId() );
+		request.setFileToConvert( new File(importJob.getFileName()) );
+		request.setOriginalFileName( importJob.getOriginalFileName() );
+		request.setImportId( importJob.getImportId() );
+
+		JSONObject parameters = importJob.getParameters();
+		if( null != parameters ){
+			request.setInitialOffset( parameters.optInt("initial_offset", 0) );
+			request.setFinalOffset( parameters.optInt("final_offset", 0) );
+			request.setImporterName( parameters.optString("importerName", null) );
+			request.setNotes( parameters.optString("notes", null) );
+			String ingestMode = parameters.optString("ingest_mode", null);
+			if( null != ingestMode ){
+				request.setIngestMode( IngestMode.fromString(ingestMode) );
+			}
+			String transactionMode = parameters.optString("transaction_mode", null);
+			if( null != transactionMode ){
+				request.setTransactionMode( TransactionMode.fromString(transactionMode) );
+			}
+		}
+
+		return request;
+	}
+
+	/**
+	 * Imports the next request for a device. If more requests are waiting
+	 * for the same device, a new task is queued for it so that the other
+	 * devices get a turn in between.
+	 */
+	private class DeviceTask implements Runnable {
+
+		private String deviceKey;
+
+		public DeviceTask(String deviceKey) {
+			this.deviceKey = deviceKey;
+		}
+
+		@Override
+		public void run() {
+			ConversionRequest request = null;
+			synchronized(ImportScheduler.this){
+				if( isShuttingDown ){
+					return;
+				}
+				request = requestsByDevice.get(deviceKey).getFirst();
+			}
+
+			try {
+				importRequest(request);
+
+			} finally {
+				synchronized(ImportScheduler.this){
+					--pendingCount;
+
+					LinkedList<ConversionRequest> deviceRequests = requestsByDevice.get(deviceKey);
+					deviceRequests.removeFirst();
+					if( deviceRequests.size() < 1 ){
+						requestsByDevice.remove(deviceKey);
+					} else if( false == isShuttingDown ){
+						executor.execute(this);
+					}
+				}
+			}
+		}
+	}
+
+	static private class WorkerThreadFactory implements ThreadFactory {
+
+		private int threadCount = 0;
+
+		@Override
+		public synchronized Thread newThread(Runnable r) {
+			++threadCount;
+			return new Thread(r, "ImportWorker-"+threadCount);
+		}
+	}
+}
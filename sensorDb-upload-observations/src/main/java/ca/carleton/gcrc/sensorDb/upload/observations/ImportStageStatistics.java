@@ -0,0 +1,89 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import org.json.JSONObject;
+
+/**
+ * Counters of a stage of the import pipeline. The time a stage spends
+ * working is separated from the time it waits for the previous stage or
+ * for room in the next one, so that the stage limiting the throughput is
+ * the one that waits the least.
+ *
+ * A stage updates its counters from its own thread. They are read once
+ * the stage is done.
+ */
+public class ImportStageStatistics {
+
+	private String name;
+	private long itemCount = 0;
+	private long batchCount = 0;
+	private long busyNanos = 0;
+	private long waitNanos = 0;
+
+	public ImportStageStatistics(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getItemCount() {
+		return itemCount;
+	}
+
+	public long getBatchCount() {
+		return batchCount;
+	}
+
+	public long getBusyNanos() {
+		return busyNanos;
+	}
+
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	public void addBatch(int items) {
+		++batchCount;
+		itemCount += items;
+	}
+
+	public void addBusyNanos(long nanos) {
+		busyNanos += nanos;
+	}
+
+	public void addWaitNanos(long nanos) {
+		waitNanos += nanos;
+	}
+
+	/**
+	 * Items processed per second of work, excluding waits
+	 */
+	public double getItemsPerSecond() {
+		if( busyNanos < 1 ){
+			return 0;
+		}
+		return (double)itemCount * 1000000000.0 / (double)busyNanos;
+	}
+
+	public JSONObject toJSON() {
+		JSONObject json = new JSONObject();
+		json.put("type", "importStage");
+		json.put("name", name);
+		json.put("items", itemCount);
+		json.put("batches", batchCount);
+		json.put("busyMs", busyNanos / 1000000);
+		json.put("waitMs", waitNanos / 1000000);
+		json.put("itemsPerSecond", Math.round(getItemsPerSecond()));
+		return json;
+	}
+
+	public String toString() {
+		return name
+			+"(items:"+itemCount
+			+" busy:"+(busyNanos / 1000000)+"ms"
+			+" wait:"+(waitNanos / 1000000)+"ms"
+			+" rate:"+Math.round(getItemsPerSecond())+"/s"
+			+")";
+	}
+}
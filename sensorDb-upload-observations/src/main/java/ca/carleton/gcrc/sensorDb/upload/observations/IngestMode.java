@@ -0,0 +1,29 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+/**
+ * Mechanism used to send imported observations to the database.
+ */
+public enum IngestMode {
+	/**
+	 * Batched INSERT statements
+	 */
+	INSERT,
+	/**
+	 * Bulk load using COPY
+	 */
+	COPY;
+	
+	static public IngestMode fromString(String value) throws Exception {
+		if( null == value ){
+			return null;
+		}
+		
+		for(IngestMode mode : values()){
+			if( mode.name().equalsIgnoreCase(value.trim()) ){
+				return mode;
+			}
+		}
+		
+		throw new Exception("Unknown ingest mode: "+value);
+	}
+}
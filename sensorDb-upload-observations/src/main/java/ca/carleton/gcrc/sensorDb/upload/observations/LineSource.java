@@ -0,0 +1,26 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+/**
+ * Delivers the lines of a sensor file one at a time. Carriage returns
+ * are removed. The characters of the current line are held in a buffer
+ * that is reused for the next line, so that no string is created per
+ * line.
+ */
+public interface LineSource {
+
+	/**
+	 * Moves to the next line.
+	 * @return False when all lines were read
+	 */
+	boolean readLine() throws Exception;
+
+	/**
+	 * Characters of the current line, starting at index 0. The line
+	 * terminator is not included.
+	 */
+	char[] getLineChars();
+
+	int getLineLength();
+
+	void close() throws Exception;
+}
@@ -0,0 +1,207 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Lines of a UTF-8 file, read from a memory mapping of the file. Lines
+ * made only of ASCII characters, which is the case of logger files, are
+ * copied directly from the mapped bytes. Other lines are decoded, with
+ * malformed input replaced as InputStreamReader does. Large files are
+ * mapped one window at a time. Several sources can read different parts
+ * of a file through the same channel.
+ */
+public class MappedFileLineSource implements LineSource {
+
+	static final public long DEFAULT_WINDOW_SIZE = 64L * 1024L * 1024L;
+
+	private FileInputStream fis;
+	private FileChannel channel;
+	private long fileSize;
+	private long windowSize;
+	private long windowStart = 0;
+	private MappedByteBuffer window = null;
+	private int position = 0;
+	private char[] line = new char[256];
+	private int lineLength = 0;
+	private byte[] lineBytes = null;
+	private CharsetDecoder decoder = null;
+
+	public MappedFileLineSource(File file) throws Exception {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+
+	/**
+	 * @param windowSize Number of bytes mapped at once. A line must fit
+	 * in a window.
+	 */
+	public MappedFileLineSource(File file, long windowSize) throws Exception {
+		if( windowSize < 1 || windowSize > Integer.MAX_VALUE ){
+			throw new Exception("Invalid window size: "+windowSize);
+		}
+		this.windowSize = windowSize;
+
+		fis = new FileInputStream(file);
+		try {
+			channel = fis.getChannel();
+			fileSize = channel.size();
+			mapWindow(0);
+		} catch(Exception e) {
+			close();
+			throw new Exception("Unable to map file "+file.getAbsolutePath(), e);
+		}
+	}
+
+	/**
+	 * Reads the lines that start at the given offset of a channel. The
+	 * channel is not closed with the source.
+	 */
+	public MappedFileLineSource(FileChannel channel, long start, long windowSize) throws Exception {
+		if( windowSize < 1 || windowSize > Integer.MAX_VALUE ){
+			throw new Exception("Invalid window size: "+windowSize);
+		}
+		this.windowSize = windowSize;
+		this.channel = channel;
+		this.fileSize = channel.size();
+		if( start < 0 || start > fileSize ){
+			throw new Exception("Invalid offset: "+start);
+		}
+		mapWindow(start);
+	}
+
+	/**
+	 * Offset in the file of the next line
+	 */
+	public long getOffset() {
+		return windowStart + position;
+	}
+
+	@Override
+	public boolean readLine() throws Exception {
+		lineLength = 0;
+
+		int limit = window.limit();
+		if( position >= limit ){
+			if( windowStart + position >= fileSize ){
+				return false;
+			}
+			mapWindow(windowStart + position);
+			limit = window.limit();
+		}
+
+		// Find the end of the line, moving the window if the
+		// line crosses its end
+		int start = position;
+		int end = start;
+		boolean ascii = true;
+		while( true ){
+			while( end < limit ){
+				byte b = window.get(end);
+				if( '\n' == b ){
+					break;
+				}
+				if( b < 0 ){
+					ascii = false;
+				}
+				++end;
+			}
+			if( end < limit || windowStart + limit >= fileSize ){
+				break;
+			}
+			if( 0 == start ){
+				throw new Exception("Line longer than "+windowSize+" bytes at offset "+windowStart);
+			}
+			mapWindow(windowStart + start);
+			end -= start;
+			start = 0;
+			limit = window.limit();
+		}
+
+		boolean terminated = (end < limit);
+		position = terminated ? end + 1 : end;
+
+		if( ascii ){
+			ensureLineCapacity(end - start);
+			for(int i=start; i<end; ++i){
+				byte b = window.get(i);
+				if( '\r' != b ){
+					line[lineLength] = (char)b;
+					++lineLength;
+				}
+			}
+		} else {
+			decodeLine(start, end);
+		}
+
+		// As with BufferedReader, characters after the last line
+		// terminator form a line only if there is at least one
+		return terminated || lineLength > 0;
+	}
+
+	@Override
+	public char[] getLineChars() {
+		return line;
+	}
+
+	@Override
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	@Override
+	public void close() throws Exception {
+		// The mapping is released when the buffer is collected
+		window = null;
+		if( null != fis ){
+			fis.close();
+			fis = null;
+		}
+	}
+
+	private void mapWindow(long start) throws Exception {
+		long size = Math.min(windowSize, fileSize - start);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		windowStart = start;
+		position = 0;
+	}
+
+	private void decodeLine(int start, int end) throws Exception {
+		int count = end - start;
+		if( null == lineBytes || lineBytes.length < count ){
+			lineBytes = new byte[Math.max(count, 256)];
+		}
+		for(int i=0; i<count; ++i){
+			lineBytes[i] = window.get(start + i);
+		}
+
+		if( null == decoder ){
+			decoder = Charset.forName("UTF-8").newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		decoder.reset();
+		CharBuffer decoded = decoder.decode( ByteBuffer.wrap(lineBytes, 0, count) );
+
+		ensureLineCapacity(decoded.remaining());
+		while( decoded.hasRemaining() ){
+			char c = decoded.get();
+			if( '\r' != c ){
+				line[lineLength] = c;
+				++lineLength;
+			}
+		}
+	}
+
+	private void ensureLineCapacity(int capacity) {
+		if( line.length < capacity ){
+			line = new char[Math.max(capacity, line.length * 2)];
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads the samples of a sensor file by parsing chunks of the file
+ * concurrently on a fork-join pool. The preamble is read once. The body
+ * is split into chunks of about the same number of bytes, each chunk
+ * made of the lines that start in it.
+ *
+ * Samples are returned in file order, with the same line numbers as
+ * SensorFileReader. Only a bounded number of chunks are parsed ahead of
+ * the one being read.
+ */
+public class ParallelSensorFileReader implements SampleReader {
+
+	static final public int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+	// Longest line expected in the body of a file
+	static final public int MAX_LINE_LENGTH = 64 * 1024;
+
+	/**
+	 * Result of parsing a chunk. Line numbers are relative to the
+	 * start of the chunk.
+	 */
+	static private class ChunkResult {
+		List<Sample> samples = null;
+		TimeBounds timeBounds = new TimeBounds();
+		int lineCount = 0;
+		Exception error = null;
+		int errorLine = 0;
+	}
+
+	static private class ChunkParser implements Callable<ChunkResult> {
+		private ParallelSensorFileReader reader;
+		private long start;
+		private long end;
+		private boolean collectSamples;
+
+		public ChunkParser(ParallelSensorFileReader reader, long start, long end, boolean collectSamples) {
+			this.reader = reader;
+			this.start = start;
+			this.end = end;
+			this.collectSamples = collectSamples;
+		}
+
+		@Override
+		public ChunkResult call() throws Exception {
+			ChunkResult result = new ChunkResult();
+			if( collectSamples ){
+				result.samples = new ArrayList<Sample>();
+			}
+
+			try {
+				SampleLineParser lineParser = reader.preambleReader.createLineParser();
+
+				// Mappings are only released when collected, so each chunk
+				// maps no more than its own lines
+				long chunkWindowSize = (end - start) + 1 + MAX_LINE_LENGTH;
+
+				// The line that ends at the start of the chunk belongs to the
+				// previous chunk. Start one byte early, so that the line is
+				// skipped even if the chunk starts right after a terminator.
+				MappedFileLineSource lineSource = null;
+				if( start > reader.bodyStart ){
+					lineSource = new MappedFileLineSource(reader.channel, start - 1, chunkWindowSize);
+					lineSource.readLine();
+				} else {
+					lineSource = new MappedFileLineSource(reader.channel, start, chunkWindowSize);
+				}
+
+				try {
+					while( lineSource.getOffset() < end && lineSource.readLine() ){
+						++result.lineCount;
+						boolean sampleFound = false;
+						try {
+							sampleFound = lineParser.parseLine(
+									lineSource.getLineChars(),
+									lineSource.getLineLength(),
+									result.lineCount,
+									result.samples
+									);
+						} catch(Exception e) {
+							result.error = e;
+							result.errorLine = result.lineCount;
+							return result;
+						}
+						if( sampleFound ){
+							result.timeBounds.include( lineParser.getLineTime() );
+						}
+					}
+				} finally {
+					lineSource.close();
+				}
+
+			} catch(Exception e) {
+				result.error = e;
+			}
+
+			return result;
+		}
+	}
+
+	private FileInputStream fis;
+	private FileChannel channel;
+	private SensorFileReader preambleReader;
+	private ForkJoinPool pool;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int maxPendingChunks;
+	private long bodyStart;
+	private long fileSize;
+	private long nextChunkStart;
+	private int lineNumberBase;
+	private LinkedList<ForkJoinTask<ChunkResult>> pendingChunks = new LinkedList<ForkJoinTask<ChunkResult>>();
+	private List<Sample> cachedSamples = new ArrayList<Sample>();
+	private int cachedIndex = 0;
+
+	public ParallelSensorFileReader(File file, ForkJoinPool pool) throws Exception {
+		this(file, pool, DEFAULT_CHUNK_SIZE);
+	}
+
+	public ParallelSensorFileReader(File file, ForkJoinPool pool, int chunkSize) throws Exception {
+		if( chunkSize < 1 ){
+			throw new Exception("Invalid chunk size: "+chunkSize);
+		}
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+		this.maxPendingChunks = pool.getParallelism() + 1;
+
+		fis = new FileInputStream(file);
+		try {
+			channel = fis.getChannel();
+			fileSize = channel.size();
+
+			MappedFileLineSource lineSource = new MappedFileLineSource(channel, 0, MappedFileLineSource.DEFAULT_WINDOW_SIZE);
+			preambleReader = new SensorFileReader(lineSource);
+			bodyStart = lineSource.getOffset();
+			lineNumberBase = preambleReader.getLineNumber();
+			nextChunkStart = bodyStart;
+
+		} catch(Exception e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public String getDeviceSerialNumber() {
+		return preambleReader.getDeviceSerialNumber();
+	}
+
+	@Override
+	public Integer getDeltaTimeInSecs() {
+		return preambleReader.getDeltaTimeInSecs();
+	}
+
+	@Override
+	public List<SampleColumn> getColumns() {
+		return preambleReader.getColumns();
+	}
+
+	@Override
+	public Sample read() throws Exception {
+		while( true ){
+			if( cachedIndex < cachedSamples.size() ){
+				Sample sample = cachedSamples.get(cachedIndex);
+				++cachedIndex;
+				return sample;
+			}
+
+			ChunkResult result = nextChunkResult(true);
+			if( null == result ){
+				return null;
+			}
+			cachedSamples = result.samples;
+			cachedIndex = 0;
+		}
+	}
+
+	@Override
+	public TimeBounds readTimeBounds() throws Exception {
+		TimeBounds timeBounds = new TimeBounds();
+
+		// Samples already parsed
+		for(int i=cachedIndex; i<cachedSamples.size(); ++i){
+			timeBounds.include(cachedSamples.get(i).getTime());
+		}
+		cachedSamples = new ArrayList<Sample>();
+		cachedIndex = 0;
+
+		ChunkResult result = nextChunkResult(false);
+		while( null != result ){
+			if( false == result.timeBounds.isEmpty() ){
+				timeBounds.include(result.timeBounds.getStartTime());
+				timeBounds.include(result.timeBounds.getEndTime());
+			}
+			result = nextChunkResult(false);
+		}
+
+		return timeBounds;
+	}
+
+	@Override
+	public void close() throws Exception {
+		// Parsing chunks that are no longer needed
+		for(ForkJoinTask<ChunkResult> task : pendingChunks){
+			task.cancel(false);
+		}
+		pendingChunks.clear();
+
+		if( null != fis ){
+			fis.close();
+			fis = null;
+		}
+	}
+
+	/**
+	 * Waits for the next chunk in file order and converts its line numbers.
+	 * @return Null when all chunks were read
+	 */
+	private ChunkResult nextChunkResult(boolean collectSamples) throws Exception {
+		submitChunks(collectSamples);
+
+		if( pendingChunks.size() < 1 ){
+			return null;
+		}
+
+		ChunkResult result = pendingChunks.removeFirst().join();
+		submitChunks(collectSamples);
+
+		if( null != result.error ){
+			if( result.errorLine > 0 ){
+				throw new Exception("Error parsing line "+(lineNumberBase + result.errorLine), result.error);
+			}
+			throw new Exception("Error reading chunk of file after line "+lineNumberBase, result.error);
+		}
+
+		// Chunks submitted by read() might be consumed by readTimeBounds(),
+		// but not the other way around since readTimeBounds() reads all
+		if( null != result.samples ){
+			for(Sample sample : result.samples){
+				sample.setLineNumber( lineNumberBase + sample.getLineNumber().intValue() );
+			}
+		}
+		lineNumberBase += result.lineCount;
+
+		return result;
+	}
+
+	private void submitChunks(boolean collectSamples) {
+		while( pendingChunks.size() < maxPendingChunks && nextChunkStart < fileSize ){
+			long end = Math.min(fileSize, nextChunkStart + chunkSize);
+			ChunkParser parser = new ChunkParser(this, nextChunkStart, end, collectSamples);
+			pendingChunks.addLast( pool.submit(parser) );
+			nextChunkStart = end;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.io.Reader;
+
+/**
+ * Lines read from a character stream. The stream is read in blocks and
+ * carriage returns are dropped as the characters are copied to the line.
+ */
+public class ReaderLineSource implements LineSource {
+
+	private Reader reader;
+	private char[] buffer = new char[8192];
+	private int bufferPosition = 0;
+	private int bufferLimit = 0;
+	private boolean reachedEnd = false;
+	private char[] line = new char[256];
+	private int lineLength = 0;
+
+	public ReaderLineSource(Reader reader) {
+		this.reader = reader;
+	}
+
+	@Override
+	public boolean readLine() throws Exception {
+		lineLength = 0;
+		boolean lineStarted = false;
+		while( true ){
+			if( bufferPosition >= bufferLimit ){
+				if( reachedEnd ){
+					return lineStarted;
+				}
+				int read = reader.read(buffer, 0, buffer.length);
+				if( read < 0 ){
+					reachedEnd = true;
+					return lineStarted;
+				}
+				bufferPosition = 0;
+				bufferLimit = read;
+			}
+
+			while( bufferPosition < bufferLimit ){
+				char c = buffer[bufferPosition];
+				++bufferPosition;
+				if( '\n' == c ){
+					return true;
+				}
+				if( '\r' != c ){
+					lineStarted = true;
+					if( lineLength >= line.length ){
+						char[] newLine = new char[line.length * 2];
+						System.arraycopy(line, 0, newLine, 0, lineLength);
+						line = newLine;
+					}
+					line[lineLength] = c;
+					++lineLength;
+				}
+			}
+		}
+	}
+
+	@Override
+	public char[] getLineChars() {
+		return line;
+	}
+
+	@Override
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	@Override
+	public void close() throws Exception {
+		reader.close();
+	}
+}
@@ -1,21 +1,13 @@
 package ca.carleton.gcrc.sensorDb.upload.observations;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.security.MessageDigest;
 import java.util.Date;
 
-import org.apache.commons.codec.binary.Base64;
-
 public class Sample {
 
 	private Date time;
 	private SampleColumn column;
 	private Double value;
 	private String text;
-	private String line;
 	private Integer lineNumber;
 	private String deviceSerialNumber;
 	private String importKey;
@@ -50,13 +42,6 @@ public class Sample {
 		return text;
 	}
 	
-	public String getLine() {
-		return line;
-	}
-	public void setLine(String line) {
-		this.line = line;
-	}
-	
 	public Integer getLineNumber() {
 		return lineNumber;
 	}
@@ -71,38 +56,16 @@ public class Sample {
 		this.deviceSerialNumber = deviceSerialNumber;
 	}
 	
-	public String computeImportKey() throws Exception {
-		synchronized(this){
-			if( null == importKey ){
-				StringWriter sw = new StringWriter();
-				PrintWriter pw = new PrintWriter(sw);
-				pw.print(deviceSerialNumber);
-				pw.print(",");
-				pw.print(column.getName());
-				pw.print(",");
-				pw.print(line);
-				pw.flush();
-				
-				String effectiveLine = sw.toString();
-				
-				// System.out.println("import key: "+effectiveLine);
-				
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				OutputStreamWriter osw = new OutputStreamWriter(baos,"UTF-8");
-				osw.write(effectiveLine);
-				osw.flush();
-				
-				byte[] effectiveBytes = baos.toByteArray();
-				
-				MessageDigest md = MessageDigest.getInstance("MD5");
-				byte[] digest = md.digest(effectiveBytes);
-				
-				importKey = Base64.encodeBase64String(digest);
-			}
-		}
-		
+	/**
+	 * Import key of this sample, computed from the line it was found on
+	 * when the line is parsed.
+	 */
+	public String getImportKey() {
 		return importKey;
 	}
+	public void setImportKey(String importKey) {
+		this.importKey = importKey;
+	}
 	
 	public String toString(){
 		return "Sample(time:"+time
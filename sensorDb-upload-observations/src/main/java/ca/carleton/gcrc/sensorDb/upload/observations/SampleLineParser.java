@@ -0,0 +1,115 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Parses the lines of samples that follow the preamble of a sensor file.
+ * A parser keeps buffers from one line to the next, so it must be used
+ * by one thread at a time.
+ */
+public class SampleLineParser {
+
+	private String deviceSerialNumber;
+	private List<SampleColumn> columns;
+	private int timeColumnIndex;
+	private SampleLineTokenizer tokenizer = new SampleLineTokenizer();
+	private long lineTime = 0;
+
+	public SampleLineParser(String deviceSerialNumber, List<SampleColumn> columns, int timeColumnIndex) {
+		this.deviceSerialNumber = deviceSerialNumber;
+		this.columns = columns;
+		this.timeColumnIndex = timeColumnIndex;
+	}
+
+	/**
+	 * Time reported on the last line parsed
+	 */
+	public long getLineTime() {
+		return lineTime;
+	}
+
+	/**
+	 * Parses a line of samples, held in a buffer from index 0. If a list
+	 * is provided, the samples are added to it.
+	 * @return True if at least one sample is found on the line. In that
+	 * case, the time reported on the line is returned by getLineTime().
+	 */
+	public boolean parseLine(char[] lineChars, int lineLength, int lineNumber, List<Sample> samples) throws Exception {
+		int columnCount = columns.size();
+		
+		tokenizer.reset(lineChars, lineLength);
+		
+		// If line starts with "(Parameter", then it should be ignored
+		if( tokenizer.isIgnoredLine() ){
+			// Ignore this line
+			return false;
+		}
+
+		// Parse line
+		int fieldCount = tokenizer.getFieldCount();
+		if( fieldCount > columnCount ){
+			throw new Exception("More fields than columns");
+		}
+		
+		// Time
+		if( timeColumnIndex >= fieldCount ){
+			throw new Exception("Time not included");
+		}
+		try {
+			lineTime = DateUtils.parseUtcMillis(
+					tokenizer.getChars(),
+					tokenizer.getFieldStart(timeColumnIndex),
+					tokenizer.getFieldEnd(timeColumnIndex)
+					);
+		} catch(Exception e) {
+			throw new Exception("Problem parsing date", e);
+		}
+		
+		// Create an observation for each value
+		boolean sampleFound = false;
+		Date time = null;
+		for(int index=0; index<fieldCount; ++index){
+			SampleColumn column = columns.get(index);
+			
+			if( column.isValue() ){
+				if( tokenizer.isIgnoredValue(index) ){
+					continue;
+				}
+
+				sampleFound = true;
+				
+				// When only scanning, the value is not needed
+				if( null == samples ){
+					continue;
+				}
+				
+				// Samples on the same line share the time
+				if( null == time ){
+					time = new Date(lineTime);
+				}
+				
+				Sample obs = null;
+				Double value = tokenizer.getNumber(index);
+				if( null != value ){
+					obs = new Sample(time, column, value.doubleValue());
+				} else {
+					obs = new Sample(time, column, tokenizer.getTrimmedText(index));
+				}
+				
+				obs.setLineNumber(lineNumber);
+				obs.setDeviceSerialNumber(deviceSerialNumber);
+				obs.setImportKey( ImportKeyHasher.getHasher().computeImportKey(
+						deviceSerialNumber, 
+						column.getName(), 
+						lineChars, 
+						0, 
+						lineLength
+						) );
+				samples.add(obs);
+			}
+		}
+		
+		return sampleFound;
+	}
+}
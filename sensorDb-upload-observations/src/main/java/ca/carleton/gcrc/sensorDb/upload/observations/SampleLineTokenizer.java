@@ -0,0 +1,302 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+/**
+ * Splits a line of samples into comma separated fields and classifies the
+ * values, working directly on characters. The buffers are reused from one
+ * line to the next.
+ *
+ * The results are the same as splitting the line with String.split(",")
+ * and testing the fields with the regular expressions previously used by
+ * SensorFileReader:
+ * <ul>
+ * <li>ignored value: <code>^\s*\(.*\)\s*$</code> or <code>^\s*$</code></li>
+ * <li>number: <code>^\s*-?[0-9]+(\.[0-9]+)?([eE][+-]?[0-9]+)?\s*$</code></li>
+ * </ul>
+ */
+public class SampleLineTokenizer {
+
+	// Powers of ten that are represented exactly by a double
+	static private final double[] EXACT_POWERS_OF_TEN = new double[]{
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+		1e21, 1e22
+	};
+
+	// Largest mantissa represented exactly by a double (2^53)
+	static private final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private char[] ownChars = new char[256];
+	private char[] chars = ownChars;
+	private int length = 0;
+	private int[] fieldStarts = new int[16];
+	private int[] fieldEnds = new int[16];
+	private int fieldCount = 0;
+
+	/**
+	 * Loads a line and splits it into fields
+	 */
+	public void reset(String line) {
+		int lineLength = line.length();
+		if( ownChars.length < lineLength ){
+			ownChars = new char[Math.max(lineLength, ownChars.length * 2)];
+		}
+		line.getChars(0, lineLength, ownChars, 0);
+
+		reset(ownChars, lineLength);
+	}
+
+	/**
+	 * Splits a line held in a buffer, starting at index 0. The buffer is
+	 * used in place, so it must not change while the fields are read.
+	 */
+	public void reset(char[] lineChars, int lineLength) {
+		chars = lineChars;
+		length = lineLength;
+
+		fieldCount = 0;
+		int start = 0;
+		for(int i=0; i<length; ++i){
+			if( ',' == chars[i] ){
+				addField(start, i);
+				start = i + 1;
+			}
+		}
+		addField(start, length);
+
+		// As String.split(), drop trailing empty fields, unless
+		// there is no separator at all
+		if( fieldCount > 1 ){
+			while( fieldCount > 0 && fieldStarts[fieldCount-1] == fieldEnds[fieldCount-1] ){
+				--fieldCount;
+			}
+		}
+	}
+
+	public char[] getChars() {
+		return chars;
+	}
+
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	public int getFieldStart(int index) {
+		return fieldStarts[index];
+	}
+
+	public int getFieldEnd(int index) {
+		return fieldEnds[index];
+	}
+
+	/**
+	 * True if the whole line is enclosed in parentheses, such as
+	 * "(Parameter changed)"
+	 */
+	public boolean isIgnoredLine() {
+		return isParenthesized(0, length, false);
+	}
+
+	/**
+	 * True if the field is blank or enclosed in parentheses
+	 */
+	public boolean isIgnoredValue(int index) {
+		int start = fieldStarts[index];
+		int end = fieldEnds[index];
+		while( start < end && isSpace(chars[start]) ){
+			++start;
+		}
+		if( start >= end ){
+			return true;
+		}
+		return isParenthesized(start, end, true);
+	}
+
+	/**
+	 * Returns the numeric value of a field, or null if the field is not
+	 * a number. Values that can not be computed exactly with a single
+	 * operation are delegated to Double.parseDouble().
+	 */
+	public Double getNumber(int index) {
+		int start = fieldStarts[index];
+		int end = fieldEnds[index];
+		while( start < end && isSpace(chars[start]) ){
+			++start;
+		}
+		while( end > start && isSpace(chars[end-1]) ){
+			--end;
+		}
+
+		int pos = start;
+		boolean negative = false;
+		if( pos < end && '-' == chars[pos] ){
+			negative = true;
+			++pos;
+		}
+
+		// Integer part
+		long mantissa = 0;
+		int significantDigits = 0;
+		int exponent = 0;
+		int digitStart = pos;
+		while( pos < end && isDigit(chars[pos]) ){
+			if( significantDigits > 0 || '0' != chars[pos] ){
+				++significantDigits;
+			}
+			if( significantDigits <= 18 ){
+				mantissa = (mantissa * 10) + (chars[pos] - '0');
+			} else {
+				++exponent;
+			}
+			++pos;
+		}
+		if( pos == digitStart ){
+			return null;
+		}
+
+		// Fraction
+		if( pos < end && '.' == chars[pos] ){
+			++pos;
+			int fractionStart = pos;
+			while( pos < end && isDigit(chars[pos]) ){
+				if( significantDigits > 0 || '0' != chars[pos] ){
+					++significantDigits;
+				}
+				if( significantDigits <= 18 ){
+					mantissa = (mantissa * 10) + (chars[pos] - '0');
+					--exponent;
+				}
+				++pos;
+			}
+			if( pos == fractionStart ){
+				return null;
+			}
+		}
+
+		// Exponent
+		if( pos < end && ('e' == chars[pos] || 'E' == chars[pos]) ){
+			++pos;
+			boolean negativeExponent = false;
+			if( pos < end && ('+' == chars[pos] || '-' == chars[pos]) ){
+				negativeExponent = ('-' == chars[pos]);
+				++pos;
+			}
+			int exponentStart = pos;
+			int explicitExponent = 0;
+			while( pos < end && isDigit(chars[pos]) ){
+				if( explicitExponent < 100000 ){
+					explicitExponent = (explicitExponent * 10) + (chars[pos] - '0');
+				}
+				++pos;
+			}
+			if( pos == exponentStart ){
+				return null;
+			}
+			if( negativeExponent ){
+				exponent -= explicitExponent;
+			} else {
+				exponent += explicitExponent;
+			}
+		}
+
+		if( pos != end ){
+			return null;
+		}
+
+		// Fast path: both the mantissa and the power of ten are exact,
+		// so one operation gives a correctly rounded result
+		if( significantDigits <= 18
+		 && mantissa <= MAX_EXACT_MANTISSA
+		 && exponent >= -22
+		 && exponent <= 22 ){
+			double value = (double)mantissa;
+			if( exponent < 0 ){
+				value = value / EXACT_POWERS_OF_TEN[-exponent];
+			} else {
+				value = value * EXACT_POWERS_OF_TEN[exponent];
+			}
+			if( negative ){
+				value = -value;
+			}
+			return value;
+		}
+
+		return Double.parseDouble( new String(chars, start, end-start) );
+	}
+
+	/**
+	 * Returns the field with leading and trailing white spaces removed,
+	 * as String.trim()
+	 */
+	public String getTrimmedText(int index) {
+		int start = fieldStarts[index];
+		int end = fieldEnds[index];
+		while( start < end && chars[start] <= ' ' ){
+			++start;
+		}
+		while( end > start && chars[end-1] <= ' ' ){
+			--end;
+		}
+		return new String(chars, start, end-start);
+	}
+
+	private void addField(int start, int end) {
+		if( fieldCount >= fieldStarts.length ){
+			int[] newStarts = new int[fieldStarts.length * 2];
+			int[] newEnds = new int[fieldEnds.length * 2];
+			System.arraycopy(fieldStarts, 0, newStarts, 0, fieldCount);
+			System.arraycopy(fieldEnds, 0, newEnds, 0, fieldCount);
+			fieldStarts = newStarts;
+			fieldEnds = newEnds;
+		}
+		fieldStarts[fieldCount] = start;
+		fieldEnds[fieldCount] = end;
+		++fieldCount;
+	}
+
+	/**
+	 * True if the range starts with '(' and ends with ')' followed by
+	 * white spaces. Leading white spaces are skipped only if requested.
+	 * Line terminators are not allowed in between, as with '.' in a
+	 * regular expression.
+	 */
+	private boolean isParenthesized(int start, int end, boolean skipLeadingSpaces) {
+		if( skipLeadingSpaces ){
+			while( start < end && isSpace(chars[start]) ){
+				++start;
+			}
+		}
+		if( start >= end || '(' != chars[start] ){
+			return false;
+		}
+
+		// The closing parenthesis is the last character that is not a space
+		int last = end - 1;
+		while( last > start && isSpace(chars[last]) ){
+			--last;
+		}
+		if( last <= start || ')' != chars[last] ){
+			return false;
+		}
+
+		for(int i=start+1; i<last; ++i){
+			if( isLineTerminator(chars[i]) ){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Same as \s in a regular expression
+	static private boolean isSpace(char c) {
+		return ' ' == c || '\t' == c || '\n' == c || '\u000B' == c || '\f' == c || '\r' == c;
+	}
+
+	// Characters not matched by '.' in a regular expression
+	static private boolean isLineTerminator(char c) {
+		return '\n' == c || '\r' == c || '\u0085' == c || '\u2028' == c || '\u2029' == c;
+	}
+
+	static private boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+}
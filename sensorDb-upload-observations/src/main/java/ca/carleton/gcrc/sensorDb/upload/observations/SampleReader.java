@@ -0,0 +1,30 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.util.List;
+
+/**
+ * Reads the samples of a sensor file, in file order, after the preamble.
+ */
+public interface SampleReader {
+
+	String getDeviceSerialNumber();
+
+	Integer getDeltaTimeInSecs();
+
+	List<SampleColumn> getColumns();
+
+	/**
+	 * Returns the next sample, or null when all samples were read
+	 */
+	Sample read() throws Exception;
+
+	/**
+	 * Reads the remaining lines without retaining any sample and returns
+	 * the earliest and latest times of the lines that report at least one
+	 * value. This is the same range that would be observed by reading all
+	 * the samples.
+	 */
+	TimeBounds readTimeBounds() throws Exception;
+
+	void close() throws Exception;
+}
@@ -1,25 +1,25 @@
 package ca.carleton.gcrc.sensorDb.upload.observations;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ca.carleton.gcrc.sensorDb.dbapi.DbAPI;
 import ca.carleton.gcrc.sensorDb.dbapi.Device;
-import ca.carleton.gcrc.sensorDb.dbapi.DeviceLocation;
-import ca.carleton.gcrc.sensorDb.dbapi.DeviceSensor;
 import ca.carleton.gcrc.sensorDb.dbapi.ImportRecord;
 import ca.carleton.gcrc.sensorDb.dbapi.ImportReport;
 import ca.carleton.gcrc.sensorDb.dbapi.ImportReportMemory;
@@ -33,8 +33,24 @@ public class SensorFileImporter {
 
 	final protected Logger logger = LoggerFactory.getLogger(this.getClass());
 
+	static final public int DEFAULT_BATCH_SIZE = 1000;
+	static final public long DEFAULT_PARALLEL_PARSE_THRESHOLD = 16L * 1024L * 1024L;
+	static final public int DEFAULT_COMMIT_INTERVAL = 10 * DEFAULT_BATCH_SIZE;
+
+	/**
+	 * Parameter of the import record that holds the last line of the
+	 * file committed to the database.
+	 */
+	static final public String LAST_COMMITTED_LINE_PARAM = "last_committed_line";
+
 	//private DbConnection dbConn;
 	private DbAPI dbAPI;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private ForkJoinPool parsePool = ForkJoinPool.commonPool();
+	private long parallelParseThreshold = DEFAULT_PARALLEL_PARSE_THRESHOLD;
+	private int queueCapacity = ImportPipeline.DEFAULT_QUEUE_CAPACITY;
+	private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+	private DeviceContextCache deviceContextCache;
 	
 	public SensorFileImporter(DbConnection dbConn) throws Exception{
 		//this.dbConn = dbConn;
@@ -43,6 +59,8 @@ public class SensorFileImporter {
 		if( null == this.dbAPI ){
 			throw new Exception("Unable to get dbAPI from database connection");
 		}
+		
+		this.deviceContextCache = new DeviceContextCache(this.dbAPI);
 	}
 	
 	public SensorFileImporter(DbAPI dbApi) throws Exception{
@@ -51,6 +69,78 @@ public class SensorFileImporter {
 		if( null == this.dbAPI ){
 			throw new Exception("dbAPI must be provided");
 		}
+		
+		this.deviceContextCache = new DeviceContextCache(this.dbAPI);
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the number of observations accumulated before they are
+	 * sent to the database.
+	 */
+	public void setBatchSize(int batchSize) {
+		if( batchSize < 1 ){
+			batchSize = 1;
+		}
+		this.batchSize = batchSize;
+	}
+
+	public ForkJoinPool getParsePool() {
+		return parsePool;
+	}
+
+	/**
+	 * Sets the pool on which large files are parsed. If null, files
+	 * are parsed by the importing thread.
+	 */
+	public void setParsePool(ForkJoinPool parsePool) {
+		this.parsePool = parsePool;
+	}
+
+	public long getParallelParseThreshold() {
+		return parallelParseThreshold;
+	}
+
+	/**
+	 * Sets the size, in bytes, from which files are parsed on the
+	 * parse pool.
+	 */
+	public void setParallelParseThreshold(long parallelParseThreshold) {
+		this.parallelParseThreshold = parallelParseThreshold;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	/**
+	 * Sets the number of batches that can wait between two stages of
+	 * the import. A stage waits for the next one when its queue is full.
+	 */
+	public void setQueueCapacity(int queueCapacity) {
+		if( queueCapacity < 1 ){
+			queueCapacity = 1;
+		}
+		this.queueCapacity = queueCapacity;
+	}
+
+	public int getCommitInterval() {
+		return commitInterval;
+	}
+
+	/**
+	 * Sets the number of observations after which a transaction is
+	 * committed, in the CHUNK_COMMIT mode. Transactions end on a
+	 * line boundary, so they can be slightly larger.
+	 */
+	public void setCommitInterval(int commitInterval) {
+		if( commitInterval < 1 ){
+			commitInterval = 1;
+		}
+		this.commitInterval = commitInterval;
 	}
 	
 	public ImportRecord importFile(ConversionRequest conversionRequest) throws Exception {
@@ -64,12 +154,58 @@ public class SensorFileImporter {
 			fileName = file.getAbsolutePath();
 		}
 		
+		ImportRecord importRecord = prepareImportRecord(conversionRequest);
+		
+		logger.info("Import UUID: "+importRecord.getId());
+		
+		// Import the file
+		try {
+			importFile(
+					file
+					,importRecord.getId()
+					,importRecord
+					,conversionRequest.getInitialOffset()
+					,conversionRequest.getFinalOffset()
+					,conversionRequest.getIngestMode()
+					,conversionRequest.getTransactionMode()
+					);
+
+		} catch (Exception e) {
+			throw new Exception("Error while importing observation file "+fileName,e);
+		}
+		
+		return importRecord;
+	}
+
+	/**
+	 * Returns the import record of a request. The record named by the
+	 * request is reused if it exists, so that an import that was
+	 * interrupted resumes where it stopped. Otherwise, a record is
+	 * created and its id is set on the request.
+	 */
+	public ImportRecord prepareImportRecord(ConversionRequest conversionRequest) throws Exception {
+		if( null != conversionRequest.getImportId() ){
+			ImportRecord importRecord = dbAPI.getImportRecordFromImportId(conversionRequest.getImportId());
+			if( null != importRecord ){
+				return importRecord;
+			}
+			logger.info("Import record "+conversionRequest.getImportId()+" not found. Starting a new import.");
+		}
+
+		File file = conversionRequest.getFileToConvert();
+		
 		JSONObject jsonParams = new JSONObject();
 		jsonParams.put("initial_offset", conversionRequest.getInitialOffset());
 		jsonParams.put("final_offset", conversionRequest.getFinalOffset());
 		jsonParams.put("originalFileName", conversionRequest.getOriginalFileName());
 		jsonParams.put("importerName", conversionRequest.getImporterName());
 		jsonParams.put("notes", conversionRequest.getNotes());
+		if( null != conversionRequest.getIngestMode() ){
+			jsonParams.put("ingest_mode", conversionRequest.getIngestMode().name());
+		}
+		if( null != conversionRequest.getTransactionMode() ){
+			jsonParams.put("transaction_mode", conversionRequest.getTransactionMode().name());
+		}
 
 		// Record this file into the database
 		ImportRecord importRecord = new ImportRecord();
@@ -79,69 +215,151 @@ public class SensorFileImporter {
 		
 		importRecord = dbAPI.createImportRecord(importRecord);
 		
-		logger.info("Import UUID: "+importRecord.getId());
+		conversionRequest.setImportId( importRecord.getId() );
 		
-		// Import the file
-		FileInputStream fis = null;
-		InputStreamReader isr = null;
-		try {
-			fis = new FileInputStream(file);
-			isr = new InputStreamReader(fis,"UTF-8");
-			
-			importFile(
-					isr
-					,importRecord.getId()
-					,conversionRequest.getInitialOffset()
-					,conversionRequest.getFinalOffset()
-					);
+		return importRecord;
+	}
 
-		} catch (Exception e) {
-			throw new Exception("Error while importing observation file "+fileName,e);
+	public void importFile(
+			Reader reader
+			,String importUUID
+			,int initialOffset
+			,int finalOffset
+			) throws Exception {
 		
-		} finally {
-			if( null != isr ){
-				try {
-					isr.close();
-				} catch(Exception e) {
-					// Ignore
+		importFile(reader, importUUID, initialOffset, finalOffset, IngestMode.INSERT);
+	}
+
+	/**
+	 * The import process reads the samples twice. Therefore, the content
+	 * of the reader is first saved to a temporary file.
+	 */
+	public void importFile(
+			Reader reader
+			,String importUUID
+			,int initialOffset
+			,int finalOffset
+			,IngestMode ingestMode
+			) throws Exception {
+		
+		File tempFile = File.createTempFile("sensorDb-import-", ".txt");
+		try {
+			FileOutputStream fos = null;
+			OutputStreamWriter osw = null;
+			try {
+				fos = new FileOutputStream(tempFile);
+				osw = new OutputStreamWriter(fos,"UTF-8");
+				
+				char[] buffer = new char[8192];
+				int size = reader.read(buffer);
+				while( size >= 0 ){
+					osw.write(buffer, 0, size);
+					size = reader.read(buffer);
 				}
-			}
-			if( null != fis ){
-				try {
-					fis.close();
-				} catch(Exception e) {
-					// Ignore
+				osw.flush();
+				
+			} finally {
+				if( null != osw ){
+					try {
+						osw.close();
+					} catch(Exception e) {
+						// Ignore
+					}
+				}
+				if( null != fos ){
+					try {
+						fos.close();
+					} catch(Exception e) {
+						// Ignore
+					}
 				}
 			}
+			
+			importFile(tempFile, importUUID, initialOffset, finalOffset, ingestMode);
+			
+		} finally {
+			if( false == tempFile.delete() ){
+				logger.error("Unable to delete temporary file: "+tempFile.getAbsolutePath());
+			}
 		}
-		
-		return importRecord;
 	}
 
 	public void importFile(
-			Reader reader
+			File file
+			,String importUUID
+			,int initialOffset
+			,int finalOffset
+			,IngestMode ingestMode
+			) throws Exception {
+		
+		importFile(file, importUUID, null, initialOffset, finalOffset, ingestMode, TransactionMode.CHUNK_COMMIT);
+	}
+
+	/**
+	 * Imports the samples from a file in two passes. The first pass
+	 * only finds the time bounds needed to correct the logger times.
+	 * The second pass parses, corrects and inserts the samples as
+	 * they are read, in a pipeline of stages that run concurrently.
+	 * Therefore, the memory used does not depend on the size of the
+	 * file.
+	 * 
+	 * The observations are written in transactions, as selected by the
+	 * transaction mode. If an import record is given, the last line
+	 * committed is saved in it with each transaction, and the lines up
+	 * to the one already saved in it are skipped.
+	 */
+	private void importFile(
+			File file
 			,String importUUID
+			,ImportRecord progressRecord
 			,int initialOffset
 			,int finalOffset
+			,IngestMode ingestMode
+			,TransactionMode transactionMode
 			) throws Exception {
+		
+		if( null == ingestMode ){
+			ingestMode = IngestMode.INSERT;
+		}
+		if( null == transactionMode ){
+			transactionMode = TransactionMode.CHUNK_COMMIT;
+		}
+
+		int resumeLine = 0;
+		if( null != progressRecord && null != progressRecord.getImportParameters() ){
+			resumeLine = progressRecord.getImportParameters().optInt(LAST_COMMITTED_LINE_PARAM, 0);
+			if( resumeLine > 0 ){
+				logger.info("Import "+importUUID+" resumes after line "+resumeLine);
+			}
+		}
 
 		ImportReport report = new ImportReportMemory();
 
 		Device device = null;
+		SampleReader obsReader = null;
 		try {
-			SensorFileReader obsReader = new SensorFileReader(reader);
+			// First pass: time bounds
+			TimeBounds timeBounds = null;
+			try {
+				obsReader = openSampleReader(file);
+				timeBounds = obsReader.readTimeBounds();
+			} finally {
+				closeSampleReader(obsReader);
+				obsReader = null;
+			}
+
+			// Second pass: insert samples
+			obsReader = openSampleReader(file);
 			
 			String deviceSerialNumber = obsReader.getDeviceSerialNumber();
 			
-			device = dbAPI.getDeviceFromSerialNumber(deviceSerialNumber);
-			String device_id = device.getId();
-			List<Sensor> sensors = dbAPI.getSensorsFromDeviceId(device_id);
-			
-			// Make a list of sensors based on label
-			Set<String> sensorLabelSet = new HashSet<String>();
-			for(Sensor sensor : sensors){
-				sensorLabelSet.add(sensor.getLabel());
+			DeviceContext deviceContext = deviceContextCache.getDeviceContext(deviceSerialNumber);
+			if( null == deviceContext ){
+				throw new Exception("Unable to find device with serial number: "+deviceSerialNumber);
 			}
+			device = deviceContext.getDevice();
+			String device_id = device.getId();
+			Set<String> sensorLabelSet = deviceContext.getSensorLabels();
 
 			// Check that sensors were found for all parsed columns
 			for(SampleColumn column : obsReader.getColumns()){
@@ -154,35 +372,10 @@ public class SensorFileImporter {
 
 			report.setImportId(importUUID);
 			
-			// Get all observations that should be saved
-			List<Sample> samples = new Vector<Sample>();
-			Date firstTime = null;
-			Date lastTime = null;
-			{
-				Sample sample = obsReader.read();
-				while( null != sample ){
-					samples.add(sample);
-					
-					Date currentTime = sample.getTime();
-					if( null == firstTime ){
-						firstTime = currentTime;
-					} else if( currentTime.getTime() < firstTime.getTime() ){
-						firstTime = currentTime;
-					}
-					if( null == lastTime ){
-						lastTime = currentTime;
-					} else if( currentTime.getTime() > lastTime.getTime() ){
-						lastTime = currentTime;
-					}
-
-					sample = obsReader.read();
-				}
-			}
-			
 			// Compute a time corrector
 			TimeCorrector timeCorrector = new TimeCorrector();
-			timeCorrector.setStartTime(firstTime);
-			timeCorrector.setEndTime(lastTime);
+			timeCorrector.setStartTime(timeBounds.getStartTime());
+			timeCorrector.setEndTime(timeBounds.getEndTime());
 			timeCorrector.setInitialOffsetInSec(initialOffset);
 			timeCorrector.setFinalOffsetInSec(finalOffset);
 			
@@ -193,20 +386,76 @@ public class SensorFileImporter {
 				timeCorrector.setFinalOffsetInSec(deltaTimeInSecs.intValue());
 			}
 			
-			// Get all the device locations for this device
-			List<DeviceLocation> deviceLocations = dbAPI.getDeviceLocationsFromDeviceId(device_id);
-			List<Location> locations = dbAPI.getLocationsFromDeviceLocations(deviceLocations);
-			DeviceLocator deviceLocator = new DeviceLocator(deviceLocations, locations);
-
-			// Get all sensors for this device
-			List<DeviceSensor> deviceSensors = dbAPI.getDeviceSensorsFromDeviceId(device_id);
-			List<Sensor> allSensors = dbAPI.getSensorsFromDeviceSensors(deviceSensors);
-			DeviceSensorHistory deviceSensorHistory = new DeviceSensorHistory(deviceSensors, allSensors);
+			DeviceLocator deviceLocator = deviceContext.getDeviceLocator();
+			DeviceSensorHistory deviceSensorHistory = deviceContext.getDeviceSensorHistory();
 
 			// Start saving observations
-			for( Sample sample : samples ){
+			runPipeline(
+				obsReader,
+				importUUID,
+				device_id,
+				deviceSensorHistory,
+				timeCorrector,
+				deviceLocator,
+				ingestMode,
+				transactionMode,
+				progressRecord,
+				resumeLine,
+				report
+			);
+
+		} catch (Exception e) {
+			
+			report.setError(e);
+			throw new Exception("Error during import process for device: "+device,e);
+
+		} finally {
+			closeSampleReader(obsReader);
+			
+			try {
+				saveImportReport(report);
+			} catch(Exception e2) {
+				// Ignore
+				logger.error("Unable to save log",e2);
+			}
+		}
+	}
+
+	/**
+	 * Samples are parsed, resolved into observations and written by
+	 * separate stages of a pipeline. The writer keeps a connection for
+	 * the duration of the import, and writes in transactions instead of
+	 * committing each statement. The report is only updated by the
+	 * writer.
+	 */
+	private void runPipeline(
+			SampleReader obsReader,
+			final String importUUID,
+			final String device_id,
+			final DeviceSensorHistory deviceSensorHistory,
+			final TimeCorrector timeCorrector,
+			final DeviceLocator deviceLocator,
+			final IngestMode ingestMode,
+			final TransactionMode transactionMode,
+			final ImportRecord progressRecord,
+			final int resumeLine,
+			final ImportReport report
+			) throws Exception {
+
+		ImportPipeline pipeline = new ImportPipeline(batchSize);
+		pipeline.setQueueCapacity(queueCapacity);
+
+		ImportPipeline.SampleResolver resolver = new ImportPipeline.SampleResolver(){
+			@Override
+			public void resolve(Sample sample, ImportPipeline.ResolvedBatch batch) throws Exception {
+				// Committed by a previous attempt
+				Integer lineNumber = sample.getLineNumber();
+				if( null != lineNumber && lineNumber.intValue() <= resumeLine ){
+					return;
+				}
+
 				String sensor_label = sample.getColumn().getName();
-				
+
 				try {
 					insertSample(
 						importUUID, 
@@ -216,101 +465,89 @@ public class SensorFileImporter {
 						sample, 
 						timeCorrector, 
 						deviceLocator, 
-						report
+						batch
 					);
 				} catch (Exception e) {
 					logger.error("Error on sample: "+sample);
 					logger.error("Sample found on line: "+sample.getLineNumber());
-					logger.error("Sample line: "+sample.getLine());
 					throw new Exception("Error inserting sample: "+sample,e);
 				}
 			}
+		};
 
-		} catch (Exception e) {
-			
-			report.setError(e);
-			throw new Exception("Error during import process for device: "+device,e);
+		ImportPipeline.ObservationWriter writer = new ImportPipeline.ObservationWriter(){
+			private int uncommittedCount = 0;
+			private Integer lastLineNumber = null;
 
-		} finally {
-			try {
-				saveImportReport(report);
-			} catch(Exception e2) {
-				// Ignore
-				logger.error("Unable to save log",e2);
+			@Override
+			public void open() throws Exception {
+				dbAPI.reserveThreadConnection();
+				dbAPI.beginTransaction();
 			}
-		}
-	}
 
-	private void insertSample(
-			String importUUID,
-			String device_id,
-			Sensor sensor,
-			Sample sample, 
-			TimeCorrector timeCorrector,
-			DeviceLocator deviceLocator,
-			ImportReport report
-			) throws Exception {
-		
-		// insert into observations (device_id,sensor_id,location) values ('123','456',ST_GeomFromEWKT('srid=4326;POINT(0 0)'));
-		try {
-			Date loggerTime = sample.getTime();
-			Date correctedTime = timeCorrector.correctTime(loggerTime);
-			
-			Location location = deviceLocator.getLocationFromTimestamp(correctedTime);
-			if( null == location ){
-				throw new Exception("Can not find location of device (id="+device_id+") for time "+correctedTime.toString());
-			}
-			
-			String geometry = location.getGeometry();
-			
-			Observation observation = new Observation();
-			observation.setDeviceId( device_id );
-			observation.setSensorId( sensor.getId() );
-			observation.setImportId( importUUID );
-			observation.setImportKey( sample.computeImportKey() );
-			observation.setObservationType( sensor.getTypeOfMeasurement() );
-			observation.setUnitOfMeasure( sensor.getUnitOfMeasurement() );
-			observation.setAccuracy( sensor.getAccuracy() );
-			observation.setPrecision( sensor.getPrecision() );
-			observation.setNumericValue( sample.getValue() );
-			observation.setTextValue( sample.getText() );
-			observation.setLoggedTime( loggerTime );
-			observation.setCorrectedTime( correctedTime );
-			observation.setLocation( geometry );
-			observation.setElevation( location.getElevation() );
-			observation.setMinHeight( sensor.getHeightInMetres() );
-			observation.setMaxHeight( sensor.getHeightInMetres() );
-			
-			// Insert observation only if this location is meant to record observations.
-			// "In Transit" locations should not be saved.
-			if( location.isRecordingObservations() ){
+			@Override
+			public void write(ImportPipeline.ResolvedBatch batch) throws Exception {
+				for(Observation observation : batch.getInTransitObservations()){
+					report.inTransitObservation(observation);
+					report.skippedObservation(observation);
+				}
+				uncommittedCount += batch.getObservations().size();
+				flushObservations(batch.getObservations(), ingestMode, report);
 
-				boolean collision = false;
-				String importKey = observation.getImportKey();
-				Observation collidingObservation = null;
-				if( null != importKey ){
-					collidingObservation = dbAPI.getObservationFromImportKey(importKey);
+				lastLineNumber = batch.getLastLineNumber();
+				if( TransactionMode.CHUNK_COMMIT == transactionMode
+				 && uncommittedCount >= commitInterval ){
+					commit();
+					dbAPI.beginTransaction();
 				}
-				if( null != collidingObservation ){
-					collision = true;
+			}
+
+			@Override
+			public void finish() throws Exception {
+				commit();
+			}
+
+			@Override
+			public void close() throws Exception {
+				try {
+					// Nothing to do if the last transaction was committed
+					dbAPI.rollbackTransaction();
+				} finally {
+					dbAPI.releaseThreadConnection();
 				}
-				
-				if( collision ){
-					report.collisionObservation(observation);
-					report.skippedObservation(observation);
-				} else {
-					observation = dbAPI.createObservation(observation);
-					
-					report.insertedObservation(observation);
+			}
+
+			private void commit() throws Exception {
+				// The progress is committed with the observations
+				if( null != progressRecord && null != lastLineNumber ){
+					JSONObject jsonParams = new JSONObject();
+					if( null != progressRecord.getImportParameters() ){
+						jsonParams = new JSONObject( progressRecord.getImportParameters().toString() );
+					}
+					jsonParams.put(LAST_COMMITTED_LINE_PARAM, lastLineNumber.intValue());
+
+					ImportRecord importRecord = new ImportRecord();
+					importRecord.setId( progressRecord.getId() );
+					importRecord.setImportTime( progressRecord.getImportTime() );
+					importRecord.setFileName( progressRecord.getFileName() );
+					importRecord.setImportParameters(jsonParams);
+					dbAPI.updateImportRecord(importRecord);
 				}
+				dbAPI.commitTransaction();
+				uncommittedCount = 0;
+			}
+		};
 
-			} else {
-				report.inTransitObservation(observation);
-				report.skippedObservation(observation);
-			};
-			
-		} catch (Exception e) {
-			throw new Exception("Error inserting observation for sensor (id="+sensor.getId()+") to database", e);
+		try {
+			pipeline.run(obsReader, resolver, writer);
+
+		} finally {
+			JSONArray jsonStages = new JSONArray();
+			for(ImportStageStatistics statistics : pipeline.getStatistics()){
+				logger.info("Import "+importUUID+" stage "+statistics);
+				jsonStages.put( statistics.toJSON() );
+			}
+			report.setStageStatistics(jsonStages);
 		}
 	}
 
@@ -322,7 +559,7 @@ public class SensorFileImporter {
 		Sample sample, 
 		TimeCorrector timeCorrector,
 		DeviceLocator deviceLocator,
-		ImportReport report
+		ImportPipeline.ResolvedBatch batch
 		) throws Exception {
 	
 	Sensor sensor = null;
@@ -348,7 +585,7 @@ public class SensorFileImporter {
 		observation.setDeviceId( device_id );
 		observation.setSensorId( sensor.getId() );
 		observation.setImportId( importUUID );
-		observation.setImportKey( sample.computeImportKey() );
+		observation.setImportKey( sample.getImportKey() );
 		observation.setObservationType( sensor.getTypeOfMeasurement() );
 		observation.setUnitOfMeasure( sensor.getUnitOfMeasurement() );
 		observation.setAccuracy( sensor.getAccuracy() );
@@ -366,28 +603,11 @@ public class SensorFileImporter {
 		// "In Transit" locations should not be saved.
 		if( location.isRecordingObservations() ){
 
-			boolean collision = false;
-			String importKey = observation.getImportKey();
-			Observation collidingObservation = null;
-			if( null != importKey ){
-				collidingObservation = dbAPI.getObservationFromImportKey(importKey);
-			}
-			if( null != collidingObservation ){
-				collision = true;
-			}
-			
-			if( collision ){
-				report.collisionObservation(observation);
-				report.skippedObservation(observation);
-			} else {
-				observation = dbAPI.createObservation(observation);
-				
-				report.insertedObservation(observation);
-			}
+			// Collisions are resolved when the batch is flushed
+			batch.getObservations().add(observation);
 
 		} else {
-			report.inTransitObservation(observation);
-			report.skippedObservation(observation);
+			batch.getInTransitObservations().add(observation);
 		};
 		
 	} catch (Exception e) {
@@ -400,6 +620,91 @@ public class SensorFileImporter {
 	}
 }
 
+	private void flushObservations(
+			List<Observation> batch, 
+			IngestMode ingestMode,
+			ImportReport report
+			) throws Exception {
+		
+		if( batch.size() < 1 ){
+			return;
+		}
+		
+		// Find all import keys already in the database, in one request
+		Set<String> batchImportKeys = new HashSet<String>();
+		for(Observation observation : batch){
+			String importKey = observation.getImportKey();
+			if( null != importKey ){
+				batchImportKeys.add(importKey);
+			}
+		}
+		Set<String> collidingImportKeys = new HashSet<String>(
+			dbAPI.getExistingImportKeys(batchImportKeys)
+		);
+		
+		// Keys seen in this batch also collide with later repetitions
+		List<Observation> observationsToInsert = new ArrayList<Observation>(batch.size());
+		for(Observation observation : batch){
+			String importKey = observation.getImportKey();
+			if( null != importKey && collidingImportKeys.contains(importKey) ){
+				report.collisionObservation(observation);
+				report.skippedObservation(observation);
+			} else {
+				observationsToInsert.add(observation);
+				if( null != importKey ){
+					collidingImportKeys.add(importKey);
+				}
+			}
+		}
+		
+		if( observationsToInsert.size() > 0 ){
+			try {
+				if( IngestMode.COPY == ingestMode ){
+					dbAPI.copyObservations(observationsToInsert);
+				} else {
+					dbAPI.createObservations(observationsToInsert);
+				}
+			} catch (Exception e) {
+				throw new Exception("Error inserting a batch of "+observationsToInsert.size()+" observations to database", e);
+			}
+			
+			dbAPI.updateObservationRollups(observationsToInsert);
+		}
+		
+		for(Observation observation : observationsToInsert){
+			report.insertedObservation(observation);
+		}
+		
+		batch.clear();
+	}
+
+	/**
+	 * Large files are parsed in parallel on the parse pool
+	 */
+	private SampleReader openSampleReader(File file) throws Exception {
+		if( null != parsePool && file.length() >= parallelParseThreshold ){
+			return new ParallelSensorFileReader(file, parsePool);
+		}
+
+		LineSource lineSource = new MappedFileLineSource(file);
+		try {
+			return new SensorFileReader(lineSource);
+		} catch(Exception e) {
+			lineSource.close();
+			throw e;
+		}
+	}
+
+	private void closeSampleReader(SampleReader sampleReader) {
+		if( null != sampleReader ){
+			try {
+				sampleReader.close();
+			} catch(Exception e) {
+				// Ignore
+			}
+		}
+	}
+
 	private void saveImportReport(ImportReport report) throws Exception {
 		try {
 			JSONObject jsonLog = report.produceReport();
@@ -1,10 +1,8 @@
 package ca.carleton.gcrc.sensorDb.upload.observations;
 
-import java.io.BufferedReader;
 import java.io.Reader;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Stack;
 import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -39,135 +37,156 @@ No,Time,#1:oC,#HK-Bat:V,#HK-Temp:oC
 
  */
 
-public class SensorFileReader {
+public class SensorFileReader implements SampleReader {
 
 	final protected Logger logger = LoggerFactory.getLogger(this.getClass());
 
 	static private Pattern patternFirstLine = Pattern.compile("^Logger:\\s*#([^']*)'.*$");
 	static private Pattern patternDeltaTimeLine = Pattern.compile("^Delta\\s+Time:\\s*(-?[0-9]+)\\s+secs[,\\s]*$");
-	static private Pattern patternIgnoreLine = Pattern.compile("^\\(.*\\)\\s*$");
-	static private Pattern patternTextNumber = Pattern.compile("^\\s*-?[0-9]+(\\.[0-9]+)?([eE][+-]?[0-9]+)?\\s*$");
-	static private Pattern patternIgnoreValue = Pattern.compile("^\\s*\\(.*\\)\\s*$");
-	static private Pattern patternIgnoreValue2 = Pattern.compile("^\\s*$");
 
-	private BufferedReader bufReader;
+	private LineSource lineSource;
 	private String deviceSerialNumber = null;
 	private Integer deltaTimeInSecs = null;
 	private List<SampleColumn> columns = new Vector<SampleColumn>();
 	private int timeColumnIndex;
 	private boolean reachedEnd = false;
-	private List<Sample> cachedObservations = new Vector<Sample>();
+	private List<Sample> cachedObservations = new ArrayList<Sample>();
+	private int cachedIndex = 0;
+	private SampleLineParser lineParser = null;
+	private long lineTime = 0;
 	private int lineNumber = 0;
-	private Stack<String> bufferedLines = new Stack<String>();
+	private boolean lineRepeated = false;
 	
 	public SensorFileReader(Reader reader) throws Exception {
-		CarriageReturnFilterReader crfr = new CarriageReturnFilterReader(reader);
-		bufReader = new BufferedReader(crfr);
+		this( new ReaderLineSource(reader) );
+	}
+	
+	/**
+	 * The lines are parsed in the buffer of the source, without
+	 * creating a string per line.
+	 */
+	public SensorFileReader(LineSource lineSource) throws Exception {
+		this.lineSource = lineSource;
 		
 		readPreamble();
+		
+		lineParser = createLineParser();
 	}
 
+	@Override
 	public String getDeviceSerialNumber() {
 		return deviceSerialNumber;
 	}
 	
+	@Override
 	public Integer getDeltaTimeInSecs() {
 		return deltaTimeInSecs;
 	}
 
+	@Override
 	public List<SampleColumn> getColumns() {
 		return columns;
 	}
 	
+	@Override
 	public Sample read() throws Exception {
-		// If end is reached, keep returning null
-		if( reachedEnd ){
-			return null;
+		while( false == reachedEnd ){
+			// Picked what we have already parsed
+			if( cachedIndex < cachedObservations.size() ){
+				Sample obs = cachedObservations.get(cachedIndex);
+				++cachedIndex;
+				return obs;
+			}
+			cachedObservations.clear();
+			cachedIndex = 0;
+			
+			// Get new line
+			if( false == nextLine() ){
+				reachedEnd = true;
+			} else {
+				parseLine(cachedObservations);
+			}
 		}
 		
-		// Picked what we have already parsed
-		if( cachedObservations.size() > 0 ){
-			Sample obs = cachedObservations.remove(0);
-			return obs;
+		// If end is reached, keep returning null
+		return null;
+	}
+
+	@Override
+	public TimeBounds readTimeBounds() throws Exception {
+		TimeBounds timeBounds = new TimeBounds();
+		
+		// Samples already parsed
+		for(int i=cachedIndex; i<cachedObservations.size(); ++i){
+			timeBounds.include(cachedObservations.get(i).getTime());
 		}
+		cachedObservations.clear();
+		cachedIndex = 0;
 		
-		// Get new line
-		int columnCount = columns.size();
-		String line = readLine();
-		if( null == line ){
+		if( false == reachedEnd ){
+			while( nextLine() ){
+				if( parseLine(null) ){
+					timeBounds.include(lineTime);
+				}
+			}
 			reachedEnd = true;
-			return null;
 		}
 		
-		// If line starts with "(Parameter", then it should be ignored
-		Matcher matcherIgnoreLine = patternIgnoreLine.matcher(line);
-		if( matcherIgnoreLine.matches() ){
-			// Ignore this line. Re-enter
-			return read();
-		}
+		return timeBounds;
+	}
 
-		// Parse line
-		String[] fields = line.split(",");
-		if( fields.length > columnCount ){
-			throw new Exception("More fields than columns on line "+lineNumber);
-		}
-		
-		// Time
-		if( timeColumnIndex >= fields.length ){
-			throw new Exception("Time not included on line "+lineNumber);
-		}
-		Date time = null;
+	/**
+	 * Parses the current line of samples. If a list is provided, the samples
+	 * are added to it.
+	 * @return True if at least one sample is found on the line. In that
+	 * case, the time reported on the line is left in lineTime.
+	 */
+	private boolean parseLine(List<Sample> samples) throws Exception {
 		try {
-			time = DateUtils.parseUtcString(fields[timeColumnIndex]);
+			boolean sampleFound = lineParser.parseLine(
+					lineSource.getLineChars(), 
+					lineSource.getLineLength(), 
+					lineNumber, 
+					samples
+					);
+			lineTime = lineParser.getLineTime();
+			return sampleFound;
+
 		} catch(Exception e) {
-			throw new Exception("Problem parsing date on line "+lineNumber, e);
+			throw new Exception("Error parsing line "+lineNumber, e);
 		}
-		
-		// Create an observation for each value
-		for(int index=0; index<fields.length; ++index){
-			String fieldStr = fields[index];
-			SampleColumn column = columns.get(index);
-			
-			if( column.isValue() ){
-				Sample obs = null;
-				
-				boolean ignoreThisValue = false;
-				Matcher matcherIgnoreValue = patternIgnoreValue.matcher(fieldStr);
-				if( matcherIgnoreValue.matches() ){
-					ignoreThisValue = true;
-				};
-				Matcher matcherIgnoreValue2 = patternIgnoreValue2.matcher(fieldStr);
-				if( matcherIgnoreValue2.matches() ){
-					ignoreThisValue = true;
-				};
-
-				if( !ignoreThisValue ){
-					Matcher matcherTextNumber = patternTextNumber.matcher(fieldStr);
-					if( matcherTextNumber.matches() ){
-						double value = Double.parseDouble(fieldStr.trim());
-						obs = new Sample(time, column, value);
-					} else {
-						obs = new Sample(time, column, fieldStr.trim());
-					}
-					
-					if( null != obs ){
-						obs.setLine(line);
-						obs.setLineNumber(lineNumber);
-						obs.setDeviceSerialNumber(deviceSerialNumber);
-						cachedObservations.add(obs);
-					}
-				}
-			}
-		}
-		
-		// Re-enter
-		return read();
+	}
+
+	/**
+	 * Returns a new parser for the lines of samples that follow the
+	 * preamble. Parsers can be used concurrently, one per thread.
+	 */
+	public SampleLineParser createLineParser() {
+		return new SampleLineParser(deviceSerialNumber, columns, timeColumnIndex);
+	}
+
+	/**
+	 * Number of the last line read
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Closes the line source
+	 */
+	@Override
+	public void close() throws Exception {
+		lineSource.close();
 	}
 
 	private void readPreamble() throws Exception {
 		// Read top line
 		{
 			String firstLine = readLine();
+			if( null == firstLine ){
+				throw new Exception("File is empty");
+			}
 			Matcher matcherFirstLine = patternFirstLine.matcher(firstLine);
 			if( matcherFirstLine.matches() ){
 				String serialNumber = matcherFirstLine.group(1).trim();
@@ -182,19 +201,25 @@ public class SensorFileReader {
 		// Read Delta Time line
 		{
 			String line = readLine();
+			if( null == line ){
+				throw new Exception("Columns not found");
+			}
 			Matcher matcherDeltaTimeLine = patternDeltaTimeLine.matcher(line);
 			if( matcherDeltaTimeLine.matches() ){
 				int delta = Integer.parseInt( matcherDeltaTimeLine.group(1) );
 				deltaTimeInSecs = new Integer(delta);
 			} else {
 				// If it is not the optional Delta Time line, push back
-				pushBackLine(line);
+				pushBackLine();
 			}
 		}
 		
 		// Read columns
 		{
 			String line = readLine();
+			if( null == line ){
+				throw new Exception("Columns not found");
+			}
 			String[] columnStrings = line.split(",");
 			for(String columnString : columnStrings){
 				SampleColumn column = SampleColumn.parseColumnString(columnString);
@@ -224,21 +249,36 @@ public class SensorFileReader {
 		}
 	}
 	
-	private String readLine() throws Exception {
-		String line = null;
-		if( bufferedLines.size() > 0 ){
-			line = bufferedLines.pop();
-		} else {
-			line = bufReader.readLine();
-		}
-
+	/**
+	 * Moves to the next line of the source
+	 * @return False if all lines were read
+	 */
+	private boolean nextLine() throws Exception {
 		++lineNumber;
+
+		if( lineRepeated ){
+			lineRepeated = false;
+			return true;
+		}
 		
-		return line;
+		return lineSource.readLine();
+	}
+	
+	/**
+	 * Returns the next line as a string. Used for the preamble.
+	 */
+	private String readLine() throws Exception {
+		if( false == nextLine() ){
+			return null;
+		}
+		return new String(lineSource.getLineChars(), 0, lineSource.getLineLength());
 	}
 	
-	private void pushBackLine(String line) {
-		bufferedLines.push(line);
+	/**
+	 * The current line is returned again by the next read
+	 */
+	private void pushBackLine() {
+		lineRepeated = true;
 		--lineNumber;
 	}
 }
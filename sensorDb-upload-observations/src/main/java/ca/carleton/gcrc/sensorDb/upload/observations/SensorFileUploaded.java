@@ -3,6 +3,7 @@ package ca.carleton.gcrc.sensorDb.upload.observations;
 import java.security.Principal;
 import java.util.List;
 import java.util.Map;
+import java.util.Vector;
 
 import javax.servlet.http.Cookie;
 
@@ -19,12 +20,22 @@ public class SensorFileUploaded implements OnUploadedListener,OnUploadedRequires
 
 	final protected Logger logger = LoggerFactory.getLogger(this.getClass());
 
-	private ConversionThread conversionThread = null;
+	private ImportScheduler importScheduler = null;
 	
 	public SensorFileUploaded(DbConnection dbConn) throws Exception{
+		this(dbConn, ImportScheduler.DEFAULT_WORKER_COUNT, ImportScheduler.DEFAULT_QUEUE_SIZE);
+	}
+	
+	public SensorFileUploaded(DbConnection dbConn, int workerCount, int queueSize) throws Exception{
 		SensorFileImporter importer = new SensorFileImporter(dbConn);
-		this.conversionThread = new ConversionThread(importer);
-		this.conversionThread.start();
+		this.importScheduler = new ImportScheduler(dbConn.getAPI(), importer, workerCount, queueSize);
+	}
+
+	/**
+	 * Queues the import jobs left unfinished by a previous run
+	 */
+	public void resumeImportJobs() throws Exception {
+		importScheduler.resumeUnfinishedJobs();
 	}
 	
 	@Override
@@ -36,15 +47,19 @@ public class SensorFileUploaded implements OnUploadedListener,OnUploadedRequires
 			Cookie[] cookies
 			) throws Exception {
 
-		// Parse the files
+		List<ConversionRequest> requests = new Vector<ConversionRequest>();
 		for(LoadedFile loadedFile : uploadedFiles){
 			logger.info("Uploaded file: "+loadedFile.getFile().getAbsolutePath());
 
-			conversionThread.addFileToConvert(loadedFile, parameters);
+			requests.add( createConversionRequest(loadedFile, parameters) );
 		}
 
+		// Reports to the client when the queue is full
+		importScheduler.submit(requests);
+
 		JSONObject result = new JSONObject();
 		result.put("ok", true);
+		result.put("queued", requests.size());
 		return result;
 	}
 
@@ -61,9 +76,89 @@ public class SensorFileUploaded implements OnUploadedListener,OnUploadedRequires
 
 	@Override
 	public void shutdown() {
-		if( null != conversionThread ){
-			conversionThread.shutdown();
+		if( null != importScheduler ){
+			importScheduler.shutdown();
+		}
+		importScheduler = null;
+	}
+
+	private ConversionRequest createConversionRequest(LoadedFile loadedFile, Map<String, List<String>> parameters) {
+		ConversionRequest request = new ConversionRequest();
+		request.setFileToConvert(loadedFile.getFile());
+		request.setOriginalFileName(loadedFile.getOriginalFileName());
+
+		// Initial offset
+		{
+			request.setInitialOffset(0);
+			List<String> offsetStrings = parameters.get("initial_offset");
+			if( null != offsetStrings ){
+				for(String offsetString : offsetStrings){
+					int offset = Integer.parseInt(offsetString);
+					request.setInitialOffset(offset);
+				}
+			}
+		}
+
+		// Final offset
+		{
+			request.setFinalOffset(0);
+			List<String> offsetStrings = parameters.get("final_offset");
+			if( null != offsetStrings ){
+				for(String offsetString : offsetStrings){
+					int offset = Integer.parseInt(offsetString);
+					request.setFinalOffset(offset);
+				}
+			}
+		}
+
+		// Importer
+		{
+			List<String> params  = parameters.get("importer");
+			if( null != params ){
+				for(String param : params){
+					request.setImporterName(param);
+				}
+			}
+		}
+
+		// Notes
+		{
+			List<String> params  = parameters.get("notes");
+			if( null != params ){
+				for(String param : params){
+					request.setNotes(param);
+				}
+			}
 		}
-		conversionThread = null;
+
+		// Ingest mode
+		{
+			List<String> params  = parameters.get("ingest_mode");
+			if( null != params ){
+				for(String param : params){
+					try {
+						request.setIngestMode( IngestMode.fromString(param) );
+					} catch (Exception e) {
+						logger.error("Ignoring ingest mode for "+request,e);
+					}
+				}
+			}
+		}
+
+		// Transaction mode
+		{
+			List<String> params  = parameters.get("transaction_mode");
+			if( null != params ){
+				for(String param : params){
+					try {
+						request.setTransactionMode( TransactionMode.fromString(param) );
+					} catch (Exception e) {
+						logger.error("Ignoring transaction mode for "+request,e);
+					}
+				}
+			}
+		}
+
+		return request;
 	}
 }
@@ -27,13 +27,7 @@ public class SensorLabelSelector {
     }
 
     public Sensor getSensorFromLabel(String label) throws Exception{
-        Sensor sensor = null;
-		
-        for (String lab : sensorsByLabel.keySet()){
-            if (label.equals(lab)){
-                sensor = sensorsByLabel.get(lab);
-            }
-        }
+        Sensor sensor = sensorsByLabel.get(label);
 		
         if (null == sensor){
             throw new Exception("Sensor with label '" + label + "' not found!");
@@ -0,0 +1,50 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.util.Date;
+
+/**
+ * Earliest and latest times found in a set of samples.
+ */
+public class TimeBounds {
+
+	private Date startTime = null;
+	private Date endTime = null;
+
+	public Date getStartTime() {
+		return startTime;
+	}
+
+	public Date getEndTime() {
+		return endTime;
+	}
+	
+	public boolean isEmpty() {
+		return null == startTime;
+	}
+
+	public void include(Date time) {
+		if( null == startTime ){
+			startTime = time;
+		} else if( time.getTime() < startTime.getTime() ){
+			startTime = time;
+		}
+		if( null == endTime ){
+			endTime = time;
+		} else if( time.getTime() > endTime.getTime() ){
+			endTime = time;
+		}
+	}
+
+	/**
+	 * Same as include(Date), but a date is only created when
+	 * a bound is extended.
+	 */
+	public void include(long time) {
+		if( null == startTime || time < startTime.getTime() ){
+			startTime = new Date(time);
+		}
+		if( null == endTime || time > endTime.getTime() ){
+			endTime = new Date(time);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+/**
+ * Finds, in a sorted array of timestamps, the last entry that precedes
+ * a given time. The samples of a file are mostly read in increasing time
+ * order, so the index found last is tried first before searching.
+ *
+ * The remembered index is only a hint and is verified before it is used.
+ * Therefore, an instance can be shared between threads.
+ */
+public class TimestampIndex {
+
+	private long[] times;
+	private volatile int lastIndex = -1;
+
+	/**
+	 * @param times Timestamps in milliseconds, sorted in increasing order.
+	 */
+	public TimestampIndex(long[] times) {
+		this.times = times;
+	}
+
+	public int size() {
+		return times.length;
+	}
+
+	/**
+	 * Returns the index of the last entry strictly earlier than the
+	 * given time, or -1 if there are none.
+	 */
+	public int lastBefore(long time) {
+		return find(time, false);
+	}
+
+	/**
+	 * Returns the index of the last entry earlier than or equal to
+	 * the given time, or -1 if there are none.
+	 */
+	public int lastAtOrBefore(long time) {
+		return find(time, true);
+	}
+
+	private int find(long time, boolean inclusive) {
+		int hint = lastIndex;
+		if( isMatch(hint, time, inclusive) ){
+			return hint;
+		}
+		if( isMatch(hint+1, time, inclusive) ){
+			lastIndex = hint+1;
+			return hint+1;
+		}
+
+		// Number of entries that precede the time
+		int low = 0;
+		int high = times.length;
+		while( low < high ){
+			int mid = (low + high) >>> 1;
+			if( precedes(times[mid], time, inclusive) ){
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		int index = low - 1;
+		lastIndex = index;
+		return index;
+	}
+
+	private boolean isMatch(int index, long time, boolean inclusive) {
+		if( index < -1 || index >= times.length ){
+			return false;
+		}
+		if( index >= 0 && false == precedes(times[index], time, inclusive) ){
+			return false;
+		}
+		if( index+1 < times.length && precedes(times[index+1], time, inclusive) ){
+			return false;
+		}
+		return true;
+	}
+
+	static private boolean precedes(long entryTime, long time, boolean inclusive) {
+		if( inclusive ){
+			return entryTime <= time;
+		}
+		return entryTime < time;
+	}
+}
@@ -0,0 +1,32 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+/**
+ * How the observations of an import are committed to the database.
+ */
+public enum TransactionMode {
+	/**
+	 * A single transaction for the whole file. If the import fails,
+	 * none of its observations are kept.
+	 */
+	ALL_OR_NOTHING,
+	/**
+	 * A transaction every few thousand observations. The last line
+	 * committed is recorded in the import record, so that an import
+	 * that failed can be resumed after it.
+	 */
+	CHUNK_COMMIT;
+	
+	static public TransactionMode fromString(String value) throws Exception {
+		if( null == value ){
+			return null;
+		}
+		
+		for(TransactionMode mode : values()){
+			if( mode.name().equalsIgnoreCase(value.trim()) ){
+				return mode;
+			}
+		}
+		
+		throw new Exception("Unknown transaction mode: "+value);
+	}
+}
@@ -1,10 +1,12 @@
 package ca.carleton.gcrc.sensorDb.upload.observations;
 
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 import java.util.Vector;
 
 import junit.framework.TestCase;
@@ -42,4 +44,67 @@ public class DateUtilsTest extends TestCase {
 			}
 		}
 	}
+
+	public void testParseUtcMillis() throws Exception {
+		// Compare with a calendar for every day of a few years
+		TimeZone tz = TimeZone.getTimeZone("UTC");
+		Calendar calendar = Calendar.getInstance(tz);
+		calendar.clear();
+		calendar.set(1999, 0, 1, 23, 59, 58);
+		while( calendar.get(Calendar.YEAR) < 2002 ){
+			String dateStr = String.format("%1$02d.%2$02d.%3$04d %4$02d:%5$02d:%6$02d",
+					calendar.get(Calendar.DAY_OF_MONTH),
+					calendar.get(Calendar.MONTH) + 1,
+					calendar.get(Calendar.YEAR),
+					calendar.get(Calendar.HOUR_OF_DAY),
+					calendar.get(Calendar.MINUTE),
+					calendar.get(Calendar.SECOND)
+					);
+			char[] chars = (" "+dateStr+" ").toCharArray();
+			long time = DateUtils.parseUtcMillis(chars, 0, chars.length);
+			if( time != calendar.getTimeInMillis() ){
+				fail("Unexpected time for "+dateStr+": "+time);
+			}
+
+			calendar.add(Calendar.HOUR_OF_DAY, 25);
+		}
+
+		// Leap days
+		if( DateUtils.parseUtcString("29.02.2000 00:00:00").getTime() != 951782400000L ){
+			fail("Unexpected time for leap day");
+		}
+
+		// Old dates use the calendar
+		{
+			calendar.clear();
+			calendar.set(1500, 5, 15, 12, 0, 0);
+			Date time = DateUtils.parseUtcString("15.06.1500 12:00:00");
+			if( time.getTime() != calendar.getTimeInMillis() ){
+				fail("Unexpected time for old date: "+time.getTime());
+			}
+		}
+
+		// Invalid dates
+		String[] invalidDates = new String[]{
+			"29.02.2001 00:00:00",
+			"31.04.2016 00:00:00",
+			"00.01.2016 00:00:00",
+			"01.13.2016 00:00:00",
+			"01.01.2016 24:00:00",
+			"01.01.2016 00:60:00",
+			"01.01.2016 00:00:60",
+			"01.01.2016T00:00:00",
+			"1.01.2016 00:00:00",
+			"01.01.2016 00:00",
+			"aa.01.2016 00:00:00"
+		};
+		for(String dateStr : invalidDates){
+			try {
+				DateUtils.parseUtcString(dateStr);
+				fail("Date should be rejected: "+dateStr);
+			} catch(Exception e) {
+				// OK
+			}
+		}
+	}
 }
@@ -0,0 +1,56 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import ca.carleton.gcrc.sensorDb.dbapi.DeviceLocation;
+import ca.carleton.gcrc.sensorDb.dbapi.Location;
+import junit.framework.TestCase;
+
+public class DeviceLocatorTest extends TestCase {
+
+	static private Location createLocation(String id) {
+		Location location = new Location();
+		location.setId(id);
+		return location;
+	}
+
+	static private DeviceLocation createDeviceLocation(String locationId, Date timestamp) {
+		DeviceLocation deviceLocation = new DeviceLocation();
+		deviceLocation.setLocationId(locationId);
+		deviceLocation.setTimestamp(timestamp);
+		return deviceLocation;
+	}
+
+	public void testLocationBoundaries() throws Exception {
+		Date deployment1 = DateUtils.parseUtcString("01.02.2014 16:45:00");
+		Date deployment2 = DateUtils.parseUtcString("28.01.2017 16:45:00");
+
+		List<Location> locations = new ArrayList<Location>();
+		locations.add( createLocation("a") );
+		locations.add( createLocation("b") );
+
+		// Given out of order
+		List<DeviceLocation> deviceLocations = new ArrayList<DeviceLocation>();
+		deviceLocations.add( createDeviceLocation("b", deployment2) );
+		deviceLocations.add( createDeviceLocation("a", deployment1) );
+
+		DeviceLocator locator = new DeviceLocator(deviceLocations, locations);
+
+		// A location applies strictly after its timestamp
+		if( null != locator.getLocationFromTimestamp(deployment1) ){
+			fail("No location expected at the time of the first deployment");
+		}
+		Location location = locator.getLocationFromTimestamp(new Date(deployment1.getTime()+1));
+		assertEquals("a", location.getId());
+		location = locator.getLocationFromTimestamp(deployment2);
+		assertEquals("a", location.getId());
+		location = locator.getLocationFromTimestamp(new Date(deployment2.getTime()+1));
+		assertEquals("b", location.getId());
+
+		// Going back in time
+		location = locator.getLocationFromTimestamp(new Date(deployment1.getTime()+1000));
+		assertEquals("a", location.getId());
+	}
+}
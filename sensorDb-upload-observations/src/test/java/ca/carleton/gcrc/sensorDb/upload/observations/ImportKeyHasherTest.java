@@ -0,0 +1,92 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.security.MessageDigest;
+
+import org.apache.commons.codec.binary.Base64;
+
+import ca.carleton.gcrc.sensorDb.dbapi.ImportKeys;
+import junit.framework.TestCase;
+
+public class ImportKeyHasherTest extends TestCase {
+
+	// Import keys as computed by earlier versions
+	static private String computeLegacyKey(String serial, String column, String line) throws Exception {
+		String effectiveLine = serial + "," + column + "," + line;
+		MessageDigest md = MessageDigest.getInstance("MD5");
+		byte[] digest = md.digest(effectiveLine.getBytes("UTF-8"));
+		return Base64.encodeBase64String(digest);
+	}
+
+	public void testLegacyKeys() throws Exception {
+		String[][] inputs = new String[][]{
+			{"E50DBD", "Temperature", "1,22.04.2015 18:00:01,22.4735,3.510"},
+			{"E50DBD", "Temperature", ""},
+			{null, "Temperature", "2,22.04.2015 19:00:01,21.962"},
+			{"E50DBD", "T\u00E9mp\u00E9rature", "3,06.05.2015 10:18:45,\u2103 12"},
+			{"E50DBD", "Temp", "4,06.05.2015 10:18:45,\uD83C\uDF21"},
+			{"E50DBD", "Temp", "5,06.05.2015 10:18:45,\uD83C"},
+		};
+
+		ImportKeyHasher hasher = new ImportKeyHasher();
+		for(String[] input : inputs){
+			String legacyKey = computeLegacyKey(input[0], input[1], input[2]);
+			String key = hasher.computeImportKey(input[0], input[1], input[2]);
+
+			if( 36 != key.length() ){
+				fail("Unexpected key format: "+key);
+			}
+
+			// A legacy key must resolve to the new key
+			assertEquals(key, ImportKeys.normalize(legacyKey));
+			assertEquals(key, ImportKeys.normalize(key.toUpperCase()));
+		}
+
+		// Long lines grow the buffer
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<1000; ++i){
+			sb.append("12.5,");
+		}
+		String line = sb.toString();
+		assertEquals(
+			ImportKeys.normalize(computeLegacyKey("A", "B", line)), 
+			hasher.computeImportKey("A", "B", line)
+		);
+	}
+
+	public void testKeysFromBuffer() throws Exception {
+		String[] lines = new String[]{
+			"1,22.04.2015 18:00:01,22.4735,3.510",
+			"",
+			"3,06.05.2015 10:18:45,\u2103 12",
+			"4,06.05.2015 10:18:45,\uD83C\uDF21",
+			"5,06.05.2015 10:18:45,\uD83C",
+		};
+
+		ImportKeyHasher hasher = new ImportKeyHasher();
+		for(String line : lines){
+			// Line surrounded by other characters in the buffer
+			String padded = "xx" + line + "\uDF21yy";
+			char[] chars = padded.toCharArray();
+			assertEquals(
+				hasher.computeImportKey("E50DBD", "Temp", line), 
+				hasher.computeImportKey("E50DBD", "Temp", chars, 2, line.length())
+			);
+		}
+	}
+
+	public void testInvalidKeys() throws Exception {
+		String[] keys = new String[]{
+			"aaa",
+			"zzzzzzzz-zzzz-zzzz-zzzz-zzzzzzzzzzzz",
+			"AAAAAAAAAAAAAAAAAAAAA!==",
+		};
+		for(String key : keys){
+			try {
+				ImportKeys.normalize(key);
+				fail("Key should be rejected: "+key);
+			} catch(Exception e) {
+				// OK
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.carleton.gcrc.sensorDb.dbapi.Observation;
+import junit.framework.TestCase;
+
+public class ImportPipelineTest extends TestCase {
+
+	static private SampleReader createReader(int lineCount) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Logger: #E50BB3 'PT1000TEMP' - USP_EXP2 - (CGI) Expander for GP5W - (V2.7, Jan 12 2016)\r\n");
+		sb.append("Delta Time: 1341 secs\r\n");
+		sb.append("No,Time,#1:oC\r\n");
+		for(int i=1; i<=lineCount; ++i){
+			int minute = i % 60;
+			int hour = (i / 60) % 24;
+			sb.append(i+",01.06.2016 "
+				+(hour < 10 ? "0" : "")+hour+":"+(minute < 10 ? "0" : "")+minute+":17,"
+				+(i*0.5)+"\r\n");
+		}
+		return new SensorFileReader(new StringReader(sb.toString()));
+	}
+
+	static private ImportPipeline.SampleResolver createResolver() {
+		return new ImportPipeline.SampleResolver(){
+			@Override
+			public void resolve(Sample sample, ImportPipeline.ResolvedBatch batch) throws Exception {
+				Observation observation = new Observation();
+				observation.setNumericValue(sample.getValue());
+				// Samples of rows that are multiple of 10
+				if( Math.round(sample.getValue().doubleValue() * 2) % 10 == 0 ){
+					batch.getInTransitObservations().add(observation);
+				} else {
+					batch.getObservations().add(observation);
+				}
+			}
+		};
+	}
+
+	static private class ListWriter implements ImportPipeline.ObservationWriter {
+		List<Observation> observations = new ArrayList<Observation>();
+		int inTransitCount = 0;
+		boolean opened = false;
+		boolean finished = false;
+		boolean closed = false;
+		int failAfter = -1;
+
+		@Override
+		public void open() throws Exception {
+			opened = true;
+		}
+
+		@Override
+		public void write(ImportPipeline.ResolvedBatch batch) throws Exception {
+			if( failAfter >= 0 && observations.size() >= failAfter ){
+				throw new Exception("Write failed");
+			}
+			observations.addAll(batch.getObservations());
+			inTransitCount += batch.getInTransitObservations().size();
+		}
+
+		@Override
+		public void finish() throws Exception {
+			finished = true;
+		}
+
+		@Override
+		public void close() throws Exception {
+			closed = true;
+		}
+	}
+
+	public void testObservationsInOrder() throws Exception {
+		ImportPipeline pipeline = new ImportPipeline(7);
+		pipeline.setQueueCapacity(1);
+		ListWriter writer = new ListWriter();
+
+		SampleReader reader = createReader(1000);
+		try {
+			pipeline.run(reader, createResolver(), writer);
+		} finally {
+			reader.close();
+		}
+
+		if( false == writer.opened || false == writer.finished || false == writer.closed ){
+			fail("Writer not opened, finished and closed");
+		}
+		if( 900 != writer.observations.size() ){
+			fail("Unexpected number of observations: "+writer.observations.size());
+		}
+		if( 100 != writer.inTransitCount ){
+			fail("Unexpected number of in-transit observations: "+writer.inTransitCount);
+		}
+
+		// Rows not multiple of 10, in file order
+		int index = 0;
+		for(int i=1; i<=1000; ++i){
+			if( i % 10 != 0 ){
+				double expected = i * 0.5;
+				double value = writer.observations.get(index).getNumericValue().doubleValue();
+				if( expected != value ){
+					fail("Unexpected value at index "+index+": "+value);
+				}
+				++index;
+			}
+		}
+
+		for(ImportStageStatistics statistics : pipeline.getStatistics()){
+			if( 1000 != statistics.getItemCount() ){
+				fail("Unexpected item count for stage "+statistics);
+			}
+		}
+	}
+
+	public void testWriterFailure() throws Exception {
+		ImportPipeline pipeline = new ImportPipeline(10);
+		pipeline.setQueueCapacity(1);
+		ListWriter writer = new ListWriter();
+		writer.failAfter = 50;
+
+		SampleReader reader = createReader(10000);
+		try {
+			pipeline.run(reader, createResolver(), writer);
+			fail("Failure of the writer should be reported");
+		} catch(Exception e) {
+			if( false == "Write failed".equals(e.getMessage()) ){
+				fail("Unexpected error: "+e.getMessage());
+			}
+		} finally {
+			reader.close();
+		}
+
+		if( writer.finished || false == writer.closed ){
+			fail("Writer should be closed without finishing after failure");
+		}
+	}
+}
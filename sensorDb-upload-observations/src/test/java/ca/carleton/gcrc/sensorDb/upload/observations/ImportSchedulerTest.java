@@ -0,0 +1,257 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import ca.carleton.gcrc.sensorDb.dbapi.ImportJob;
+import ca.carleton.gcrc.sensorDb.dbapi.ImportRecord;
+import ca.carleton.gcrc.sensorDb.dbapi.memory.DbApiMemory;
+import junit.framework.TestCase;
+
+public class ImportSchedulerTest extends TestCase {
+
+	/**
+	 * Records the order of the imports and verifies that two files
+	 * for the same device are never imported at the same time.
+	 */
+	static private class RecordingImporter extends SensorFileImporter {
+
+		private Map<String,Integer> runningByDevice = new HashMap<String,Integer>();
+		private List<String> imported = new Vector<String>();
+		private int maxRunning = 0;
+		private int running = 0;
+		private boolean overlapDetected = false;
+
+		public RecordingImporter(DbApiMemory dbApi) throws Exception {
+			super(dbApi);
+		}
+
+		@Override
+		public ImportRecord importFile(ConversionRequest request) throws Exception {
+			String name = request.getFileToConvert().getName();
+			String device = name.substring(0, name.indexOf('-'));
+
+			synchronized(this){
+				Integer count = runningByDevice.get(device);
+				if( null != count && count.intValue() > 0 ){
+					overlapDetected = true;
+				}
+				runningByDevice.put(device, 1);
+				++running;
+				maxRunning = Math.max(maxRunning, running);
+			}
+
+			Thread.sleep(20);
+
+			synchronized(this){
+				runningByDevice.put(device, 0);
+				--running;
+				imported.add(name);
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Import that runs until it is interrupted
+	 */
+	static private class BlockingImporter extends SensorFileImporter {
+
+		private boolean started = false;
+
+		public BlockingImporter(DbApiMemory dbApi) throws Exception {
+			super(dbApi);
+		}
+
+		@Override
+		public ImportRecord importFile(ConversionRequest request) throws Exception {
+			synchronized(this){
+				started = true;
+				this.notifyAll();
+			}
+			Thread.sleep(60000);
+			return null;
+		}
+
+		public synchronized void waitForStart() throws Exception {
+			long deadline = System.currentTimeMillis() + 10000;
+			while( false == started && System.currentTimeMillis() < deadline ){
+				this.wait(100);
+			}
+		}
+	}
+
+	static private ConversionRequest createRequest(File dir, String serialNumber, int index) throws Exception {
+		File file = new File(dir, serialNumber+"-"+index+".txt");
+		FileOutputStream fos = new FileOutputStream(file);
+		OutputStreamWriter osw = new OutputStreamWriter(fos, "UTF-8");
+		osw.write("Logger: #"+serialNumber+" 'PT1000TEMP' - USP_EXP2 - (CGI) Expander for GP5W - (V2.7, Jan 12 2016)\n");
+		osw.write("No,Time,#1:oC\n");
+		osw.write("1,28.01.2016 15:40:00,-5\n");
+		osw.close();
+
+		ConversionRequest request = new ConversionRequest();
+		request.setFileToConvert(file);
+		request.setOriginalFileName(file.getName());
+		return request;
+	}
+
+	static private void waitForImports(ImportScheduler scheduler) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while( scheduler.getPendingCount() > 0 && System.currentTimeMillis() < deadline ){
+			Thread.sleep(10);
+		}
+	}
+
+	public void testPerDeviceOrdering() throws Exception {
+		File dir = TestSupport.getTestRunDir("importSchedulerOrdering");
+		DbApiMemory dbApi = new DbApiMemory();
+		RecordingImporter importer = new RecordingImporter(dbApi);
+		ImportScheduler scheduler = new ImportScheduler(dbApi, importer, 3, 20);
+
+		List<ConversionRequest> requests = new Vector<ConversionRequest>();
+		for(int i=0; i<4; ++i){
+			requests.add( createRequest(dir, "E5096D", i) );
+			requests.add( createRequest(dir, "E50BB3", i) );
+		}
+		scheduler.submit(requests);
+
+		waitForImports(scheduler);
+		scheduler.shutdown();
+
+		if( 8 != importer.imported.size() ){
+			fail("Expected 8 imports. Found: "+importer.imported.size());
+		}
+		if( importer.overlapDetected ){
+			fail("Two files for the same device were imported concurrently");
+		}
+		if( importer.maxRunning > 2 ){
+			fail("Only two devices should be imported concurrently");
+		}
+
+		// Order of submission is preserved for each device
+		int lastA = -1;
+		int lastB = -1;
+		for(String name : importer.imported){
+			int index = Integer.parseInt( name.substring(name.indexOf('-')+1, name.indexOf('.')) );
+			if( name.startsWith("E5096D") ){
+				if( index != lastA+1 ) fail("Unexpected order: "+importer.imported);
+				lastA = index;
+			} else {
+				if( index != lastB+1 ) fail("Unexpected order: "+importer.imported);
+				lastB = index;
+			}
+		}
+	}
+
+	public void testQueueFull() throws Exception {
+		File dir = TestSupport.getTestRunDir("importSchedulerFull");
+		DbApiMemory dbApi = new DbApiMemory();
+		RecordingImporter importer = new RecordingImporter(dbApi);
+		ImportScheduler scheduler = new ImportScheduler(dbApi, importer, 1, 2);
+
+		List<ConversionRequest> requests = new Vector<ConversionRequest>();
+		for(int i=0; i<3; ++i){
+			requests.add( createRequest(dir, "E5096D", i) );
+		}
+
+		try {
+			scheduler.submit(requests);
+			fail("Submission should be refused when the queue is full");
+		} catch(Exception e) {
+			// OK
+		}
+
+		// Nothing was accepted
+		if( 0 != scheduler.getPendingCount() ){
+			fail("Refused submission should not leave pending requests");
+		}
+
+		scheduler.shutdown();
+
+		try {
+			scheduler.submit(requests.subList(0, 1));
+			fail("Submission should be refused after shutdown");
+		} catch(Exception e) {
+			// OK
+		}
+	}
+
+	public void testResumeJobs() throws Exception {
+		File dir = TestSupport.getTestRunDir("importSchedulerResume");
+		DbApiMemory dbApi = new DbApiMemory();
+
+		// Jobs left behind by a previous run
+		ImportJob interruptedJob = ImportScheduler.createImportJob( createRequest(dir, "E5096D", 0) );
+		interruptedJob = dbApi.createImportJob(interruptedJob);
+		interruptedJob.setState(ImportJob.STATE_RUNNING);
+		dbApi.updateImportJob(interruptedJob);
+
+		ImportJob queuedJob = ImportScheduler.createImportJob( createRequest(dir, "E5096D", 1) );
+		queuedJob = dbApi.createImportJob(queuedJob);
+
+		ImportJob missingJob = ImportScheduler.createImportJob( createRequest(dir, "E50BB3", 0) );
+		missingJob.setFileName( new File(dir, "missing.txt").getAbsolutePath() );
+		missingJob = dbApi.createImportJob(missingJob);
+
+		RecordingImporter importer = new RecordingImporter(dbApi);
+		ImportScheduler scheduler = new ImportScheduler(dbApi, importer, 2, 1);
+		scheduler.resumeUnfinishedJobs();
+		waitForImports(scheduler);
+		scheduler.shutdown();
+
+		if( 2 != importer.imported.size() ){
+			fail("Expected 2 resumed imports. Found: "+importer.imported);
+		}
+		if( false == "E5096D-0.txt".equals(importer.imported.get(0)) ){
+			fail("Resumed jobs should be imported in creation order: "+importer.imported);
+		}
+
+		if( dbApi.getUnfinishedImportJobs().size() > 0 ){
+			fail("All jobs should be finished");
+		}
+		for(ImportJob importJob : dbApi.getImportJobs()){
+			String expected = ImportJob.STATE_DONE;
+			if( importJob.getId().equals(missingJob.getId()) ){
+				expected = ImportJob.STATE_FAILED;
+			}
+			if( false == expected.equals(importJob.getState()) ){
+				fail("Unexpected state for job "+importJob.getFileName()+": "+importJob.getState());
+			}
+		}
+	}
+
+	public void testShutdownDuringImport() throws Exception {
+		File dir = TestSupport.getTestRunDir("importSchedulerShutdown");
+		DbApiMemory dbApi = new DbApiMemory();
+		BlockingImporter importer = new BlockingImporter(dbApi);
+		ImportScheduler scheduler = new ImportScheduler(dbApi, importer, 1, 2);
+		scheduler.setShutdownTimeoutSeconds(0);
+
+		List<ConversionRequest> requests = new Vector<ConversionRequest>();
+		requests.add( createRequest(dir, "E5096D", 0) );
+		requests.add( createRequest(dir, "E5096D", 1) );
+		scheduler.submit(requests);
+
+		importer.waitForStart();
+		scheduler.shutdown();
+		waitForImports(scheduler);
+
+		// Both jobs are resumed on the next start
+		List<ImportJob> unfinishedJobs = dbApi.getUnfinishedImportJobs();
+		if( 2 != unfinishedJobs.size() ){
+			fail("Expected 2 unfinished jobs. Found: "+unfinishedJobs.size());
+		}
+		for(ImportJob importJob : unfinishedJobs){
+			if( null != importJob.getErrorMessage() ){
+				fail("Job interrupted by shutdown should not report an error: "+importJob.getErrorMessage());
+			}
+		}
+	}
+}
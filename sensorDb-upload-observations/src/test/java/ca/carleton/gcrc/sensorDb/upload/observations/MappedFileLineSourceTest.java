@@ -0,0 +1,124 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class MappedFileLineSourceTest extends TestCase {
+
+	// Lines as read before line sources were introduced: carriage
+	// returns removed, then lines split by BufferedReader
+	static private List<String> readExpectedLines(byte[] content) throws Exception {
+		InputStreamReader isr = new InputStreamReader(new ByteArrayInputStream(content), "UTF-8");
+		StringBuilder sb = new StringBuilder();
+		int c = isr.read();
+		while( c >= 0 ){
+			if( '\r' != c ){
+				sb.append((char)c);
+			}
+			c = isr.read();
+		}
+		BufferedReader reader = new BufferedReader(new StringReader(sb.toString()));
+		List<String> lines = new ArrayList<String>();
+		String line = reader.readLine();
+		while( null != line ){
+			lines.add(line);
+			line = reader.readLine();
+		}
+		return lines;
+	}
+
+	static private List<String> readLines(LineSource lineSource) throws Exception {
+		List<String> lines = new ArrayList<String>();
+		try {
+			while( lineSource.readLine() ){
+				lines.add( new String(lineSource.getLineChars(), 0, lineSource.getLineLength()) );
+			}
+		} finally {
+			lineSource.close();
+		}
+		return lines;
+	}
+
+	static private File writeFile(byte[] content) throws Exception {
+		File file = File.createTempFile("sensorDb-test-", ".txt");
+		file.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(content);
+		} finally {
+			fos.close();
+		}
+		return file;
+	}
+
+	public void testSameLinesAsReader() throws Exception {
+		StringBuilder longLine = new StringBuilder();
+		for(int i=0; i<100; ++i){
+			longLine.append("12.5,");
+		}
+
+		String[] inputs = new String[]{
+			"",
+			"\n",
+			"\r",
+			"abc",
+			"abc\n",
+			"abc\r\n\r",
+			"Logger: #E50AA2 'T2NODE_STR'\r\r\nNo,Time,#1:oC\r\r\n1,06.05.2015 10:18:45,21.6816\r\r\n",
+			"a\n\nb\r\n\r\nc",
+			"1,06.05.2015 10:18:45,\u2103 12\r\n2,06.05.2015 10:18:45,21.5\n",
+			longLine + "\n" + longLine + "\r\n" + longLine,
+		};
+
+		for(String input : inputs){
+			byte[] content = input.getBytes("UTF-8");
+			List<String> expected = readExpectedLines(content);
+			File file = writeFile(content);
+			try {
+				assertEquals(expected, readLines(new MappedFileLineSource(file)));
+
+				// Small windows force lines to cross window boundaries
+				assertEquals(expected, readLines(new MappedFileLineSource(file, 700)));
+
+				assertEquals(expected, readLines(new ReaderLineSource(
+					new InputStreamReader(new ByteArrayInputStream(content), "UTF-8")
+				)));
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	public void testMalformedInput() throws Exception {
+		byte[] content = new byte[]{ 'a', (byte)0xc3, '\n', (byte)0xff, 'b', '\r', '\n' };
+		List<String> expected = readExpectedLines(content);
+		File file = writeFile(content);
+		try {
+			assertEquals(expected, readLines(new MappedFileLineSource(file)));
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testLineLongerThanWindow() throws Exception {
+		File file = writeFile("0123456789\n0123456789\n".getBytes("UTF-8"));
+		LineSource lineSource = new MappedFileLineSource(file, 8);
+		try {
+			lineSource.readLine();
+			fail("Line longer than the window should be reported");
+		} catch(Exception e) {
+			// OK
+		} finally {
+			lineSource.close();
+			file.delete();
+		}
+	}
+}
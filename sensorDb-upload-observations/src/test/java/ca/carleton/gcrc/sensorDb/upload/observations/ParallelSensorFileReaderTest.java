@@ -0,0 +1,154 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+public class ParallelSensorFileReaderTest extends TestCase {
+
+	static private File writeFile(String content) throws Exception {
+		File file = File.createTempFile("sensorDb-test-", ".txt");
+		file.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(content.getBytes("UTF-8"));
+		} finally {
+			fos.close();
+		}
+		return file;
+	}
+
+	static private String createInput(int lineCount) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Logger: #E50BB3 'PT1000TEMP' - USP_EXP2 - (CGI) Expander for GP5W - (V2.7, Jan 12 2016)\r\n");
+		sb.append("Delta Time: 1341 secs\r\n");
+		sb.append("No,Time,#1:oC,#HK-Bat:V,#HK-Temp:oC\r\n");
+		for(int i=1; i<=lineCount; ++i){
+			int minute = i % 60;
+			int hour = (i / 60) % 24;
+			int day = 1 + ((i / 1440) % 28);
+			sb.append(i+","+(day < 10 ? "0" : "")+day+".06.2016 "
+				+(hour < 10 ? "0" : "")+hour+":"+(minute < 10 ? "0" : "")+minute+":17,");
+			if( i % 7 == 0 ){
+				sb.append("(Parameter changed)");
+			} else if( i % 5 == 0 ){
+				sb.append(""+(i*0.25));
+			} else {
+				sb.append(""+(i*0.5)+",3.604,22."+(i%100));
+			}
+			sb.append("\r\n");
+			if( i % 11 == 0 ){
+				sb.append("(Firmware reset)\r\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	public void testSameSamples() throws Exception {
+		String input = createInput(500);
+		File file = writeFile(input);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			// Chunks smaller than a line, of about a line and of many lines
+			int[] chunkSizes = new int[]{ 7, 41, 1000, 100000 };
+			for(int chunkSize : chunkSizes){
+				SensorFileReader expectedReader = new SensorFileReader(new StringReader(input));
+				ParallelSensorFileReader reader = new ParallelSensorFileReader(file, pool, chunkSize);
+				try {
+					assertEquals(expectedReader.getDeviceSerialNumber(), reader.getDeviceSerialNumber());
+					assertEquals(expectedReader.getDeltaTimeInSecs(), reader.getDeltaTimeInSecs());
+					assertEquals(expectedReader.getColumns().size(), reader.getColumns().size());
+
+					int count = 0;
+					Sample expected = expectedReader.read();
+					while( null != expected ){
+						Sample sample = reader.read();
+						if( null == sample ){
+							fail("Missing sample with chunk size "+chunkSize+": "+expected);
+						}
+						assertEquals(expected.getTime(), sample.getTime());
+						assertEquals(expected.getColumn().getName(), sample.getColumn().getName());
+						assertEquals(expected.getValue(), sample.getValue());
+						assertEquals(expected.getText(), sample.getText());
+						assertEquals(expected.getLineNumber(), sample.getLineNumber());
+						assertEquals(expected.getImportKey(), sample.getImportKey());
+
+						++count;
+						expected = expectedReader.read();
+					}
+					if( null != reader.read() ){
+						fail("Unexpected sample with chunk size "+chunkSize);
+					}
+					if( count < 1000 ){
+						fail("Too few samples: "+count);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		} finally {
+			pool.shutdown();
+			file.delete();
+		}
+	}
+
+	public void testTimeBounds() throws Exception {
+		String input = createInput(3000);
+		File file = writeFile(input);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			// Some samples read before the bounds
+			SensorFileReader expectedReader = new SensorFileReader(new StringReader(input));
+			for(int i=0; i<10; ++i){
+				expectedReader.read();
+			}
+			TimeBounds expected = expectedReader.readTimeBounds();
+
+			ParallelSensorFileReader reader = new ParallelSensorFileReader(file, pool, 1000);
+			try {
+				for(int i=0; i<10; ++i){
+					reader.read();
+				}
+				TimeBounds timeBounds = reader.readTimeBounds();
+				assertEquals(expected.getStartTime(), timeBounds.getStartTime());
+				assertEquals(expected.getEndTime(), timeBounds.getEndTime());
+			} finally {
+				reader.close();
+			}
+		} finally {
+			pool.shutdown();
+			file.delete();
+		}
+	}
+
+	public void testErrorLineNumber() throws Exception {
+		String input = createInput(200) + "201,01.06.2016 10:00:00,1,2,3,4,5,6\r\n";
+		File file = writeFile(input);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			String expectedMessage = null;
+			try {
+				new SensorFileReader(new StringReader(input)).readTimeBounds();
+				fail("Error expected");
+			} catch(Exception e) {
+				expectedMessage = e.getMessage();
+			}
+
+			ParallelSensorFileReader reader = new ParallelSensorFileReader(file, pool, 100);
+			try {
+				reader.readTimeBounds();
+				fail("Error expected");
+			} catch(Exception e) {
+				assertEquals(expectedMessage, e.getMessage());
+			} finally {
+				reader.close();
+			}
+		} finally {
+			pool.shutdown();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class SampleLineTokenizerTest extends TestCase {
+
+	// Regular expressions previously used by SensorFileReader
+	static private Pattern patternIgnoreLine = Pattern.compile("^\\(.*\\)\\s*$");
+	static private Pattern patternTextNumber = Pattern.compile("^\\s*-?[0-9]+(\\.[0-9]+)?([eE][+-]?[0-9]+)?\\s*$");
+	static private Pattern patternIgnoreValue = Pattern.compile("^\\s*\\(.*\\)\\s*$");
+	static private Pattern patternIgnoreValue2 = Pattern.compile("^\\s*$");
+
+	private void verifyLine(SampleLineTokenizer tokenizer, String line) {
+		tokenizer.reset(line);
+
+		boolean expectedIgnoreLine = patternIgnoreLine.matcher(line).matches();
+		if( expectedIgnoreLine != tokenizer.isIgnoredLine() ){
+			fail("Ignored line differs for: '"+line+"'");
+		}
+
+		String[] fields = line.split(",");
+		if( fields.length != tokenizer.getFieldCount() ){
+			fail("Field count differs for: '"+line+"' expected "+fields.length
+				+" found "+tokenizer.getFieldCount());
+		}
+
+		for(int i=0; i<fields.length; ++i){
+			String field = fields[i];
+			String actualField = new String(
+					tokenizer.getChars(),
+					tokenizer.getFieldStart(i),
+					tokenizer.getFieldEnd(i) - tokenizer.getFieldStart(i)
+					);
+			assertEquals(field, actualField);
+
+			boolean expectedIgnore = patternIgnoreValue.matcher(field).matches()
+					|| patternIgnoreValue2.matcher(field).matches();
+			if( expectedIgnore != tokenizer.isIgnoredValue(i) ){
+				fail("Ignored value differs for: '"+field+"'");
+			}
+			if( expectedIgnore ){
+				continue;
+			}
+
+			Double actual = tokenizer.getNumber(i);
+			if( patternTextNumber.matcher(field).matches() ){
+				double expected = Double.parseDouble(field.trim());
+				if( null == actual ){
+					fail("Number expected for: '"+field+"'");
+				}
+				if( Double.doubleToLongBits(expected) != Double.doubleToLongBits(actual.doubleValue()) ){
+					fail("Value differs for: '"+field+"' expected "+expected+" found "+actual);
+				}
+			} else {
+				if( null != actual ){
+					fail("Text expected for: '"+field+"'");
+				}
+				assertEquals(field.trim(), tokenizer.getTrimmedText(i));
+			}
+		}
+	}
+
+	public void testSplitAndClassify() throws Exception {
+		String[] lines = new String[]{
+			"",
+			",",
+			",,,",
+			"1,22.04.2015 18:00:01,22.4735,3.510",
+			"2,22.04.2015 19:00:01,21.962,",
+			"2,22.04.2015 19:00:01,,3.5,,",
+			",22.04.2015 19:00:01",
+			"(Parameter changed)",
+			"(Parameter changed)  ",
+			" (Parameter changed)",
+			"(a)b",
+			"3,06.05.2015 10:18:45, (Error) ,  ,\t",
+			"4,06.05.2015 10:18:45,(unclosed,)",
+			"5,06.05.2015 10:18:45,-7.24792e-05,-7.24792E+05,7e5,-0",
+			"6,06.05.2015 10:18:45,1.,.5,-,e5,1e,1.5e+,--1",
+			"7,06.05.2015 10:18:45, 12 ,abc, text value ,0.000000000000000000001234",
+			"8,06.05.2015 10:18:45,123456789012345678901234,9007199254740993,1e23,1e-23",
+			"9,06.05.2015 10:18:45,4.9e-324,1.7976931348623157e308,1e400,0000000000000000000012.5"
+		};
+
+		SampleLineTokenizer tokenizer = new SampleLineTokenizer();
+		for(String line : lines){
+			verifyLine(tokenizer, line);
+		}
+	}
+
+	public void testRandomNumbers() throws Exception {
+		Random random = new Random(4321);
+		SampleLineTokenizer tokenizer = new SampleLineTokenizer();
+
+		for(int i=0; i<20000; ++i){
+			StringBuilder sb = new StringBuilder();
+			if( random.nextBoolean() ){
+				sb.append('-');
+			}
+			sb.append( random.nextInt(100000) );
+			if( random.nextBoolean() ){
+				sb.append('.');
+				int digits = 1 + random.nextInt(12);
+				for(int j=0; j<digits; ++j){
+					sb.append( (char)('0' + random.nextInt(10)) );
+				}
+			}
+			if( random.nextInt(4) == 0 ){
+				sb.append('e');
+				sb.append( random.nextBoolean() ? '-' : '+' );
+				sb.append( random.nextInt(30) );
+			}
+
+			verifyLine(tokenizer, "1,01.01.2016 00:00:00,"+sb.toString());
+		}
+	}
+}
@@ -137,4 +137,31 @@ public class SensorDeviceHistoryTest extends TestCase {
 		}
 
 	}
+
+	public void testReconfigurationBoundaries() throws Exception {
+		DeviceSensorHistory deviceSensorHistory = new DeviceSensorHistory(deviceSensors, sensors);
+
+		// A configuration applies from its date, inclusively
+		Date justBefore = new Date(swapSensors2017.getTime() - 1);
+		Sensor sensorBefore = deviceSensorHistory.getSensorAtTimestamp("#1:oC", justBefore);
+		Sensor sensorAt = deviceSensorHistory.getSensorAtTimestamp("#1:oC", swapSensors2017);
+		assertSame(sensors.get(0), sensorBefore);
+		assertSame(sensors.get(2), sensorAt);
+
+		Sensor sensorAtDeployment = deviceSensorHistory.getSensorAtTimestamp("#1:oC", initialDeviceDeployment);
+		assertSame(sensors.get(0), sensorAtDeployment);
+
+		// Going back in time after a later lookup
+		Sensor sensorAgain = deviceSensorHistory.getSensorAtTimestamp("#1:oC", targetDate);
+		assertSame(sensors.get(0), sensorAgain);
+
+		// Before the first configuration
+		try {
+			Date beforeDeployment = new Date(initialDeviceDeployment.getTime() - 1);
+			deviceSensorHistory.getSensorAtTimestamp("#1:oC", beforeDeployment);
+			fail("Expect exception when asking for a sensor before deployment");
+		} catch(Exception e){
+			// OK
+		}
+	}
 }
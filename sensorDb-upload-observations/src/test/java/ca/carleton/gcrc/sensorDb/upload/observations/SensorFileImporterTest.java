@@ -11,14 +11,16 @@ import ca.carleton.gcrc.sensorDb.dbapi.DeviceSensor;
 import ca.carleton.gcrc.sensorDb.dbapi.ImportRecord;
 import ca.carleton.gcrc.sensorDb.dbapi.Location;
 import ca.carleton.gcrc.sensorDb.dbapi.Observation;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationBucket;
 import ca.carleton.gcrc.sensorDb.dbapi.ObservationReader;
+import ca.carleton.gcrc.sensorDb.dbapi.ObservationRollup;
 import ca.carleton.gcrc.sensorDb.dbapi.Sensor;
 import ca.carleton.gcrc.sensorDb.dbapi.memory.DbApiMemory;
 import junit.framework.TestCase;
 
 public class SensorFileImporterTest extends TestCase {
 
-	public void testDeltaTimeLine() throws Exception {
+	static private ConversionRequest createDeltaConversionRequest() throws Exception {
 		File testFile = TestSupport.findResourceFile("sensor.delta.txt");
 		
 		ConversionRequest conversionRequest = new ConversionRequest();
@@ -28,7 +30,30 @@ public class SensorFileImporterTest extends TestCase {
 		conversionRequest.setInitialOffset(0);
 		conversionRequest.setFinalOffset(100);
 		
-		DbApiMemory dbApi = new DbApiMemory();
+		return conversionRequest;
+	}
+
+	/**
+	 * Fails to insert observations once a number of batches were inserted
+	 */
+	static private class FailingDbApi extends DbApiMemory {
+		int remainingBatches = Integer.MAX_VALUE;
+
+		@Override
+		public int createObservations(List<Observation> observations) throws Exception {
+			if( remainingBatches < 1 ){
+				throw new Exception("Insert failed");
+			}
+			--remainingBatches;
+			return super.createObservations(observations);
+		}
+	}
+
+	static private DbApiMemory createDeltaDatabase() throws Exception {
+		return createDeltaDatabase(new DbApiMemory());
+	}
+
+	static private DbApiMemory createDeltaDatabase(DbApiMemory dbApi) throws Exception {
 		
 		// Populate with appropriate devices and sensors
 		Device device = null;
@@ -79,6 +104,25 @@ public class SensorFileImporterTest extends TestCase {
 			dbApi.createDeviceSensor(deviceSensor);
 		}
 		
+		return dbApi;
+	}
+	
+	static private int countObservations(DbApiMemory dbApi, String importId) throws Exception {
+		int count = 0;
+		ObservationReader obsReader = dbApi.getObservationsFromImportId(importId);
+		Observation observation = obsReader.read();
+		while( null != observation ){
+			++count;
+			observation = obsReader.read();
+		}
+		obsReader.close();
+		return count;
+	}
+
+	public void testDeltaTimeLine() throws Exception {
+		ConversionRequest conversionRequest = createDeltaConversionRequest();
+		DbApiMemory dbApi = createDeltaDatabase();
+		
 		SensorFileImporter importer = new SensorFileImporter(dbApi);
 		ImportRecord importRecord = importer.importFile(conversionRequest);
 		
@@ -104,5 +148,160 @@ public class SensorFileImporterTest extends TestCase {
 			fail("Delta time specified in file was not respected");
 		}
 	}
-	
+
+	public void testBatchedImport() throws Exception {
+		DbApiMemory dbApi = createDeltaDatabase();
+		
+		SensorFileImporter importer = new SensorFileImporter(dbApi);
+		importer.setBatchSize(1);
+		
+		ImportRecord firstImport = importer.importFile( createDeltaConversionRequest() );
+		if( 2 != countObservations(dbApi, firstImport.getId()) ){
+			fail("Unexpected number of observations inserted");
+		}
+		
+		// Importing the same file again should only produce collisions
+		ImportRecord secondImport = importer.importFile( createDeltaConversionRequest() );
+		if( 0 != countObservations(dbApi, secondImport.getId()) ){
+			fail("Observations from a second import should collide with the first");
+		}
+		
+		// Rollups count the observations inserted once
+		long rollupCount = 0;
+		for(Sensor sensor : dbApi.getSensors()){
+			for(ObservationRollup rollup : dbApi.getObservationRollups(sensor.getId(), ObservationBucket.DAY_MS)){
+				rollupCount += rollup.getCount();
+			}
+		}
+		if( 2 != rollupCount ){
+			fail("Unexpected number of observations in rollups: "+rollupCount);
+		}
+	}
+
+	public void testCopyIngestMode() throws Exception {
+		DbApiMemory dbApi = createDeltaDatabase();
+		
+		ConversionRequest conversionRequest = createDeltaConversionRequest();
+		conversionRequest.setIngestMode(IngestMode.COPY);
+		
+		SensorFileImporter importer = new SensorFileImporter(dbApi);
+		ImportRecord importRecord = importer.importFile(conversionRequest);
+		if( 2 != countObservations(dbApi, importRecord.getId()) ){
+			fail("Unexpected number of observations copied");
+		}
+	}
+
+	public void testAllOrNothing() throws Exception {
+		FailingDbApi dbApi = new FailingDbApi();
+		createDeltaDatabase(dbApi);
+		dbApi.remainingBatches = 1;
+		
+		ConversionRequest conversionRequest = createDeltaConversionRequest();
+		conversionRequest.setTransactionMode(TransactionMode.ALL_OR_NOTHING);
+		
+		SensorFileImporter importer = new SensorFileImporter(dbApi);
+		importer.setBatchSize(1);
+		importer.setCommitInterval(1);
+		try {
+			importer.importFile(conversionRequest);
+			fail("Import should fail");
+		} catch(Exception e) {
+			// Expected
+		}
+		
+		if( 0 != countObservations(dbApi, conversionRequest.getImportId()) ){
+			fail("Observations of a failed import should be rolled back");
+		}
+		for(Sensor sensor : dbApi.getSensors()){
+			if( dbApi.getObservationRollups(sensor.getId(), ObservationBucket.DAY_MS).size() > 0 ){
+				fail("Rollups of a failed import should be rolled back");
+			}
+		}
+	}
+
+	public void testChunkCommitResume() throws Exception {
+		FailingDbApi dbApi = new FailingDbApi();
+		createDeltaDatabase(dbApi);
+		dbApi.remainingBatches = 1;
+		
+		ConversionRequest conversionRequest = createDeltaConversionRequest();
+		conversionRequest.setTransactionMode(TransactionMode.CHUNK_COMMIT);
+		
+		SensorFileImporter importer = new SensorFileImporter(dbApi);
+		importer.setBatchSize(1);
+		importer.setCommitInterval(1);
+		try {
+			importer.importFile(conversionRequest);
+			fail("Import should fail");
+		} catch(Exception e) {
+			// Expected
+		}
+		
+		// First line committed
+		String importId = conversionRequest.getImportId();
+		if( 1 != countObservations(dbApi, importId) ){
+			fail("Observations of the first chunk should be committed");
+		}
+		int lastLine = dbApi.getImportRecordFromImportId(importId).getImportParameters()
+				.optInt(SensorFileImporter.LAST_COMMITTED_LINE_PARAM, 0);
+		if( 4 != lastLine ){
+			fail("Unexpected last committed line: "+lastLine);
+		}
+		
+		// Resumed in the same import record, after the committed line
+		dbApi.remainingBatches = Integer.MAX_VALUE;
+		ImportRecord importRecord = importer.importFile(conversionRequest);
+		if( false == importId.equals(importRecord.getId()) ){
+			fail("Import should resume in the same import record");
+		}
+		if( 2 != countObservations(dbApi, importId) ){
+			fail("Unexpected number of observations after resuming");
+		}
+		lastLine = dbApi.getImportRecordFromImportId(importId).getImportParameters()
+				.optInt(SensorFileImporter.LAST_COMMITTED_LINE_PARAM, 0);
+		if( 5 != lastLine ){
+			fail("Unexpected last committed line after resuming: "+lastLine);
+		}
+	}
+
+	public void testDeviceContextCache() throws Exception {
+		DbApiMemory dbApi = createDeltaDatabase();
+		DeviceContextCache cache = new DeviceContextCache(dbApi);
+
+		DeviceContext context1 = cache.getDeviceContext("E509EC");
+		if( null == context1 ){
+			fail("Device context should be found");
+		}
+		if( 2 != context1.getSensorLabels().size() ){
+			fail("Expected 2 sensor labels");
+		}
+
+		// Second request is served from the cache
+		DeviceContext context2 = cache.getDeviceContext("E509EC");
+		if( context1 != context2 ){
+			fail("Device context should be cached");
+		}
+
+		// Moving the device invalidates the context
+		{
+			Location location = new Location();
+			location.setGeometry("POINT(1 1)");
+			location.setRecordingObservations(true);
+			location = dbApi.createLocation(location);
+
+			DeviceLocation deviceLocation = new DeviceLocation();
+			deviceLocation.setDeviceId( context1.getDevice().getId() );
+			deviceLocation.setLocationId( location.getId() );
+			deviceLocation.setTimestamp( DateUtils.parseUtcString("01.06.2016 01:00:00") );
+			dbApi.createDeviceLocation(deviceLocation);
+		}
+		DeviceContext context3 = cache.getDeviceContext("E509EC");
+		if( context1 == context3 ){
+			fail("Device context should be reloaded after metadata changes");
+		}
+
+		if( null != cache.getDeviceContext("UNKNOWN") ){
+			fail("No context expected for an unknown device");
+		}
+	}
 }
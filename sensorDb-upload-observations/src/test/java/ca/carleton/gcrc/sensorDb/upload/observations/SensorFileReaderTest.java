@@ -321,4 +321,32 @@ public class SensorFileReaderTest extends TestCase {
 			fail("Delta Time should not be detected");
 		}
 	}
+
+	public void testTimeBounds() throws Exception {
+		String input = "Logger: #E509EC 'PT1000TEMP' - USP_EXP2 - (CGI) Expander for GP5W - (V2.7, Jan 12 2016)\n"
+				+"No,Time,#1:oC,#HK-Bat:V\n"
+				+"1,28.01.2016 15:50:00,1\n"
+				+"2,28.01.2016 15:40:00,1.1\n"
+				+"(Parameter line)\n"
+				+"3,28.01.2016 16:10:00\n"
+				+"4,28.01.2016 16:00:00,(NO REPLY),3.6\n"
+				;
+
+		StringReader sr = new StringReader(input);
+		SensorFileReader sensorReader = new SensorFileReader(sr);
+		
+		TimeBounds timeBounds = sensorReader.readTimeBounds();
+		
+		// Line without values does not count
+		if( timeBounds.getStartTime().getTime() != DateUtils.parseUtcString("28.01.2016 15:40:00").getTime() ){
+			fail("Unexpected start time");
+		}
+		if( timeBounds.getEndTime().getTime() != DateUtils.parseUtcString("28.01.2016 16:00:00").getTime() ){
+			fail("Unexpected end time");
+		}
+		
+		if( null != sensorReader.read() ){
+			fail("No sample should be available after reading time bounds");
+		}
+	}
 }
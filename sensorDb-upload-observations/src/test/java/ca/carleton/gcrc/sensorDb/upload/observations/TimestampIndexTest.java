@@ -0,0 +1,107 @@
+package ca.carleton.gcrc.sensorDb.upload.observations;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TimestampIndexTest extends TestCase {
+
+	// Reference implementations: linear scans, as previously
+	// done by DeviceLocator and DeviceSensorHistory
+	static private int naiveLastBefore(long[] times, long time) {
+		int index = -1;
+		for(int i=0; i<times.length; ++i){
+			if( times[i] < time ){
+				index = i;
+			}
+		}
+		return index;
+	}
+
+	static private int naiveLastAtOrBefore(long[] times, long time) {
+		int index = -1;
+		for(int i=0; i<times.length; ++i){
+			if( times[i] <= time ){
+				index = i;
+			}
+		}
+		return index;
+	}
+
+	static private long[] randomTimes(Random random, int count) {
+		long[] times = new long[count];
+		for(int i=0; i<count; ++i){
+			// Small range to get duplicates
+			times[i] = random.nextInt(50) * 10;
+		}
+		Arrays.sort(times);
+		return times;
+	}
+
+	private void verify(long[] times, long[] queries) {
+		TimestampIndex strictIndex = new TimestampIndex(times);
+		TimestampIndex inclusiveIndex = new TimestampIndex(times);
+		for(long query : queries){
+			int expected = naiveLastBefore(times, query);
+			int actual = strictIndex.lastBefore(query);
+			if( expected != actual ){
+				fail("lastBefore("+query+") on "+Arrays.toString(times)
+					+": expected "+expected+" found "+actual);
+			}
+
+			expected = naiveLastAtOrBefore(times, query);
+			actual = inclusiveIndex.lastAtOrBefore(query);
+			if( expected != actual ){
+				fail("lastAtOrBefore("+query+") on "+Arrays.toString(times)
+					+": expected "+expected+" found "+actual);
+			}
+		}
+	}
+
+	public void testBoundaries() throws Exception {
+		long[] times = new long[]{ 100, 200, 200, 300 };
+
+		TimestampIndex index = new TimestampIndex(times);
+		assertEquals(-1, index.lastBefore(100));
+		assertEquals(0, index.lastAtOrBefore(100));
+		assertEquals(0, index.lastBefore(200));
+		assertEquals(2, index.lastAtOrBefore(200));
+		assertEquals(2, index.lastBefore(300));
+		assertEquals(3, index.lastAtOrBefore(300));
+		assertEquals(3, index.lastBefore(301));
+		assertEquals(-1, index.lastAtOrBefore(99));
+
+		TimestampIndex empty = new TimestampIndex(new long[0]);
+		assertEquals(-1, empty.lastBefore(0));
+		assertEquals(-1, empty.lastAtOrBefore(0));
+	}
+
+	public void testIncreasingQueries() throws Exception {
+		Random random = new Random(1234);
+		for(int trial=0; trial<200; ++trial){
+			long[] times = randomTimes(random, random.nextInt(12));
+
+			long[] queries = new long[100];
+			for(int i=0; i<queries.length; ++i){
+				queries[i] = (i * 5) - 5;
+			}
+
+			verify(times, queries);
+		}
+	}
+
+	public void testRandomQueries() throws Exception {
+		Random random = new Random(5678);
+		for(int trial=0; trial<200; ++trial){
+			long[] times = randomTimes(random, random.nextInt(12));
+
+			long[] queries = new long[100];
+			for(int i=0; i<queries.length; ++i){
+				queries[i] = random.nextInt(520) - 10;
+			}
+
+			verify(times, queries);
+		}
+	}
+}
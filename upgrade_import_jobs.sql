@@ -0,0 +1,22 @@
+--- Queue of observation file imports, kept across restarts of the server
+
+CREATE TABLE public.import_jobs(
+	id uuid NOT NULL DEFAULT uuid_generate_v4(),
+	state varchar NOT NULL,
+	filename varchar NOT NULL,
+	original_filename varchar,
+	job_parameters text,
+	created_time timestamp WITH TIME ZONE NOT NULL,
+	started_time timestamp WITH TIME ZONE,
+	ended_time timestamp WITH TIME ZONE,
+	import_id uuid,
+	error_message text,
+	CONSTRAINT import_jobs_pk PRIMARY KEY (id)
+
+);
+ALTER TABLE public.import_jobs OWNER TO observations_admin;
+
+CREATE INDEX import_jobs_created_time_idx ON public.import_jobs (created_time);
+
+GRANT SELECT, INSERT, UPDATE, DELETE on import_jobs to observations_write;
+GRANT SELECT on import_jobs to observations_read;
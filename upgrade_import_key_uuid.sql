@@ -0,0 +1,18 @@
+--- Converts the import keys of existing observations from Base64 text
+--- to uuid. Both forms hold the same MD5 digest, so keys computed for
+--- lines that were already imported remain identical. The index on
+--- import_key is rebuilt by the conversion.
+
+BEGIN;
+
+ALTER TABLE public.observations
+    ALTER COLUMN import_key TYPE uuid
+    USING (
+        CASE
+            WHEN import_key IS NULL THEN NULL
+            WHEN length(import_key) = 24 THEN encode(decode(import_key, 'base64'), 'hex')::uuid
+            ELSE import_key::uuid
+        END
+    );
+
+COMMIT;
@@ -0,0 +1,10 @@
+--- Indexes used by observation queries. Queries select observations by
+--- sensor or device and page through them ordered by (corrected_utc_time, id).
+
+CREATE INDEX observations_sensor_time ON observations USING btree (sensor_id, corrected_utc_time, id);
+
+CREATE INDEX observations_device_time ON observations USING btree (device_id, corrected_utc_time, id);
+
+DROP INDEX observations_corrected_utc_time;
+
+CREATE INDEX observations_corrected_utc_time ON observations USING btree (corrected_utc_time, id);
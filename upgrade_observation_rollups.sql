@@ -0,0 +1,41 @@
+--- Hourly and daily summaries of numeric values, per sensor
+
+CREATE TABLE public.observations_hourly(
+	sensor_id uuid NOT NULL,
+	device_id uuid NOT NULL,
+	start_time timestamp WITH TIME ZONE NOT NULL,
+	value_count bigint NOT NULL,
+	min_value double precision,
+	max_value double precision,
+	sum_value double precision,
+	first_time timestamp WITH TIME ZONE,
+	last_time timestamp WITH TIME ZONE,
+	CONSTRAINT observations_hourly_pk PRIMARY KEY (sensor_id, start_time)
+);
+ALTER TABLE public.observations_hourly OWNER TO observations_admin;
+
+CREATE INDEX observations_hourly_device_idx ON public.observations_hourly (device_id, start_time);
+
+CREATE TABLE public.observations_daily(
+	sensor_id uuid NOT NULL,
+	device_id uuid NOT NULL,
+	start_time timestamp WITH TIME ZONE NOT NULL,
+	value_count bigint NOT NULL,
+	min_value double precision,
+	max_value double precision,
+	sum_value double precision,
+	first_time timestamp WITH TIME ZONE,
+	last_time timestamp WITH TIME ZONE,
+	CONSTRAINT observations_daily_pk PRIMARY KEY (sensor_id, start_time)
+);
+ALTER TABLE public.observations_daily OWNER TO observations_admin;
+
+CREATE INDEX observations_daily_device_idx ON public.observations_daily (device_id, start_time);
+
+GRANT SELECT, INSERT, UPDATE, DELETE on observations_hourly to observations_write;
+GRANT SELECT, INSERT, UPDATE, DELETE on observations_daily to observations_write;
+GRANT SELECT on observations_hourly to observations_read;
+GRANT SELECT on observations_daily to observations_read;
+
+--- Then fill the tables from existing observations with:
+---   sensorDb --server-dir <dir> rebuildRollups